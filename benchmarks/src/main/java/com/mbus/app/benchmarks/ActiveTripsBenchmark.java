@@ -0,0 +1,126 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.utils.BusPositionCalculator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finding the trips running at each minute of a weekday through the
+ * per-line {@link com.mbus.app.model.TripIndex}, against the scan of every
+ * trip it replaced, plus the whole {@link BusPositionCalculator} query
+ * built on it.
+ */
+final class ActiveTripsBenchmark {
+
+    private static final String TAG = "Benchmark";
+
+    // BusPositionCalculator's dwell time at the last stop
+    private static final float END_PADDING = 0.05f;
+    private static final int ROUNDS = 5;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    // Keeps the timed loops from being optimized away
+    static volatile long sink;
+
+    private ActiveTripsBenchmark() {
+    }
+
+    static void run(BenchmarkData data, int[] scales) {
+        for (int scale : scales) {
+            List<BusLine> lines = data.linesWithSchedules(scale);
+            ServiceDay day = data.weekday;
+
+            long indexStart = System.nanoTime();
+            for (BusLine line : lines) {
+                line.getTripIndex(day);
+            }
+            long indexNanos = System.nanoTime() - indexStart;
+
+            List<BusSchedule> out = new ArrayList<BusSchedule>();
+
+            // Same answers first, so the timings compare like with like
+            long found = 0L;
+            for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                float time = minute + 0.5f;
+                int indexed = indexed(lines, day, time, out);
+                int scanned = scanned(lines, day, time);
+                if (indexed != scanned) {
+                    Gdx.app.error(TAG, "active-trips: index found " + indexed + ", scan " + scanned +
+                        " at minute " + minute);
+                    return;
+                }
+                found += indexed;
+            }
+
+            long indexBest = Long.MAX_VALUE;
+            long scanBest = Long.MAX_VALUE;
+            long calculatorBest = Long.MAX_VALUE;
+            long total = 0L;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                    total += indexed(lines, day, minute + 0.5f, out);
+                }
+                indexBest = Math.min(indexBest, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                    total += scanned(lines, day, minute + 0.5f);
+                }
+                scanBest = Math.min(scanBest, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+                    total += BusPositionCalculator.getActiveBusesAtTime(lines, minute + 0.5f, day).size();
+                }
+                calculatorBest = Math.min(calculatorBest, System.nanoTime() - start);
+            }
+            sink = total;
+
+            Gdx.app.log(TAG, String.format("active-trips %dx: %d trips on %d lines, %.1f active on average, " +
+                    "indexed in %d ms; per query: index %.1f us, scan %.1f us (%.1fx), " +
+                    "getActiveBusesAtTime %.1f us",
+                scale, countTrips(lines, day), lines.size(), (double) found / MINUTES_PER_DAY,
+                indexNanos / 1000000L,
+                indexBest / 1000.0 / MINUTES_PER_DAY, scanBest / 1000.0 / MINUTES_PER_DAY,
+                (double) scanBest / indexBest, calculatorBest / 1000.0 / MINUTES_PER_DAY));
+        }
+    }
+
+    private static int indexed(List<BusLine> lines, ServiceDay day, float time, List<BusSchedule> out) {
+        int count = 0;
+        for (BusLine line : lines) {
+            out.clear();
+            line.getTripIndex(day).findActive(time, END_PADDING, out);
+            count += out.size();
+        }
+        return count;
+    }
+
+    // The lookup before the index: every trip of every line
+    private static int scanned(List<BusLine> lines, ServiceDay day, float time) {
+        int count = 0;
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                if (!day.runs(schedule) || schedule.getStopCount() < 2) continue;
+                if (time >= schedule.departureTime && time <= schedule.getFinalArrivalTime() + END_PADDING) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static int countTrips(List<BusLine> lines, ServiceDay day) {
+        int count = 0;
+        for (BusLine line : lines) {
+            count += line.getTripIndex(day).size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,128 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.systems.data.BusDataLoader;
+import com.mbus.app.systems.data.GeoJSONLoader;
+import com.mbus.app.systems.data.ScheduleLoader;
+import com.mbus.app.utils.BusLineStopRelationshipBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The stops and lines of the data files, with schedules generated at a
+ * given scale, plus the measuring helpers the benchmarks share.
+ */
+final class BenchmarkData {
+
+    private static final String TAG = "Benchmark";
+
+    // As in BusDataLoader
+    private static final double PROXIMITY_THRESHOLD = 50.0;
+
+    final List<BusStop> stops;
+    // Without schedules
+    final List<BusLine> lines;
+    // A regular weekday, when the generated trips run
+    final ServiceDay weekday;
+
+    private BenchmarkData(List<BusStop> stops, List<BusLine> lines, ServiceDay weekday) {
+        this.stops = stops;
+        this.lines = lines;
+        this.weekday = weekday;
+    }
+
+    static BenchmarkData load() {
+        List<BusStop> rawStops = GeoJSONLoader.loadBusStopsFromFile(BusDataLoader.STOPS_PATH);
+        List<BusLine> rawLines = GeoJSONLoader.loadBusLinesFromFile(BusDataLoader.LINES_PATH);
+        BusLineStopRelationshipBuilder.RelationshipResult network =
+            BusLineStopRelationshipBuilder.buildRelationships(rawLines, rawStops, PROXIMITY_THRESHOLD);
+
+        ServiceCalendar calendar = ServiceCalendar.weekly(ServiceCalendar.today());
+        long day = ServiceCalendar.today();
+        while (ServiceCalendar.dayOfWeek(day) != 2 || calendar.isHoliday(day)) {
+            day++;
+        }
+
+        Gdx.app.log(TAG, "Network: " + network.stops.size() + " stops, " + network.lines.size() +
+            " lines, weekday " + ServiceCalendar.formatDate(day));
+        return new BenchmarkData(network.stops, network.lines, calendar.resolve(day));
+    }
+
+    /**
+     * The lines with example schedules generated at {@code scale} times the
+     * usual number of buses.
+     */
+    List<BusLine> linesWithSchedules(int scale) {
+        List<BusSchedule> schedules = ScheduleLoader.generateExampleSchedules(
+            lines, scale, Runtime.getRuntime().availableProcessors());
+        return ScheduleLoader.assignSchedulesToLines(lines, schedules);
+    }
+
+    static long countStopTimes(List<BusLine> lines) {
+        long count = 0L;
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                count += schedule.getStopCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Heap in use after collecting garbage, in bytes.
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // The smallest of several collections, since threads that just finished (e.g. the
+        // generator's pool) can keep their last task reachable for a moment
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Bytes allocated by the calling thread so far, or -1 where the JVM
+     * doesn't report it.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    /**
+     * The value below which {@code fraction} of the sorted samples fall.
+     */
+    static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.round(fraction * (sorted.length - 1)));
+        return sorted[index];
+    }
+
+    static long[] sortedCopy(long[] values, int count) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
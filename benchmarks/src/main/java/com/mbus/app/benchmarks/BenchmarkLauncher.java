@@ -0,0 +1,98 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks named on the command line in a headless application,
+ * so {@code Gdx.app} and {@code Gdx.files} work as in the app. Data files
+ * are read relative to the working directory, which {@code run} sets to
+ * assets/:
+ * <pre>
+ * ./gradlew benchmarks:run --args="active-trips raptor --scales=1,10"
+ * </pre>
+ * Without names every benchmark but cold-start runs. cold-start measures
+ * the first load of a fresh JVM, so it runs alone: once with
+ * {@code --clear-snapshot} for the JSON path, then again for the snapshot.
+ */
+public class BenchmarkLauncher {
+
+    private static final String TAG = "Benchmark";
+
+    private static final List<String> DEFAULT_BENCHMARKS =
+        Arrays.asList("schedule-scale", "active-trips", "fleet", "raptor");
+
+    public static void main(final String[] args) {
+        new HeadlessApplication(new ApplicationAdapter() {
+            @Override
+            public void create() {
+                try {
+                    run(args);
+                } catch (Exception e) {
+                    Gdx.app.error(TAG, "Benchmark failed", e);
+                }
+                Gdx.app.exit();
+            }
+        }, new HeadlessApplicationConfiguration());
+    }
+
+    private static void run(String[] args) throws Exception {
+        List<String> names = new ArrayList<String>();
+        int[] scales = null;
+        boolean clearSnapshot = false;
+
+        for (String arg : args) {
+            if (arg.startsWith("--scales=")) {
+                String[] values = arg.substring("--scales=".length()).split(",");
+                scales = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    scales[i] = Integer.parseInt(values[i].trim());
+                }
+            } else if (arg.equals("--clear-snapshot")) {
+                clearSnapshot = true;
+            } else {
+                names.add(arg);
+            }
+        }
+        if (names.isEmpty()) {
+            names.addAll(DEFAULT_BENCHMARKS);
+        }
+
+        Gdx.app.log(TAG, "Java " + System.getProperty("java.version") + ", " +
+            Runtime.getRuntime().availableProcessors() + " processors, max heap " +
+            Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB");
+
+        // Loaded on first use; cold-start has to find nothing loaded
+        BenchmarkData data = null;
+
+        for (String name : names) {
+            if (name.equals("cold-start")) {
+                ColdStartBenchmark.run(clearSnapshot);
+                continue;
+            }
+
+            if (data == null) {
+                data = BenchmarkData.load();
+            }
+
+            if (name.equals("schedule-scale")) {
+                ScheduleScaleBenchmark.run(data, scales != null ? scales : new int[]{1, 10, 100});
+            } else if (name.equals("active-trips")) {
+                ActiveTripsBenchmark.run(data, scales != null ? scales : new int[]{1, 10, 100});
+            } else if (name.equals("fleet")) {
+                FleetBenchmark.run(data, scales != null ? scales : new int[]{1, 10, 100});
+            } else if (name.equals("raptor")) {
+                RaptorBenchmark.run(data, scales != null ? scales : new int[]{1, 10, 100});
+            } else {
+                Gdx.app.error(TAG, "Unknown benchmark " + name + ", expected one of " +
+                    DEFAULT_BENCHMARKS + " or cold-start");
+            }
+        }
+    }
+}
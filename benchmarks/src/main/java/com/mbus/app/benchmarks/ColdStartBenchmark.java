@@ -0,0 +1,43 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.mbus.app.systems.data.BusDataLoader;
+import com.mbus.app.utils.Constants;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The first {@link BusDataLoader#load} of a fresh JVM, as at app start:
+ * from the JSON sources when the timetable snapshot is cleared first,
+ * otherwise from the snapshot the previous run wrote. The first frame is
+ * drawn once this returns, which a headless run can't show.
+ */
+final class ColdStartBenchmark {
+
+    private static final String TAG = "Benchmark";
+
+    private ColdStartBenchmark() {
+    }
+
+    static void run(boolean clearSnapshot) throws Exception {
+        if (Constants.TIMETABLE_SNAPSHOT == null) {
+            Gdx.app.log(TAG, "cold-start: timetable snapshot disabled");
+        } else if (clearSnapshot) {
+            FileHandle snapshot = Gdx.files.local(Constants.TIMETABLE_SNAPSHOT);
+            if (snapshot.exists()) {
+                snapshot.delete();
+            }
+        }
+
+        long start = System.nanoTime();
+        BusDataLoader.BusData data = new BusDataLoader().load();
+        long loadNanos = System.nanoTime() - start;
+
+        long sinceJvmStart = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        Gdx.app.log(TAG, String.format("cold-start: loaded from %s in %d ms, %d lines, %d ms after JVM start, " +
+                "heap after collection %.1f MB",
+            data.source, loadNanos / 1000000L, data.lines.size(), sinceJvmStart,
+            BenchmarkData.megabytes(BenchmarkData.usedHeap())));
+    }
+}
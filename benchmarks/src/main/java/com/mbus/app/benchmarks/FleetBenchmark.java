@@ -0,0 +1,145 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Vector2;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.ZoomXY;
+import com.mbus.app.systems.map.MapRasterTiles;
+import com.mbus.app.systems.simulation.SimulationClock;
+import com.mbus.app.systems.simulation.VehicleSimulationService;
+import com.mbus.app.systems.simulation.VehicleSnapshot;
+import com.mbus.app.utils.Constants;
+
+import java.util.List;
+
+/**
+ * Cost of one simulation tick over the whole fleet at the morning peak,
+ * and of the per-frame pass the renderer makes over its snapshots:
+ * interpolating each bus, projecting it to map pixels and culling it.
+ */
+final class FleetBenchmark {
+
+    private static final String TAG = "Benchmark";
+
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+    private static final int PEAK_MINUTES = 8 * 60;
+    private static final int WARMUP = 200;
+    private static final int TICKS = 1000;
+    private static final int FRAMES = 2000;
+
+    // LoadingScreen's map center
+    private static final double CENTER_LAT = 46.557314;
+    private static final double CENTER_LNG = 15.637771;
+
+    static volatile float sink;
+
+    private FleetBenchmark() {
+    }
+
+    static void run(BenchmarkData data, int[] scales) {
+        ZoomXY centerTile = MapRasterTiles.getTileNumber(CENTER_LAT, CENTER_LNG, Constants.ZOOM);
+        ZoomXY beginTile = new ZoomXY(Constants.ZOOM,
+            centerTile.x - ((Constants.NUM_TILES - 1) / 2),
+            centerTile.y - ((Constants.NUM_TILES - 1) / 2));
+
+        for (int scale : scales) {
+            List<BusLine> lines = data.linesWithSchedules(scale);
+
+            SimulationClock clock = new SimulationClock();
+            // Noon keeps the date whatever the time zone
+            clock.jumpTo(data.weekday.epochDay * MILLIS_PER_DAY + MILLIS_PER_DAY / 2);
+            clock.jumpToTimeOfDay(PEAK_MINUTES);
+
+            VehicleSimulationService simulation = new VehicleSimulationService(clock);
+            simulation.setLines(lines);
+
+            for (int i = 0; i < WARMUP; i++) {
+                simulation.step();
+            }
+
+            long vehicles = 0L;
+            long allocatedBefore = BenchmarkData.allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < TICKS; i++) {
+                simulation.step();
+                vehicles += simulation.getFrame().current.size();
+            }
+            long tickNanos = System.nanoTime() - start;
+            long tickBytes = BenchmarkData.allocatedBytes() - allocatedBefore;
+
+            VehicleSimulationService.Frame frame = simulation.getFrame();
+            int frameVehicles = frame.current.size();
+            Vector2 pixel = new Vector2();
+
+            for (int i = 0; i < FRAMES; i++) {
+                renderPass(frame, beginTile, pixel, false);
+            }
+            allocatedBefore = BenchmarkData.allocatedBytes();
+            start = System.nanoTime();
+            int visible = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                visible = renderPass(frame, beginTile, pixel, false);
+            }
+            long passNanos = System.nanoTime() - start;
+            long passBytes = BenchmarkData.allocatedBytes() - allocatedBefore;
+
+            for (int i = 0; i < FRAMES; i++) {
+                renderPass(frame, beginTile, pixel, true);
+            }
+            allocatedBefore = BenchmarkData.allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                renderPass(frame, beginTile, pixel, true);
+            }
+            long allocatingNanos = System.nanoTime() - start;
+            long allocatingBytes = BenchmarkData.allocatedBytes() - allocatedBefore;
+
+            Gdx.app.log(TAG, String.format("fleet %dx: %.0f vehicles at %s, tick %.3f ms and %.0f B " +
+                    "(%.0f ns, %.0f B per vehicle); frame pass over %d vehicles (%d on the map) " +
+                    "%.1f us and %.0f B, with an allocating projection %.1f us and %.0f B",
+                scale, (double) vehicles / TICKS, formatMinutes(PEAK_MINUTES),
+                tickNanos / 1000000.0 / TICKS, (double) tickBytes / TICKS,
+                (double) tickNanos / vehicles, (double) tickBytes / vehicles,
+                frameVehicles, visible,
+                passNanos / 1000.0 / FRAMES, (double) passBytes / FRAMES,
+                allocatingNanos / 1000.0 / FRAMES, (double) allocatingBytes / FRAMES));
+        }
+    }
+
+    // BusAnimationRenderer's loop up to the sprite, halfway between the snapshots
+    private static int renderPass(VehicleSimulationService.Frame frame, ZoomXY beginTile, Vector2 pixel,
+                                  boolean allocating) {
+        VehicleSnapshot previous = frame.previous;
+        VehicleSnapshot current = frame.current;
+        float alpha = 0.5f;
+        int visible = 0;
+        float sum = 0f;
+
+        for (int i = 0; i < current.size(); i++) {
+            double lat = current.getLat(i);
+            double lng = current.getLng(i);
+            int before = previous.indexOf(current.getKey(i));
+            if (before != -1) {
+                lat = previous.getLat(before) + (lat - previous.getLat(before)) * alpha;
+                lng = previous.getLng(before) + (lng - previous.getLng(before)) * alpha;
+            }
+
+            Vector2 position = allocating
+                ? MapRasterTiles.getPixelPosition(lat, lng, beginTile.x, beginTile.y)
+                : MapRasterTiles.getPixelPosition(lat, lng, beginTile.x, beginTile.y, pixel);
+            if (position.x < 0 || position.x > Constants.MAP_WIDTH ||
+                position.y < 0 || position.y > Constants.MAP_HEIGHT) {
+                continue;
+            }
+            visible++;
+            sum += position.x + position.y;
+        }
+
+        sink = sum;
+        return visible;
+    }
+
+    private static String formatMinutes(int minutes) {
+        return String.format("%02d:%02d", minutes / 60, minutes % 60);
+    }
+}
@@ -0,0 +1,90 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.systems.routing.Journey;
+import com.mbus.app.systems.routing.RaptorRouter;
+import com.mbus.app.systems.routing.TransitNetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Latency and allocation of {@link RaptorRouter#route} between random
+ * stops served by a line, leaving between 06:00 and 22:00 on a weekday,
+ * after the day's network is built.
+ */
+final class RaptorBenchmark {
+
+    private static final String TAG = "Benchmark";
+
+    private static final int WARMUP = 500;
+    private static final int QUERIES = 5000;
+    private static final int FIRST_DEPARTURE = 6 * 60;
+    private static final int LAST_DEPARTURE = 22 * 60;
+
+    private RaptorBenchmark() {
+    }
+
+    static void run(BenchmarkData data, int[] scales) {
+        List<BusStop> served = new ArrayList<BusStop>();
+        for (BusStop stop : data.stops) {
+            if (stop.getLineCount() > 0) {
+                served.add(stop);
+            }
+        }
+
+        for (int scale : scales) {
+            List<BusLine> lines = data.linesWithSchedules(scale);
+            RaptorRouter router = new RaptorRouter(data.stops, lines);
+
+            long buildStart = System.nanoTime();
+            TransitNetwork network = router.getNetwork(data.weekday);
+            long buildNanos = System.nanoTime() - buildStart;
+
+            Random random = new Random(42L);
+            for (int i = 0; i < WARMUP; i++) {
+                query(router, served, random, data);
+            }
+
+            long[] nanos = new long[QUERIES];
+            int routed = 0;
+            long rides = 0L;
+            long totalNanos = 0L;
+            long allocatedBefore = BenchmarkData.allocatedBytes();
+            for (int i = 0; i < QUERIES; i++) {
+                long start = System.nanoTime();
+                Journey journey = query(router, served, random, data);
+                nanos[i] = System.nanoTime() - start;
+                totalNanos += nanos[i];
+
+                if (journey != null) {
+                    routed++;
+                    rides += journey.getRideCount();
+                }
+            }
+            long allocated = BenchmarkData.allocatedBytes() - allocatedBefore;
+
+            long[] sorted = BenchmarkData.sortedCopy(nanos, QUERIES);
+            Gdx.app.log(TAG, String.format("raptor %dx: %s, built in %d ms; %d queries, " +
+                    "median %.0f us, p90 %.0f us, p99 %.0f us, max %.0f us, mean %.0f us, %.0f B per query; " +
+                    "%.1f%% routed, %.2f rides per journey",
+                scale, network, buildNanos / 1000000L, QUERIES,
+                BenchmarkData.percentile(sorted, 0.5) / 1000.0,
+                BenchmarkData.percentile(sorted, 0.9) / 1000.0,
+                BenchmarkData.percentile(sorted, 0.99) / 1000.0,
+                sorted[QUERIES - 1] / 1000.0, totalNanos / 1000.0 / QUERIES,
+                (double) allocated / QUERIES,
+                100.0 * routed / QUERIES, routed > 0 ? (double) rides / routed : 0.0));
+        }
+    }
+
+    private static Journey query(RaptorRouter router, List<BusStop> served, Random random, BenchmarkData data) {
+        BusStop origin = served.get(random.nextInt(served.size()));
+        BusStop destination = served.get(random.nextInt(served.size()));
+        int departure = FIRST_DEPARTURE + random.nextInt(LAST_DEPARTURE - FIRST_DEPARTURE);
+        return router.route(origin, destination, departure, data.weekday);
+    }
+}
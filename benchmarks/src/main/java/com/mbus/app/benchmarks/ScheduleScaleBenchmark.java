@@ -0,0 +1,65 @@
+package com.mbus.app.benchmarks;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time and heap to generate and assign the example schedules at growing
+ * scales. The heap of the same stop times as one {@link BusSchedule.StopTime}
+ * object per stop, the layout before trips shared their stop patterns, is
+ * measured alongside for comparison.
+ */
+final class ScheduleScaleBenchmark {
+
+    private static final String TAG = "Benchmark";
+
+    private ScheduleScaleBenchmark() {
+    }
+
+    static void run(BenchmarkData data, int[] scales) {
+        // Loads and compiles the generator, so the first scale isn't charged for it
+        data.linesWithSchedules(1);
+
+        for (int scale : scales) {
+            long heapBefore = BenchmarkData.usedHeap();
+
+            long start = System.nanoTime();
+            List<BusLine> lines = data.linesWithSchedules(scale);
+            long loadNanos = System.nanoTime() - start;
+
+            long heapAfter = BenchmarkData.usedHeap();
+
+            int trips = 0;
+            for (BusLine line : lines) {
+                trips += line.getScheduleCount();
+            }
+            long stopTimes = BenchmarkData.countStopTimes(lines);
+            long retained = heapAfter - heapBefore;
+
+            // The same stop times as objects, one list per trip
+            List<List<BusSchedule.StopTime>> objects = new ArrayList<List<BusSchedule.StopTime>>(trips);
+            for (BusLine line : lines) {
+                for (BusSchedule schedule : line.getSchedules()) {
+                    objects.add(new ArrayList<BusSchedule.StopTime>(schedule.getStopTimes()));
+                }
+            }
+            long objectBytes = BenchmarkData.usedHeap() - heapAfter;
+
+            Gdx.app.log(TAG, String.format("schedule-scale %dx: %d trips, %d stop times, " +
+                    "generated and assigned in %d ms, retained %.1f MB (%.1f B per stop time), " +
+                    "as StopTime objects %.1f MB (%.1f B per stop time)",
+                scale, trips, stopTimes, loadNanos / 1000000L,
+                BenchmarkData.megabytes(retained), (double) retained / stopTimes,
+                BenchmarkData.megabytes(objectBytes), (double) objectBytes / stopTimes));
+
+            // Keeps both alive through the measurements
+            if (objects.size() != trips || lines.isEmpty()) {
+                Gdx.app.error(TAG, "Lost schedules");
+            }
+        }
+    }
+}
@@ -11,9 +11,14 @@ import com.badlogic.gdx.utils.viewport.Viewport;
 import com.mbus.app.assets.AssetDescriptors;
 import com.mbus.app.model.BusLine;
 import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.StopDepartureIndex;
 import com.mbus.app.screens.LoadingScreen;
 import com.mbus.app.screens.RasterMapScreen;
+import com.mbus.app.systems.data.BusDataLoader;
+import com.mbus.app.systems.data.DataFileWatcher;
 import com.mbus.app.systems.input.CameraController;
+import com.mbus.app.systems.simulation.SimulationClock;
 import com.mbus.app.utils.Constants;
 
 import java.util.List;
@@ -31,9 +36,16 @@ public class MBusTracker extends Game {
 
     private List<BusStop> busStops;
     private List<BusLine> busLines;
+    private StopDepartureIndex departureIndex;
+    private int busDataVersion = 0;
+    private DataFileWatcher dataWatcher;
+
+    private final SimulationClock simulationClock = new SimulationClock();
+    private long startMillis;
 
     @Override
     public void create() {
+        startMillis = System.currentTimeMillis();
         camera = new OrthographicCamera();
 
         viewport = new ExtendViewport(Constants.MAP_WIDTH, Constants.MAP_HEIGHT, camera);
@@ -85,6 +97,10 @@ public class MBusTracker extends Game {
 
     @Override
     public void dispose() {
+        if (dataWatcher != null) {
+            dataWatcher.stop();
+            dataWatcher = null;
+        }
         super.dispose();
         assetManager.dispose();
     }
@@ -93,9 +109,40 @@ public class MBusTracker extends Game {
         return assetManager;
     }
 
-    public void setBusData(List<BusStop> stops, List<BusLine> lines) {
+    public void setBusData(List<BusStop> stops, List<BusLine> lines, StopDepartureIndex departureIndex,
+                           ServiceCalendar calendar) {
         this.busStops = stops;
         this.busLines = lines;
+        this.departureIndex = departureIndex;
+        simulationClock.setServiceCalendar(calendar);
+        busDataVersion++;
+    }
+
+    /**
+     * Reloads the bus data with {@code loader} whenever the data files
+     * change, replacing it through {@link #setBusData} between frames.
+     */
+    public void watchBusData(BusDataLoader loader) {
+        if (dataWatcher != null || Constants.DATA_WATCH_INTERVAL_MILLIS <= 0) return;
+
+        dataWatcher = new DataFileWatcher(loader, Constants.DATA_WATCH_INTERVAL_MILLIS,
+            new DataFileWatcher.ReloadCallback() {
+                @Override
+                public void onDataReloaded(BusDataLoader.BusData data) {
+                    Gdx.app.log(TAG, "Bus data reloaded from " + data.source + ": " + data.stops.size() +
+                        " stops, " + data.lines.size() + " lines");
+                    setBusData(data.stops, data.lines, data.departures, data.calendar);
+                }
+            });
+        dataWatcher.start();
+    }
+
+    /**
+     * Incremented by every {@link #setBusData}, so screens can tell when to
+     * pick up new data.
+     */
+    public int getBusDataVersion() {
+        return busDataVersion;
     }
 
     public List<BusStop> getBusStops() {
@@ -105,4 +152,19 @@ public class MBusTracker extends Game {
     public List<BusLine> getBusLines() {
         return busLines;
     }
+
+    public StopDepartureIndex getDepartureIndex() {
+        return departureIndex;
+    }
+
+    /**
+     * Wall-clock time at which {@link #create()} started, for startup timing.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public SimulationClock getSimulationClock() {
+        return simulationClock;
+    }
 }
@@ -2,7 +2,9 @@ package com.mbus.app.model;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class BusLine {
 
@@ -23,6 +25,11 @@ public class BusLine {
 
     private final List<BusSchedule> schedules;
 
+    // Built on first use per set of running services
+    private final Map<ServiceDay, TripIndex> tripIndices = new HashMap<ServiceDay, TripIndex>();
+
+    private LinearReference linearReference;
+
     public BusLine(int lineId,
                    int variantId,
                    int direction,
@@ -87,22 +94,42 @@ public class BusLine {
         return schedules;
     }
 
-    public List<BusSchedule> getSchedulesForDayType(int dayType) {
+    public List<BusSchedule> getSchedulesFor(ServiceDay day) {
         List<BusSchedule> result = new ArrayList<BusSchedule>();
         for (BusSchedule schedule : schedules) {
-            if (schedule.dayType == dayType) {
+            if (day.runs(schedule)) {
                 result.add(schedule);
             }
         }
         return result;
     }
 
-    public BusSchedule getNextDeparture(int currentTime, int dayType) {
+    /**
+     * Trips running on the day, indexed on first use. Days running the same
+     * services share an index.
+     */
+    public synchronized TripIndex getTripIndex(ServiceDay day) {
+        TripIndex index = tripIndices.get(day);
+        if (index == null) {
+            index = new TripIndex(getSchedulesFor(day));
+            tripIndices.put(day, index);
+        }
+        return index;
+    }
+
+    public synchronized LinearReference getLinearReference() {
+        if (linearReference == null) {
+            linearReference = new LinearReference(path, stops);
+        }
+        return linearReference;
+    }
+
+    public BusSchedule getNextDeparture(int currentTime, ServiceDay day) {
         BusSchedule nextSchedule = null;
         int minTimeDiff = Integer.MAX_VALUE;
 
         for (BusSchedule schedule : schedules) {
-            if (schedule.dayType == dayType && schedule.departureTime >= currentTime) {
+            if (day.runs(schedule) && schedule.departureTime >= currentTime) {
                 int timeDiff = schedule.departureTime - currentTime;
                 if (timeDiff < minTimeDiff) {
                     minTimeDiff = timeDiff;
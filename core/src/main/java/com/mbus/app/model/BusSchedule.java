@@ -1,9 +1,17 @@
 package com.mbus.app.model;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.CharBuffer;
+import java.util.AbstractList;
 import java.util.List;
 
+/**
+ * One trip of a line. Stop times are not stored as objects: the stops come
+ * from a {@link StopPattern} shared by all trips serving the same sequence,
+ * and arrivals are 16-bit minute offsets from a base time in a shared
+ * column, on the heap ({@link TimetableBuilder}) or in a mapped snapshot.
+ * {@link #getStopTimes()} is a view that creates {@link StopTime}s on
+ * access; hot paths use the indexed getters.
+ */
 public class BusSchedule {
 
     public final int scheduleId;
@@ -11,43 +19,146 @@ public class BusSchedule {
     public final int variantId;
     public final int direction;
 
-    // 0 = workday, 1 = saturday, 2 = sunday/holiday
-    public final int dayType;
+    // Service of the ServiceCalendar giving the dates the trip runs on
+    public final int serviceId;
 
     // 06:30 = 390 minutes, 14:45 = 885 minutes
     public final int departureTime;
 
-    private final List<StopTime> stopTimes;
+    private final StopPattern pattern;
+    // Arrival at stop i is baseTime + offsets[offsetStart + i]
+    private final CharBuffer offsets;
+    private final int offsetStart;
+    private final int baseTime;
+
+    // Whether arrivals never decrease (binary search is valid)
+    private final boolean arrivalsSorted;
 
     public BusSchedule(int scheduleId,
                        int lineId,
                        int variantId,
                        int direction,
-                       int dayType,
+                       int serviceId,
                        int departureTime,
                        List<StopTime> stopTimes) {
+        this(scheduleId, lineId, variantId, direction, serviceId, departureTime,
+            TimetableBuilder.standalone(stopTimes));
+    }
+
+    private BusSchedule(int scheduleId, int lineId, int variantId, int direction,
+                        int serviceId, int departureTime, TimetableBuilder.Slice slice) {
+        this(scheduleId, lineId, variantId, direction, serviceId, departureTime,
+            slice.pattern, slice.offsets, slice.offsetStart, slice.baseTime);
+    }
+
+    /**
+     * A trip whose arrivals are {@code baseTime} plus the minute offsets at
+     * {@code offsets[offsetStart..]}, one per stop of {@code pattern}. The
+     * column is shared, not copied.
+     */
+    public BusSchedule(int scheduleId,
+                       int lineId,
+                       int variantId,
+                       int direction,
+                       int serviceId,
+                       int departureTime,
+                       StopPattern pattern,
+                       CharBuffer offsets,
+                       int offsetStart,
+                       int baseTime) {
         this.scheduleId = scheduleId;
         this.lineId = lineId;
         this.variantId = variantId;
         this.direction = direction;
-        this.dayType = dayType;
+        this.serviceId = serviceId;
         this.departureTime = departureTime;
-        this.stopTimes = stopTimes != null
-            ? Collections.unmodifiableList(new ArrayList<StopTime>(stopTimes))
-            : Collections.unmodifiableList(new ArrayList<StopTime>());
+        this.pattern = pattern;
+        this.offsets = offsets;
+        this.offsetStart = offsetStart;
+        this.baseTime = baseTime;
+
+        boolean sorted = true;
+        for (int i = 1; i < pattern.size(); i++) {
+            if (offsets.get(offsetStart + i) < offsets.get(offsetStart + i - 1)) {
+                sorted = false;
+                break;
+            }
+        }
+        this.arrivalsSorted = sorted;
     }
 
+    /**
+     * Stop times as a read-only list view. Each {@code get} creates a
+     * {@link StopTime}; prefer {@link #getStopId} and {@link #getArrivalTime}.
+     */
     public List<StopTime> getStopTimes() {
-        return stopTimes;
+        return new AbstractList<StopTime>() {
+            @Override
+            public StopTime get(int index) {
+                if (index < 0 || index >= pattern.size()) {
+                    throw new IndexOutOfBoundsException("Index " + index + ", size " + pattern.size());
+                }
+                return new StopTime(pattern.getStopId(index), pattern.getSequenceNumber(index),
+                    getArrivalTime(index));
+            }
+
+            @Override
+            public int size() {
+                return pattern.size();
+            }
+        };
     }
 
-    public int getArrivalTimeAtStop(int stopId) {
-        for (StopTime st : stopTimes) {
-            if (st.stopId == stopId) {
-                return st.arrivalTime;
+    public StopPattern getPattern() {
+        return pattern;
+    }
+
+    public int getStopCount() {
+        return pattern.size();
+    }
+
+    public int getStopId(int stopIndex) {
+        return pattern.getStopId(stopIndex);
+    }
+
+    public int getSequenceNumber(int stopIndex) {
+        return pattern.getSequenceNumber(stopIndex);
+    }
+
+    public int getArrivalTime(int stopIndex) {
+        return baseTime + offsets.get(offsetStart + stopIndex);
+    }
+
+    public int getFinalArrivalTime() {
+        int count = pattern.size();
+        return count > 0 ? getArrivalTime(count - 1) : departureTime;
+    }
+
+    public boolean hasSortedArrivals() {
+        return arrivalsSorted;
+    }
+
+    /**
+     * Number of stops whose arrival is at or before {@code time}. Only valid
+     * when {@link #hasSortedArrivals()}.
+     */
+    public int countArrivalsAtOrBefore(float time) {
+        int lo = 0;
+        int hi = pattern.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (baseTime + offsets.get(offsetStart + mid) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
-        return -1;
+        return lo;
+    }
+
+    public int getArrivalTimeAtStop(int stopId) {
+        int index = pattern.indexOf(stopId);
+        return index != -1 ? getArrivalTime(index) : -1;
     }
 
     public static String formatTime(int minutes) {
@@ -56,32 +167,39 @@ public class BusSchedule {
         return String.format("%02d:%02d", hours, mins);
     }
 
+    /**
+     * Minutes since midnight of an {@code H:MM} time; anything after the
+     * minutes (e.g. seconds) is ignored.
+     */
     public static int parseTime(String timeStr) {
-        String[] parts = timeStr.split(":");
-        return Integer.parseInt(parts[0]) * 60 + Integer.parseInt(parts[1]);
+        int length = timeStr.length();
+        int hours = 0;
+        int i = 0;
+        for (; i < length && timeStr.charAt(i) != ':'; i++) {
+            int digit = timeStr.charAt(i) - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Not a time: " + timeStr);
+            hours = hours * 10 + digit;
+        }
+        if (i == 0 || i + 2 >= length) throw new NumberFormatException("Not a time: " + timeStr);
+
+        int tens = timeStr.charAt(i + 1) - '0';
+        int ones = timeStr.charAt(i + 2) - '0';
+        if (tens < 0 || tens > 5 || ones < 0 || ones > 9) throw new NumberFormatException("Not a time: " + timeStr);
+        return hours * 60 + tens * 10 + ones;
     }
 
     public String getDepartureTimeFormatted() {
         return formatTime(departureTime);
     }
 
-    public String getDayTypeString() {
-        switch (dayType) {
-            case 0: return "Workday";
-            case 1: return "Saturday";
-            case 2: return "Sunday/Holiday";
-            default: return "Unknown";
-        }
-    }
-
     @Override
     public String toString() {
         return "BusSchedule{" +
             "lineId=" + lineId +
             ", direction=" + direction +
-            ", dayType=" + getDayTypeString() +
+            ", serviceId=" + serviceId +
             ", departure=" + getDepartureTimeFormatted() +
-            ", stops=" + stopTimes.size() +
+            ", stops=" + pattern.size() +
             '}';
     }
 
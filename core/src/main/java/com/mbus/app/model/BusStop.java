@@ -76,18 +76,22 @@ public class BusStop {
         return sb.toString();
     }
 
-    public List<StopArrival> getUpcomingArrivals(List<BusLine> lines, int currentTime, int dayType, int maxResults) {
+    /**
+     * Scans every schedule of the given lines; {@link StopDepartureIndex}
+     * answers the same query without the scan.
+     */
+    public List<StopArrival> getUpcomingArrivals(List<BusLine> lines, int currentTime, ServiceDay day, int maxResults) {
         List<StopArrival> arrivals = new ArrayList<StopArrival>();
 
         for (BusLine line : lines) {
             if (!hasLine(line.lineId)) continue;
 
             for (BusSchedule schedule : line.getSchedules()) {
-                if (schedule.dayType != dayType) continue;
+                if (!day.runs(schedule)) continue;
 
                 int arrivalTime = schedule.getArrivalTimeAtStop(idAvpost);
                 if (arrivalTime >= currentTime) {
-                    arrivals.add(new StopArrival(line, schedule, arrivalTime));
+                    arrivals.add(new StopArrival(line, schedule, arrivalTime, idAvpost));
                 }
             }
         }
@@ -123,11 +127,14 @@ public class BusStop {
         public final BusLine line;
         public final BusSchedule schedule;
         public final int arrivalTime;
+        // Stop the arrival is at, which matters on boards covering several stops
+        public final int stopId;
 
-        public StopArrival(BusLine line, BusSchedule schedule, int arrivalTime) {
+        public StopArrival(BusLine line, BusSchedule schedule, int arrivalTime, int stopId) {
             this.line = line;
             this.schedule = schedule;
             this.arrivalTime = arrivalTime;
+            this.stopId = stopId;
         }
 
         public int getMinutesUntilArrival(int currentTime) {
@@ -0,0 +1,160 @@
+package com.mbus.app.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Arc-length table of a line path with every stop snapped to it.
+ * <p>
+ * Distances are measured in degrees, like the rest of the path code. Each
+ * stop is snapped to its nearest path vertex once, so placing a bus between
+ * two stops is a lookup of both offsets, a binary search over the
+ * cumulative lengths and one lerp.
+ */
+public class LinearReference {
+
+    private final double[] lat;
+    private final double[] lng;
+    // cumulative[i] = path length from vertex 0 to vertex i
+    private final double[] cumulative;
+
+    // Stops sorted by id; the first stop of the line wins on duplicate ids
+    private final int[] stopIds;
+    private final int[] stopVertex;
+    private final BusStop[] stopsById;
+
+    public LinearReference(List<Geolocation> path, List<BusStop> stops) {
+        int count = path.size();
+        lat = new double[count];
+        lng = new double[count];
+        cumulative = new double[count];
+
+        for (int i = 0; i < count; i++) {
+            Geolocation point = path.get(i);
+            lat[i] = point.lat;
+            lng[i] = point.lng;
+            if (i > 0) {
+                cumulative[i] = cumulative[i - 1] + distance(lat[i - 1], lng[i - 1], lat[i], lng[i]);
+            }
+        }
+
+        // Sort stop positions by id, keeping line order among equal ids
+        int stopCount = stops.size();
+        long[] keys = new long[stopCount];
+        for (int i = 0; i < stopCount; i++) {
+            keys[i] = ((long) stops.get(i).idAvpost << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        int[] ids = new int[stopCount];
+        int[] vertices = new int[stopCount];
+        BusStop[] sortedStops = new BusStop[stopCount];
+        int unique = 0;
+
+        for (int k = 0; k < stopCount; k++) {
+            BusStop stop = stops.get((int) keys[k]);
+            if (unique > 0 && ids[unique - 1] == stop.idAvpost) continue;
+
+            ids[unique] = stop.idAvpost;
+            vertices[unique] = nearestVertex(stop.geo);
+            sortedStops[unique] = stop;
+            unique++;
+        }
+
+        stopIds = Arrays.copyOf(ids, unique);
+        stopVertex = Arrays.copyOf(vertices, unique);
+        stopsById = Arrays.copyOf(sortedStops, unique);
+    }
+
+    public int getVertexCount() {
+        return cumulative.length;
+    }
+
+    public BusStop getStop(int stopId) {
+        int slot = Arrays.binarySearch(stopIds, stopId);
+        return slot >= 0 ? stopsById[slot] : null;
+    }
+
+    /**
+     * Index of the path vertex the stop was snapped to, or -1 for a stop
+     * that is not on this line or a line without a path.
+     */
+    public int getStopVertex(int stopId) {
+        if (cumulative.length == 0) return -1;
+        int slot = Arrays.binarySearch(stopIds, stopId);
+        return slot >= 0 ? stopVertex[slot] : -1;
+    }
+
+    public void getVertex(int index, Geolocation out) {
+        out.lat = lat[index];
+        out.lng = lng[index];
+    }
+
+    /**
+     * Point at {@code progress} (0..1) of the path between two vertices,
+     * measured by arc length. The vertices may be given in either order;
+     * the lower one is the start. The result is written to {@code out}.
+     */
+    public void interpolate(int fromVertex, int toVertex, float progress, Geolocation out) {
+        if (fromVertex > toVertex) {
+            int temp = fromVertex;
+            fromVertex = toVertex;
+            toVertex = temp;
+        }
+
+        double total = cumulative[toVertex] - cumulative[fromVertex];
+        if (fromVertex == toVertex || total == 0) {
+            getVertex(fromVertex, out);
+            return;
+        }
+
+        double target = cumulative[fromVertex] + total * progress;
+
+        // First segment whose end reaches the target
+        int lo = fromVertex;
+        int hi = toVertex - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid + 1] < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        double segment = cumulative[lo + 1] - cumulative[lo];
+        if (segment == 0) {
+            getVertex(lo, out);
+            return;
+        }
+
+        double t = (target - cumulative[lo]) / segment;
+        t = Math.max(0.0, Math.min(1.0, t));
+
+        out.lat = lat[lo] + (lat[lo + 1] - lat[lo]) * t;
+        out.lng = lng[lo] + (lng[lo + 1] - lng[lo]) * t;
+    }
+
+    private int nearestVertex(Geolocation target) {
+        if (cumulative.length == 0) return -1;
+
+        int nearest = 0;
+        double minDistance = distance(lat[0], lng[0], target.lat, target.lng);
+
+        for (int i = 1; i < cumulative.length; i++) {
+            double d = distance(lat[i], lng[i], target.lat, target.lng);
+            if (d < minDistance) {
+                minDistance = d;
+                nearest = i;
+            }
+        }
+
+        return nearest;
+    }
+
+    private static double distance(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = lat1 - lat2;
+        double dLng = lng1 - lng2;
+        return Math.sqrt(dLat * dLat + dLng * dLng);
+    }
+}
@@ -0,0 +1,338 @@
+package com.mbus.app.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Which services run on which dates.
+ * <p>
+ * Every service compiles to a {@link BitSet} of the days it runs on, bit
+ * {@code i} being {@link #getFirstDay()} + {@code i} in days since
+ * 1970-01-01. Weekly patterns and dated exceptions (days added or removed,
+ * such as holidays or one-off diversions) are applied once, when the
+ * calendar is built. Outside the compiled range a service falls back to its
+ * weekly pattern, so an expired feed still shows its regular timetable.
+ * <p>
+ * A date is resolved with {@link #resolve} into a {@link ServiceDay}, the
+ * set of services running on it. Immutable once built.
+ */
+public class ServiceCalendar {
+
+    // Services of weekly() calendars, numbered like the day types of schedules.json
+    public static final int WEEKDAY_SERVICE = 0;
+    public static final int SATURDAY_SERVICE = 1;
+    public static final int SUNDAY_SERVICE = 2;
+
+    // Dates compiled into bitsets: from a year before the build day, for three years
+    private static final int DAYS_BEFORE = 366;
+    private static final int MAX_DAYS = 3 * 366;
+    private static final long MILLIS_PER_DAY = 24L * 60L * 60L * 1000L;
+
+    private final String[] serviceIds;
+    private final long firstDay;
+    private final int dayCount;
+    private final BitSet[] activeDays;
+    // Bit 0 = Monday .. 6 = Sunday
+    private final int[] weekdays;
+    private final BitSet holidays;
+
+    public ServiceCalendar(String[] serviceIds, long firstDay, int dayCount,
+                           BitSet[] activeDays, int[] weekdays, BitSet holidays) {
+        this.serviceIds = serviceIds;
+        this.firstDay = firstDay;
+        this.dayCount = dayCount;
+        this.activeDays = activeDays;
+        this.weekdays = weekdays;
+        this.holidays = holidays;
+    }
+
+    /**
+     * Weekday, Saturday and Sunday service around {@code today}, with
+     * Slovenian public holidays running the Sunday timetable.
+     */
+    public static ServiceCalendar weekly(long today) {
+        int year = yearOf(today);
+        long start = epochDay(year - 1, 1, 1);
+        long end = epochDay(year + 1, 12, 31);
+
+        Builder builder = new Builder();
+        builder.setWeekly(builder.addService("weekday"), start, end, 0x1F);
+        builder.setWeekly(builder.addService("saturday"), start, end, 1 << 5);
+        builder.setWeekly(builder.addService("sunday"), start, end, 1 << 6);
+
+        for (int y = year - 1; y <= year + 1; y++) {
+            long easter = easterSunday(y);
+            long[] days = new long[]{
+                epochDay(y, 1, 1), epochDay(y, 1, 2), epochDay(y, 2, 8), easter + 1,
+                epochDay(y, 4, 27), epochDay(y, 5, 1), epochDay(y, 5, 2), epochDay(y, 6, 25),
+                epochDay(y, 8, 15), epochDay(y, 10, 31), epochDay(y, 11, 1), epochDay(y, 12, 25),
+                epochDay(y, 12, 26)
+            };
+            for (long day : days) {
+                builder.addHoliday(day);
+                builder.addException(WEEKDAY_SERVICE, day, false);
+                builder.addException(SATURDAY_SERVICE, day, false);
+                builder.addException(SUNDAY_SERVICE, day, true);
+            }
+        }
+        return builder.build(today);
+    }
+
+    /**
+     * Today's local date in days since 1970-01-01.
+     */
+    public static long today() {
+        long now = System.currentTimeMillis();
+        return Math.floorDiv(now + TimeZone.getDefault().getOffset(now), MILLIS_PER_DAY);
+    }
+
+    public int getServiceCount() {
+        return serviceIds.length;
+    }
+
+    public String getServiceId(int service) {
+        return serviceIds[service];
+    }
+
+    public long getFirstDay() {
+        return firstDay;
+    }
+
+    public int getDayCount() {
+        return dayCount;
+    }
+
+    public BitSet getActiveDays(int service) {
+        return (BitSet) activeDays[service].clone();
+    }
+
+    public int getWeekdays(int service) {
+        return weekdays[service];
+    }
+
+    public BitSet getHolidays() {
+        return (BitSet) holidays.clone();
+    }
+
+    public boolean covers(long epochDay) {
+        return epochDay >= firstDay && epochDay < firstDay + dayCount;
+    }
+
+    public boolean isActive(int service, long epochDay) {
+        if (service < 0 || service >= serviceIds.length) return false;
+        if (covers(epochDay)) {
+            return activeDays[service].get((int) (epochDay - firstDay));
+        }
+        return (weekdays[service] & (1 << dayOfWeek(epochDay))) != 0;
+    }
+
+    public boolean isHoliday(long epochDay) {
+        return covers(epochDay) && holidays.get((int) (epochDay - firstDay));
+    }
+
+    /**
+     * The services running on the given day.
+     */
+    public ServiceDay resolve(long epochDay) {
+        BitSet services = new BitSet(serviceIds.length);
+        for (int service = 0; service < serviceIds.length; service++) {
+            if (isActive(service, epochDay)) {
+                services.set(service);
+            }
+        }
+
+        int dayType = isHoliday(epochDay) ? 2 : dayType(dayOfWeek(epochDay));
+        return new ServiceDay(epochDay, dayType, services);
+    }
+
+    @Override
+    public String toString() {
+        return serviceIds.length + " services, " + dayCount + " days from " + formatDate(firstDay) +
+            ", " + holidays.cardinality() + " holidays";
+    }
+
+    // Days since 1970-01-01 for a yyyymmdd date
+    public static long epochDay(int date) {
+        return epochDay(date / 10000, date / 100 % 100, date % 100);
+    }
+
+    public static long epochDay(int year, int month, int day) {
+        // Shift the year to start in March so the leap day falls at its end
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return (long) era * 146097 + dayOfEra - 719468;
+    }
+
+    // 0 = Monday .. 6 = Sunday
+    public static int dayOfWeek(long epochDay) {
+        return (int) Math.floorMod(epochDay + 3, 7L);
+    }
+
+    // 0 = workday, 1 = saturday, 2 = sunday
+    public static int dayType(int dayOfWeek) {
+        if (dayOfWeek == 6) return 2;
+        if (dayOfWeek == 5) return 1;
+        return 0;
+    }
+
+    public static String formatDate(long epochDay) {
+        int date = toDate(epochDay);
+        return String.format("%04d-%02d-%02d", date / 10000, date / 100 % 100, date % 100);
+    }
+
+    private static int yearOf(long epochDay) {
+        return toDate(epochDay) / 10000;
+    }
+
+    // Inverse of epochDay(int), as yyyymmdd
+    private static int toDate(long epochDay) {
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return year * 10000 + month * 100 + day;
+    }
+
+    // Anonymous Gregorian algorithm
+    private static long easterSunday(int year) {
+        int a = year % 19;
+        int b = year / 100;
+        int c = year % 100;
+        int d = b / 4;
+        int e = b % 4;
+        int f = (b + 8) / 25;
+        int g = (b - f + 1) / 3;
+        int h = (19 * a + b - d - g + 15) % 30;
+        int i = c / 4;
+        int k = c % 4;
+        int l = (32 + 2 * e + 2 * i - h - k) % 7;
+        int m = (a + 11 * h + 22 * l) / 451;
+        int month = (h + l - 7 * m + 114) / 31;
+        int day = (h + l - 7 * m + 114) % 31 + 1;
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * Collects weekly patterns and dated exceptions, then compiles them
+     * into a calendar.
+     */
+    public static class Builder {
+        private final Map<String, Integer> serviceIndex = new HashMap<String, Integer>();
+        private final List<String> serviceIds = new ArrayList<String>();
+        private final List<long[]> ranges = new ArrayList<long[]>();
+        // Per exception: day, service, 1 if added or 0 if removed
+        private final List<long[]> exceptions = new ArrayList<long[]>();
+        private final List<Long> holidays = new ArrayList<Long>();
+
+        /**
+         * Index of the service, added if it is new.
+         */
+        public int addService(String id) {
+            Integer index = serviceIndex.get(id);
+            if (index == null) {
+                index = serviceIds.size();
+                serviceIndex.put(id, index);
+                serviceIds.add(id);
+                // start, end, weekdays; empty until setWeekly
+                ranges.add(new long[]{Long.MAX_VALUE, Long.MIN_VALUE, 0});
+            }
+            return index;
+        }
+
+        public int getServiceCount() {
+            return serviceIds.size();
+        }
+
+        /**
+         * Runs the service on the given weekdays (bit 0 = Monday) between
+         * the two days, inclusive.
+         */
+        public void setWeekly(int service, long startDay, long endDay, int weekdays) {
+            long[] range = ranges.get(service);
+            range[0] = startDay;
+            range[1] = endDay;
+            range[2] = weekdays;
+        }
+
+        public void addException(int service, long day, boolean running) {
+            exceptions.add(new long[]{day, service, running ? 1 : 0});
+        }
+
+        public void addHoliday(long day) {
+            holidays.add(day);
+        }
+
+        /**
+         * Compiles the dates around {@code today} into bitsets; see
+         * {@link ServiceCalendar} for days outside them.
+         */
+        public ServiceCalendar build(long today) {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (long[] range : ranges) {
+                if (range[2] == 0) continue;
+                first = Math.min(first, range[0]);
+                last = Math.max(last, range[1]);
+            }
+            for (long[] exception : exceptions) {
+                first = Math.min(first, exception[0]);
+                last = Math.max(last, exception[0]);
+            }
+            first = Math.max(first, today - DAYS_BEFORE);
+            last = Math.min(last, first + MAX_DAYS - 1);
+            if (first > last) {
+                first = today;
+                last = today - 1;
+            }
+            int dayCount = (int) (last - first + 1);
+
+            int serviceCount = serviceIds.size();
+            BitSet[] activeDays = new BitSet[serviceCount];
+            int[] weekdays = new int[serviceCount];
+            for (int service = 0; service < serviceCount; service++) {
+                long[] range = ranges.get(service);
+                weekdays[service] = (int) range[2];
+                activeDays[service] = new BitSet(dayCount);
+
+                if (weekdays[service] == 0) continue;
+                long from = Math.max(range[0], first);
+                long to = Math.min(range[1], first + dayCount - 1);
+                for (long day = from; day <= to; day++) {
+                    if ((weekdays[service] & (1 << dayOfWeek(day))) != 0) {
+                        activeDays[service].set((int) (day - first));
+                    }
+                }
+            }
+
+            // Exceptions apply in the order they were added
+            for (long[] exception : exceptions) {
+                long offset = exception[0] - first;
+                if (offset < 0 || offset >= dayCount) continue;
+                activeDays[(int) exception[1]].set((int) offset, exception[2] == 1);
+            }
+
+            BitSet holidayDays = new BitSet(dayCount);
+            for (Long day : holidays) {
+                long offset = day - first;
+                if (offset >= 0 && offset < dayCount) {
+                    holidayDays.set((int) offset);
+                }
+            }
+
+            return new ServiceCalendar(serviceIds.toArray(new String[0]), first, dayCount,
+                activeDays, weekdays, holidayDays);
+        }
+    }
+}
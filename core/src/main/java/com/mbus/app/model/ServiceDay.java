@@ -0,0 +1,53 @@
+package com.mbus.app.model;
+
+import java.util.BitSet;
+
+/**
+ * The services running on one date, resolved from a {@link ServiceCalendar}.
+ * <p>
+ * Indexes of the trips running on a day (trip indices, route networks) are
+ * cached per {@code ServiceDay}. Two days are equal when they run the same
+ * services, so e.g. all regular weekdays share one index. Immutable.
+ */
+public class ServiceDay {
+
+    // Days since 1970-01-01
+    public final long epochDay;
+    // 0 = workday, 1 = saturday, 2 = sunday/holiday
+    public final int dayType;
+
+    private final BitSet services;
+
+    public ServiceDay(long epochDay, int dayType, BitSet services) {
+        this.epochDay = epochDay;
+        this.dayType = dayType;
+        this.services = services;
+    }
+
+    public boolean isActive(int serviceId) {
+        return serviceId >= 0 && services.get(serviceId);
+    }
+
+    public boolean runs(BusSchedule schedule) {
+        return isActive(schedule.serviceId);
+    }
+
+    public int getActiveServiceCount() {
+        return services.cardinality();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ServiceDay && services.equals(((ServiceDay) o).services);
+    }
+
+    @Override
+    public int hashCode() {
+        return services.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return ServiceCalendar.formatDate(epochDay) + " (" + services.cardinality() + " services)";
+    }
+}
@@ -0,0 +1,194 @@
+package com.mbus.app.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Arrivals at each stop per service, for departure boards.
+ * <p>
+ * Every (stop, service) pair owns a {@code long[]} of
+ * {@code arrivalTime << 32 | tripRef}, sorted once when the index is built,
+ * where {@code tripRef} points into the shared trip and line arrays. A
+ * board for a day only looks at the arrays of the services running that
+ * day: the next departures from a moment are a binary search into each,
+ * and their tails are merged in order instead of collecting and sorting
+ * every arrival of the day.
+ * <p>
+ * Immutable once built, so it can be built on a loading thread and read
+ * from the render thread.
+ */
+public class StopDepartureIndex {
+
+    private final BusSchedule[] trips;
+    private final BusLine[] tripLines;
+    private final Map<Long, long[]> arrivals;
+    // Services with arrivals at each stop
+    private final Map<Integer, int[]> stopServices;
+    private final long arrivalCount;
+
+    public StopDepartureIndex(List<BusLine> lines) {
+        int tripCount = 0;
+        for (BusLine line : lines) {
+            tripCount += line.getScheduleCount();
+        }
+
+        trips = new BusSchedule[tripCount];
+        tripLines = new BusLine[tripCount];
+
+        // First pass sizes each array, second fills it
+        Map<Long, int[]> counts = new HashMap<Long, int[]>();
+        int tripRef = 0;
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                trips[tripRef] = schedule;
+                tripLines[tripRef] = line;
+                tripRef++;
+
+                for (int i = 0; i < schedule.getStopCount(); i++) {
+                    Long key = key(schedule.getStopId(i), schedule.serviceId);
+                    int[] count = counts.get(key);
+                    if (count == null) {
+                        count = new int[1];
+                        counts.put(key, count);
+                    }
+                    count[0]++;
+                }
+            }
+        }
+
+        arrivals = new HashMap<Long, long[]>(counts.size() * 2);
+        Map<Integer, List<Integer>> servicesByStop = new HashMap<Integer, List<Integer>>();
+        for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+            long key = entry.getKey();
+            arrivals.put(key, new long[entry.getValue()[0]]);
+            entry.getValue()[0] = 0;
+
+            int stopId = (int) (key >>> 32);
+            List<Integer> services = servicesByStop.get(stopId);
+            if (services == null) {
+                services = new ArrayList<Integer>();
+                servicesByStop.put(stopId, services);
+            }
+            services.add((int) key);
+        }
+
+        stopServices = new HashMap<Integer, int[]>(servicesByStop.size() * 2);
+        for (Map.Entry<Integer, List<Integer>> entry : servicesByStop.entrySet()) {
+            List<Integer> services = entry.getValue();
+            int[] values = new int[services.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = services.get(i);
+            }
+            stopServices.put(entry.getKey(), values);
+        }
+
+        long total = 0L;
+        for (tripRef = 0; tripRef < tripCount; tripRef++) {
+            BusSchedule schedule = trips[tripRef];
+            for (int i = 0; i < schedule.getStopCount(); i++) {
+                Long key = key(schedule.getStopId(i), schedule.serviceId);
+                int[] count = counts.get(key);
+                arrivals.get(key)[count[0]++] = pack(schedule.getArrivalTime(i), tripRef);
+                total++;
+            }
+        }
+        arrivalCount = total;
+
+        for (long[] values : arrivals.values()) {
+            Arrays.sort(values);
+        }
+    }
+
+    /**
+     * Up to {@code maxResults} arrivals at the stop on the day no earlier
+     * than {@code fromTime}, in time order.
+     */
+    public List<BusStop.StopArrival> getUpcomingArrivals(int stopId, ServiceDay day, int fromTime, int maxResults) {
+        return getUpcomingArrivals(new int[]{stopId}, day, fromTime, maxResults);
+    }
+
+    /**
+     * Up to {@code maxResults} arrivals at any of the stops on the day no
+     * earlier than {@code fromTime}, merged in time order.
+     */
+    public List<BusStop.StopArrival> getUpcomingArrivals(int[] stopIds, ServiceDay day, int fromTime, int maxResults) {
+        // One column per stop and service running that day
+        List<long[]> running = new ArrayList<long[]>();
+        List<Integer> runningStops = new ArrayList<Integer>();
+        for (int stopId : stopIds) {
+            int[] services = stopServices.get(stopId);
+            if (services == null) continue;
+            for (int service : services) {
+                if (!day.isActive(service)) continue;
+                running.add(arrivals.get(key(stopId, service)));
+                runningStops.add(stopId);
+            }
+        }
+
+        int k = running.size();
+        long[][] columns = running.toArray(new long[k][]);
+        int[] cursors = new int[k];
+        for (int s = 0; s < k; s++) {
+            cursors[s] = lowerBound(columns[s], (long) fromTime << 32);
+        }
+
+        List<BusStop.StopArrival> result = new ArrayList<BusStop.StopArrival>(Math.min(maxResults, 64));
+        while (result.size() < maxResults) {
+            // Boards show a handful of stops and services, so a scan of the heads beats a heap
+            int best = -1;
+            for (int s = 0; s < k; s++) {
+                if (cursors[s] < columns[s].length &&
+                    (best == -1 || columns[s][cursors[s]] < columns[best][cursors[best]])) {
+                    best = s;
+                }
+            }
+            if (best == -1) break;
+
+            long entry = columns[best][cursors[best]++];
+            int tripRef = (int) entry;
+            result.add(new BusStop.StopArrival(tripLines[tripRef], trips[tripRef],
+                (int) (entry >>> 32), runningStops.get(best)));
+        }
+        return result;
+    }
+
+    public int getTripCount() {
+        return trips.length;
+    }
+
+    public long getArrivalCount() {
+        return arrivalCount;
+    }
+
+    @Override
+    public String toString() {
+        return stopServices.size() + " stops, " + arrivals.size() + " stop services, " + arrivalCount +
+            " arrivals of " + trips.length + " trips";
+    }
+
+    private static Long key(int stopId, int serviceId) {
+        return ((long) stopId << 32) | (serviceId & 0xFFFFFFFFL);
+    }
+
+    private static long pack(int arrivalTime, int tripRef) {
+        return ((long) arrivalTime << 32) | (tripRef & 0xFFFFFFFFL);
+    }
+
+    // First index with values[i] >= key
+    private static int lowerBound(long[] values, long key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
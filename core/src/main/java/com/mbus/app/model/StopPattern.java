@@ -0,0 +1,88 @@
+package com.mbus.app.model;
+
+import java.nio.IntBuffer;
+
+/**
+ * Ordered stops a trip serves, shared by every trip with the same sequence.
+ * Instances are interned by {@link TimetableBuilder} and never modified.
+ * The ids may live on the heap or in a mapped timetable snapshot.
+ */
+public final class StopPattern {
+
+    private final IntBuffer stopIds;
+    // Null when the sequence numbers are simply 0..n-1
+    private final IntBuffer sequenceNumbers;
+    private final int size;
+    private final int hash;
+
+    StopPattern(int[] stopIds, int[] sequenceNumbers) {
+        this(IntBuffer.wrap(stopIds),
+            isIdentity(sequenceNumbers) ? null : IntBuffer.wrap(sequenceNumbers));
+    }
+
+    private StopPattern(IntBuffer stopIds, IntBuffer sequenceNumbers) {
+        this.stopIds = stopIds;
+        this.sequenceNumbers = sequenceNumbers;
+        this.size = stopIds.limit();
+        this.hash = 31 * stopIds.hashCode() + (sequenceNumbers != null ? sequenceNumbers.hashCode() : 0);
+    }
+
+    /**
+     * Wraps stop ids (and optionally sequence numbers) held in existing
+     * buffers, such as views of a mapped file. The buffers are not copied
+     * and must not change afterwards.
+     */
+    public static StopPattern wrap(IntBuffer stopIds, IntBuffer sequenceNumbers) {
+        return new StopPattern(stopIds, sequenceNumbers);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStopId(int index) {
+        return stopIds.get(index);
+    }
+
+    public int getSequenceNumber(int index) {
+        return sequenceNumbers != null ? sequenceNumbers.get(index) : index;
+    }
+
+    public boolean hasSequenceNumbers() {
+        return sequenceNumbers != null;
+    }
+
+    /**
+     * Position of the first stop with the given id, or -1.
+     */
+    public int indexOf(int stopId) {
+        for (int i = 0; i < size; i++) {
+            if (stopIds.get(i) == stopId) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StopPattern)) return false;
+        StopPattern other = (StopPattern) o;
+        if (hash != other.hash || !stopIds.equals(other.stopIds)) return false;
+        return sequenceNumbers == null
+            ? other.sequenceNumbers == null
+            : sequenceNumbers.equals(other.sequenceNumbers);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private static boolean isIdentity(int[] sequenceNumbers) {
+        if (sequenceNumbers == null) return true;
+        for (int i = 0; i < sequenceNumbers.length; i++) {
+            if (sequenceNumbers[i] != i) return false;
+        }
+        return true;
+    }
+}
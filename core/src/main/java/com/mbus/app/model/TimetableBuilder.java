@@ -0,0 +1,193 @@
+package com.mbus.app.model;
+
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds {@link BusSchedule}s into a columnar store.
+ * <p>
+ * Stop sequences are interned into shared {@link StopPattern}s, and each
+ * trip's arrivals are appended to a chunked {@code char[]} column as minute
+ * offsets from the trip's earliest arrival. A trip costs its schedule
+ * object plus two bytes per stop, instead of an object per stop time.
+ * Not thread-safe; use one builder per loading thread.
+ */
+public class TimetableBuilder {
+
+    // 64K offsets per chunk, so a full chunk is never copied to grow
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int MAX_OFFSET = Character.MAX_VALUE;
+
+    /**
+     * Storage location of one trip's stop times.
+     */
+    static final class Slice {
+        final StopPattern pattern;
+        final CharBuffer offsets;
+        final int offsetStart;
+        final int baseTime;
+
+        Slice(StopPattern pattern, CharBuffer offsets, int offsetStart, int baseTime) {
+            this.pattern = pattern;
+            this.offsets = offsets;
+            this.offsetStart = offsetStart;
+            this.baseTime = baseTime;
+        }
+    }
+
+    private final Map<StopPattern, StopPattern> patterns = new HashMap<StopPattern, StopPattern>();
+    private long patternStops = 0L;
+
+    private char[] chunk;
+    private CharBuffer chunkBuffer;
+    private int chunkUsed = 0;
+    private long allocatedOffsets;
+
+    private int tripCount = 0;
+    private long stopTimeCount = 0L;
+
+    public TimetableBuilder() {
+        this(CHUNK_SIZE);
+    }
+
+    /**
+     * Builder whose first chunk holds {@code expectedStopTimes} offsets, for
+     * small timetables such as a single line's.
+     */
+    public TimetableBuilder(int expectedStopTimes) {
+        chunk = new char[Math.max(1, Math.min(CHUNK_SIZE, expectedStopTimes))];
+        chunkBuffer = CharBuffer.wrap(chunk);
+        allocatedOffsets = chunk.length;
+    }
+
+    /**
+     * Adds a trip whose stops and arrival minutes are the first
+     * {@code count} entries of the given arrays. {@code sequenceNumbers}
+     * may be null for 0..count-1.
+     *
+     * @throws IllegalArgumentException if the trip spans more than 65535 minutes
+     */
+    public BusSchedule addTrip(int scheduleId, int lineId, int variantId, int direction,
+                               int serviceId, int departureTime,
+                               int[] stopIds, int[] sequenceNumbers, int[] arrivalTimes, int count) {
+        int[] patternStopIds = new int[count];
+        System.arraycopy(stopIds, 0, patternStopIds, 0, count);
+        int[] patternSequences = null;
+        if (sequenceNumbers != null) {
+            patternSequences = new int[count];
+            System.arraycopy(sequenceNumbers, 0, patternSequences, 0, count);
+        }
+
+        StopPattern pattern = intern(new StopPattern(patternStopIds, patternSequences));
+
+        int baseTime = count > 0 ? arrivalTimes[0] : departureTime;
+        for (int i = 1; i < count; i++) {
+            baseTime = Math.min(baseTime, arrivalTimes[i]);
+        }
+
+        if (chunkUsed + count > chunk.length) {
+            chunk = new char[Math.max(CHUNK_SIZE, count)];
+            chunkBuffer = CharBuffer.wrap(chunk);
+            chunkUsed = 0;
+            allocatedOffsets += chunk.length;
+        }
+
+        int offsetStart = chunkUsed;
+        for (int i = 0; i < count; i++) {
+            int offset = arrivalTimes[i] - baseTime;
+            if (offset > MAX_OFFSET) {
+                throw new IllegalArgumentException("Trip " + scheduleId + " spans " + offset + " minutes");
+            }
+            chunk[offsetStart + i] = (char) offset;
+        }
+        chunkUsed += count;
+
+        tripCount++;
+        stopTimeCount += count;
+
+        return new BusSchedule(scheduleId, lineId, variantId, direction, serviceId, departureTime,
+            pattern, chunkBuffer, offsetStart, baseTime);
+    }
+
+    public BusSchedule addTrip(int scheduleId, int lineId, int variantId, int direction,
+                               int serviceId, int departureTime, List<BusSchedule.StopTime> stopTimes) {
+        int count = stopTimes.size();
+        int[] stopIds = new int[count];
+        int[] sequenceNumbers = new int[count];
+        int[] arrivalTimes = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            BusSchedule.StopTime stopTime = stopTimes.get(i);
+            stopIds[i] = stopTime.stopId;
+            sequenceNumbers[i] = stopTime.sequenceNumber;
+            arrivalTimes[i] = stopTime.arrivalTime;
+        }
+
+        return addTrip(scheduleId, lineId, variantId, direction, serviceId, departureTime,
+            stopIds, sequenceNumbers, arrivalTimes, count);
+    }
+
+    public int getTripCount() {
+        return tripCount;
+    }
+
+    public int getPatternCount() {
+        return patterns.size();
+    }
+
+    public long getStopTimeCount() {
+        return stopTimeCount;
+    }
+
+    /**
+     * Approximate bytes held by patterns and offset columns, excluding the
+     * schedule objects themselves.
+     */
+    public long estimateBytes() {
+        return allocatedOffsets * 2 + patternStops * 4 + patterns.size() * 48L;
+    }
+
+    @Override
+    public String toString() {
+        return tripCount + " trips, " + patterns.size() + " stop patterns, " +
+            stopTimeCount + " stop times in ~" + (estimateBytes() / 1024) + " KB";
+    }
+
+    private StopPattern intern(StopPattern pattern) {
+        StopPattern existing = patterns.get(pattern);
+        if (existing != null) return existing;
+
+        patterns.put(pattern, pattern);
+        patternStops += pattern.size();
+        return pattern;
+    }
+
+    // Storage for a schedule built outside any builder: its own pattern and column
+    static Slice standalone(List<BusSchedule.StopTime> stopTimes) {
+        int count = stopTimes != null ? stopTimes.size() : 0;
+        int[] stopIds = new int[count];
+        int[] sequenceNumbers = new int[count];
+        char[] offsets = new char[count];
+
+        int baseTime = Integer.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            baseTime = Math.min(baseTime, stopTimes.get(i).arrivalTime);
+        }
+
+        for (int i = 0; i < count; i++) {
+            BusSchedule.StopTime stopTime = stopTimes.get(i);
+            stopIds[i] = stopTime.stopId;
+            sequenceNumbers[i] = stopTime.sequenceNumber;
+            int offset = stopTime.arrivalTime - baseTime;
+            if (offset > MAX_OFFSET) {
+                throw new IllegalArgumentException("Trip spans " + offset + " minutes");
+            }
+            offsets[i] = (char) offset;
+        }
+
+        return new Slice(new StopPattern(stopIds, sequenceNumbers), CharBuffer.wrap(offsets), 0,
+            count > 0 ? baseTime : 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.mbus.app.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Schedules of one line running on one service day, sorted by departure
+ * time, for finding the trips running at a given moment.
+ * <p>
+ * A trip is active from its departure until its last arrival (plus the
+ * caller's dwell padding). Since no trip lasts longer than the longest
+ * indexed trip, only trips that departed within that window can still be
+ * running, and both window ends are found by binary search over the sorted
+ * departures.
+ */
+public class TripIndex {
+
+    private final BusSchedule[] trips;
+    private final float[] starts;
+    private final float[] ends;
+    private final float maxDuration;
+
+    public TripIndex(List<BusSchedule> schedules) {
+        List<BusSchedule> sorted = new ArrayList<BusSchedule>();
+        for (BusSchedule schedule : schedules) {
+            if (schedule.getStopCount() >= 2) {
+                sorted.add(schedule);
+            }
+        }
+
+        Collections.sort(sorted, new Comparator<BusSchedule>() {
+            @Override
+            public int compare(BusSchedule a, BusSchedule b) {
+                return Integer.compare(a.departureTime, b.departureTime);
+            }
+        });
+
+        trips = sorted.toArray(new BusSchedule[0]);
+        starts = new float[trips.length];
+        ends = new float[trips.length];
+
+        float longest = 0f;
+        for (int i = 0; i < trips.length; i++) {
+            starts[i] = trips[i].departureTime;
+            ends[i] = trips[i].getFinalArrivalTime();
+            longest = Math.max(longest, ends[i] - starts[i]);
+        }
+        maxDuration = longest;
+    }
+
+    /**
+     * Appends the schedules running at {@code time} to {@code out}, in
+     * departure order. A trip counts as running until {@code endPadding}
+     * minutes after its last arrival.
+     */
+    public void findActive(float time, float endPadding, List<BusSchedule> out) {
+        int from = lowerBound(starts, time - maxDuration - endPadding);
+        int to = upperBound(starts, time);
+
+        for (int i = from; i < to; i++) {
+            if (time <= ends[i] + endPadding) {
+                out.add(trips[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return trips.length;
+    }
+
+    // First index with values[i] >= key
+    private static int lowerBound(float[] values, float key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // First index with values[i] > key
+    private static int upperBound(float[] values, float key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
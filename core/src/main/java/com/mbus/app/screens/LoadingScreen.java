@@ -12,18 +12,12 @@ import com.badlogic.gdx.scenes.scene2d.ui.Table;
 import com.badlogic.gdx.utils.viewport.ScreenViewport;
 import com.mbus.app.MBusTracker;
 import com.mbus.app.assets.AssetDescriptors;
-import com.mbus.app.model.BusLine;
-import com.mbus.app.model.BusSchedule;
-import com.mbus.app.model.BusStop;
 import com.mbus.app.model.Geolocation;
 import com.mbus.app.model.ZoomXY;
-import com.mbus.app.systems.data.GeoJSONLoader;
-import com.mbus.app.systems.data.ScheduleLoader;
+import com.mbus.app.systems.data.BusDataLoader;
 import com.mbus.app.systems.map.MapRasterTiles;
-import com.mbus.app.utils.BusLineStopRelationshipBuilder;
 import com.mbus.app.utils.Constants;
 
-import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -44,8 +38,8 @@ public class LoadingScreen implements Screen {
 
     private Thread dataLoadingThread;
     private volatile boolean dataLoadingComplete = false;
-    private List<BusStop> loadedStops;
-    private List<BusLine> loadedLines;
+    private final BusDataLoader dataLoader = new BusDataLoader();
+    private BusDataLoader.BusData loadedData;
 
     private ZoomXY beginTile;
     private Texture[] mapTiles;
@@ -168,60 +162,7 @@ public class LoadingScreen implements Screen {
             @Override
             public void run() {
                 try {
-                    Gdx.app.log(TAG, "Loading bus stops...");
-                    List<BusStop> rawStops = GeoJSONLoader.loadBusStopsFromFile("data/int_mob_marprom_postaje.json");
-                    Gdx.app.log(TAG, "Loaded " + rawStops.size() + " bus stops");
-
-                    Gdx.app.log(TAG, "Loading bus lines...");
-                    List<BusLine> rawLines = GeoJSONLoader.loadBusLinesFromFile("data/int_mob_marprom_linije.json");
-                    Gdx.app.log(TAG, "Loaded " + rawLines.size() + " bus lines");
-
-                    Gdx.app.log(TAG, "Building relationships...");
-                    double proximityThreshold = 50.0;
-                    BusLineStopRelationshipBuilder.RelationshipResult result =
-                        BusLineStopRelationshipBuilder.buildRelationships(rawLines, rawStops, proximityThreshold);
-
-                    Gdx.app.log(TAG, "Loading schedules...");
-                    List<BusSchedule> schedules;
-
-                    schedules = ScheduleLoader.loadSchedulesFromFile("data/schedules.json");
-
-                    if (schedules.isEmpty()) {
-                        Gdx.app.log(TAG, "No schedule file found, generating example schedules...");
-                        schedules = ScheduleLoader.generateExampleSchedules(result.lines);
-                    }
-
-                    Gdx.app.log(TAG, "Loaded/generated " + schedules.size() + " schedules");
-
-                    Gdx.app.log(TAG, "Assigning schedules to lines...");
-                    List<BusLine> linesWithSchedules = ScheduleLoader.assignSchedulesToLines(result.lines, schedules);
-
-                    int totalStopsWithLines = 0;
-                    int totalLinesWithStops = 0;
-                    int totalLinesWithSchedules = 0;
-
-                    for (BusStop stop : result.stops) {
-                        if (stop.getLineCount() > 0) {
-                            totalStopsWithLines++;
-                        }
-                    }
-
-                    for (BusLine line : linesWithSchedules) {
-                        if (line.getStopCount() > 0) {
-                            totalLinesWithStops++;
-                        }
-                        if (line.getScheduleCount() > 0) {
-                            totalLinesWithSchedules++;
-                        }
-                    }
-
-                    Gdx.app.log(TAG, "Built relationships: " + totalStopsWithLines + "/" +
-                        result.stops.size() + " stops have lines");
-                    Gdx.app.log(TAG, totalLinesWithStops + "/" + linesWithSchedules.size() + " lines have stops");
-                    Gdx.app.log(TAG, totalLinesWithSchedules + "/" + linesWithSchedules.size() + " lines have schedules");
-
-                    loadedStops = result.stops;
-                    loadedLines = linesWithSchedules;
+                    loadedData = dataLoader.load();
                     dataLoadingComplete = true;
 
                     Gdx.app.log(TAG, "Data loading complete");
@@ -288,8 +229,9 @@ public class LoadingScreen implements Screen {
             tilesDownloadComplete.get() && tileDataQueue.isEmpty()) {
 
             Gdx.app.log(TAG, "Everything loaded, transitioning to map screen");
-            app.setBusData(loadedStops, loadedLines);
-            app.setScreen(new RasterMapScreen(app, mapTiles, beginTile));
+            app.setBusData(loadedData.stops, loadedData.lines, loadedData.departures, loadedData.calendar);
+            app.watchBusData(dataLoader);
+            app.setScreen(new RasterMapScreen(app, mapTiles, beginTile, app.getSimulationClock()));
         }
     }
 
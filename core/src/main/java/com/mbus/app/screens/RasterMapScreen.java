@@ -3,6 +3,7 @@ package com.mbus.app.screens;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.InputMultiplexer;
 import com.badlogic.gdx.Screen;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.TextureAtlas;
 import com.badlogic.gdx.input.GestureDetector;
@@ -16,17 +17,27 @@ import com.mbus.app.assets.AssetDescriptors;
 import com.mbus.app.assets.RegionNames;
 import com.mbus.app.model.BusLine;
 import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceDay;
 import com.mbus.app.model.ZoomXY;
 import com.mbus.app.systems.input.BusLineClickHandler;
 import com.mbus.app.systems.input.MapGestureListener;
 import com.mbus.app.systems.input.MarkerClickHandler;
+import com.mbus.app.systems.input.RenderScheduler;
+import com.mbus.app.systems.input.SimulationClockController;
 import com.mbus.app.systems.map.MapRasterTiles;
 import com.mbus.app.systems.map.MapRenderer;
+import com.mbus.app.systems.realtime.GtfsRealtimeReplayServer;
+import com.mbus.app.systems.realtime.RealtimeVehicleFeed;
+import com.mbus.app.systems.routing.IsochroneService;
+import com.mbus.app.systems.routing.Journey;
+import com.mbus.app.systems.routing.RaptorRouter;
+import com.mbus.app.systems.simulation.SimulationClock;
 import com.mbus.app.ui.HudPanel;
 import com.mbus.app.ui.BusStopDetailPanel;
 import com.mbus.app.utils.BusPositionCalculator;
 import com.mbus.app.utils.Constants;
 
+import java.io.IOException;
 import java.util.*;
 
 public class RasterMapScreen implements Screen {
@@ -41,6 +52,7 @@ public class RasterMapScreen implements Screen {
     private final ZoomXY beginTile;
     private List<BusStop> stops;
     private List<BusLine> busLines;
+    private int busDataVersion;
 
     private MapRenderer mapRenderer;
     private MapGestureListener mapGestureListener;
@@ -58,13 +70,34 @@ public class RasterMapScreen implements Screen {
     private float startX, startY, startZoom;
     private float targetX, targetY, targetZoom;
 
+    private boolean firstFrameRendered = false;
+
     private float timeSinceLastRefresh = 0f;
     private static final float REFRESH_INTERVAL = 30f;
 
-    public RasterMapScreen(MBusTracker app, Texture[] preloadedTiles, ZoomXY preloadedBeginTile) {
+    // Longest step animations take on the first frame after the map was idle
+    private static final float MAX_RESUME_DELTA = 1f / 30f;
+
+    private RenderScheduler renderScheduler;
+    private SimulationClockController clockController;
+
+    private final SimulationClock clock;
+    private int lastDetailMinute = -1;
+
+    private RaptorRouter router;
+    private BusStop journeyOrigin;
+    private BusStop journeyDestination;
+    private IsochroneService isochroneService;
+
+    private RealtimeVehicleFeed realtimeFeed;
+    private GtfsRealtimeReplayServer replayServer;
+
+    public RasterMapScreen(MBusTracker app, Texture[] preloadedTiles, ZoomXY preloadedBeginTile,
+                           SimulationClock clock) {
         this.app = app;
         this.mapTiles = preloadedTiles;
         this.beginTile = preloadedBeginTile;
+        this.clock = clock;
     }
 
     @Override
@@ -77,6 +110,7 @@ public class RasterMapScreen implements Screen {
 
         stops = app.getBusStops();
         busLines = app.getBusLines();
+        busDataVersion = app.getBusDataVersion();
 
         if (stops == null || busLines == null) {
             Gdx.app.error("RasterMapScreen", "Bus data not loaded! This should not happen.");
@@ -87,13 +121,14 @@ public class RasterMapScreen implements Screen {
             busLines.size() + " lines from pre-loaded data");
 
         hudPanel = new HudPanel(skin, titleIcon);
-        detailPanel = new BusStopDetailPanel(skin, timeIcon);
+        detailPanel = new BusStopDetailPanel(skin, timeIcon, clock);
 
         hudPanel.setBusLines(busLines);
         hudPanel.setBusStops(stops);
         detailPanel.setBusLines(busLines);
+        detailPanel.setDepartureIndex(app.getDepartureIndex());
 
-        mapRenderer = new MapRenderer(app.camera);
+        mapRenderer = new MapRenderer(app.camera, clock);
         mapRenderer.loadTiles(mapTiles, beginTile);
         mapRenderer.setMarkerTexture(markerTexture);
         mapRenderer.setStops(stops);
@@ -118,10 +153,12 @@ public class RasterMapScreen implements Screen {
             Gdx.app.error("RasterMapScreen", "Failed to load bus sprites");
         }
 
-        mapRenderer.setCurrentTime(
-            BusPositionCalculator.getCurrentTimeMinutesWithSeconds(),
-            BusPositionCalculator.getCurrentDayType()
-        );
+        mapRenderer.startVehicleSimulation();
+        startRealtimeFeed();
+
+        isochroneService = new IsochroneService(stops, busLines, clock);
+        isochroneService.start();
+        mapRenderer.setIsochroneService(isochroneService);
 
         hudPanel.setFilteredStopsCallback(new HudPanel.FilteredStopsCallback() {
             @Override
@@ -153,6 +190,38 @@ public class RasterMapScreen implements Screen {
             }
         });
 
+        detailPanel.setJourneyCallback(new BusStopDetailPanel.JourneyCallback() {
+            @Override
+            public void onJourneyFrom(BusStop stop) {
+                journeyOrigin = stop;
+                planJourney();
+            }
+
+            @Override
+            public void onJourneyTo(BusStop stop) {
+                journeyDestination = stop;
+                planJourney();
+            }
+
+            @Override
+            public void onJourneyCleared() {
+                journeyOrigin = null;
+                journeyDestination = null;
+                planJourney();
+            }
+        });
+
+        detailPanel.setReachabilityCallback(new BusStopDetailPanel.ReachabilityCallback() {
+            @Override
+            public void onReachabilityToggled(BusStop stop) {
+                BusStop current = isochroneService.getOrigin();
+                BusStop origin = current != null && current.idAvpost == stop.idAvpost ? null : stop;
+                Gdx.app.log("RasterMapScreen", "Reachability from: " + (origin != null ? origin.name : "-"));
+                isochroneService.setOrigin(origin, Constants.ISOCHRONE_BUDGET_MINUTES);
+                detailPanel.setReachabilityOrigin(origin);
+            }
+        });
+
         hudPanel.setShowAllStopsCallback(new HudPanel.ShowAllStopsCallback() {
             @Override
             public void onShowAllStopsChanged(boolean showAll) {
@@ -161,17 +230,22 @@ public class RasterMapScreen implements Screen {
             }
         });
 
+        hudPanel.setShowFleetCallback(new HudPanel.ShowFleetCallback() {
+            @Override
+            public void onShowFleetChanged(boolean showFleet) {
+                Gdx.app.log("RasterMapScreen", "Show fleet: " + showFleet);
+                mapRenderer.setShowFleet(showFleet);
+            }
+        });
+
         hudPanel.setBusStopClickCallback(new HudPanel.BusStopClickCallback() {
             @Override
             public void onBusStopClicked(BusStop busStop) {
                 Gdx.app.log("RasterMapScreen", "HUD clicked bus stop: " + busStop.name);
                 mapRenderer.setSelectedStop(busStop);
                 detailPanel.showBusStop(busStop);
-                int currentTime = BusPositionCalculator.getCurrentTimeMinutes();
-                int dayType = BusPositionCalculator.getCurrentDayType();
-                String timeStr = BusPositionCalculator.formatTime(currentTime);
-                int dayOfWeek = convertDayTypeToDayOfWeek(dayType);
-                detailPanel.updateCurrentTime(timeStr, dayOfWeek);
+                String timeStr = BusPositionCalculator.formatTime(clock.getTimeMinutesInt());
+                detailPanel.updateCurrentTime(timeStr, clock.getDayOfWeek());
                 zoomToBusStop(busStop);
             }
         });
@@ -179,6 +253,110 @@ public class RasterMapScreen implements Screen {
         setupInput();
     }
 
+    private void planJourney() {
+        Journey journey = null;
+
+        if (journeyOrigin != null && journeyDestination != null) {
+            if (router == null) {
+                router = new RaptorRouter(stops, busLines);
+            }
+
+            ServiceDay day = clock.getServiceDay();
+            long networkStart = System.nanoTime();
+            router.getNetwork(day);
+            long queryStart = System.nanoTime();
+            journey = router.route(journeyOrigin, journeyDestination, clock.getTimeMinutesInt(), day);
+
+            Gdx.app.log("RasterMapScreen", "Journey planned in " + (System.nanoTime() - queryStart) / 1000 +
+                " us over " + router.getLastQueryRounds() + " rounds (network ready in " +
+                (queryStart - networkStart) / 1000000 + " ms): " + journey);
+        }
+
+        mapRenderer.setJourney(journey);
+        detailPanel.setJourney(journeyOrigin, journeyDestination, journey);
+    }
+
+    /**
+     * Switches everything on the screen to the data last passed to
+     * {@link MBusTracker#setBusData}, keeping the selection, journey and
+     * reachability origin where their stops and lines still exist.
+     */
+    private void applyReloadedBusData() {
+        busDataVersion = app.getBusDataVersion();
+        List<BusStop> newStops = app.getBusStops();
+        List<BusLine> newLines = app.getBusLines();
+
+        // A reload of schedules alone keeps the stops, and with them the marker clusters
+        if (newStops != stops) {
+            stops = newStops;
+            hudPanel.setBusStops(stops);
+            mapRenderer.setStops(stops);
+            markerClickHandler.setStops(stops);
+        }
+        busLines = newLines;
+
+        BusLine selectedLine = findLine(mapRenderer.getSelectedLine());
+        hudPanel.setBusLines(busLines);
+        mapRenderer.setBusLines(busLines);
+        lineClickHandler.setBusLines(busLines);
+        mapRenderer.setSelectedLine(selectedLine);
+        if (selectedLine != null) {
+            hudPanel.selectOnlyLine(selectedLine.lineId);
+        }
+
+        detailPanel.setBusLines(busLines);
+        detailPanel.setDepartureIndex(app.getDepartureIndex());
+        if (realtimeFeed != null) {
+            realtimeFeed.setLines(busLines);
+        }
+
+        BusStop selectedStop = findStop(mapRenderer.getSelectedStop());
+        mapRenderer.setSelectedStop(selectedStop);
+        mapRenderer.setHoveredStop(null);
+        mapRenderer.setHoveredLine(null);
+        if (selectedStop != null && detailPanel.isVisible()) {
+            detailPanel.showBusStop(selectedStop);
+        }
+
+        // Routers index the old lines; the isochrone one is rebuilt on its own thread
+        BusStop reachabilityOrigin = findStop(isochroneService.getOrigin());
+        isochroneService.stop();
+        isochroneService = new IsochroneService(stops, busLines, clock);
+        isochroneService.setOrigin(reachabilityOrigin, Constants.ISOCHRONE_BUDGET_MINUTES);
+        isochroneService.start();
+        mapRenderer.setIsochroneService(isochroneService);
+        detailPanel.setReachabilityOrigin(reachabilityOrigin);
+
+        router = null;
+        journeyOrigin = findStop(journeyOrigin);
+        journeyDestination = findStop(journeyDestination);
+        planJourney();
+
+        Gdx.app.log("RasterMapScreen", "Switched to reloaded data: " + stops.size() + " stops, " +
+            busLines.size() + " lines");
+    }
+
+    private BusStop findStop(BusStop stop) {
+        if (stop == null) return null;
+        for (BusStop candidate : stops) {
+            if (candidate.idAvpost == stop.idAvpost) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private BusLine findLine(BusLine line) {
+        if (line == null) return null;
+        for (BusLine candidate : busLines) {
+            if (candidate.lineId == line.lineId && candidate.variantId == line.variantId &&
+                candidate.direction == line.direction) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
     private void zoomToBusStop(BusStop busStop) {
         Vector2 pos = MapRasterTiles.getPixelPosition(
             busStop.geo.lat,
@@ -206,10 +384,16 @@ public class RasterMapScreen implements Screen {
     public void render(float delta) {
         ScreenUtils.clear(0, 0, 0, 1);
 
+        if (app.getBusDataVersion() != busDataVersion) {
+            applyReloadedBusData();
+        }
+
+        float frameDelta = renderScheduler.wasIdle() ? Math.min(delta, MAX_RESUME_DELTA) : delta;
+
         updateHoverState();
 
         if (animatingCamera) {
-            updateCameraAnimation(delta);
+            updateCameraAnimation(frameDelta);
         } else {
             updateCamera();
         }
@@ -217,30 +401,36 @@ public class RasterMapScreen implements Screen {
         app.viewport.apply();
         app.camera.update();
 
-        float currentTime = BusPositionCalculator.getCurrentTimeMinutesWithSeconds();
-        int dayType = BusPositionCalculator.getCurrentDayType();
-        mapRenderer.setCurrentTime(currentTime, dayType);
-
-        mapRenderer.render(delta);
+        mapRenderer.render(frameDelta);
 
         hudPanel.render();
 
+        int currentMinute = clock.getTimeMinutesInt();
         if (detailPanel.isVisible()) {
-            int currentTimeInt = (int) currentTime;
-            String timeStr = BusPositionCalculator.formatTime(currentTimeInt);
-            int dayOfWeek = convertDayTypeToDayOfWeek(dayType);
-            detailPanel.updateCurrentTime(timeStr, dayOfWeek);
+            String timeStr = BusPositionCalculator.formatTime(currentMinute);
+            detailPanel.updateCurrentTime(timeStr, clock.getDayOfWeek());
         }
 
         detailPanel.render();
 
+        // Also refresh on every simulated minute, which comes much sooner when the clock is sped up
         timeSinceLastRefresh += delta;
-        if (timeSinceLastRefresh >= REFRESH_INTERVAL) {
+        if (timeSinceLastRefresh >= REFRESH_INTERVAL ||
+            (!clock.isRealTime() && currentMinute != lastDetailMinute)) {
             timeSinceLastRefresh = 0f;
+            lastDetailMinute = currentMinute;
             if (detailPanel.isVisible()) {
                 detailPanel.refresh();
             }
         }
+
+        renderScheduler.frameRendered(delta, animatingCamera || mapRenderer.isAnimating());
+
+        if (!firstFrameRendered) {
+            firstFrameRendered = true;
+            Gdx.app.log("RasterMapScreen", "First map frame " +
+                (System.currentTimeMillis() - app.getStartMillis()) + " ms after start");
+        }
     }
 
     private void updateHoverState() {
@@ -257,6 +447,14 @@ public class RasterMapScreen implements Screen {
 
         int mouseY = Gdx.input.getY();
 
+        if (mapRenderer.isPickingReady()) {
+            int pickId = mapRenderer.pick(mouseX, mouseY);
+            BusStop hoveredStop = animatingCamera ? null : mapRenderer.getPickedStop(pickId);
+            mapRenderer.setHoveredStop(hoveredStop);
+            mapRenderer.setHoveredLine(hoveredStop == null ? mapRenderer.getPickedLine(pickId) : null);
+            return;
+        }
+
         if (mapRenderer.isShowingMarkers() && !animatingCamera) {
             BusStop hoveredStop = markerClickHandler.checkMarkerClick(mouseX, mouseY);
             mapRenderer.setHoveredStop(hoveredStop);
@@ -352,6 +550,7 @@ public class RasterMapScreen implements Screen {
         lineClickHandler.setBeginTile(beginTile);
         lineClickHandler.setVisibleLineIds(hudPanel.getVisibleLineIds());
         mapGestureListener.setLineClickHandler(lineClickHandler);
+        mapGestureListener.setPickingRenderer(mapRenderer);
 
         mapGestureListener.setBusStopClickCallback(new MapGestureListener.BusStopClickCallback() {
             @Override
@@ -360,11 +559,8 @@ public class RasterMapScreen implements Screen {
                     Gdx.app.log("RasterMapScreen", "Map clicked bus stop: " + busStop.name);
                     mapRenderer.setSelectedStop(busStop);
                     detailPanel.showBusStop(busStop);
-                    int currentTime = BusPositionCalculator.getCurrentTimeMinutes();
-                    int dayType = BusPositionCalculator.getCurrentDayType();
-                    String timeStr = BusPositionCalculator.formatTime(currentTime);
-                    int dayOfWeek = convertDayTypeToDayOfWeek(dayType);
-                    detailPanel.updateCurrentTime(timeStr, dayOfWeek);
+                    String timeStr = BusPositionCalculator.formatTime(clock.getTimeMinutesInt());
+                    detailPanel.updateCurrentTime(timeStr, clock.getDayOfWeek());
                     updateHudBoundaries();
                 }
             }
@@ -392,13 +588,19 @@ public class RasterMapScreen implements Screen {
         });
 
         gestureDetector = new GestureDetector(mapGestureListener);
+        renderScheduler = new RenderScheduler(REFRESH_INTERVAL);
+        clockController = new SimulationClockController(clock);
 
         if (app.inputMultiplexer != null) {
+            app.inputMultiplexer.addProcessor(0, renderScheduler);
+            app.inputMultiplexer.addProcessor(clockController);
             app.inputMultiplexer.addProcessor(detailPanel.getStage());
             app.inputMultiplexer.addProcessor(hudPanel.getStage());
             app.inputMultiplexer.addProcessor(gestureDetector);
         } else {
             Gdx.input.setInputProcessor(new InputMultiplexer(
+                renderScheduler,
+                clockController,
                 detailPanel.getStage(),
                 hudPanel.getStage(),
                 gestureDetector,
@@ -407,6 +609,7 @@ public class RasterMapScreen implements Screen {
         }
 
         updateHudBoundaries();
+        renderScheduler.start();
     }
 
     private void updateHudBoundaries() {
@@ -418,15 +621,6 @@ public class RasterMapScreen implements Screen {
         mapGestureListener.setHudWidth(totalHudWidth);
     }
 
-    private int convertDayTypeToDayOfWeek(int dayType) {
-        switch (dayType) {
-            case 0: return 1;
-            case 1: return 6;
-            case 2: return 7;
-            default: return 1;
-        }
-    }
-
     @Override
     public void resize(int width, int height) {
         app.viewport.update(width, height, false);
@@ -452,6 +646,57 @@ public class RasterMapScreen implements Screen {
         if (detailPanel != null && app.inputMultiplexer != null) {
             app.inputMultiplexer.removeProcessor(detailPanel.getStage());
         }
+        if (clockController != null && app.inputMultiplexer != null) {
+            app.inputMultiplexer.removeProcessor(clockController);
+        }
+        if (renderScheduler != null) {
+            if (app.inputMultiplexer != null) {
+                app.inputMultiplexer.removeProcessor(renderScheduler);
+            }
+            renderScheduler.stop();
+        }
+        if (mapRenderer != null) {
+            mapRenderer.stopVehicleSimulation();
+            mapRenderer.setRealtimeFeed(null);
+        }
+        if (realtimeFeed != null) {
+            realtimeFeed.stop();
+            realtimeFeed = null;
+        }
+        if (replayServer != null) {
+            replayServer.stop();
+            replayServer = null;
+        }
+        if (isochroneService != null) {
+            isochroneService.stop();
+        }
+    }
+
+    private void startRealtimeFeed() {
+        String feedUrl = Constants.GTFS_RT_URL;
+
+        FileHandle replayDir = Gdx.files.local(Constants.GTFS_RT_REPLAY_DIR);
+        if (!replayDir.exists()) {
+            replayDir = Gdx.files.internal(Constants.GTFS_RT_REPLAY_DIR);
+        }
+
+        replayServer = GtfsRealtimeReplayServer.fromDirectory(replayDir);
+        if (replayServer != null) {
+            try {
+                replayServer.start();
+                feedUrl = replayServer.getUrl();
+            } catch (IOException e) {
+                Gdx.app.error("RasterMapScreen", "Could not start realtime replay server", e);
+                replayServer = null;
+            }
+        }
+
+        if (feedUrl == null) return;
+
+        realtimeFeed = new RealtimeVehicleFeed(feedUrl, Constants.GTFS_RT_POLL_INTERVAL_MILLIS, clock);
+        realtimeFeed.setLines(busLines);
+        realtimeFeed.start();
+        mapRenderer.setRealtimeFeed(realtimeFeed);
     }
 
     @Override
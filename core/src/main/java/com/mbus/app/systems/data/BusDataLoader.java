@@ -0,0 +1,287 @@
+package com.mbus.app.systems.data;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.StopDepartureIndex;
+import com.mbus.app.utils.BusLineStopRelationshipBuilder;
+import com.mbus.app.utils.Constants;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads stops, lines, schedules and the service calendar from the data
+ * files (or the timetable snapshot), and reloads them when files change.
+ * <p>
+ * The intermediate results of the JSON sources are kept, so a reload only
+ * redoes the steps depending on the changed files: a new schedules.json
+ * reuses the stops and the stop-line relationships. Every load builds new
+ * objects and never modifies the ones of an earlier {@link BusData}, which
+ * stays usable until it is replaced. Used by one thread at a time.
+ */
+public class BusDataLoader {
+
+    private static final String TAG = "BusDataLoader";
+
+    public static final String GTFS_PATH = "data/gtfs.zip";
+    public static final String STOPS_PATH = "data/int_mob_marprom_postaje.json";
+    public static final String LINES_PATH = "data/int_mob_marprom_linije.json";
+    public static final String SCHEDULES_PATH = "data/schedules.json";
+
+    private static final String[] SOURCE_PATHS = {GTFS_PATH, STOPS_PATH, LINES_PATH, SCHEDULES_PATH};
+
+    // Distance in meters within which a stop counts as being on a line
+    private static final double PROXIMITY_THRESHOLD = 50.0;
+
+    /**
+     * One complete, immutable set of bus data.
+     */
+    public static class BusData {
+        public final List<BusStop> stops;
+        public final List<BusLine> lines;
+        public final StopDepartureIndex departures;
+        public final ServiceCalendar calendar;
+        public final String source;
+
+        BusData(List<BusStop> stops, List<BusLine> lines, StopDepartureIndex departures,
+                ServiceCalendar calendar, String source) {
+            this.stops = stops;
+            this.lines = lines;
+            this.departures = departures;
+            this.calendar = calendar;
+            this.source = source;
+        }
+    }
+
+    // Stamp of each source file as of the last load
+    private final Map<String, Long> stamps = new HashMap<String, Long>();
+
+    private boolean fromGtfs;
+    // JSON sources, null until loaded
+    private BusLineStopRelationshipBuilder.RelationshipResult relationships;
+    private List<BusSchedule> schedules;
+    private boolean schedulesGenerated;
+
+    /**
+     * Loads everything, from the snapshot when it is up to date.
+     */
+    public BusData load() throws IOException {
+        long loadStart = System.currentTimeMillis();
+        recordStamps();
+
+        long snapshotStamp = snapshotStamp();
+        TimetableSnapshot.Contents snapshot = Constants.TIMETABLE_SNAPSHOT != null
+            ? TimetableSnapshot.read(Gdx.files.local(Constants.TIMETABLE_SNAPSHOT), snapshotStamp)
+            : null;
+
+        List<BusStop> stops;
+        List<BusLine> lines;
+        ServiceCalendar calendar;
+        String source;
+
+        GtfsImporter.Result gtfs = snapshot == null ? GtfsImporter.importFromFile(GTFS_PATH) : null;
+        if (snapshot != null) {
+            stops = snapshot.stops;
+            lines = snapshot.lines;
+            calendar = snapshot.calendar;
+            source = "snapshot";
+            fromGtfs = exists(GTFS_PATH);
+        } else if (gtfs != null) {
+            stops = gtfs.stops;
+            lines = gtfs.lines;
+            calendar = gtfs.calendar;
+            source = "gtfs";
+            fromGtfs = true;
+        } else {
+            loadRelationships();
+            loadSchedules();
+            stops = relationships.stops;
+            lines = assignSchedules();
+            calendar = ServiceCalendar.weekly(ServiceCalendar.today());
+            source = "json";
+            fromGtfs = false;
+        }
+
+        if (snapshot == null) {
+            writeSnapshot(snapshotStamp, stops, lines, calendar);
+        }
+
+        return finish(stops, lines, calendar, source, loadStart);
+    }
+
+    /**
+     * Source files whose stamp differs from the last load, with their
+     * current stamp. Empty when nothing changed.
+     */
+    public Map<String, Long> getChangedFiles() {
+        Map<String, Long> changed = new LinkedHashMap<String, Long>();
+        for (String path : SOURCE_PATHS) {
+            long stamp = TimetableSnapshot.sourceStamp(path);
+            Long loaded = stamps.get(path);
+            if (loaded == null || loaded != stamp) {
+                changed.put(path, stamp);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Rebuilds the data affected by the changed files, or returns null when
+     * none of them is a source of the current data (e.g. schedules.json
+     * while the lines come from the GTFS feed).
+     */
+    public BusData reload(Set<String> changed) throws IOException {
+        long loadStart = System.currentTimeMillis();
+        // Recorded first, so a file that fails to load is retried only once it changes again
+        recordStamps();
+
+        List<BusStop> stops;
+        List<BusLine> lines;
+        ServiceCalendar calendar;
+        String source;
+
+        boolean gtfsChanged = changed.contains(GTFS_PATH);
+        GtfsImporter.Result gtfs = null;
+        if (fromGtfs || gtfsChanged) {
+            if (!gtfsChanged) {
+                Gdx.app.log(TAG, "Ignoring changed " + changed + ", lines come from " + GTFS_PATH);
+                return null;
+            }
+            gtfs = GtfsImporter.importFromFile(GTFS_PATH);
+        }
+
+        if (gtfs != null) {
+            stops = gtfs.stops;
+            lines = gtfs.lines;
+            calendar = gtfs.calendar;
+            source = "gtfs";
+            fromGtfs = true;
+        } else {
+            boolean linesChanged = relationships == null ||
+                changed.contains(STOPS_PATH) || changed.contains(LINES_PATH);
+            if (linesChanged) {
+                loadRelationships();
+            }
+            // Generated schedules follow the lines, loaded ones only their file
+            if (schedules == null || changed.contains(SCHEDULES_PATH) || (linesChanged && schedulesGenerated)) {
+                loadSchedules();
+            }
+            stops = relationships.stops;
+            lines = assignSchedules();
+            calendar = ServiceCalendar.weekly(ServiceCalendar.today());
+            source = "json";
+            fromGtfs = false;
+        }
+
+        if (stops.isEmpty() || lines.isEmpty()) {
+            Gdx.app.error(TAG, "Reload of " + changed + " gave " + stops.size() + " stops and " +
+                lines.size() + " lines, keeping the current data");
+            return null;
+        }
+
+        writeSnapshot(snapshotStamp(), stops, lines, calendar);
+        return finish(stops, lines, calendar, source, loadStart);
+    }
+
+    private void loadRelationships() {
+        Gdx.app.log(TAG, "Loading bus stops...");
+        List<BusStop> rawStops = GeoJSONLoader.loadBusStopsFromFile(STOPS_PATH);
+        Gdx.app.log(TAG, "Loaded " + rawStops.size() + " bus stops");
+
+        Gdx.app.log(TAG, "Loading bus lines...");
+        List<BusLine> rawLines = GeoJSONLoader.loadBusLinesFromFile(LINES_PATH);
+        Gdx.app.log(TAG, "Loaded " + rawLines.size() + " bus lines");
+
+        Gdx.app.log(TAG, "Building relationships...");
+        relationships = BusLineStopRelationshipBuilder.buildRelationships(rawLines, rawStops, PROXIMITY_THRESHOLD);
+    }
+
+    private void loadSchedules() {
+        Gdx.app.log(TAG, "Loading schedules...");
+        schedules = ScheduleLoader.loadSchedulesFromFile(SCHEDULES_PATH);
+        schedulesGenerated = schedules.isEmpty();
+
+        if (schedulesGenerated) {
+            Gdx.app.log(TAG, "No schedule file found, generating example schedules...");
+            schedules = ScheduleLoader.generateExampleSchedules(relationships.lines);
+        }
+
+        Gdx.app.log(TAG, "Loaded/generated " + schedules.size() + " schedules");
+    }
+
+    private List<BusLine> assignSchedules() {
+        Gdx.app.log(TAG, "Assigning schedules to lines...");
+        return ScheduleLoader.assignSchedulesToLines(relationships.lines, schedules);
+    }
+
+    private BusData finish(List<BusStop> stops, List<BusLine> lines, ServiceCalendar calendar,
+                           String source, long loadStart) {
+        int totalStopsWithLines = 0;
+        int totalLinesWithStops = 0;
+        int totalLinesWithSchedules = 0;
+
+        for (BusStop stop : stops) {
+            if (stop.getLineCount() > 0) {
+                totalStopsWithLines++;
+            }
+        }
+
+        for (BusLine line : lines) {
+            if (line.getStopCount() > 0) {
+                totalLinesWithStops++;
+            }
+            if (line.getScheduleCount() > 0) {
+                totalLinesWithSchedules++;
+            }
+        }
+
+        Gdx.app.log(TAG, "Built relationships: " + totalStopsWithLines + "/" +
+            stops.size() + " stops have lines");
+        Gdx.app.log(TAG, totalLinesWithStops + "/" + lines.size() + " lines have stops");
+        Gdx.app.log(TAG, totalLinesWithSchedules + "/" + lines.size() + " lines have schedules");
+        Gdx.app.log(TAG, "Service calendar: " + calendar);
+
+        Runtime runtime = Runtime.getRuntime();
+        Gdx.app.log(TAG, "Bus data ready from " + source + " in " + (System.currentTimeMillis() - loadStart) +
+            " ms, heap in use " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB");
+
+        long indexStart = System.currentTimeMillis();
+        StopDepartureIndex departures = new StopDepartureIndex(lines);
+        Gdx.app.log(TAG, "Indexed " + departures + " in " +
+            (System.currentTimeMillis() - indexStart) + " ms");
+
+        return new BusData(stops, lines, departures, calendar, source);
+    }
+
+    private void writeSnapshot(long snapshotStamp, List<BusStop> stops, List<BusLine> lines,
+                               ServiceCalendar calendar) {
+        if (Constants.TIMETABLE_SNAPSHOT == null) return;
+        try {
+            TimetableSnapshot.write(Gdx.files.local(Constants.TIMETABLE_SNAPSHOT),
+                snapshotStamp, stops, lines, calendar);
+        } catch (IOException e) {
+            Gdx.app.error(TAG, "Could not write timetable snapshot", e);
+        }
+    }
+
+    private void recordStamps() {
+        for (String path : SOURCE_PATHS) {
+            stamps.put(path, TimetableSnapshot.sourceStamp(path));
+        }
+    }
+
+    private static long snapshotStamp() {
+        return TimetableSnapshot.sourceStamp(SOURCE_PATHS);
+    }
+
+    private static boolean exists(String path) {
+        return Gdx.files.internal(path).exists() || Gdx.files.local(path).exists();
+    }
+}
@@ -0,0 +1,109 @@
+package com.mbus.app.systems.data;
+
+import java.nio.charset.Charset;
+
+/**
+ * Open-addressing map from UTF-8 strings to non-negative ints that can be
+ * queried with a byte range, so lookups from {@link CsvReader} fields need
+ * no string per row.
+ */
+public class ByteStringMap {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[][] keys;
+    private int[] values;
+    private int size = 0;
+    private int mask;
+
+    public ByteStringMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        keys = new byte[capacity][];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, replacing an existing mapping.
+     */
+    public void put(String key, int value) {
+        byte[] bytes = key.getBytes(UTF_8);
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+
+        int slot = hash(bytes, 0, bytes.length) & mask;
+        while (keys[slot] != null) {
+            if (equals(keys[slot], bytes, 0, bytes.length)) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = bytes;
+        values[slot] = value;
+        size++;
+    }
+
+    public int get(String key) {
+        byte[] bytes = key.getBytes(UTF_8);
+        return get(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Value for the key held in {@code bytes[offset, offset + length)}, or -1.
+     */
+    public int get(byte[] bytes, int offset, int length) {
+        int slot = hash(bytes, offset, length) & mask;
+        while (keys[slot] != null) {
+            if (equals(keys[slot], bytes, offset, length)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldValues = values;
+
+        keys = new byte[oldKeys.length * 2][];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            byte[] key = oldKeys[i];
+            if (key == null) continue;
+
+            int slot = hash(key, 0, key.length) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 0;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the low bits, which pick the slot
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+        if (key.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[offset + i]) return false;
+        }
+        return true;
+    }
+}
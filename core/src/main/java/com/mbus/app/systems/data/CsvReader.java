@@ -0,0 +1,322 @@
+package com.mbus.app.systems.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Streaming CSV tokenizer working directly on bytes.
+ * <p>
+ * Records are read into a reused buffer and fields are kept as offsets into
+ * it, so numbers and times are parsed without creating strings. Strings are
+ * only made for the fields a caller asks for. Quoted fields (RFC 4180) are
+ * unescaped in place. A record must fit in the buffer, which grows if one
+ * doesn't.
+ */
+public class CsvReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private byte[] buffer = new byte[64 * 1024];
+    // Unread bytes are buffer[position, limit)
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfStream = false;
+
+    private int fieldCount = 0;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+
+    private String[] header = new String[0];
+    private long recordCount = 0L;
+
+    public CsvReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the first record as column names.
+     */
+    public boolean readHeader() throws IOException {
+        if (!next()) return false;
+
+        // Skip a UTF-8 byte order mark
+        if (fieldCount > 0 && fieldEnd[0] - fieldStart[0] >= 3 &&
+            buffer[fieldStart[0]] == (byte) 0xEF &&
+            buffer[fieldStart[0] + 1] == (byte) 0xBB &&
+            buffer[fieldStart[0] + 2] == (byte) 0xBF) {
+            fieldStart[0] += 3;
+        }
+
+        header = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            header[i] = getString(i).trim();
+        }
+        recordCount = 0L;
+        return true;
+    }
+
+    /**
+     * Index of the named column, or -1 if the file doesn't have it.
+     */
+    public int column(String name) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Advances to the next non-empty record. Field accessors refer to it
+     * until the next call.
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (!parseRecord()) return false;
+            if (fieldCount > 1 || fieldEnd[0] > fieldStart[0]) {
+                recordCount++;
+                return true;
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public boolean isEmpty(int field) {
+        return field < 0 || field >= fieldCount || fieldEnd[field] == fieldStart[field];
+    }
+
+    public String getString(int field) {
+        if (isEmpty(field)) return "";
+        return new String(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field], UTF_8);
+    }
+
+    /**
+     * Parses a decimal integer, or returns {@code defaultValue} if the field
+     * is missing or not a number.
+     */
+    public int getInt(int field, int defaultValue) {
+        if (isEmpty(field)) return defaultValue;
+
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = buffer[i] == '-';
+        if (negative) i++;
+        if (i == end) return defaultValue;
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return defaultValue;
+            value = value * 10 + digit;
+            if (value > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) return defaultValue;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    public double getDouble(int field, double defaultValue) {
+        if (isEmpty(field)) return defaultValue;
+        try {
+            return Double.parseDouble(getString(field).trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses a GTFS time {@code H:MM:SS} into minutes since midnight of the
+     * service day (seconds are dropped; hours may be 24 or more). Returns -1
+     * when the field is empty or malformed.
+     */
+    public int getTimeMinutes(int field) {
+        if (isEmpty(field)) return -1;
+
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        while (i < end && buffer[i] == ' ') i++;
+
+        int hours = 0;
+        int digits = 0;
+        for (; i < end && buffer[i] != ':'; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            hours = hours * 10 + digit;
+            digits++;
+        }
+        if (digits == 0 || i + 2 >= end) return -1;
+
+        int tens = buffer[i + 1] - '0';
+        int ones = buffer[i + 2] - '0';
+        if (tens < 0 || tens > 5 || ones < 0 || ones > 9) return -1;
+
+        return hours * 60 + tens * 10 + ones;
+    }
+
+    /**
+     * Looks the field up in {@code map} without creating a string.
+     */
+    public int lookup(ByteStringMap map, int field) {
+        if (isEmpty(field)) return -1;
+        return map.get(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+    }
+
+    /**
+     * True if the field holds the same bytes as it did in {@code other},
+     * where {@code other} was captured with {@link #copyField}.
+     */
+    public boolean fieldEquals(int field, byte[] other, int otherLength) {
+        int length = isEmpty(field) ? 0 : fieldEnd[field] - fieldStart[field];
+        if (length != otherLength) return false;
+        int start = fieldStart[field];
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != other[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the field's bytes into {@code target}, growing it if needed,
+     * and returns the array holding them. The length is
+     * {@link #fieldLength}.
+     */
+    public byte[] copyField(int field, byte[] target) {
+        int length = fieldLength(field);
+        if (target.length < length) {
+            target = new byte[Math.max(length, target.length * 2)];
+        }
+        if (length > 0) {
+            System.arraycopy(buffer, fieldStart[field], target, 0, length);
+        }
+        return target;
+    }
+
+    public int fieldLength(int field) {
+        return isEmpty(field) ? 0 : fieldEnd[field] - fieldStart[field];
+    }
+
+    // Tokenizes one record starting at position; false at end of input
+    private boolean parseRecord() throws IOException {
+        fieldCount = 0;
+
+        while (true) {
+            int result = tryParseRecord();
+            if (result == 1) return true;
+            if (result == -1) return false;
+
+            // Record runs past the buffered bytes: compact, grow if full, refill and retry
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+            fieldCount = 0;
+        }
+    }
+
+    // 1 = record parsed, 0 = need more bytes, -1 = no more records
+    private int tryParseRecord() {
+        if (position >= limit) {
+            return endOfStream ? -1 : 0;
+        }
+
+        int end = findRecordEnd();
+        if (end == -1) return 0;
+
+        tokenize(position, end);
+
+        // Step over the terminator: \n, \r or \r\n
+        int next = end;
+        if (next < limit) {
+            if (buffer[next] == '\r' && next + 1 < limit && buffer[next + 1] == '\n') next++;
+            next++;
+        }
+        position = next;
+        return 1;
+    }
+
+    // Index of the line break ending the record at position, or -1 if it isn't buffered yet
+    private int findRecordEnd() {
+        boolean quoted = false;
+        for (int i = position; i < limit; i++) {
+            byte b = buffer[i];
+            if (b == '"') {
+                // An escaped "" toggles twice and leaves the state unchanged
+                quoted = !quoted;
+            } else if (!quoted && (b == '\n' || b == '\r')) {
+                if (b == '\r' && i + 1 >= limit && !endOfStream) return -1;
+                return i;
+            }
+        }
+        return endOfStream ? limit : -1;
+    }
+
+    // Splits buffer[start, end) into fields, unescaping quoted ones in place
+    private void tokenize(int start, int end) {
+        int i = start;
+        while (true) {
+            if (i < end && buffer[i] == '"') {
+                int write = i;
+                int read = i + 1;
+                while (read < end) {
+                    byte b = buffer[read];
+                    if (b == '"') {
+                        if (read + 1 < end && buffer[read + 1] == '"') {
+                            buffer[write++] = '"';
+                            read += 2;
+                            continue;
+                        }
+                        read++;
+                        break;
+                    }
+                    buffer[write++] = b;
+                    read++;
+                }
+                addField(i, write);
+
+                // Anything between the closing quote and the delimiter is dropped
+                while (read < end && buffer[read] != ',') read++;
+                i = read;
+            } else {
+                int fieldStartIndex = i;
+                while (i < end && buffer[i] != ',') i++;
+                addField(fieldStartIndex, i);
+            }
+
+            if (i >= end) return;
+            i++;
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+            fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+        }
+        // Trailing spaces are common in hand-edited feeds
+        while (end > start && buffer[end - 1] == ' ') end--;
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldCount++;
+    }
+}
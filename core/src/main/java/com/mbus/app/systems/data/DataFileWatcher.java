@@ -0,0 +1,106 @@
+package com.mbus.app.systems.data;
+
+import com.badlogic.gdx.Gdx;
+
+import java.util.Map;
+
+/**
+ * Watches the data files on a background thread and reloads the bus data
+ * when they change.
+ * <p>
+ * Files are polled, since file system events are not available on every
+ * backend. A change is reloaded once the files stayed the same for one
+ * more poll, so a file still being written is not read half-way. The
+ * {@link BusDataLoader} rebuilds the data on this thread; only the finished
+ * {@link BusDataLoader.BusData} is handed to the render thread, between
+ * frames, so rendering carries on with the old data until then.
+ */
+public class DataFileWatcher {
+
+    private static final String TAG = "DataFileWatcher";
+
+    public interface ReloadCallback {
+        /**
+         * Called on the render thread with the reloaded data.
+         */
+        void onDataReloaded(BusDataLoader.BusData data);
+    }
+
+    private final BusDataLoader loader;
+    private final long pollIntervalMillis;
+    private final ReloadCallback callback;
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public DataFileWatcher(BusDataLoader loader, long pollIntervalMillis, ReloadCallback callback) {
+        this.loader = loader;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.callback = callback;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "data-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        Gdx.app.log(TAG, "Watching data files every " + pollIntervalMillis + " ms");
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void runLoop() {
+        Map<String, Long> pending = null;
+
+        while (running) {
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            Map<String, Long> changed = loader.getChangedFiles();
+            if (changed.isEmpty() || !changed.equals(pending)) {
+                // Nothing changed, or still changing
+                pending = changed.isEmpty() ? null : changed;
+                continue;
+            }
+            pending = null;
+
+            Gdx.app.log(TAG, "Data files changed: " + changed.keySet());
+            try {
+                final BusDataLoader.BusData data = loader.reload(changed.keySet());
+                if (data == null || !running) continue;
+
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onDataReloaded(data);
+                    }
+                });
+                Gdx.graphics.requestRendering();
+            } catch (Exception e) {
+                Gdx.app.error(TAG, "Reload failed, keeping the current data", e);
+            }
+        }
+    }
+}
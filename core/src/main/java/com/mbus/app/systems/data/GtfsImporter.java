@@ -0,0 +1,699 @@
+package com.mbus.app.systems.data;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.Geolocation;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.TimetableBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports a static GTFS feed straight from its zip.
+ * <p>
+ * Each table is streamed through {@link CsvReader}; {@code stop_times.txt}
+ * is never held in memory as rows. Ids are resolved through byte-keyed maps
+ * and every trip's stop times go into primitive arrays as they are read, so
+ * memory grows with the kept timetable only, not with the file. Trips whose
+ * service never runs, or whose route isn't a bus route, are dropped while
+ * streaming.
+ * <p>
+ * Every route becomes one {@link BusLine} (variant 0) whose stops and path
+ * follow its longest trip, like the GeoJSON loader keeps one variant per
+ * line. Each trip becomes one {@link BusSchedule} of its service;
+ * calendar.txt and calendar_dates.txt compile into the
+ * {@link ServiceCalendar} saying which dates each service runs on.
+ */
+public class GtfsImporter {
+
+    private static final String TAG = "GtfsImporter";
+
+    private static final int SAMPLE_HEAP_EVERY_ROWS = 65536;
+
+    public static class Result {
+        public final List<BusStop> stops;
+        public final List<BusLine> lines;
+        public final ServiceCalendar calendar;
+        public final int scheduleCount;
+
+        public Result(List<BusStop> stops, List<BusLine> lines, ServiceCalendar calendar, int scheduleCount) {
+            this.stops = stops;
+            this.lines = lines;
+            this.calendar = calendar;
+            this.scheduleCount = scheduleCount;
+        }
+    }
+
+    /**
+     * Imports the feed at {@code path}, or returns null when there is none.
+     */
+    public static Result importFromFile(String path) throws IOException {
+        FileHandle file = Gdx.files.internal(path);
+        if (!file.exists()) {
+            file = Gdx.files.local(path);
+        }
+        if (!file.exists()) {
+            return null;
+        }
+
+        return new GtfsImporter(file).run();
+    }
+
+    private final FileHandle zip;
+    private ZipFile zipFile;
+
+    private long peakHeapBytes = 0L;
+
+    // stops.txt
+    private final ByteStringMap stopIndex = new ByteStringMap(4096);
+    private final List<String> stopIds = new ArrayList<String>();
+    private final List<String> stopCodes = new ArrayList<String>();
+    private final List<String> stopNames = new ArrayList<String>();
+    private double[] stopLat = new double[1024];
+    private double[] stopLng = new double[1024];
+
+    // routes.txt
+    private final ByteStringMap routeIndex = new ByteStringMap(256);
+    private final List<String> routeShortNames = new ArrayList<String>();
+    private final List<String> routeLongNames = new ArrayList<String>();
+    private final List<String> routeAgencies = new ArrayList<String>();
+    private boolean[] routeKept = new boolean[64];
+
+    // calendar.txt, calendar_dates.txt
+    private final ByteStringMap serviceIndex = new ByteStringMap(256);
+    private final ServiceCalendar.Builder calendarBuilder = new ServiceCalendar.Builder();
+    private ServiceCalendar calendar;
+    private boolean[] serviceRuns = new boolean[0];
+
+    // trips.txt, only trips that are kept
+    private final ByteStringMap tripIndex = new ByteStringMap(16384);
+    private int tripCount = 0;
+    private int[] tripRoute = new int[1024];
+    private int[] tripService = new int[1024];
+    private int[] tripDirection = new int[1024];
+
+    // stop_times.txt, per kept trip
+    private int[][] tripStops;
+    private int[][] tripTimes;
+    private int[][] tripSequences;
+    private long stopTimeRows = 0L;
+
+    private GtfsImporter(FileHandle zip) {
+        this.zip = zip;
+    }
+
+    private Result run() throws IOException {
+        long start = System.currentTimeMillis();
+        Gdx.app.log(TAG, "Importing GTFS feed " + zip.path());
+
+        File file = zip.file();
+        if (file != null && file.exists()) {
+            zipFile = new ZipFile(file);
+        }
+
+        try {
+            readStops();
+            readRoutes();
+            readCalendar();
+            readTrips();
+            readStopTimes();
+        } finally {
+            if (zipFile != null) zipFile.close();
+        }
+
+        Result result = build();
+        sampleHeap();
+
+        Gdx.app.log(TAG, "Imported " + result.stops.size() + " stops, " + result.lines.size() +
+            " lines and " + result.scheduleCount + " schedules from " + stopTimeRows +
+            " stop times in " + (System.currentTimeMillis() - start) + " ms, peak heap " +
+            (peakHeapBytes / (1024 * 1024)) + " MB");
+        return result;
+    }
+
+    private void readStops() throws IOException {
+        CsvReader csv = open("stops.txt", true);
+        try {
+            int idColumn = csv.column("stop_id");
+            int codeColumn = csv.column("stop_code");
+            int nameColumn = csv.column("stop_name");
+            int latColumn = csv.column("stop_lat");
+            int lonColumn = csv.column("stop_lon");
+            int typeColumn = csv.column("location_type");
+
+            while (csv.next()) {
+                // Stations, entrances and nodes are not served directly
+                if (csv.getInt(typeColumn, 0) != 0) continue;
+
+                int index = stopIds.size();
+                if (index == stopLat.length) {
+                    stopLat = Arrays.copyOf(stopLat, index * 2);
+                    stopLng = Arrays.copyOf(stopLng, index * 2);
+                }
+
+                String id = csv.getString(idColumn);
+                stopIndex.put(id, index);
+                stopIds.add(id);
+                stopCodes.add(csv.isEmpty(codeColumn) ? id : csv.getString(codeColumn));
+                stopNames.add(csv.getString(nameColumn));
+                stopLat[index] = csv.getDouble(latColumn, 0);
+                stopLng[index] = csv.getDouble(lonColumn, 0);
+            }
+        } finally {
+            csv.close();
+        }
+
+        Gdx.app.log(TAG, "Read " + stopIds.size() + " stops");
+    }
+
+    private void readRoutes() throws IOException {
+        int busRoutes = 0;
+
+        CsvReader csv = open("routes.txt", true);
+        try {
+            int idColumn = csv.column("route_id");
+            int agencyColumn = csv.column("agency_id");
+            int shortNameColumn = csv.column("route_short_name");
+            int longNameColumn = csv.column("route_long_name");
+            int typeColumn = csv.column("route_type");
+
+            while (csv.next()) {
+                int index = routeShortNames.size();
+                if (index == routeKept.length) {
+                    routeKept = Arrays.copyOf(routeKept, index * 2);
+                }
+
+                routeIndex.put(csv.getString(idColumn), index);
+                routeShortNames.add(csv.getString(shortNameColumn));
+                routeLongNames.add(csv.getString(longNameColumn));
+                routeAgencies.add(csv.getString(agencyColumn));
+
+                int type = csv.getInt(typeColumn, 3);
+                routeKept[index] = type == 3 || (type >= 700 && type < 800);
+                if (routeKept[index]) busRoutes++;
+            }
+        } finally {
+            csv.close();
+        }
+
+        if (busRoutes == 0) {
+            // A feed without bus routes is still shown rather than dropped entirely
+            Arrays.fill(routeKept, 0, routeShortNames.size(), true);
+            busRoutes = routeShortNames.size();
+        }
+
+        Gdx.app.log(TAG, "Read " + routeShortNames.size() + " routes, " + busRoutes + " bus routes");
+    }
+
+    /**
+     * Compiles calendar.txt date ranges and calendar_dates.txt additions
+     * and removals into the service calendar.
+     */
+    private void readCalendar() throws IOException {
+        CsvReader csv = open("calendar.txt", false);
+        if (csv != null) {
+            try {
+                int idColumn = csv.column("service_id");
+                int startColumn = csv.column("start_date");
+                int endColumn = csv.column("end_date");
+                int[] dayColumns = new int[]{
+                    csv.column("monday"), csv.column("tuesday"), csv.column("wednesday"),
+                    csv.column("thursday"), csv.column("friday"), csv.column("saturday"),
+                    csv.column("sunday")
+                };
+
+                while (csv.next()) {
+                    int service = addService(csv.getString(idColumn));
+
+                    int weekdays = 0;
+                    for (int dayOfWeek = 0; dayOfWeek < 7; dayOfWeek++) {
+                        if (csv.getInt(dayColumns[dayOfWeek], 0) == 1) {
+                            weekdays |= 1 << dayOfWeek;
+                        }
+                    }
+
+                    calendarBuilder.setWeekly(service,
+                        ServiceCalendar.epochDay(csv.getInt(startColumn, 19700101)),
+                        ServiceCalendar.epochDay(csv.getInt(endColumn, 99991231)), weekdays);
+                }
+            } finally {
+                csv.close();
+            }
+        }
+
+        csv = open("calendar_dates.txt", false);
+        if (csv != null) {
+            try {
+                int idColumn = csv.column("service_id");
+                int dateColumn = csv.column("date");
+                int typeColumn = csv.column("exception_type");
+
+                while (csv.next()) {
+                    int date = csv.getInt(dateColumn, 0);
+                    if (date == 0) continue;
+
+                    int service = addService(csv.getString(idColumn));
+                    calendarBuilder.addException(service, ServiceCalendar.epochDay(date),
+                        csv.getInt(typeColumn, 0) == 1);
+                }
+            } finally {
+                csv.close();
+            }
+        }
+
+        calendar = calendarBuilder.build(ServiceCalendar.today());
+
+        // Services that never run keep their trips out of the import
+        int serviceCount = calendar.getServiceCount();
+        serviceRuns = new boolean[serviceCount];
+        for (int service = 0; service < serviceCount; service++) {
+            serviceRuns[service] = calendar.getWeekdays(service) != 0 || !calendar.getActiveDays(service).isEmpty();
+        }
+
+        Gdx.app.log(TAG, "Read calendar: " + calendar);
+    }
+
+    private int addService(String serviceId) {
+        int service = serviceIndex.get(serviceId);
+        if (service == -1) {
+            service = calendarBuilder.addService(serviceId);
+            serviceIndex.put(serviceId, service);
+        }
+        return service;
+    }
+
+    private void readTrips() throws IOException {
+        long rows = 0L;
+
+        CsvReader csv = open("trips.txt", true);
+        try {
+            int routeColumn = csv.column("route_id");
+            int serviceColumn = csv.column("service_id");
+            int idColumn = csv.column("trip_id");
+            int directionColumn = csv.column("direction_id");
+
+            while (csv.next()) {
+                rows++;
+
+                int route = csv.lookup(routeIndex, routeColumn);
+                if (route == -1 || !routeKept[route]) continue;
+
+                int service = csv.lookup(serviceIndex, serviceColumn);
+                if (service == -1 || !serviceRuns[service]) continue;
+
+                if (tripCount == tripRoute.length) {
+                    tripRoute = Arrays.copyOf(tripRoute, tripCount * 2);
+                    tripService = Arrays.copyOf(tripService, tripCount * 2);
+                    tripDirection = Arrays.copyOf(tripDirection, tripCount * 2);
+                }
+
+                tripIndex.put(csv.getString(idColumn), tripCount);
+                tripRoute[tripCount] = route;
+                tripService[tripCount] = service;
+                tripDirection[tripCount] = csv.getInt(directionColumn, 0) == 1 ? -1 : 1;
+                tripCount++;
+            }
+        } finally {
+            csv.close();
+        }
+
+        Gdx.app.log(TAG, "Kept " + tripCount + " of " + rows + " trips");
+    }
+
+    /**
+     * Streams stop_times.txt. Rows are normally grouped by trip, so the trip
+     * id is compared with the previous row's bytes before any lookup; the
+     * current trip's rows collect in scratch arrays and are stored when the
+     * trip changes. A trip that shows up again later is appended to.
+     */
+    private void readStopTimes() throws IOException {
+        tripStops = new int[tripCount][];
+        tripTimes = new int[tripCount][];
+        tripSequences = new int[tripCount][];
+
+        int[] stops = new int[128];
+        int[] times = new int[128];
+        int[] sequences = new int[128];
+        int count = 0;
+        int currentTrip = -1;
+
+        byte[] previousTripId = new byte[64];
+        int previousTripIdLength = -1;
+
+        CsvReader csv = open("stop_times.txt", true);
+        try {
+            int tripColumn = csv.column("trip_id");
+            int arrivalColumn = csv.column("arrival_time");
+            int departureColumn = csv.column("departure_time");
+            int stopColumn = csv.column("stop_id");
+            int sequenceColumn = csv.column("stop_sequence");
+
+            while (csv.next()) {
+                stopTimeRows++;
+                if ((stopTimeRows & (SAMPLE_HEAP_EVERY_ROWS - 1)) == 0) {
+                    sampleHeap();
+                }
+
+                if (!csv.fieldEquals(tripColumn, previousTripId, previousTripIdLength)) {
+                    if (currentTrip != -1) {
+                        storeTrip(currentTrip, stops, times, sequences, count);
+                    }
+                    count = 0;
+                    currentTrip = csv.lookup(tripIndex, tripColumn);
+                    previousTripId = csv.copyField(tripColumn, previousTripId);
+                    previousTripIdLength = csv.fieldLength(tripColumn);
+                }
+                if (currentTrip == -1) continue;
+
+                int stop = csv.lookup(stopIndex, stopColumn);
+                if (stop == -1) continue;
+
+                int time = csv.getTimeMinutes(arrivalColumn);
+                if (time == -1) {
+                    time = csv.getTimeMinutes(departureColumn);
+                }
+
+                if (count == stops.length) {
+                    stops = Arrays.copyOf(stops, count * 2);
+                    times = Arrays.copyOf(times, count * 2);
+                    sequences = Arrays.copyOf(sequences, count * 2);
+                }
+                stops[count] = stop;
+                times[count] = time;
+                sequences[count] = csv.getInt(sequenceColumn, count);
+                count++;
+            }
+
+            if (currentTrip != -1) {
+                storeTrip(currentTrip, stops, times, sequences, count);
+            }
+        } finally {
+            csv.close();
+        }
+
+        Gdx.app.log(TAG, "Read " + stopTimeRows + " stop times");
+    }
+
+    private void storeTrip(int trip, int[] stops, int[] times, int[] sequences, int count) {
+        if (count == 0) return;
+
+        int[] existingStops = tripStops[trip];
+        int offset = existingStops != null ? existingStops.length : 0;
+
+        int[] newStops = existingStops != null ? Arrays.copyOf(existingStops, offset + count) : new int[count];
+        int[] newTimes = existingStops != null ? Arrays.copyOf(tripTimes[trip], offset + count) : new int[count];
+        int[] newSequences = existingStops != null ? Arrays.copyOf(tripSequences[trip], offset + count) : new int[count];
+
+        System.arraycopy(stops, 0, newStops, offset, count);
+        System.arraycopy(times, 0, newTimes, offset, count);
+        System.arraycopy(sequences, 0, newSequences, offset, count);
+
+        tripStops[trip] = newStops;
+        tripTimes[trip] = newTimes;
+        tripSequences[trip] = newSequences;
+    }
+
+    private Result build() {
+        int routeCount = routeShortNames.size();
+        int[] lineIds = assignLineIds();
+
+        // Longest trip per route gives the line its stops and path
+        int[] longestTrip = new int[routeCount];
+        Arrays.fill(longestTrip, -1);
+
+        List<Set<Integer>> stopLines = new ArrayList<Set<Integer>>(stopIds.size());
+        for (int i = 0; i < stopIds.size(); i++) {
+            stopLines.add(null);
+        }
+
+        for (int trip = 0; trip < tripCount; trip++) {
+            if (tripStops[trip] == null) continue;
+            prepareTrip(trip);
+            if (tripStops[trip] == null) continue;
+
+            int route = tripRoute[trip];
+            if (longestTrip[route] == -1 || tripStops[trip].length > tripStops[longestTrip[route]].length) {
+                longestTrip[route] = trip;
+            }
+
+            for (int stop : tripStops[trip]) {
+                Set<Integer> lines = stopLines.get(stop);
+                if (lines == null) {
+                    lines = new HashSet<Integer>();
+                    stopLines.set(stop, lines);
+                }
+                lines.add(lineIds[route]);
+            }
+        }
+
+        int[] stopIdAvpost = assignStopIds();
+
+        List<BusStop> stops = new ArrayList<BusStop>(stopIds.size());
+        for (int i = 0; i < stopIds.size(); i++) {
+            Set<Integer> lines = stopLines.get(i);
+            List<Integer> lineIdList = new ArrayList<Integer>();
+            if (lines != null) {
+                lineIdList.addAll(lines);
+                Collections.sort(lineIdList);
+            }
+            stops.add(new BusStop(stopIdAvpost[i], stopCodes.get(i), stopNames.get(i), 0, 0,
+                new Geolocation(stopLat[i], stopLng[i]), lineIdList));
+        }
+
+        List<List<BusSchedule>> routeSchedules = new ArrayList<List<BusSchedule>>(routeCount);
+        for (int i = 0; i < routeCount; i++) {
+            routeSchedules.add(new ArrayList<BusSchedule>());
+        }
+
+        // Keep the line patterns as stop indices before trips are converted to stop ids below
+        int[][] routeStops = new int[routeCount][];
+        for (int route = 0; route < routeCount; route++) {
+            if (longestTrip[route] != -1) {
+                routeStops[route] = tripStops[longestTrip[route]].clone();
+            }
+        }
+
+        TimetableBuilder timetable = new TimetableBuilder();
+        int scheduleId = 1;
+        int scheduleCount = 0;
+        for (int trip = 0; trip < tripCount; trip++) {
+            int[] tripStopList = tripStops[trip];
+            if (tripStopList == null || tripStopList.length < 2) continue;
+
+            int route = tripRoute[trip];
+            int[] times = tripTimes[trip];
+
+            // Stop indices become stop ids in place; the trip's arrays aren't needed afterwards
+            for (int i = 0; i < tripStopList.length; i++) {
+                tripStopList[i] = stopIdAvpost[tripStopList[i]];
+            }
+
+            routeSchedules.get(route).add(timetable.addTrip(scheduleId++, lineIds[route], 0,
+                tripDirection[trip], tripService[trip], times[0], tripStopList, null, times, tripStopList.length));
+            scheduleCount++;
+
+            tripStops[trip] = null;
+            tripTimes[trip] = null;
+        }
+        Gdx.app.log(TAG, "Timetable: " + timetable);
+
+        List<BusLine> lines = new ArrayList<BusLine>();
+        for (int route = 0; route < routeCount; route++) {
+            if (routeStops[route] == null) continue;
+
+            List<BusStop> lineStops = new ArrayList<BusStop>();
+            List<Geolocation> path = new ArrayList<Geolocation>();
+            double length = 0;
+            for (int stop : routeStops[route]) {
+                BusStop busStop = stops.get(stop);
+                if (!lineStops.isEmpty()) {
+                    length += distanceMeters(path.get(path.size() - 1), busStop.geo);
+                }
+                lineStops.add(busStop);
+                path.add(busStop.geo);
+            }
+
+            String shortName = routeShortNames.get(route);
+            String longName = routeLongNames.get(route);
+
+            lines.add(new BusLine(lineIds[route], 0, 1, length,
+                longName.isEmpty() ? shortName : longName, "", routeAgencies.get(route), "",
+                path, null, lineStops, routeSchedules.get(route)));
+        }
+
+        return new Result(stops, lines, calendar, scheduleCount);
+    }
+
+    // Orders a trip's rows by stop_sequence and fills untimed stops in between timed ones
+    private void prepareTrip(int trip) {
+        int[] stops = tripStops[trip];
+        int[] times = tripTimes[trip];
+        int[] sequences = tripSequences[trip];
+
+        boolean sorted = true;
+        for (int i = 1; i < sequences.length; i++) {
+            if (sequences[i] < sequences[i - 1]) {
+                sorted = false;
+                break;
+            }
+        }
+
+        if (!sorted) {
+            long[] order = new long[sequences.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = ((long) sequences[i] << 32) | i;
+            }
+            Arrays.sort(order);
+
+            int[] sortedStops = new int[stops.length];
+            int[] sortedTimes = new int[times.length];
+            for (int i = 0; i < order.length; i++) {
+                int from = (int) order[i];
+                sortedStops[i] = stops[from];
+                sortedTimes[i] = times[from];
+            }
+            stops = sortedStops;
+            times = sortedTimes;
+            tripStops[trip] = stops;
+            tripTimes[trip] = times;
+        }
+        tripSequences[trip] = null;
+
+        int lastTimed = -1;
+        for (int i = 0; i < times.length; i++) {
+            if (times[i] == -1) continue;
+
+            if (lastTimed == -1) {
+                for (int j = 0; j < i; j++) times[j] = times[i];
+            } else if (i - lastTimed > 1) {
+                int span = times[i] - times[lastTimed];
+                for (int j = lastTimed + 1; j < i; j++) {
+                    times[j] = times[lastTimed] + span * (j - lastTimed) / (i - lastTimed);
+                }
+            }
+            lastTimed = i;
+        }
+        if (lastTimed != -1) {
+            for (int j = lastTimed + 1; j < times.length; j++) times[j] = times[lastTimed];
+        } else {
+            // No times at all; the trip can't be placed
+            tripStops[trip] = null;
+        }
+    }
+
+    // Numeric short names become line ids; others and duplicates get ids from 1000 up
+    private int[] assignLineIds() {
+        int routeCount = routeShortNames.size();
+        int[] lineIds = new int[routeCount];
+        Set<Integer> used = new HashSet<Integer>();
+
+        for (int route = 0; route < routeCount; route++) {
+            int id = parseNonNegative(routeShortNames.get(route));
+            lineIds[route] = id != -1 && used.add(id) ? id : -1;
+        }
+
+        int nextId = 1000;
+        for (int route = 0; route < routeCount; route++) {
+            if (lineIds[route] != -1) continue;
+            while (used.contains(nextId)) nextId++;
+            lineIds[route] = nextId;
+            used.add(nextId);
+        }
+
+        return lineIds;
+    }
+
+    // Numeric stop ids are kept when they are unique; otherwise stops are numbered in file order
+    private int[] assignStopIds() {
+        int[] ids = new int[stopIds.size()];
+        Set<Integer> used = new HashSet<Integer>();
+        boolean numeric = true;
+
+        for (int i = 0; i < ids.length && numeric; i++) {
+            ids[i] = parseNonNegative(stopIds.get(i));
+            numeric = ids[i] != -1 && used.add(ids[i]);
+        }
+
+        if (!numeric) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = i + 1;
+            }
+        }
+        return ids;
+    }
+
+    private CsvReader open(String name, boolean required) throws IOException {
+        InputStream in = null;
+
+        if (zipFile != null) {
+            ZipEntry entry = zipFile.getEntry(name);
+            if (entry != null) {
+                in = zipFile.getInputStream(entry);
+            }
+        } else {
+            // Not on the file system (e.g. Android assets): scan the zip stream for the entry
+            ZipInputStream zipIn = new ZipInputStream(zip.read());
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                if (entry.getName().equals(name)) {
+                    in = zipIn;
+                    break;
+                }
+            }
+            if (in == null) zipIn.close();
+        }
+
+        if (in == null) {
+            if (required) throw new IOException("GTFS feed has no " + name);
+            return null;
+        }
+
+        CsvReader csv = new CsvReader(in);
+        if (!csv.readHeader()) {
+            csv.close();
+            if (required) throw new IOException(name + " is empty");
+            return null;
+        }
+        return csv;
+    }
+
+    private void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        if (used > peakHeapBytes) peakHeapBytes = used;
+    }
+
+    private static int parseNonNegative(String value) {
+        if (value.isEmpty() || value.length() > 9) return -1;
+        int result = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static double distanceMeters(Geolocation a, Geolocation b) {
+        double dLat = Math.toRadians(b.lat - a.lat);
+        double dLng = Math.toRadians(b.lng - a.lng);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+            Math.cos(Math.toRadians(a.lat)) * Math.cos(Math.toRadians(b.lat)) *
+                Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 6371000.0 * 2 * Math.atan2(Math.sqrt(h), Math.sqrt(1 - h));
+    }
+}
@@ -0,0 +1,398 @@
+package com.mbus.app.systems.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON tokenizer working directly on bytes.
+ * <p>
+ * The input is read through a reused buffer one token at a time, so memory
+ * does not depend on the size of the document. Names, strings and numbers
+ * are kept as offsets into the buffer: numbers and times are parsed and
+ * names compared without creating strings. Escaped strings are unescaped
+ * in place. A token must fit in the buffer, which grows if one doesn't.
+ * <p>
+ * The reader is lenient: commas are skipped, not checked, and the nesting
+ * of objects and arrays is left to the caller.
+ */
+public class JsonPullReader {
+
+    public static final int END_DOCUMENT = 0;
+    public static final int BEGIN_OBJECT = 1;
+    public static final int END_OBJECT = 2;
+    public static final int BEGIN_ARRAY = 3;
+    public static final int END_ARRAY = 4;
+    public static final int NAME = 5;
+    public static final int STRING = 6;
+    public static final int NUMBER = 7;
+    public static final int TRUE = 8;
+    public static final int FALSE = 9;
+    public static final int NULL = 10;
+
+    // Token not fully buffered yet
+    private static final int INCOMPLETE = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream in;
+    private byte[] buffer = new byte[64 * 1024];
+    // Unread bytes are buffer[position, limit)
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfStream = false;
+    // Bytes consumed before buffer[0], for error messages
+    private long offset = 0L;
+
+    private int token = END_DOCUMENT;
+    // Text of the current name, string or number
+    private int valueStart;
+    private int valueEnd;
+
+    public JsonPullReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advances to the next token and returns its type. Value accessors refer
+     * to it until the next call.
+     */
+    public int next() throws IOException {
+        while (true) {
+            int result = tryReadToken();
+            if (result != INCOMPLETE) {
+                token = result;
+                return result;
+            }
+
+            // Token runs past the buffered bytes: compact, grow if full, refill and retry
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                offset += position;
+                position = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Skips the value following the current name, including everything
+     * nested in it.
+     */
+    public void skipValue() throws IOException {
+        int next = next();
+        if (next == BEGIN_OBJECT || next == BEGIN_ARRAY) {
+            skipToEnd();
+        } else if (next == END_DOCUMENT) {
+            throw error("Unexpected end of input");
+        }
+    }
+
+    /**
+     * Skips the rest of the object or array just begun, up to and including
+     * its closing token.
+     */
+    public void skipToEnd() throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int next = next();
+            if (next == BEGIN_OBJECT || next == BEGIN_ARRAY) {
+                depth++;
+            } else if (next == END_OBJECT || next == END_ARRAY) {
+                depth--;
+            } else if (next == END_DOCUMENT) {
+                throw error("Unexpected end of input");
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public int getToken() {
+        return token;
+    }
+
+    /**
+     * True if the current name or string is {@code name}, compared byte by
+     * byte; {@code name} must be ASCII.
+     */
+    public boolean isName(String name) {
+        if (token != NAME && token != STRING) return false;
+        int length = valueEnd - valueStart;
+        if (length != name.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer[valueStart + i] != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    public String getString() {
+        if (token != NAME && token != STRING && token != NUMBER) return null;
+        return new String(buffer, valueStart, valueEnd - valueStart, UTF_8);
+    }
+
+    /**
+     * Parses the current number, or a string holding one, as an integer.
+     * Returns {@code defaultValue} for other tokens and for numbers with a
+     * fraction or exponent.
+     */
+    public int getInt(int defaultValue) {
+        if (token != NUMBER && token != STRING) return defaultValue;
+
+        int i = valueStart;
+        int end = valueEnd;
+        boolean negative = i < end && buffer[i] == '-';
+        if (negative) i++;
+        if (i == end) return defaultValue;
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return defaultValue;
+            value = value * 10 + digit;
+            if (value > (negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE)) return defaultValue;
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    public double getDouble(double defaultValue) {
+        if (token != NUMBER && token != STRING) return defaultValue;
+        try {
+            return Double.parseDouble(getString());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses the current string as a time {@code H:MM} into minutes since
+     * midnight (seconds after a second colon are dropped). Returns -1 when
+     * it is not a string or malformed.
+     */
+    public int getTimeMinutes() {
+        if (token != STRING) return -1;
+
+        int i = valueStart;
+        int end = valueEnd;
+
+        int hours = 0;
+        int digits = 0;
+        for (; i < end && buffer[i] != ':'; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) return -1;
+            hours = hours * 10 + digit;
+            digits++;
+        }
+        if (digits == 0 || i + 2 >= end) return -1;
+
+        int tens = buffer[i + 1] - '0';
+        int ones = buffer[i + 2] - '0';
+        if (tens < 0 || tens > 5 || ones < 0 || ones > 9) return -1;
+        if (i + 3 < end && buffer[i + 3] != ':') return -1;
+
+        return hours * 60 + tens * 10 + ones;
+    }
+
+    // Reads one token starting at position, or returns INCOMPLETE without consuming anything
+    private int tryReadToken() throws IOException {
+        int i = skipSeparators(position);
+        if (i >= limit) {
+            if (!endOfStream) return INCOMPLETE;
+            position = i;
+            return END_DOCUMENT;
+        }
+
+        byte b = buffer[i];
+        switch (b) {
+            case '{':
+                position = i + 1;
+                return BEGIN_OBJECT;
+            case '}':
+                position = i + 1;
+                return END_OBJECT;
+            case '[':
+                position = i + 1;
+                return BEGIN_ARRAY;
+            case ']':
+                position = i + 1;
+                return END_ARRAY;
+            case '"':
+                return tryReadString(i);
+            case 't':
+                return tryReadLiteral(i, "true", TRUE);
+            case 'f':
+                return tryReadLiteral(i, "false", FALSE);
+            case 'n':
+                return tryReadLiteral(i, "null", NULL);
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    return tryReadNumber(i);
+                }
+                throw error("Unexpected character '" + (char) b + "'");
+        }
+    }
+
+    private int tryReadString(int quote) throws IOException {
+        int i = quote + 1;
+        boolean escaped = false;
+        while (true) {
+            if (i >= limit) {
+                if (endOfStream) throw error("Unterminated string");
+                return INCOMPLETE;
+            }
+            byte b = buffer[i];
+            if (b == '"') break;
+            if (b == '\\') {
+                escaped = true;
+                i++;
+            }
+            i++;
+        }
+        int close = i;
+
+        // A string followed by ':' is a name
+        int after = skipWhitespace(close + 1);
+        if (after >= limit && !endOfStream) return INCOMPLETE;
+        boolean name = after < limit && buffer[after] == ':';
+
+        valueStart = quote + 1;
+        valueEnd = escaped ? unescape(quote + 1, close) : close;
+        position = name ? after + 1 : close + 1;
+        return name ? NAME : STRING;
+    }
+
+    private int tryReadNumber(int start) {
+        int i = start;
+        while (i < limit && isNumberChar(buffer[i])) i++;
+        if (i >= limit && !endOfStream) return INCOMPLETE;
+
+        valueStart = start;
+        valueEnd = i;
+        position = i;
+        return NUMBER;
+    }
+
+    private int tryReadLiteral(int start, String literal, int type) throws IOException {
+        int length = literal.length();
+        if (start + length > limit) {
+            if (!endOfStream) return INCOMPLETE;
+            throw error("Unexpected end of input");
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+        }
+        position = start + length;
+        return type;
+    }
+
+    // Unescapes buffer[start, end) in place and returns the new end
+    private int unescape(int start, int end) throws IOException {
+        int write = start;
+        int read = start;
+        while (read < end) {
+            byte b = buffer[read++];
+            if (b != '\\') {
+                buffer[write++] = b;
+                continue;
+            }
+            byte escape = buffer[read++];
+            switch (escape) {
+                case 'b': buffer[write++] = '\b'; break;
+                case 'f': buffer[write++] = '\f'; break;
+                case 'n': buffer[write++] = '\n'; break;
+                case 'r': buffer[write++] = '\r'; break;
+                case 't': buffer[write++] = '\t'; break;
+                case 'u': {
+                    if (read + 4 > end) throw error("Malformed \\u escape");
+                    int c = parseHex(read);
+                    read += 4;
+                    // A surrogate pair is two escapes for one code point
+                    if (c >= 0xD800 && c <= 0xDBFF && read + 6 <= end &&
+                        buffer[read] == '\\' && buffer[read + 1] == 'u') {
+                        int low = parseHex(read + 2);
+                        if (low >= 0xDC00 && low <= 0xDFFF) {
+                            c = 0x10000 + ((c - 0xD800) << 10) + (low - 0xDC00);
+                            read += 6;
+                        }
+                    }
+                    write = writeUtf8(c, write);
+                    break;
+                }
+                default:
+                    // \" \\ \/ stand for themselves
+                    buffer[write++] = escape;
+            }
+        }
+        return write;
+    }
+
+    private int parseHex(int start) throws IOException {
+        int value = 0;
+        for (int i = start; i < start + 4; i++) {
+            int digit = Character.digit(buffer[i], 16);
+            if (digit < 0) throw error("Malformed \\u escape");
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    // The encoding is never longer than the escape it replaces
+    private int writeUtf8(int c, int write) {
+        if (c < 0x80) {
+            buffer[write++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[write++] = (byte) (0xC0 | (c >> 6));
+            buffer[write++] = (byte) (0x80 | (c & 0x3F));
+        } else if (c < 0x10000) {
+            buffer[write++] = (byte) (0xE0 | (c >> 12));
+            buffer[write++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[write++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buffer[write++] = (byte) (0xF0 | (c >> 18));
+            buffer[write++] = (byte) (0x80 | ((c >> 12) & 0x3F));
+            buffer[write++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[write++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return write;
+    }
+
+    private int skipSeparators(int i) {
+        while (i < limit) {
+            byte b = buffer[i];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t' && b != ',') break;
+            i++;
+        }
+        return i;
+    }
+
+    private int skipWhitespace(int i) {
+        while (i < limit) {
+            byte b = buffer[i];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') break;
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at byte " + (offset + position));
+    }
+}
@@ -2,93 +2,231 @@ package com.mbus.app.systems.data;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.files.FileHandle;
-import com.badlogic.gdx.utils.JsonReader;
-import com.badlogic.gdx.utils.JsonValue;
 import com.mbus.app.model.BusLine;
 import com.mbus.app.model.BusSchedule;
 import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.TimetableBuilder;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class ScheduleLoader {
 
     private static final String TAG = "ScheduleLoader";
     private static final double MIN_STOP_DISTANCE = 0.003;
 
-    public static List<BusSchedule> loadSchedulesFromFile(String filePath) {
-        List<BusSchedule> schedules = new ArrayList<BusSchedule>();
+    // Marks a required field that was not in the schedule
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    /**
+     * Fields of the schedule being read, reused for every array element so
+     * reading a trip allocates nothing but the trip itself.
+     */
+    private static final class TripFields {
+        int scheduleId;
+        int lineId;
+        int variantId;
+        int direction;
+        int serviceId;
+        int departureTime;
+
+        int stopCount;
+        int[] stopIds = new int[64];
+        int[] sequences = new int[64];
+        int[] arrivalTimes = new int[64];
+        boolean stopTimesValid;
+
+        void reset() {
+            scheduleId = MISSING;
+            lineId = MISSING;
+            variantId = 0;
+            direction = 1;
+            // Day types are the services of ServiceCalendar.weekly()
+            serviceId = ServiceCalendar.WEEKDAY_SERVICE;
+            departureTime = -1;
+            stopCount = 0;
+            stopTimesValid = true;
+        }
 
-        try {
-            FileHandle file = Gdx.files.internal(filePath);
-            if (!file.exists()) {
-                Gdx.app.error(TAG, "Schedule file not found: " + filePath);
-                return schedules;
+        void addStopTime(int stopId, int sequence, int arrivalTime) {
+            if (stopCount == stopIds.length) {
+                stopIds = Arrays.copyOf(stopIds, stopCount * 2);
+                sequences = Arrays.copyOf(sequences, stopCount * 2);
+                arrivalTimes = Arrays.copyOf(arrivalTimes, stopCount * 2);
             }
+            stopIds[stopCount] = stopId;
+            sequences[stopCount] = sequence;
+            arrivalTimes[stopCount] = arrivalTime;
+            stopCount++;
+        }
+    }
+
+    /**
+     * Reads the "schedules" array of a schedule file. The file is streamed
+     * and each trip is built as soon as its element is complete, so memory
+     * grows with the trips loaded rather than with the size of the file.
+     * A file that does not parse gives no schedules.
+     */
+    public static List<BusSchedule> loadSchedulesFromFile(String filePath) {
+        List<BusSchedule> schedules = new ArrayList<BusSchedule>();
+        TimetableBuilder timetable = new TimetableBuilder();
 
-            String jsonString = file.readString();
-            JsonReader jsonReader = new JsonReader();
-            JsonValue root = jsonReader.parse(jsonString);
+        FileHandle file = Gdx.files.internal(filePath);
+        if (!file.exists()) {
+            Gdx.app.error(TAG, "Schedule file not found: " + filePath);
+            return schedules;
+        }
 
-            JsonValue schedulesArray = root.get("schedules");
-            if (schedulesArray == null) {
+        JsonPullReader reader = new JsonPullReader(file.read());
+        try {
+            if (!findSchedulesArray(reader)) {
                 Gdx.app.error(TAG, "No 'schedules' array in JSON");
                 return schedules;
             }
 
-            for (JsonValue scheduleJson : schedulesArray) {
-                BusSchedule schedule = parseSchedule(scheduleJson);
+            TripFields trip = new TripFields();
+            int token;
+            while ((token = reader.next()) != JsonPullReader.END_ARRAY) {
+                if (token != JsonPullReader.BEGIN_OBJECT) {
+                    throw new IOException("Expected a schedule object in 'schedules'");
+                }
+                BusSchedule schedule = parseSchedule(reader, trip, timetable);
                 if (schedule != null) {
                     schedules.add(schedule);
                 }
             }
 
             Gdx.app.log(TAG, "Loaded " + schedules.size() + " schedules from " + filePath);
+            Gdx.app.log(TAG, "Timetable: " + timetable);
 
         } catch (Exception e) {
             Gdx.app.error(TAG, "Error loading schedules from " + filePath, e);
+            schedules.clear();
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Gdx.app.error(TAG, "Could not close " + filePath, e);
+            }
         }
 
         return schedules;
     }
 
-    private static BusSchedule parseSchedule(JsonValue json) {
-        try {
-            int scheduleId = json.getInt("scheduleId");
-            int lineId = json.getInt("lineId");
-            int variantId = json.getInt("variantId", 0);
-            int direction = json.getInt("direction", 1);
-            int dayType = json.getInt("dayType", 0);
-
-            String departureTimeStr = json.getString("departureTime");
-            int departureTime = BusSchedule.parseTime(departureTimeStr);
-
-            List<BusSchedule.StopTime> stopTimes = new ArrayList<BusSchedule.StopTime>();
-            JsonValue stopTimesArray = json.get("stopTimes");
-
-            if (stopTimesArray != null) {
-                for (JsonValue stopTimeJson : stopTimesArray) {
-                    int stopId = stopTimeJson.getInt("stopId");
-                    int sequence = stopTimeJson.getInt("sequence");
-                    String arrivalTimeStr = stopTimeJson.getString("arrivalTime");
-                    int arrivalTime = BusSchedule.parseTime(arrivalTimeStr);
-
-                    stopTimes.add(new BusSchedule.StopTime(stopId, sequence, arrivalTime));
-                }
+    // Advances into the top-level "schedules" array; false if the root object has none
+    private static boolean findSchedulesArray(JsonPullReader reader) throws IOException {
+        if (reader.next() != JsonPullReader.BEGIN_OBJECT) return false;
+
+        while (reader.next() == JsonPullReader.NAME) {
+            if (reader.isName("schedules")) {
+                return reader.next() == JsonPullReader.BEGIN_ARRAY;
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    // Reads the fields of one schedule object up to its closing brace
+    private static BusSchedule parseSchedule(JsonPullReader reader, TripFields trip,
+                                             TimetableBuilder timetable) throws IOException {
+        trip.reset();
+
+        int token;
+        while ((token = reader.next()) == JsonPullReader.NAME) {
+            if (reader.isName("scheduleId")) {
+                reader.next();
+                trip.scheduleId = reader.getInt(MISSING);
+            } else if (reader.isName("lineId")) {
+                reader.next();
+                trip.lineId = reader.getInt(MISSING);
+            } else if (reader.isName("variantId")) {
+                reader.next();
+                trip.variantId = reader.getInt(0);
+            } else if (reader.isName("direction")) {
+                reader.next();
+                trip.direction = reader.getInt(1);
+            } else if (reader.isName("dayType")) {
+                reader.next();
+                trip.serviceId = reader.getInt(ServiceCalendar.WEEKDAY_SERVICE);
+            } else if (reader.isName("departureTime")) {
+                reader.next();
+                trip.departureTime = reader.getTimeMinutes();
+            } else if (reader.isName("stopTimes")) {
+                parseStopTimes(reader, trip);
+            } else {
+                reader.skipValue();
             }
+        }
+        if (token != JsonPullReader.END_OBJECT) {
+            throw new IOException("Unterminated schedule " + (trip.scheduleId != MISSING ? trip.scheduleId : ""));
+        }
 
-            return new BusSchedule(scheduleId, lineId, variantId, direction,
-                dayType, departureTime, stopTimes);
+        if (trip.scheduleId == MISSING || trip.lineId == MISSING || trip.departureTime < 0 || !trip.stopTimesValid) {
+            Gdx.app.error(TAG, "Error parsing schedule " + (trip.scheduleId != MISSING ? trip.scheduleId : "") +
+                ": missing or malformed fields");
+            return null;
+        }
 
-        } catch (Exception e) {
+        try {
+            return timetable.addTrip(trip.scheduleId, trip.lineId, trip.variantId, trip.direction,
+                trip.serviceId, trip.departureTime, trip.stopIds, trip.sequences, trip.arrivalTimes, trip.stopCount);
+        } catch (IllegalArgumentException e) {
             Gdx.app.error(TAG, "Error parsing schedule", e);
             return null;
         }
     }
 
+    private static void parseStopTimes(JsonPullReader reader, TripFields trip) throws IOException {
+        int token = reader.next();
+        if (token == JsonPullReader.BEGIN_OBJECT) {
+            reader.skipToEnd();
+            trip.stopTimesValid = false;
+            return;
+        }
+        if (token != JsonPullReader.BEGIN_ARRAY) return;
+
+        while ((token = reader.next()) == JsonPullReader.BEGIN_OBJECT) {
+            int stopId = MISSING;
+            int sequence = MISSING;
+            int arrivalTime = -1;
+
+            while ((token = reader.next()) == JsonPullReader.NAME) {
+                if (reader.isName("stopId")) {
+                    reader.next();
+                    stopId = reader.getInt(MISSING);
+                } else if (reader.isName("sequence")) {
+                    reader.next();
+                    sequence = reader.getInt(MISSING);
+                } else if (reader.isName("arrivalTime")) {
+                    reader.next();
+                    arrivalTime = reader.getTimeMinutes();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            if (token != JsonPullReader.END_OBJECT) {
+                throw new IOException("Unterminated stop time");
+            }
+
+            if (stopId == MISSING || sequence == MISSING || arrivalTime < 0) {
+                trip.stopTimesValid = false;
+            } else {
+                trip.addStopTime(stopId, sequence, arrivalTime);
+            }
+        }
+        if (token != JsonPullReader.END_ARRAY) {
+            throw new IOException("Expected a stop time object in 'stopTimes'");
+        }
+    }
+
     public static List<BusLine> assignSchedulesToLines(List<BusLine> lines,
                                                        List<BusSchedule> schedules) {
         Map<String, List<BusSchedule>> schedulesByLine = new HashMap<String, List<BusSchedule>>();
@@ -137,59 +275,147 @@ public class ScheduleLoader {
     }
 
     public static List<BusSchedule> generateExampleSchedules(List<BusLine> lines) {
-        List<BusSchedule> schedules = new ArrayList<BusSchedule>();
-        int scheduleIdCounter = 1;
-        Random random = new Random(12345);
+        return generateExampleSchedules(lines, 1, Runtime.getRuntime().availableProcessors());
+    }
 
-        Gdx.app.log(TAG, "=== STARTING SCHEDULE GENERATION ===");
-        Gdx.app.log(TAG, "Total lines to process: " + lines.size());
+    /**
+     * Generates example trips for every line with stops, on a fork-join pool
+     * of {@code parallelism} threads. Each line draws from its own random
+     * seed derived from (lineId, variantId, direction) and gets its own range
+     * of schedule ids, so the result doesn't depend on the thread count.
+     * {@code scale} multiplies the buses per line, and with them the trips,
+     * e.g. to measure a larger timetable.
+     */
+    public static List<BusSchedule> generateExampleSchedules(List<BusLine> lines, int scale, int parallelism) {
+        long start = System.currentTimeMillis();
+
+        // Plan every line, number the trips in line order, then generate them
+        LinePlan[] plans = new LinePlan[lines.size()];
+        LineResult[] results = new LineResult[plans.length];
+        int nextScheduleId = 1;
+        int skipped = 0;
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pool.invoke(new GenerateLines(lines, scale, plans, null, 0, plans.length));
 
-        for (BusLine line : lines) {
-            if (line.getStops().isEmpty()) {
-                Gdx.app.log(TAG, "SKIPPING line " + line.lineId + " - no stops");
-                continue;
+            for (LinePlan plan : plans) {
+                if (plan == null) {
+                    skipped++;
+                    continue;
+                }
+                plan.firstScheduleId = nextScheduleId;
+                nextScheduleId += plan.tripCount;
             }
 
-            boolean isUrbanLine = line.lineId < 100;
+            pool.invoke(new GenerateLines(lines, scale, plans, results, 0, plans.length));
+        } finally {
+            pool.shutdown();
+        }
 
-            List<BusStop> scheduledStops = filterNearbyStops(line.getStops());
+        List<BusSchedule> schedules = new ArrayList<BusSchedule>(nextScheduleId - 1);
+        long stopTimes = 0L;
+        int patterns = 0;
+        long bytes = 0L;
+        for (LineResult result : results) {
+            if (result == null) continue;
+            schedules.addAll(result.schedules);
+            stopTimes += result.timetable.getStopTimeCount();
+            patterns += result.timetable.getPatternCount();
+            bytes += result.timetable.estimateBytes();
+        }
 
-            int routeDuration = estimateRouteDuration(scheduledStops, isUrbanLine);
+        Gdx.app.log(TAG, "Generated " + schedules.size() + " schedules for " + (lines.size() - skipped) +
+            " lines (" + skipped + " without stops skipped): " + patterns + " stop patterns, " +
+            stopTimes + " stop times in ~" + (bytes / 1024) + " KB, " +
+            (System.currentTimeMillis() - start) + " ms on " + pool.getParallelism() + " threads");
+        return schedules;
+    }
+
+    /**
+     * Everything about a line's generated trips that is known before
+     * generating them, including how many there will be.
+     */
+    private static final class LinePlan {
+        final BusLine line;
+        final List<BusStop> scheduledStops;
+        final int routeDuration;
+        final int tripInterval;
+        final int busCount;
+        final int tripCount;
+        // Assigned once all lines are planned
+        int firstScheduleId;
+
+        LinePlan(BusLine line, int scale) {
+            this.line = line;
+
+            boolean isUrbanLine = line.lineId < 100;
+            scheduledStops = filterNearbyStops(line.getStops());
+            routeDuration = estimateRouteDuration(scheduledStops, isUrbanLine);
+            tripInterval = isUrbanLine ? routeDuration : routeDuration * 2;
+            busCount = 2 * scale;
+
+            int count = 0;
+            for (int busNum = 0; busNum < busCount; busNum++) {
+                count += tripsForBus(this, busNum);
+            }
+            tripCount = count;
+        }
+    }
 
-            int dayType = 0;
+    private static final class LineResult {
+        final List<BusSchedule> schedules;
+        final TimetableBuilder timetable;
 
-            Gdx.app.log(TAG, "Processing line " + line.lineId + " (variant=" + line.variantId +
-                ", dir=" + line.direction + ", stops=" + line.getStops().size() +
-                ", scheduled=" + scheduledStops.size() +
-                ", duration=" + routeDuration + " min)");
+        LineResult(List<BusSchedule> schedules, TimetableBuilder timetable) {
+            this.schedules = schedules;
+            this.timetable = timetable;
+        }
+    }
 
-            int beforeCount = schedules.size();
+    // Plans (results == null) or generates a range of lines, split in halves down to single lines
+    private static final class GenerateLines extends RecursiveAction {
+        private final List<BusLine> lines;
+        private final int scale;
+        private final LinePlan[] plans;
+        private final LineResult[] results;
+        private final int from;
+        private final int to;
+
+        GenerateLines(List<BusLine> lines, int scale, LinePlan[] plans, LineResult[] results, int from, int to) {
+            this.lines = lines;
+            this.scale = scale;
+            this.plans = plans;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
 
-            if (isUrbanLine) {
-                schedules.addAll(generateMultiTripSchedule(
-                    line, scheduledStops, dayType, scheduleIdCounter,
-                    0, 24 * 60,
-                    2,
-                    routeDuration,
-                    routeDuration, random));
-                scheduleIdCounter += 50;
-            } else {
-                schedules.addAll(generateMultiTripSchedule(
-                    line, scheduledStops, dayType, scheduleIdCounter,
-                    0, 24 * 60,
-                    2,
-                    routeDuration * 2,
-                    routeDuration, random));
-                scheduleIdCounter += 50;
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new GenerateLines(lines, scale, plans, results, from, mid),
+                    new GenerateLines(lines, scale, plans, results, mid, to));
+                return;
             }
+            if (from == to) return;
 
-            int afterCount = schedules.size();
-            Gdx.app.log(TAG, "Line " + line.lineId + " generated " + (afterCount - beforeCount) + " schedules");
+            if (results == null) {
+                BusLine line = lines.get(from);
+                plans[from] = line.getStops().isEmpty() ? null : new LinePlan(line, scale);
+            } else if (plans[from] != null) {
+                results[from] = generateLine(plans[from]);
+            }
         }
+    }
 
-        Gdx.app.log(TAG, "=== SCHEDULE GENERATION COMPLETE ===");
-        Gdx.app.log(TAG, "Total schedules generated: " + schedules.size());
-        return schedules;
+    private static long lineSeed(BusLine line) {
+        long seed = 12345L;
+        seed = seed * 1000003L + line.lineId;
+        seed = seed * 1000003L + line.variantId;
+        seed = seed * 1000003L + line.direction;
+        return seed;
     }
 
     private static List<BusStop> filterNearbyStops(List<BusStop> stops) {
@@ -225,56 +451,59 @@ public class ScheduleLoader {
         return Math.sqrt(dLat * dLat + dLng * dLng);
     }
 
-    private static List<BusSchedule> generateMultiTripSchedule(
-        BusLine line, List<BusStop> scheduledStops, int dayType, int startScheduleId,
-        int serviceStartTime, int serviceEndTime,
-        int numBuses, int tripInterval, int routeDuration,
-        Random random) {
+    private static int tripsForBus(LinePlan plan, int busNum) {
+        int serviceStartTime = 0;
+        int serviceEndTime = 24 * 60;
+        int maxTripsPerBus = (serviceEndTime - serviceStartTime - plan.routeDuration) / plan.tripInterval + 1;
 
-        List<BusSchedule> schedules = new ArrayList<BusSchedule>();
-        int scheduleId = startScheduleId;
-
-        int totalServiceTime = serviceEndTime - serviceStartTime;
-        int maxTripsPerBus = (totalServiceTime - routeDuration) / tripInterval + 1;
-
-        int actualBuses = Math.min(numBuses, 2);
+        int departure = serviceStartTime + busNum * (plan.tripInterval / plan.busCount);
+        int trips = 0;
+        while (departure + plan.routeDuration <= serviceEndTime && trips < maxTripsPerBus) {
+            departure += plan.tripInterval;
+            trips++;
+        }
+        return trips;
+    }
 
-        Gdx.app.log(TAG, "  generateMultiTripSchedule - actualBuses=" + actualBuses +
-            ", tripInterval=" + tripInterval + ", routeDuration=" + routeDuration);
+    // Runs on a pool thread; touches nothing shared but the (read-only) plan
+    private static LineResult generateLine(LinePlan plan) {
+        BusLine line = plan.line;
+        int stopCount = plan.scheduledStops.size();
 
-        for (int busNum = 0; busNum < actualBuses; busNum++) {
-            int initialDeparture = serviceStartTime + (busNum * (tripInterval / actualBuses));
+        TimetableBuilder timetable = new TimetableBuilder(plan.tripCount * stopCount);
+        List<BusSchedule> schedules = new ArrayList<BusSchedule>(plan.tripCount);
+        Random random = new Random(lineSeed(line));
+        int scheduleId = plan.firstScheduleId;
+        int serviceId = ServiceCalendar.WEEKDAY_SERVICE;
 
-            int currentDeparture = initialDeparture;
-            int tripsForThisBus = 0;
+        int[] stopIds = new int[stopCount];
+        int[] arrivalTimes = new int[stopCount];
 
-            Gdx.app.log(TAG, "    Bus #" + (busNum + 1) + " starting at " +
-                BusSchedule.formatTime(initialDeparture));
+        for (int busNum = 0; busNum < plan.busCount; busNum++) {
+            int departure = busNum * (plan.tripInterval / plan.busCount);
+            int trips = tripsForBus(plan, busNum);
 
-            while (currentDeparture + routeDuration <= serviceEndTime && tripsForThisBus < maxTripsPerBus) {
-                List<BusSchedule.StopTime> stopTimes = calculateStopTimes(
-                    scheduledStops, currentDeparture, random);
+            for (int trip = 0; trip < trips; trip++) {
+                calculateStopTimes(plan.scheduledStops, departure, random, stopIds, arrivalTimes);
 
-                schedules.add(new BusSchedule(
+                schedules.add(timetable.addTrip(
                     scheduleId++,
                     line.lineId,
                     line.variantId,
                     line.direction,
-                    dayType,
-                    currentDeparture,
-                    stopTimes
+                    serviceId,
+                    departure,
+                    stopIds,
+                    null,
+                    arrivalTimes,
+                    stopCount
                 ));
 
-                currentDeparture += tripInterval;
-                tripsForThisBus++;
+                departure += plan.tripInterval;
             }
-
-            Gdx.app.log(TAG, "    Bus #" + (busNum + 1) + " completed " + tripsForThisBus + " trips");
         }
 
-        Gdx.app.log(TAG, "  Total schedules created for this line: " + schedules.size());
-
-        return schedules;
+        return new LineResult(schedules, timetable);
     }
 
     private static int estimateRouteDuration(List<BusStop> stops, boolean isUrbanLine) {
@@ -287,16 +516,17 @@ public class ScheduleLoader {
         }
     }
 
-    private static List<BusSchedule.StopTime> calculateStopTimes(
-        List<BusStop> stops, int departureTime, Random random) {
+    private static void calculateStopTimes(
+        List<BusStop> stops, int departureTime, Random random,
+        int[] stopIds, int[] arrivalTimes) {
 
-        List<BusSchedule.StopTime> stopTimes = new ArrayList<BusSchedule.StopTime>();
         int currentTime = departureTime;
 
         for (int i = 0; i < stops.size(); i++) {
             BusStop stop = stops.get(i);
 
-            stopTimes.add(new BusSchedule.StopTime(stop.idAvpost, i, currentTime));
+            stopIds[i] = stop.idAvpost;
+            arrivalTimes[i] = currentTime;
 
             if (i < stops.size() - 1) {
                 BusStop nextStop = stops.get(i + 1);
@@ -323,7 +553,5 @@ public class ScheduleLoader {
                 currentTime += travelTimeMinutesInt;
             }
         }
-
-        return stopTimes;
     }
 }
@@ -0,0 +1,623 @@
+package com.mbus.app.systems.data;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.Geolocation;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.StopPattern;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the loaded stops, lines and timetable.
+ * <p>
+ * Written after a successful load and memory-mapped on later starts.
+ * Layout: a versioned header with a stamp of the source files, a string
+ * table, then one column per field for stops, lines, stop patterns and
+ * trips, the arrival offset column, and finally the service calendar with
+ * one bitset of dates per service. Stops and lines are read
+ * into objects (there are few of them); stop patterns and arrival offsets
+ * stay in the mapped file and schedules read them through buffer views.
+ * A snapshot whose version or stamp doesn't match is ignored.
+ */
+public class TimetableSnapshot {
+
+    private static final String TAG = "TimetableSnapshot";
+
+    private static final int MAGIC = 0x4D425454; // "MBTT"
+    private static final int VERSION = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Contents {
+        public final List<BusStop> stops;
+        public final List<BusLine> lines;
+        public final ServiceCalendar calendar;
+
+        public Contents(List<BusStop> stops, List<BusLine> lines, ServiceCalendar calendar) {
+            this.stops = stops;
+            this.lines = lines;
+            this.calendar = calendar;
+        }
+    }
+
+    private TimetableSnapshot() {
+    }
+
+    /**
+     * Combines size and modification time of the given source files (and
+     * whether they exist) into a stamp that changes when any of them does.
+     */
+    public static long sourceStamp(String... paths) {
+        long stamp = 17L * VERSION;
+        for (String path : paths) {
+            FileHandle file = Gdx.files.internal(path);
+            if (!file.exists()) {
+                file = Gdx.files.local(path);
+            }
+            stamp = stamp * 31 + path.hashCode();
+            if (file.exists()) {
+                stamp = stamp * 31 + file.length();
+                stamp = stamp * 31 + file.lastModified();
+            } else {
+                stamp = stamp * 31 - 1;
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Maps the snapshot and rebuilds the data from it, or returns null if
+     * there is no usable snapshot for {@code stamp}.
+     */
+    public static Contents read(FileHandle handle, long stamp) {
+        File file = handle.file();
+        if (file == null || !file.exists()) return null;
+
+        long start = System.currentTimeMillis();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                Gdx.app.log(TAG, "Ignoring snapshot with another format version");
+                return null;
+            }
+            if (buffer.getLong() != stamp) {
+                Gdx.app.log(TAG, "Ignoring snapshot of older source data");
+                return null;
+            }
+
+            Contents contents = readContents(buffer);
+            Gdx.app.log(TAG, "Mapped " + contents.stops.size() + " stops and " + contents.lines.size() +
+                " lines from " + file.getPath() + " (" + channel.size() / 1024 + " KB) in " +
+                (System.currentTimeMillis() - start) + " ms");
+            return contents;
+        } catch (Exception e) {
+            Gdx.app.error(TAG, "Could not read snapshot " + file.getPath(), e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the data to {@code handle}, replacing any previous snapshot.
+     */
+    public static void write(FileHandle handle, long stamp, List<BusStop> stops, List<BusLine> lines,
+                             ServiceCalendar calendar) throws IOException {
+        long start = System.currentTimeMillis();
+
+        File file = handle.file();
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(stamp);
+            writeContents(out, stops, lines, calendar);
+        } finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not rename " + temp + " to " + file);
+        }
+
+        Gdx.app.log(TAG, "Wrote " + file.getPath() + " (" + file.length() / 1024 + " KB) in " +
+            (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static void writeContents(DataOutputStream out, List<BusStop> stops, List<BusLine> lines,
+                                      ServiceCalendar calendar) throws IOException {
+        StringTable strings = new StringTable();
+
+        int stopCount = stops.size();
+        int[] stopIdMarprom = new int[stopCount];
+        int[] stopName = new int[stopCount];
+        Map<BusStop, Integer> stopIndexByObject = new IdentityHashMap<BusStop, Integer>();
+        Map<Integer, Integer> stopIndexById = new HashMap<Integer, Integer>();
+        for (int i = 0; i < stopCount; i++) {
+            BusStop stop = stops.get(i);
+            stopIdMarprom[i] = strings.add(stop.idMarprom);
+            stopName[i] = strings.add(stop.name);
+            stopIndexByObject.put(stop, i);
+            if (!stopIndexById.containsKey(stop.idAvpost)) {
+                stopIndexById.put(stop.idAvpost, i);
+            }
+        }
+
+        int lineCount = lines.size();
+        int[] lineStrings = new int[lineCount * 4];
+        for (int i = 0; i < lineCount; i++) {
+            BusLine line = lines.get(i);
+            lineStrings[i * 4] = strings.add(line.name);
+            lineStrings[i * 4 + 1] = strings.add(line.note);
+            lineStrings[i * 4 + 2] = strings.add(line.providerName);
+            lineStrings[i * 4 + 3] = strings.add(line.providerLink);
+        }
+
+        int serviceCount = calendar.getServiceCount();
+        int[] serviceIds = new int[serviceCount];
+        for (int i = 0; i < serviceCount; i++) {
+            serviceIds[i] = strings.add(calendar.getServiceId(i));
+        }
+
+        strings.write(out);
+
+        // Stops
+        out.writeInt(stopCount);
+        IntColumn lineIdOffsets = new IntColumn();
+        IntColumn lineIds = new IntColumn();
+        lineIdOffsets.add(0);
+        for (BusStop stop : stops) out.writeInt(stop.idAvpost);
+        writeInts(out, stopIdMarprom, stopCount);
+        writeInts(out, stopName, stopCount);
+        for (BusStop stop : stops) out.writeDouble(stop.x3794);
+        for (BusStop stop : stops) out.writeDouble(stop.y3794);
+        for (BusStop stop : stops) out.writeDouble(stop.geo.lat);
+        for (BusStop stop : stops) out.writeDouble(stop.geo.lng);
+        for (BusStop stop : stops) {
+            for (Integer lineId : stop.getLineIds()) lineIds.add(lineId);
+            lineIdOffsets.add(lineIds.size);
+        }
+        lineIdOffsets.write(out);
+        lineIds.write(out);
+
+        // Lines
+        out.writeInt(lineCount);
+        for (BusLine line : lines) out.writeInt(line.lineId);
+        for (BusLine line : lines) out.writeInt(line.variantId);
+        for (BusLine line : lines) out.writeInt(line.direction);
+        for (BusLine line : lines) out.writeDouble(line.length);
+        writeInts(out, lineStrings, lineCount * 4);
+
+        IntColumn pathOffsets = new IntColumn();
+        IntColumn originalOffsets = new IntColumn();
+        IntColumn lineStopOffsets = new IntColumn();
+        IntColumn lineStops = new IntColumn();
+        pathOffsets.add(0);
+        originalOffsets.add(0);
+        lineStopOffsets.add(0);
+        int pathPoints = 0;
+        int originalPoints = 0;
+        for (BusLine line : lines) {
+            pathPoints += line.getPath().size();
+            pathOffsets.add(pathPoints);
+
+            List<double[]> original = line.getOriginalCoordinates();
+            // -1 marks a line without original coordinates
+            originalPoints += original != null ? original.size() : 0;
+            originalOffsets.add(original != null ? originalPoints : -1);
+
+            for (BusStop stop : line.getStops()) {
+                Integer index = stopIndexByObject.get(stop);
+                if (index == null) index = stopIndexById.get(stop.idAvpost);
+                if (index != null) lineStops.add(index);
+            }
+            lineStopOffsets.add(lineStops.size);
+        }
+        pathOffsets.write(out);
+        for (BusLine line : lines) {
+            for (Geolocation point : line.getPath()) out.writeDouble(point.lat);
+        }
+        for (BusLine line : lines) {
+            for (Geolocation point : line.getPath()) out.writeDouble(point.lng);
+        }
+        originalOffsets.write(out);
+        out.writeInt(originalPoints * 2);
+        for (BusLine line : lines) {
+            List<double[]> original = line.getOriginalCoordinates();
+            if (original == null) continue;
+            for (double[] coordinate : original) {
+                out.writeDouble(coordinate[0]);
+                out.writeDouble(coordinate[1]);
+            }
+        }
+        lineStopOffsets.write(out);
+        lineStops.write(out);
+
+        // Stop patterns, deduplicated across all lines
+        Map<StopPattern, Integer> patternIndex = new HashMap<StopPattern, Integer>();
+        List<StopPattern> patterns = new ArrayList<StopPattern>();
+        int tripCount = 0;
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                StopPattern pattern = schedule.getPattern();
+                if (!patternIndex.containsKey(pattern)) {
+                    patternIndex.put(pattern, patterns.size());
+                    patterns.add(pattern);
+                }
+                tripCount++;
+            }
+        }
+
+        out.writeInt(patterns.size());
+        IntColumn patternOffsets = new IntColumn();
+        IntColumn patternStopIds = new IntColumn();
+        IntColumn sequenceOffsets = new IntColumn();
+        IntColumn sequenceValues = new IntColumn();
+        patternOffsets.add(0);
+        for (StopPattern pattern : patterns) {
+            for (int i = 0; i < pattern.size(); i++) patternStopIds.add(pattern.getStopId(i));
+            patternOffsets.add(patternStopIds.size);
+
+            if (pattern.hasSequenceNumbers()) {
+                sequenceOffsets.add(sequenceValues.size);
+                for (int i = 0; i < pattern.size(); i++) sequenceValues.add(pattern.getSequenceNumber(i));
+            } else {
+                sequenceOffsets.add(-1);
+            }
+        }
+        patternOffsets.write(out);
+        patternStopIds.write(out);
+        sequenceOffsets.write(out);
+        sequenceValues.write(out);
+
+        // Trips, one column per field, then all arrival offsets
+        int[][] tripColumns = new int[9][tripCount];
+        CharColumn offsets = new CharColumn();
+        int trip = 0;
+        for (int lineIndex = 0; lineIndex < lineCount; lineIndex++) {
+            for (BusSchedule schedule : lines.get(lineIndex).getSchedules()) {
+                int count = schedule.getStopCount();
+                int baseTime = count > 0 ? schedule.getArrivalTime(0) : schedule.departureTime;
+                for (int i = 1; i < count; i++) {
+                    baseTime = Math.min(baseTime, schedule.getArrivalTime(i));
+                }
+
+                tripColumns[0][trip] = schedule.scheduleId;
+                tripColumns[1][trip] = lineIndex;
+                tripColumns[2][trip] = schedule.variantId;
+                tripColumns[3][trip] = schedule.direction;
+                tripColumns[4][trip] = schedule.serviceId;
+                tripColumns[5][trip] = schedule.departureTime;
+                tripColumns[6][trip] = patternIndex.get(schedule.getPattern());
+                tripColumns[7][trip] = offsets.size;
+                tripColumns[8][trip] = baseTime;
+
+                for (int i = 0; i < count; i++) {
+                    offsets.add((char) (schedule.getArrivalTime(i) - baseTime));
+                }
+                trip++;
+            }
+        }
+
+        out.writeInt(tripCount);
+        for (int[] column : tripColumns) {
+            writeInts(out, column, tripCount);
+        }
+        offsets.write(out);
+
+        // Service calendar
+        out.writeLong(calendar.getFirstDay());
+        out.writeInt(calendar.getDayCount());
+        out.writeInt(serviceCount);
+        writeInts(out, serviceIds, serviceCount);
+        for (int i = 0; i < serviceCount; i++) out.writeInt(calendar.getWeekdays(i));
+        for (int i = 0; i < serviceCount; i++) writeBits(out, calendar.getActiveDays(i));
+        writeBits(out, calendar.getHolidays());
+    }
+
+    private static Contents readContents(ByteBuffer buffer) {
+        String[] strings = readStrings(buffer);
+
+        // Stops
+        int stopCount = buffer.getInt();
+        int[] idAvpost = readInts(buffer, stopCount);
+        int[] idMarprom = readInts(buffer, stopCount);
+        int[] names = readInts(buffer, stopCount);
+        double[] x3794 = readDoubles(buffer, stopCount);
+        double[] y3794 = readDoubles(buffer, stopCount);
+        double[] lat = readDoubles(buffer, stopCount);
+        double[] lng = readDoubles(buffer, stopCount);
+        int[] lineIdOffsets = readIntColumn(buffer);
+        int[] lineIds = readIntColumn(buffer);
+
+        List<BusStop> stops = new ArrayList<BusStop>(stopCount);
+        for (int i = 0; i < stopCount; i++) {
+            List<Integer> stopLineIds = new ArrayList<Integer>(lineIdOffsets[i + 1] - lineIdOffsets[i]);
+            for (int j = lineIdOffsets[i]; j < lineIdOffsets[i + 1]; j++) {
+                stopLineIds.add(lineIds[j]);
+            }
+            stops.add(new BusStop(idAvpost[i], strings[idMarprom[i]], strings[names[i]],
+                x3794[i], y3794[i], new Geolocation(lat[i], lng[i]), stopLineIds));
+        }
+
+        // Lines
+        int lineCount = buffer.getInt();
+        int[] lineId = readInts(buffer, lineCount);
+        int[] variantId = readInts(buffer, lineCount);
+        int[] direction = readInts(buffer, lineCount);
+        double[] length = readDoubles(buffer, lineCount);
+        int[] lineStrings = readInts(buffer, lineCount * 4);
+
+        int[] pathOffsets = readIntColumn(buffer);
+        int pathPoints = pathOffsets[lineCount];
+        double[] pathLat = readDoubles(buffer, pathPoints);
+        double[] pathLng = readDoubles(buffer, pathPoints);
+        int[] originalOffsets = readIntColumn(buffer);
+        double[] original = readDoubles(buffer, buffer.getInt());
+        int[] lineStopOffsets = readIntColumn(buffer);
+        int[] lineStops = readIntColumn(buffer);
+
+        // Stop patterns, as views of the mapped file
+        int patternCount = buffer.getInt();
+        int[] patternOffsets = readIntColumn(buffer);
+        IntBuffer patternStopIds = mapIntColumn(buffer);
+        int[] sequenceOffsets = readIntColumn(buffer);
+        IntBuffer sequenceValues = mapIntColumn(buffer);
+
+        StopPattern[] patterns = new StopPattern[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            int size = patternOffsets[i + 1] - patternOffsets[i];
+            IntBuffer sequences = sequenceOffsets[i] == -1 ? null
+                : range(sequenceValues, sequenceOffsets[i], sequenceOffsets[i] + size);
+            patterns[i] = StopPattern.wrap(
+                range(patternStopIds, patternOffsets[i], patternOffsets[i + 1]), sequences);
+        }
+
+        // Trips
+        int tripCount = buffer.getInt();
+        int[][] tripColumns = new int[9][];
+        for (int i = 0; i < tripColumns.length; i++) {
+            tripColumns[i] = readInts(buffer, tripCount);
+        }
+        int offsetCount = buffer.getInt();
+        CharBuffer offsets = take(buffer, offsetCount * 2).asCharBuffer();
+
+        // Service calendar
+        long firstDay = buffer.getLong();
+        int dayCount = buffer.getInt();
+        int serviceCount = buffer.getInt();
+        int[] serviceIdStrings = readInts(buffer, serviceCount);
+        int[] weekdays = readInts(buffer, serviceCount);
+        String[] serviceIds = new String[serviceCount];
+        BitSet[] activeDays = new BitSet[serviceCount];
+        for (int i = 0; i < serviceCount; i++) {
+            serviceIds[i] = strings[serviceIdStrings[i]];
+            activeDays[i] = readBits(buffer);
+        }
+        ServiceCalendar calendar = new ServiceCalendar(serviceIds, firstDay, dayCount, activeDays, weekdays,
+            readBits(buffer));
+
+        List<List<BusSchedule>> lineSchedules = new ArrayList<List<BusSchedule>>(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            lineSchedules.add(new ArrayList<BusSchedule>());
+        }
+        for (int trip = 0; trip < tripCount; trip++) {
+            int lineIndex = tripColumns[1][trip];
+            lineSchedules.get(lineIndex).add(new BusSchedule(
+                tripColumns[0][trip], lineId[lineIndex], tripColumns[2][trip], tripColumns[3][trip],
+                tripColumns[4][trip], tripColumns[5][trip], patterns[tripColumns[6][trip]],
+                offsets, tripColumns[7][trip], tripColumns[8][trip]));
+        }
+
+        List<BusLine> lines = new ArrayList<BusLine>(lineCount);
+        int originalStart = 0;
+        for (int i = 0; i < lineCount; i++) {
+            List<Geolocation> path = new ArrayList<Geolocation>(pathOffsets[i + 1] - pathOffsets[i]);
+            for (int j = pathOffsets[i]; j < pathOffsets[i + 1]; j++) {
+                path.add(new Geolocation(pathLat[j], pathLng[j]));
+            }
+
+            List<double[]> originalCoordinates = null;
+            if (originalOffsets[i + 1] != -1) {
+                originalCoordinates = new ArrayList<double[]>();
+                for (int j = originalStart; j < originalOffsets[i + 1]; j++) {
+                    originalCoordinates.add(new double[]{original[j * 2], original[j * 2 + 1]});
+                }
+                originalStart = originalOffsets[i + 1];
+            }
+
+            List<BusStop> stopsOfLine = new ArrayList<BusStop>(lineStopOffsets[i + 1] - lineStopOffsets[i]);
+            for (int j = lineStopOffsets[i]; j < lineStopOffsets[i + 1]; j++) {
+                stopsOfLine.add(stops.get(lineStops[j]));
+            }
+
+            lines.add(new BusLine(lineId[i], variantId[i], direction[i], length[i],
+                strings[lineStrings[i * 4]], strings[lineStrings[i * 4 + 1]],
+                strings[lineStrings[i * 4 + 2]], strings[lineStrings[i * 4 + 3]],
+                path, originalCoordinates, stopsOfLine, lineSchedules.get(i)));
+        }
+
+        return new Contents(stops, lines, calendar);
+    }
+
+    private static String[] readStrings(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length == -1) continue;
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, UTF_8);
+        }
+        return strings;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        take(buffer, count * 4).asIntBuffer().get(values);
+        return values;
+    }
+
+    private static int[] readIntColumn(ByteBuffer buffer) {
+        return readInts(buffer, buffer.getInt());
+    }
+
+    private static IntBuffer mapIntColumn(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        return take(buffer, count * 4).asIntBuffer();
+    }
+
+    private static BitSet readBits(ByteBuffer buffer) {
+        long[] words = new long[buffer.getInt()];
+        take(buffer, words.length * 8).asLongBuffer().get(words);
+        return BitSet.valueOf(words);
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        take(buffer, count * 8).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    // View of the next bytes, advancing the buffer past them
+    private static ByteBuffer take(ByteBuffer buffer, int bytes) {
+        ByteBuffer view = buffer.slice();
+        ((Buffer) view).limit(bytes);
+        ((Buffer) buffer).position(buffer.position() + bytes);
+        return view;
+    }
+
+    private static IntBuffer range(IntBuffer column, int start, int end) {
+        IntBuffer view = column.duplicate();
+        ((Buffer) view).limit(end);
+        ((Buffer) view).position(start);
+        return view.slice();
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static void writeBits(DataOutputStream out, BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static final class StringTable {
+        private final Map<String, Integer> indices = new HashMap<String, Integer>();
+        private final List<String> values = new ArrayList<String>();
+
+        // Null is stored as its own entry
+        int add(String value) {
+            Integer index = indices.get(value);
+            if (index == null) {
+                index = values.size();
+                indices.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                if (value == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                byte[] bytes = value.getBytes(UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    // Growable primitive columns, written as a count followed by the values
+    private static final class IntColumn {
+        int[] values = new int[256];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            writeInts(out, values, size);
+        }
+    }
+
+    private static final class CharColumn {
+        char[] values = new char[4096];
+        int size = 0;
+
+        void add(char value) {
+            if (size == values.length) {
+                char[] grown = new char[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeChar(values[i]);
+            }
+        }
+    }
+}
@@ -1,12 +1,10 @@
 package com.mbus.app.systems.input;
 
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import com.mbus.app.model.BusLine;
-import com.mbus.app.model.Geolocation;
 import com.mbus.app.model.ZoomXY;
-import com.mbus.app.systems.map.MapRasterTiles;
+import com.mbus.app.systems.map.SegmentGridIndex;
 
 import java.util.List;
 import java.util.Set;
@@ -14,26 +12,43 @@ import java.util.Set;
 public class BusLineClickHandler {
 
     private static final float CLICK_TOLERANCE = 15f;
+    private static final float INDEX_CELL_SIZE = 128f;
 
     private OrthographicCamera camera;
     private List<BusLine> busLines;
     private Set<Integer> visibleLineIds;
     private ZoomXY beginTile;
 
+    // Segment grid over the projected line paths, rebuilt only when lines or origin tile change
+    private final SegmentGridIndex segmentIndex = new SegmentGridIndex(INDEX_CELL_SIZE);
+    private boolean indexDirty = true;
+    private boolean[] lineVisible = new boolean[0];
+    private boolean visibilityDirty = true;
+
+    private final Vector3 worldCoords = new Vector3();
+
     public BusLineClickHandler(OrthographicCamera camera) {
         this.camera = camera;
     }
 
     public void setBusLines(List<BusLine> busLines) {
-        this.busLines = busLines;
+        if (busLines != this.busLines) {
+            this.busLines = busLines;
+            indexDirty = true;
+            visibilityDirty = true;
+        }
     }
 
     public void setVisibleLineIds(Set<Integer> visibleLineIds) {
         this.visibleLineIds = visibleLineIds;
+        visibilityDirty = true;
     }
 
     public void setBeginTile(ZoomXY beginTile) {
-        this.beginTile = beginTile;
+        if (beginTile != this.beginTile) {
+            this.beginTile = beginTile;
+            indexDirty = true;
+        }
     }
 
     public BusLine checkLineClick(int screenX, int screenY) {
@@ -42,63 +57,31 @@ public class BusLineClickHandler {
             return null;
         }
 
-        Vector3 worldCoords = camera.unproject(new Vector3(screenX, screenY, 0));
-        float worldX = worldCoords.x;
-        float worldY = worldCoords.y;
-
-        float tolerance = CLICK_TOLERANCE * camera.zoom;
-
-        BusLine closestLine = null;
-        float closestDistance = Float.MAX_VALUE;
-
-        for (BusLine line : busLines) {
-            if (!visibleLineIds.contains(line.lineId)) {
-                continue;
-            }
-
-            List<Geolocation> path = line.getPath();
-            if (path.size() < 2) continue;
-
-            for (int i = 0; i < path.size() - 1; i++) {
-                Geolocation point1 = path.get(i);
-                Geolocation point2 = path.get(i + 1);
+        if (indexDirty) {
+            segmentIndex.build(busLines, beginTile);
+            indexDirty = false;
+        }
 
-                Vector2 pos1 = MapRasterTiles.getPixelPosition(
-                    point1.lat, point1.lng, beginTile.x, beginTile.y
-                );
-                Vector2 pos2 = MapRasterTiles.getPixelPosition(
-                    point2.lat, point2.lng, beginTile.x, beginTile.y
-                );
+        if (visibilityDirty) {
+            updateLineVisibility();
+        }
 
-                float distance = distanceToLineSegment(worldX, worldY, pos1.x, pos1.y, pos2.x, pos2.y);
+        camera.unproject(worldCoords.set(screenX, screenY, 0));
 
-                if (distance <= tolerance && distance < closestDistance) {
-                    closestLine = line;
-                    closestDistance = distance;
-                }
-            }
-        }
+        float tolerance = CLICK_TOLERANCE * camera.zoom;
 
-        return closestLine;
+        int closest = segmentIndex.nearestLine(worldCoords.x, worldCoords.y, tolerance, lineVisible);
+        return closest >= 0 ? busLines.get(closest) : null;
     }
 
-    private float distanceToLineSegment(float px, float py, float x1, float y1, float x2, float y2) {
-        float dx = x2 - x1;
-        float dy = y2 - y1;
-
-        if (dx == 0 && dy == 0) {
-            return (float) Math.sqrt((px - x1) * (px - x1) + (py - y1) * (py - y1));
+    private void updateLineVisibility() {
+        if (lineVisible.length != busLines.size()) {
+            lineVisible = new boolean[busLines.size()];
         }
 
-        float t = ((px - x1) * dx + (py - y1) * dy) / (dx * dx + dy * dy);
-
-        t = Math.max(0, Math.min(1, t));
-
-        float closestX = x1 + t * dx;
-        float closestY = y1 + t * dy;
-
-        float distX = px - closestX;
-        float distY = py - closestY;
-        return (float) Math.sqrt(distX * distX + distY * distY);
+        for (int i = 0; i < busLines.size(); i++) {
+            lineVisible[i] = visibleLineIds.contains(busLines.get(i).lineId);
+        }
+        visibilityDirty = false;
     }
 }
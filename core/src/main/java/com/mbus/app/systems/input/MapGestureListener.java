@@ -6,6 +6,7 @@ import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.mbus.app.model.BusStop;
 import com.mbus.app.model.BusLine;
+import com.mbus.app.systems.map.MapRenderer;
 
 public class MapGestureListener implements GestureDetector.GestureListener {
 
@@ -16,6 +17,7 @@ public class MapGestureListener implements GestureDetector.GestureListener {
     private BusLineClickHandler lineClickHandler;
     private BusStopClickCallback stopClickCallback;
     private BusLineClickCallback lineClickCallback;
+    private MapRenderer pickingRenderer;
 
     // HUD boundary
     private float hudWidth = 0f;
@@ -50,6 +52,10 @@ public class MapGestureListener implements GestureDetector.GestureListener {
         this.lineClickHandler = handler;
     }
 
+    public void setPickingRenderer(MapRenderer renderer) {
+        this.pickingRenderer = renderer;
+    }
+
     @Override
     public boolean pan(float x, float y, float deltaX, float deltaY) {
         if (isOverHud(x)) {
@@ -96,6 +102,10 @@ public class MapGestureListener implements GestureDetector.GestureListener {
             return false;
         }
 
+        if (pickingRenderer != null && pickingRenderer.isPickingReady()) {
+            return tapPicked((int)x, (int)y);
+        }
+
         if (markerClickHandler != null && stopClickCallback != null) {
             BusStop clickedStop = markerClickHandler.checkMarkerClick((int)x, (int)y);
             if (clickedStop != null) {
@@ -115,6 +125,25 @@ public class MapGestureListener implements GestureDetector.GestureListener {
         return false;
     }
 
+    private boolean tapPicked(int x, int y) {
+        int pickId = pickingRenderer.pick(x, y);
+
+        BusStop clickedStop = pickingRenderer.getPickedStop(pickId);
+        if (clickedStop != null && stopClickCallback != null) {
+            stopClickCallback.onBusStopClicked(clickedStop);
+            return true;
+        }
+
+        // Lines can also be picked through one of their buses
+        BusLine clickedLine = pickingRenderer.getPickedLine(pickId);
+        if (clickedLine != null && lineClickCallback != null) {
+            lineClickCallback.onBusLineClicked(clickedLine);
+            return true;
+        }
+
+        return false;
+    }
+
     @Override public boolean longPress(float x, float y) { return false; }
     @Override public boolean fling(float velocityX, float velocityY, int button) { return false; }
 
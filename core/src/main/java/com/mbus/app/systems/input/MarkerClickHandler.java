@@ -6,6 +6,7 @@ import com.badlogic.gdx.math.Vector3;
 import com.mbus.app.model.BusStop;
 import com.mbus.app.model.ZoomXY;
 import com.mbus.app.systems.map.MapRasterTiles;
+import com.mbus.app.systems.map.PointGridIndex;
 import com.mbus.app.utils.Constants;
 
 import java.util.List;
@@ -14,21 +15,35 @@ public class MarkerClickHandler {
 
     private static final float BASE_MARKER_SIZE = 32f;
     private static final float CLICK_TOLERANCE = 1.2f;
+    private static final float INDEX_CELL_SIZE = 64f;
 
     private OrthographicCamera camera;
     private List<BusStop> stops;
     private ZoomXY beginTile;
 
+    // Projected in-map stops, rebuilt only when the stop list or origin tile changes
+    private final PointGridIndex stopIndex = new PointGridIndex(INDEX_CELL_SIZE);
+    private BusStop[] indexedStops = new BusStop[0];
+    private boolean indexDirty = true;
+
+    private final Vector3 worldCoords = new Vector3();
+
     public MarkerClickHandler(OrthographicCamera camera) {
         this.camera = camera;
     }
 
     public void setStops(List<BusStop> stops) {
-        this.stops = stops;
+        if (stops != this.stops) {
+            this.stops = stops;
+            indexDirty = true;
+        }
     }
 
     public void setBeginTile(ZoomXY beginTile) {
-        this.beginTile = beginTile;
+        if (beginTile != this.beginTile) {
+            this.beginTile = beginTile;
+            indexDirty = true;
+        }
     }
 
     public BusStop checkMarkerClick(int screenX, int screenY) {
@@ -36,14 +51,23 @@ public class MarkerClickHandler {
             return null;
         }
 
-        Vector3 worldCoords = camera.unproject(new Vector3(screenX, screenY, 0));
-        float worldX = worldCoords.x;
-        float worldY = worldCoords.y;
+        if (indexDirty) {
+            rebuildIndex();
+        }
+
+        camera.unproject(worldCoords.set(screenX, screenY, 0));
 
         float clickRadius = (BASE_MARKER_SIZE / 2f) * CLICK_TOLERANCE;
 
-        BusStop closestStop = null;
-        float closestDistance = Float.MAX_VALUE;
+        int closest = stopIndex.nearest(worldCoords.x, worldCoords.y, clickRadius);
+        return closest >= 0 ? indexedStops[closest] : null;
+    }
+
+    private void rebuildIndex() {
+        BusStop[] inMapStops = new BusStop[stops.size()];
+        float[] xs = new float[stops.size()];
+        float[] ys = new float[stops.size()];
+        int count = 0;
 
         for (BusStop stop : stops) {
             Vector2 markerPos = MapRasterTiles.getPixelPosition(
@@ -58,16 +82,14 @@ public class MarkerClickHandler {
                 continue;
             }
 
-            float dx = worldX - markerPos.x;
-            float dy = worldY - markerPos.y;
-            float distance = (float) Math.sqrt(dx * dx + dy * dy);
-
-            if (distance <= clickRadius && distance < closestDistance) {
-                closestStop = stop;
-                closestDistance = distance;
-            }
+            inMapStops[count] = stop;
+            xs[count] = markerPos.x;
+            ys[count] = markerPos.y;
+            count++;
         }
 
-        return closestStop;
+        indexedStops = inMapStops;
+        stopIndex.build(xs, ys, count);
+        indexDirty = false;
     }
 }
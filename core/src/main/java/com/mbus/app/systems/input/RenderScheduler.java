@@ -0,0 +1,130 @@
+package com.mbus.app.systems.input;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
+import com.badlogic.gdx.InputProcessor;
+import com.badlogic.gdx.utils.Timer;
+
+/**
+ * Switches the app to non-continuous rendering and requests frames only
+ * while something on screen can change.
+ * <p>
+ * Frames are requested on any input event (plus a short linger for scroll
+ * and hover effects), while a key or pointer is held, while the screen
+ * reports an animation, and from a periodic timer for data refreshes.
+ * Register it as the first processor of the input multiplexer; it never
+ * consumes events.
+ */
+public class RenderScheduler implements InputProcessor {
+
+    private static final String TAG = "RenderScheduler";
+
+    private static final float INPUT_LINGER = 1.0f;
+    private static final float STATS_LOG_INTERVAL = 60f;
+
+    private final float refreshInterval;
+
+    private Timer.Task refreshTask;
+    private boolean running = false;
+
+    private long lingerUntil = 0L;
+    private float statsTimer = 0f;
+    private int framesSinceLog = 0;
+    private int idleWakeups = 0;
+    private boolean idleLastFrame = false;
+
+    public RenderScheduler(float refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public void start() {
+        if (running) return;
+        running = true;
+
+        Gdx.graphics.setContinuousRendering(false);
+
+        refreshTask = Timer.schedule(new Timer.Task() {
+            @Override
+            public void run() {
+                Gdx.graphics.requestRendering();
+            }
+        }, refreshInterval, refreshInterval);
+
+        requestFrames(INPUT_LINGER);
+    }
+
+    public void stop() {
+        if (!running) return;
+        running = false;
+
+        if (refreshTask != null) {
+            refreshTask.cancel();
+            refreshTask = null;
+        }
+        Gdx.graphics.setContinuousRendering(true);
+    }
+
+    /**
+     * Keeps frames coming for at least the given number of seconds.
+     */
+    public void requestFrames(float seconds) {
+        // Wall clock, since the first frame after idle carries the whole idle time as delta
+        lingerUntil = Math.max(lingerUntil, System.currentTimeMillis() + (long) (seconds * 1000f));
+        Gdx.graphics.requestRendering();
+    }
+
+    /**
+     * True when the previous frame did not request a follow-up, so the
+     * current frame's delta includes idle time.
+     */
+    public boolean wasIdle() {
+        return idleLastFrame;
+    }
+
+    /**
+     * Called once at the end of every rendered frame with whether the screen
+     * still has something moving. Requests the next frame if needed.
+     */
+    public void frameRendered(float delta, boolean animating) {
+        if (!running) return;
+
+        if (idleLastFrame) {
+            idleWakeups++;
+        }
+
+        framesSinceLog++;
+        statsTimer += delta;
+        if (statsTimer >= STATS_LOG_INTERVAL) {
+            Gdx.app.log(TAG, "Rendered " + framesSinceLog + " frames in the last " +
+                (int) statsTimer + " s (" + idleWakeups + " wake-ups from idle)");
+            statsTimer = 0f;
+            framesSinceLog = 0;
+            idleWakeups = 0;
+        }
+
+        boolean inputHeld = Gdx.input.isTouched() || Gdx.input.isKeyPressed(Input.Keys.ANY_KEY);
+        boolean lingering = System.currentTimeMillis() < lingerUntil;
+
+        if (animating || inputHeld || lingering) {
+            idleLastFrame = false;
+            Gdx.graphics.requestRendering();
+        } else {
+            idleLastFrame = true;
+        }
+    }
+
+    private boolean onInput() {
+        requestFrames(INPUT_LINGER);
+        return false;
+    }
+
+    @Override public boolean keyDown(int keycode) { return onInput(); }
+    @Override public boolean keyUp(int keycode) { return onInput(); }
+    @Override public boolean keyTyped(char character) { return onInput(); }
+    @Override public boolean touchDown(int screenX, int screenY, int pointer, int button) { return onInput(); }
+    @Override public boolean touchUp(int screenX, int screenY, int pointer, int button) { return onInput(); }
+    @Override public boolean touchDragged(int screenX, int screenY, int pointer) { return onInput(); }
+    @Override public boolean touchCancelled(int screenX, int screenY, int pointer, int button) { return onInput(); }
+    @Override public boolean mouseMoved(int screenX, int screenY) { return onInput(); }
+    @Override public boolean scrolled(float amountX, float amountY) { return onInput(); }
+}
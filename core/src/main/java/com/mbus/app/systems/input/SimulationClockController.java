@@ -0,0 +1,52 @@
+package com.mbus.app.systems.input;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
+import com.badlogic.gdx.InputAdapter;
+import com.mbus.app.systems.simulation.SimulationClock;
+import com.mbus.app.utils.BusPositionCalculator;
+
+/**
+ * Keyboard controls for the simulation clock:
+ * ] / [ double or halve the speed, . / , jump 15 minutes ahead or back,
+ * 0 returns to real time.
+ */
+public class SimulationClockController extends InputAdapter {
+
+    private static final String TAG = "SimulationClock";
+
+    private static final long JUMP_MILLIS = 15L * 60L * 1000L;
+
+    private final SimulationClock clock;
+
+    public SimulationClockController(SimulationClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean keyDown(int keycode) {
+        switch (keycode) {
+            case Input.Keys.RIGHT_BRACKET:
+                clock.setSpeed(clock.getSpeed() * 2f);
+                break;
+            case Input.Keys.LEFT_BRACKET:
+                clock.setSpeed(clock.getSpeed() / 2f);
+                break;
+            case Input.Keys.PERIOD:
+                clock.jumpBy(JUMP_MILLIS);
+                break;
+            case Input.Keys.COMMA:
+                clock.jumpBy(-JUMP_MILLIS);
+                break;
+            case Input.Keys.NUM_0:
+                clock.resetToRealTime();
+                break;
+            default:
+                return false;
+        }
+
+        Gdx.app.log(TAG, "Time " + BusPositionCalculator.formatTime(clock.getTimeMinutesInt()) +
+            ", " + clock.getServiceDay() + ", speed " + clock.getSpeed() + "x");
+        return true;
+    }
+}
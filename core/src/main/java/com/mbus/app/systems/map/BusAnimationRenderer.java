@@ -3,18 +3,14 @@ package com.mbus.app.systems.map;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.mbus.app.model.BusLine;
-import com.mbus.app.model.BusSchedule;
-import com.mbus.app.model.BusStop;
-import com.mbus.app.model.Geolocation;
 import com.mbus.app.model.ZoomXY;
-import com.mbus.app.utils.BusPositionCalculator;
+import com.mbus.app.systems.simulation.VehicleSimulationService;
+import com.mbus.app.systems.simulation.VehicleSnapshot;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 public class BusAnimationRenderer {
 
@@ -23,12 +19,11 @@ public class BusAnimationRenderer {
     private static final float MAX_ZOOM_SCALE = 5f;
     private static final float ZOOM_SCALE_FACTOR = 7f;
 
-    private static final float POSITION_INTERPOLATION_SPEED = 15f;
-    private static final float ANGLE_INTERPOLATION_SPEED = 8f;
-    private static final float POSITION_THRESHOLD = 0.0000001f;
+    // Frames a bus may go undrawn before its smoothing state is dropped
+    private static final int STATE_RETENTION_FRAMES = 120;
 
-    private static final float DIRECTION_LOOKAHEAD = 0.25f;
-    private static final float ANGLE_SMOOTHING_WINDOW = 5;
+    private static final String TAG = "BusAnimationRenderer";
+    private static final float STATS_LOG_INTERVAL = 10f;
 
     private final SpriteBatch spriteBatch;
     private TextureRegion busNorth;
@@ -40,30 +35,22 @@ public class BusAnimationRenderer {
     private TextureRegion busWest;
     private TextureRegion busNorthwest;
 
-    private Map<String, BusRenderState> busStates = new HashMap<String, BusRenderState>();
-
-    private static class BusRenderState {
-        Geolocation currentPosition;
-        Geolocation targetPosition;
-        float currentAngle;
-        float targetAngle;
-        float displayAngle;
-        boolean isWaiting;
-        long lastUpdateTime;
-        List<Float> recentAngles;
-
-        BusRenderState(Geolocation position, float angle, boolean waiting) {
-            this.currentPosition = position;
-            this.targetPosition = position;
-            this.currentAngle = angle;
-            this.targetAngle = angle;
-            this.displayAngle = angle;
-            this.isWaiting = waiting;
-            this.lastUpdateTime = System.currentTimeMillis();
-            this.recentAngles = new ArrayList<Float>();
-            this.recentAngles.add(angle);
-        }
-    }
+    private final VehicleStateStore vehicleStates = new VehicleStateStore();
+    private final Vector2 pixelPos = new Vector2();
+
+    // Buses drawn this frame, kept for the picking pass
+    private float[] renderedBusX = new float[16];
+    private float[] renderedBusY = new float[16];
+    private float[] renderedBusSize = new float[16];
+    private BusLine[] renderedBusLine = new BusLine[16];
+    private int renderedBusCount = 0;
+
+    // Bus layer cost, summed between log lines
+    private float statsTimer = 0f;
+    private int statsFrames = 0;
+    private long statsShown = 0;
+    private long statsDrawn = 0;
+    private long statsNanos = 0;
 
     public BusAnimationRenderer(SpriteBatch spriteBatch) {
         this.spriteBatch = spriteBatch;
@@ -83,209 +70,165 @@ public class BusAnimationRenderer {
         this.busNorthwest = northwest;
     }
 
-    public void renderActiveBuses(BusLine selectedLine, float currentTime,
-                                  int dayType, ZoomXY beginTile, float cameraZoom, float delta) {
-        if (selectedLine == null || busNorth == null) return;
-
-        List<BusPositionCalculator.ActiveBusInfo> activeBuses =
-            BusPositionCalculator.getActiveBusesAtTime(
-                java.util.Collections.singletonList(selectedLine),
-                currentTime,
-                dayType
-            );
-
-        if (activeBuses.isEmpty()) {
-            Gdx.app.log("BusAnimationRenderer",
-                "No active buses found for line " + selectedLine.lineId +
-                    " at time " + currentTime + " (day type: " + dayType + ")");
-        }
-
-        float zoomScale = calculateZoomScale(cameraZoom);
-
-        for (BusPositionCalculator.ActiveBusInfo activeBus : activeBuses) {
-            renderBusSmooth(activeBus, beginTile, zoomScale, delta);
-        }
+    /**
+     * Forgets the buses recorded in the previous frame. Called once per
+     * frame before renderVehicles.
+     */
+    public void beginFrame() {
+        renderedBusCount = 0;
+        vehicleStates.evictUnseen(STATE_RETENTION_FRAMES);
+        vehicleStates.beginPass();
     }
 
-    private void renderBusSmooth(BusPositionCalculator.ActiveBusInfo activeBus,
-                                 ZoomXY beginTile, float zoomScale, float delta) {
-        Geolocation targetPosition = calculateTargetPosition(activeBus);
-        if (targetPosition == null) return;
-
-        String busKey = getBusKey(activeBus);
-        BusRenderState state = busStates.get(busKey);
-
-        float targetAngle = calculateSmoothDirection(activeBus, targetPosition, beginTile);
-
-        if (state == null) {
-            state = new BusRenderState(targetPosition, targetAngle, activeBus.isWaitingAtStop);
-            busStates.put(busKey, state);
-        }
-
-        state.targetPosition = targetPosition;
-        state.targetAngle = targetAngle;
-
-        float posLerpFactor = Math.min(1.0f, POSITION_INTERPOLATION_SPEED * delta);
-
-        double latDiff = state.targetPosition.lat - state.currentPosition.lat;
-        double lngDiff = state.targetPosition.lng - state.currentPosition.lng;
-
-        if (Math.abs(latDiff) > POSITION_THRESHOLD || Math.abs(lngDiff) > POSITION_THRESHOLD) {
-            state.currentPosition = new Geolocation(
-                state.currentPosition.lat + latDiff * posLerpFactor,
-                state.currentPosition.lng + lngDiff * posLerpFactor
-            );
-        } else {
-            state.currentPosition = state.targetPosition;
-        }
-
-        if (!activeBus.isWaitingAtStop) {
-            float angleLerpFactor = Math.min(1.0f, ANGLE_INTERPOLATION_SPEED * delta);
-            float angleDiff = getShortestAngleDifference(state.currentAngle, state.targetAngle);
-
-            if (Math.abs(angleDiff) > 0.5f) {
-                state.currentAngle = normalizeAngle(state.currentAngle + angleDiff * angleLerpFactor);
-            } else {
-                state.currentAngle = state.targetAngle;
-            }
-
-            state.recentAngles.add(state.currentAngle);
-            if (state.recentAngles.size() > ANGLE_SMOOTHING_WINDOW) {
-                state.recentAngles.remove(0);
-            }
-
-            state.displayAngle = calculateSmoothedAngle(state.recentAngles);
-
-            state.isWaiting = false;
-        } else {
-            state.isWaiting = true;
-        }
-
-        Vector2 pixelPos = MapRasterTiles.getPixelPosition(
-            state.currentPosition.lat,
-            state.currentPosition.lng,
-            beginTile.x,
-            beginTile.y
-        );
-
-        TextureRegion busSprite = getBusSpriteForDirection(state.displayAngle);
-        float spriteBaseAngle = getBaseAngleForSprite(state.displayAngle);
-        float rotationOffset = normalizeAngle(state.currentAngle - spriteBaseAngle);
-
-        float size = BUS_SPRITE_SIZE * zoomScale;
-        float halfSize = size / 2f;
-
-        spriteBatch.draw(
-            busSprite,
-            pixelPos.x - halfSize,
-            pixelPos.y - halfSize,
-            halfSize,
-            halfSize,
-            size,
-            size,
-            1f,
-            1f,
-            rotationOffset
-        );
+    public int getRenderedBusCount() {
+        return renderedBusCount;
     }
 
-    private float calculateSmoothedAngle(List<Float> angles) {
-        if (angles.isEmpty()) return 0;
-        if (angles.size() == 1) return angles.get(0);
-
-        float sumX = 0;
-        float sumY = 0;
-
-        for (float angle : angles) {
-            sumX += Math.cos(Math.toRadians(angle));
-            sumY += Math.sin(Math.toRadians(angle));
-        }
-
-        float avgX = sumX / angles.size();
-        float avgY = sumY / angles.size();
+    public float getRenderedBusX(int index) {
+        return renderedBusX[index];
+    }
 
-        float avgAngle = (float) Math.toDegrees(Math.atan2(avgY, avgX));
+    public float getRenderedBusY(int index) {
+        return renderedBusY[index];
+    }
 
-        while (avgAngle < 0) avgAngle += 360;
-        while (avgAngle >= 360) avgAngle -= 360;
+    public float getRenderedBusSize(int index) {
+        return renderedBusSize[index];
+    }
 
-        return avgAngle;
+    public BusLine getRenderedBusLine(int index) {
+        return renderedBusLine[index];
     }
 
-    private float calculateSmoothDirection(BusPositionCalculator.ActiveBusInfo activeBus,
-                                           Geolocation currentPos,
-                                           ZoomXY beginTile) {
-        if (activeBus.isWaitingAtStop) {
-            String busKey = getBusKey(activeBus);
-            BusRenderState state = busStates.get(busKey);
+    /**
+     * Draws the buses of the shown lines from the latest simulation frame,
+     * interpolated between its two snapshots. Buses outside the view are
+     * skipped and their render state is dropped. All sprites go through the
+     * caller's batch in one pass.
+     *
+     * @param lineShown whether to draw each line of the current snapshot, by line index
+     */
+    public void renderVehicles(VehicleSimulationService.Frame frame, boolean[] lineShown,
+                               ZoomXY beginTile, float cameraZoom, Rectangle viewBounds, float delta) {
+        if (busNorth == null) return;
+
+        long startTime = System.nanoTime();
+        int drawnBefore = renderedBusCount;
+        int shown = 0;
+
+        VehicleSnapshot previous = frame.previous;
+        VehicleSnapshot current = frame.current;
+
+        // Renders one tick behind the simulation, reaching the current snapshot as the next one is due
+        long tickNanos = current.createdNanos - previous.createdNanos;
+        float alpha = tickNanos > 0
+            ? Math.min(1f, (float) (startTime - current.createdNanos) / tickNanos)
+            : 1f;
+        alpha = Math.max(0f, alpha);
 
-            if (state != null) {
-                return state.currentAngle;
+        float zoomScale = calculateZoomScale(cameraZoom);
+        float size = BUS_SPRITE_SIZE * zoomScale;
+        float halfSize = size / 2f;
+        float minX = viewBounds.x - size;
+        float minY = viewBounds.y - size;
+        float maxX = viewBounds.x + viewBounds.width + size;
+        float maxY = viewBounds.y + viewBounds.height + size;
+
+        for (int i = 0; i < current.size(); i++) {
+            if (!lineShown[current.getLineIndex(i)]) continue;
+            shown++;
+
+            long key = current.getKey(i);
+            double lat = current.getLat(i);
+            double lng = current.getLng(i);
+            float heading = current.getHeading(i);
+
+            int before = previous.indexOf(key);
+            if (before != -1) {
+                lat = previous.getLat(before) + (lat - previous.getLat(before)) * alpha;
+                lng = previous.getLng(before) + (lng - previous.getLng(before)) * alpha;
+                float headingDiff = getShortestAngleDifference(previous.getHeading(before), heading);
+                heading = normalizeAngle(previous.getHeading(before) + headingDiff * alpha);
             }
 
-            List<BusSchedule.StopTime> stopTimes = activeBus.schedule.getStopTimes();
-            List<BusStop> allStops = activeBus.line.getStops();
-
-            if (activeBus.currentStopIndex >= 0 && activeBus.currentStopIndex < stopTimes.size() &&
-                activeBus.nextStopIndex >= 0 && activeBus.nextStopIndex < stopTimes.size()) {
-                int currentStopId = stopTimes.get(activeBus.currentStopIndex).stopId;
-                int nextStopId = stopTimes.get(activeBus.nextStopIndex).stopId;
-
-                BusStop currentStop = findStopById(allStops, currentStopId);
-                BusStop nextStop = findStopById(allStops, nextStopId);
+            MapRasterTiles.getPixelPosition(lat, lng, beginTile.x, beginTile.y, pixelPos);
+            if (pixelPos.x < minX || pixelPos.x > maxX || pixelPos.y < minY || pixelPos.y > maxY) {
+                vehicleStates.remove(key);
+                continue;
+            }
 
-                if (currentStop != null && nextStop != null) {
-                    return calculateAngleBetweenGeolocations(currentStop.geo, nextStop.geo, beginTile);
+            boolean waiting = current.isWaiting(i);
+            int state = vehicleStates.find(key);
+            if (state == -1) {
+                state = vehicleStates.add(key, lat, lng, heading, waiting);
+            } else {
+                vehicleStates.touch(state);
+                vehicleStates.setPosition(state, lat, lng);
+                if (!waiting) {
+                    vehicleStates.setAngle(state, heading);
+                    vehicleStates.pushAngle(state, heading);
                 }
+                vehicleStates.setWaiting(state, waiting);
             }
-        }
 
-        float lookaheadProgress = Math.min(1.0f, activeBus.segmentProgress + DIRECTION_LOOKAHEAD);
-
-        Geolocation lookaheadPos = calculatePositionAlongPath(
-            activeBus.line,
-            activeBus.schedule,
-            activeBus.currentStopIndex,
-            activeBus.nextStopIndex,
-            lookaheadProgress
-        );
+            float displayAngle = vehicleStates.getDisplayAngle(state);
+            TextureRegion busSprite = getBusSpriteForDirection(displayAngle);
+            float spriteBaseAngle = getBaseAngleForSprite(displayAngle);
+            float rotationOffset = normalizeAngle(vehicleStates.getAngle(state) - spriteBaseAngle);
+
+            spriteBatch.draw(
+                busSprite,
+                pixelPos.x - halfSize,
+                pixelPos.y - halfSize,
+                halfSize,
+                halfSize,
+                size,
+                size,
+                1f,
+                1f,
+                rotationOffset
+            );
 
-        if (lookaheadPos != null) {
-            return calculateAngleBetweenGeolocations(currentPos, lookaheadPos, beginTile);
+            recordRenderedBus(pixelPos.x, pixelPos.y, size, current.getLine(i));
         }
 
-        List<BusSchedule.StopTime> stopTimes = activeBus.schedule.getStopTimes();
-        List<BusStop> allStops = activeBus.line.getStops();
+        recordStats(shown, renderedBusCount - drawnBefore, System.nanoTime() - startTime, delta);
+    }
 
-        if (activeBus.nextStopIndex >= 0 && activeBus.nextStopIndex < stopTimes.size()) {
-            int stopId = stopTimes.get(activeBus.nextStopIndex).stopId;
-            BusStop nextStop = findStopById(allStops, stopId);
-            if (nextStop != null) {
-                return calculateAngleBetweenGeolocations(currentPos, nextStop.geo, beginTile);
-            }
+    private void recordStats(int shown, int drawn, long nanos, float delta) {
+        statsFrames++;
+        statsShown += shown;
+        statsDrawn += drawn;
+        statsNanos += nanos;
+        statsTimer += delta;
+
+        if (statsTimer >= STATS_LOG_INTERVAL) {
+            Gdx.app.log(TAG, String.format("Bus layer: %d on shown lines, %d drawn, %.2f ms per frame",
+                statsShown / statsFrames,
+                statsDrawn / statsFrames,
+                statsNanos / 1e6 / statsFrames));
+            statsTimer = 0f;
+            statsFrames = 0;
+            statsShown = 0;
+            statsDrawn = 0;
+            statsNanos = 0;
         }
-
-        return 0;
     }
 
-    private float calculateAngleBetweenGeolocations(Geolocation from, Geolocation to, ZoomXY beginTile) {
-        Vector2 fromPixel = MapRasterTiles.getPixelPosition(from.lat, from.lng, beginTile.x, beginTile.y);
-        Vector2 toPixel = MapRasterTiles.getPixelPosition(to.lat, to.lng, beginTile.x, beginTile.y);
-
-        float dx = toPixel.x - fromPixel.x;
-        float dy = toPixel.y - fromPixel.y;
-
-        if (Math.abs(dx) < 0.1f && Math.abs(dy) < 0.1f) {
-            return 0;
+    private void recordRenderedBus(float x, float y, float size, BusLine line) {
+        if (renderedBusCount == renderedBusX.length) {
+            int capacity = renderedBusCount * 2;
+            renderedBusX = Arrays.copyOf(renderedBusX, capacity);
+            renderedBusY = Arrays.copyOf(renderedBusY, capacity);
+            renderedBusSize = Arrays.copyOf(renderedBusSize, capacity);
+            renderedBusLine = Arrays.copyOf(renderedBusLine, capacity);
         }
 
-        float angleRad = (float) Math.atan2(dy, dx);
-        float angleDeg = (float) Math.toDegrees(angleRad);
-
-        while (angleDeg < 0) angleDeg += 360;
-        while (angleDeg >= 360) angleDeg -= 360;
-
-        return angleDeg;
+        renderedBusX[renderedBusCount] = x;
+        renderedBusY[renderedBusCount] = y;
+        renderedBusSize[renderedBusCount] = size;
+        renderedBusLine[renderedBusCount] = line;
+        renderedBusCount++;
     }
 
     private float getShortestAngleDifference(float currentAngle, float targetAngle) {
@@ -293,170 +236,12 @@ public class BusAnimationRenderer {
         return diff;
     }
 
-    private Geolocation calculateTargetPosition(BusPositionCalculator.ActiveBusInfo activeBus) {
-        return calculatePositionAlongPath(
-            activeBus.line,
-            activeBus.schedule,
-            activeBus.currentStopIndex,
-            activeBus.nextStopIndex,
-            activeBus.segmentProgress
-        );
-    }
-
-    private BusStop findStopById(List<BusStop> stops, int stopId) {
-        for (BusStop stop : stops) {
-            if (stop.idAvpost == stopId) {
-                return stop;
-            }
-        }
-        return null;
-    }
-
-    private String getBusKey(BusPositionCalculator.ActiveBusInfo activeBus) {
-        return activeBus.line.lineId + "_" +
-            activeBus.schedule.scheduleId + "_" +
-            activeBus.schedule.departureTime;
-    }
-
     private float normalizeAngle(float angle) {
         while (angle > 180) angle -= 360;
         while (angle < -180) angle += 360;
         return angle;
     }
 
-    private Geolocation calculatePositionAlongPath(BusLine line,
-                                                   BusSchedule schedule,
-                                                   int currentStopIndex,
-                                                   int nextStopIndex,
-                                                   float segmentProgress) {
-        List<BusStop> allStops = line.getStops();
-        List<Geolocation> path = line.getPath();
-        List<BusSchedule.StopTime> stopTimes = schedule.getStopTimes();
-
-        if (allStops.isEmpty() || path.isEmpty() || stopTimes.isEmpty()) return null;
-
-        Geolocation startGeo;
-        Geolocation endGeo;
-
-        if (currentStopIndex == -1) {
-            if (path.isEmpty()) return null;
-            startGeo = path.get(0);
-            if (nextStopIndex >= 0 && nextStopIndex < stopTimes.size()) {
-                int stopId = stopTimes.get(nextStopIndex).stopId;
-                BusStop stop = findStopById(allStops, stopId);
-                if (stop != null) {
-                    endGeo = stop.geo;
-                } else {
-                    return startGeo;
-                }
-            } else {
-                return startGeo;
-            }
-        } else {
-            if (currentStopIndex >= stopTimes.size() || nextStopIndex >= stopTimes.size()) return null;
-            if (currentStopIndex < 0 || nextStopIndex < 0) return null;
-
-            int currentStopId = stopTimes.get(currentStopIndex).stopId;
-            int nextStopId = stopTimes.get(nextStopIndex).stopId;
-
-            BusStop currentStop = findStopById(allStops, currentStopId);
-            BusStop nextStop = findStopById(allStops, nextStopId);
-
-            if (currentStop == null || nextStop == null) return null;
-
-            startGeo = currentStop.geo;
-            endGeo = nextStop.geo;
-        }
-
-        int pathStartIdx = findNearestPathIndex(path, startGeo);
-        int pathEndIdx = findNearestPathIndex(path, endGeo);
-
-        if (pathStartIdx == -1 || pathEndIdx == -1) {
-            double lat = startGeo.lat + (endGeo.lat - startGeo.lat) * segmentProgress;
-            double lng = startGeo.lng + (endGeo.lng - startGeo.lng) * segmentProgress;
-            return new Geolocation(lat, lng);
-        }
-
-        if (pathStartIdx == pathEndIdx) {
-            return path.get(pathStartIdx);
-        }
-
-        if (pathStartIdx > pathEndIdx) {
-            int temp = pathStartIdx;
-            pathStartIdx = pathEndIdx;
-            pathEndIdx = temp;
-        }
-
-        return interpolateAlongPath(path, pathStartIdx, pathEndIdx, segmentProgress);
-    }
-
-    private int findNearestPathIndex(List<Geolocation> path, Geolocation target) {
-        if (path.isEmpty()) return -1;
-
-        int nearestIdx = 0;
-        double minDistance = distance(path.get(0), target);
-
-        for (int i = 1; i < path.size(); i++) {
-            double dist = distance(path.get(i), target);
-            if (dist < minDistance) {
-                minDistance = dist;
-                nearestIdx = i;
-            }
-        }
-
-        return nearestIdx;
-    }
-
-    private double distance(Geolocation a, Geolocation b) {
-        double dLat = a.lat - b.lat;
-        double dLng = a.lng - b.lng;
-        return Math.sqrt(dLat * dLat + dLng * dLng);
-    }
-
-    private Geolocation interpolateAlongPath(List<Geolocation> path,
-                                             int startIdx, int endIdx,
-                                             float progress) {
-        if (startIdx == endIdx) {
-            return path.get(startIdx);
-        }
-
-        float totalDistance = 0f;
-        List<Float> segmentDistances = new ArrayList<Float>();
-
-        for (int i = startIdx; i < endIdx; i++) {
-            float segDist = (float) distance(path.get(i), path.get(i + 1));
-            segmentDistances.add(segDist);
-            totalDistance += segDist;
-        }
-
-        if (totalDistance == 0) {
-            return path.get(startIdx);
-        }
-
-        float targetDistance = totalDistance * progress;
-        float accumulatedDistance = 0f;
-
-        for (int i = 0; i < segmentDistances.size(); i++) {
-            float segDist = segmentDistances.get(i);
-
-            if (accumulatedDistance + segDist >= targetDistance) {
-                float localProgress = (targetDistance - accumulatedDistance) / segDist;
-
-                Geolocation p1 = path.get(startIdx + i);
-                Geolocation p2 = path.get(startIdx + i + 1);
-
-                double lat = p1.lat + (p2.lat - p1.lat) * localProgress;
-                double lng = p1.lng + (p2.lng - p1.lng) * localProgress;
-
-                return new Geolocation(lat, lng);
-            }
-
-            accumulatedDistance += segDist;
-        }
-
-        return path.get(endIdx);
-    }
-
     private TextureRegion getBusSpriteForDirection(float angleDeg) {
         angleDeg = angleDeg % 360;
         if (angleDeg < 0) angleDeg += 360;
@@ -509,6 +294,6 @@ public class BusAnimationRenderer {
     }
 
     public void clearStates() {
-        busStates.clear();
+        vehicleStates.clear();
     }
 }
@@ -121,20 +121,31 @@ public class MapRasterTiles {
     }
 
     public static Vector2 getPixelPosition(double lat, double lng, int beginTileX, int beginTileY) {
-        double[] worldCoordinate = project(lat, lng, TILE_SIZE);
-        double scale = Math.pow(2, Constants.ZOOM);
-
-        Vector2 result = new Vector2(
-            (float) (Math.floor(worldCoordinate[0] * scale) - (beginTileX * TILE_SIZE)),
-            (float) (Constants.MAP_HEIGHT -
-                (Math.floor(worldCoordinate[1] * scale) -
-                    (beginTileY * TILE_SIZE) - 1))
-        );
+        Vector2 result = getPixelPosition(lat, lng, beginTileX, beginTileY, new Vector2());
 
         log.debug("Pixel position: " + result);
         return result;
     }
 
+    /**
+     * Writes the pixel position into {@code out} and returns it. Allocates
+     * nothing and doesn't log, for callers positioning every vehicle every
+     * frame.
+     */
+    public static Vector2 getPixelPosition(double lat, double lng, int beginTileX, int beginTileY, Vector2 out) {
+        double siny = Math.sin((lat * Math.PI) / 180);
+        siny = Math.min(Math.max(siny, -0.9999), 0.9999);
+        double scale = TILE_SIZE * (double) (1 << Constants.ZOOM);
+
+        double worldX = (0.5 + lng / 360) * scale;
+        double worldY = (0.5 - Math.log((1 + siny) / (1 - siny)) / (4 * Math.PI)) * scale;
+
+        return out.set(
+            (float) (Math.floor(worldX) - (beginTileX * TILE_SIZE)),
+            (float) (Constants.MAP_HEIGHT - (Math.floor(worldY) - (beginTileY * TILE_SIZE) - 1))
+        );
+    }
+
     public static double[] project(double lat, double lng, int tileSize) {
         double siny = Math.sin((lat * Math.PI) / 180);
         siny = Math.min(Math.max(siny, -0.9999), 0.9999);
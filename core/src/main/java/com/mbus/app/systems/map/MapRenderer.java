@@ -1,6 +1,8 @@
 package com.mbus.app.systems.map;
 
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
@@ -14,15 +16,25 @@ import com.badlogic.gdx.maps.tiled.TiledMapRenderer;
 import com.badlogic.gdx.maps.tiled.TiledMapTileLayer;
 import com.badlogic.gdx.maps.tiled.renderers.OrthogonalTiledMapRenderer;
 import com.badlogic.gdx.maps.tiled.tiles.StaticTiledMapTile;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 
 import com.mbus.app.model.BusLine;
 import com.mbus.app.model.BusStop;
+import com.mbus.app.model.LinearReference;
 import com.mbus.app.model.ZoomXY;
+import com.mbus.app.systems.realtime.RealtimeVehicleFeed;
+import com.mbus.app.systems.routing.IsochroneService;
+import com.mbus.app.systems.routing.Journey;
+import com.mbus.app.systems.simulation.SimulationClock;
+import com.mbus.app.systems.simulation.VehicleSimulationService;
 import com.mbus.app.utils.BusLineColors;
 import com.mbus.app.utils.Constants;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class MapRenderer {
@@ -43,6 +55,11 @@ public class MapRenderer {
     private TiledMapRenderer tiledMapRenderer;
 
     private boolean showMarkers = true;
+    private boolean showFleet = false;
+
+    private final VehicleSimulationService vehicleSimulation;
+    // Per line index of the current snapshot, whether its buses are drawn
+    private boolean[] shownLines = new boolean[0];
 
     private BusStop hoveredStop = null;
     private BusStop selectedStop = null;
@@ -52,9 +69,33 @@ public class MapRenderer {
 
     private float pulseTime = 0f;
 
-    private static final float BASE_MARKER_SIZE = 32f;
-    private static final float HOVER_SCALE = 1.4f;
-    private static final float SELECT_SCALE = 1.4f;
+    private final MarkerClusterer markerClusterer = new MarkerClusterer();
+    private int stopsVersion = 0;
+    private int filterVersion = 0;
+    private final Rectangle viewBounds = new Rectangle();
+
+    // Projected path vertices per line (x0, y0, x1, y1, ...), built lazily
+    private final Map<BusLine, float[]> projectedLinePaths = new HashMap<BusLine, float[]>();
+
+    // Planned journey, one projected polyline (x0, y0, x1, y1, ...) per leg
+    private Journey journey;
+    private final List<float[]> journeyLegPaths = new ArrayList<float[]>();
+
+    // Reachability overlay: x, y, radius and travel fraction (0..1) per stop, nearest first
+    private IsochroneService isochroneService;
+    private IsochroneService.Isochrone drawnIsochrone;
+    private float[] isochroneCircles = new float[0];
+    private final Color isochroneColor = new Color();
+
+    private PickingBuffer pickingBuffer;
+    private int pickLayerVersion = 0;
+    private int pickRenderedVersion = -1;
+    private float pickCameraX, pickCameraY, pickCameraZoom;
+    private float pickBusTimer = 0f;
+    private final List<MarkerCluster> pickedStopClusters = new ArrayList<MarkerCluster>();
+    // Lines of the buses in the picking buffer; the rendered buses change every frame
+    private final List<BusLine> pickedBusLines = new ArrayList<BusLine>();
+
     private static final float PULSE_SPEED = 2.5f;
 
     private static final float MIN_ZOOM_SCALE = 0.7f;
@@ -64,6 +105,18 @@ public class MapRenderer {
     private static final float BUS_LINE_WIDTH = 10f;
     private static final float HOVER_LINE_WIDTH = 14f;
     private static final float SELECT_LINE_WIDTH = 16f;
+    private static final float JOURNEY_LINE_WIDTH = 12f;
+    private static final float JOURNEY_WALK_DOT_SPACING = 18f;
+
+    private static final float ISOCHRONE_WALK_METERS_PER_MINUTE = 80f;
+    private static final float ISOCHRONE_MAX_WALK_METERS = 400f;
+    private static final float ISOCHRONE_MIN_RADIUS_METERS = 60f;
+    private static final float ISOCHRONE_AREA_ALPHA = 0.18f;
+
+    private static final int PICKING_DOWNSCALE = 2;
+    private static final float PICK_LINE_TOLERANCE = 15f;
+    private static final float PICK_MARKER_SIZE = 32f;
+    private static final float PICK_BUS_REFRESH_INTERVAL = 0.2f;
 
     private static final float LABEL_BASE_FONT_SCALE = 1.8f;
     private static final float LABEL_ZOOM_FONT_SCALE = 13.0f;
@@ -74,15 +127,20 @@ public class MapRenderer {
 
     private Set<Integer> visibleLineIds;
     private BusAnimationRenderer busAnimationRenderer;
-    private float currentTimeMinutes = 0f;
-    private int currentDayType = 0;
+    private final MarkerLayerRenderer markerLayerRenderer;
 
-    public MapRenderer(OrthographicCamera camera) {
+    public MapRenderer(OrthographicCamera camera, SimulationClock clock) {
         this.camera = camera;
+        this.vehicleSimulation = new VehicleSimulationService(clock);
         this.shapeRenderer = new ShapeRenderer();
         this.spriteBatch = new SpriteBatch();
         this.font = new BitmapFont();
         this.busAnimationRenderer = new BusAnimationRenderer(spriteBatch);
+        this.markerLayerRenderer = new MarkerLayerRenderer(spriteBatch, font);
+
+        if (Constants.GPU_PICKING) {
+            this.pickingBuffer = new PickingBuffer(PICKING_DOWNSCALE);
+        }
     }
 
     public void loadBusSprites(TextureRegion north, TextureRegion northeast,
@@ -93,14 +151,22 @@ public class MapRenderer {
             south, southwest, west, northwest);
     }
 
-    public void setCurrentTime(float timeMinutes, int dayType) {
-        this.currentTimeMinutes = timeMinutes;
-        this.currentDayType = dayType;
+    public void startVehicleSimulation() {
+        vehicleSimulation.start();
+    }
+
+    public void stopVehicleSimulation() {
+        vehicleSimulation.stop();
+    }
+
+    public void setRealtimeFeed(RealtimeVehicleFeed feed) {
+        vehicleSimulation.setRealtimeFeed(feed);
     }
 
     public void loadTiles(Texture[] tiles, ZoomXY beginTile) {
         this.mapTiles = tiles;
         this.beginTile = beginTile;
+        projectedLinePaths.clear();
         buildTileMap();
     }
 
@@ -111,24 +177,41 @@ public class MapRenderer {
     public void setStops(List<BusStop> stops) {
         this.allStops = stops;
         this.filteredStops = stops;
+        stopsVersion++;
+        filterVersion++;
+        pickLayerVersion++;
     }
 
     public void setFilteredStops(List<BusStop> stops) {
         this.filteredStops = stops;
+        filterVersion++;
+        pickLayerVersion++;
     }
 
     public void setBusLines(List<BusLine> busLines) {
         this.busLines = busLines;
+        projectedLinePaths.clear();
+        vehicleSimulation.setLines(busLines);
+        pickLayerVersion++;
     }
 
     public void setShowMarkers(boolean show) {
         this.showMarkers = show;
+        pickLayerVersion++;
     }
 
     public boolean isShowingMarkers() {
         return showMarkers;
     }
 
+    public void setShowFleet(boolean show) {
+        this.showFleet = show;
+    }
+
+    public boolean isShowingFleet() {
+        return showFleet;
+    }
+
     public void setHoveredStop(BusStop stop) {
         this.hoveredStop = stop;
     }
@@ -142,49 +225,85 @@ public class MapRenderer {
     }
 
     public void setHoveredLine(BusLine line) {
-        this.hoveredLine = line;
+        if (line != hoveredLine) {
+            this.hoveredLine = line;
+            pickLayerVersion++;
+        }
     }
 
     public void setSelectedLine(BusLine line) {
-        this.selectedLine = line;
+        if (line != selectedLine) {
+            this.selectedLine = line;
+            pickLayerVersion++;
+        }
     }
 
     public BusLine getSelectedLine() {
         return selectedLine;
     }
 
+    /**
+     * Highlights the legs of a planned journey on top of the lines, or
+     * clears the highlight when null.
+     */
+    public void setJourney(Journey journey) {
+        this.journey = journey;
+        journeyLegPaths.clear();
+        if (journey == null) return;
+
+        for (Journey.Leg leg : journey.getLegs()) {
+            journeyLegPaths.add(projectLeg(leg));
+        }
+    }
+
+    public Journey getJourney() {
+        return journey;
+    }
+
+    /**
+     * Source of the reachability overlay, drawn whenever it has an
+     * isochrone; null removes the overlay.
+     */
+    public void setIsochroneService(IsochroneService service) {
+        this.isochroneService = service;
+        this.drawnIsochrone = null;
+    }
+
     public void render(float delta) {
+        pulseTime += delta;
+
         tiledMapRenderer.setView(camera);
         tiledMapRenderer.render();
 
+        if (isochroneService != null) {
+            renderIsochrone();
+        }
+
         if (busLines != null && !busLines.isEmpty()) {
             renderBusLines();
         }
 
+        if (journey != null) {
+            renderJourney();
+        }
+
         if (showMarkers) {
-            pulseTime += delta;
-            renderMarkers();
+            renderMarkers(delta);
         }
 
         spriteBatch.setProjectionMatrix(camera.combined);
         spriteBatch.begin();
 
-        if (selectedLine != null) {
-            busAnimationRenderer.renderActiveBuses(
-                selectedLine,
-                currentTimeMinutes,
-                currentDayType,
-                beginTile,
-                camera.zoom,
-                delta
-            );
-        } else if (hoveredLine != null) {
-            busAnimationRenderer.renderActiveBuses(
-                hoveredLine,
-                currentTimeMinutes,
-                currentDayType,
+        busAnimationRenderer.beginFrame();
+        VehicleSimulationService.Frame vehicles = vehicleSimulation.getFrame();
+        if (updateShownLines(vehicles.current.lines)) {
+            updateViewBounds();
+            busAnimationRenderer.renderVehicles(
+                vehicles,
+                shownLines,
                 beginTile,
                 camera.zoom,
+                viewBounds,
                 delta
             );
         }
@@ -192,6 +311,10 @@ public class MapRenderer {
         spriteBatch.end();
 
         renderLineLabels();
+
+        if (pickingBuffer != null) {
+            updatePickingBuffer(delta);
+        }
     }
 
     private void renderBusLines() {
@@ -235,56 +358,257 @@ public class MapRenderer {
 
     private void renderLine(BusLine line, float lineWidth, Color color) {
         shapeRenderer.setColor(color);
-        List<com.mbus.app.model.Geolocation> path = line.getPath();
+        float[] points = getProjectedPath(line);
 
-        if (path.size() < 2) return;
+        if (points.length < 4) return;
 
-        for (int i = 0; i < path.size() - 1; i++) {
-            com.mbus.app.model.Geolocation point1 = path.get(i);
-            com.mbus.app.model.Geolocation point2 = path.get(i + 1);
+        for (int i = 0; i < points.length - 2; i += 2) {
+            float x1 = points[i];
+            float y1 = points[i + 1];
+            float x2 = points[i + 2];
+            float y2 = points[i + 3];
 
-            Vector2 pos1 = MapRasterTiles.getPixelPosition(
-                point1.lat, point1.lng, beginTile.x, beginTile.y
-            );
-            Vector2 pos2 = MapRasterTiles.getPixelPosition(
-                point2.lat, point2.lng, beginTile.x, beginTile.y
-            );
-
-            if (!isLineVisible(pos1, pos2)) continue;
+            if (!isLineVisible(x1, y1, x2, y2)) continue;
 
-            shapeRenderer.rectLine(pos1.x, pos1.y, pos2.x, pos2.y, lineWidth);
+            shapeRenderer.rectLine(x1, y1, x2, y2, lineWidth);
 
             // Add circles at joints to smooth corners
-            shapeRenderer.circle(pos1.x, pos1.y, lineWidth / 2, 16);
-            if (i == path.size() - 2) {
-                shapeRenderer.circle(pos2.x, pos2.y, lineWidth / 2, 16);
+            shapeRenderer.circle(x1, y1, lineWidth / 2, 16);
+            if (i == points.length - 4) {
+                shapeRenderer.circle(x2, y2, lineWidth / 2, 16);
+            }
+        }
+    }
+
+    private void renderIsochrone() {
+        IsochroneService.Isochrone isochrone = isochroneService.getIsochrone();
+        if (isochrone == null || isochrone.size() == 0) return;
+
+        if (isochrone != drawnIsochrone) {
+            projectIsochrone(isochrone);
+            drawnIsochrone = isochrone;
+        }
+
+        Gdx.gl.glEnable(GL20.GL_BLEND);
+        Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+        shapeRenderer.setProjectionMatrix(camera.combined);
+        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+
+        // Walking reach around each stop, farthest first so nearer stops stay on top
+        for (int i = isochroneCircles.length - 4; i >= 0; i -= 4) {
+            setIsochroneColor(isochroneCircles[i + 3], ISOCHRONE_AREA_ALPHA);
+            shapeRenderer.circle(isochroneCircles[i], isochroneCircles[i + 1], isochroneCircles[i + 2], 24);
+        }
+
+        float dotRadius = 4f * Math.min(getZoomScale() * 0.5f, 2.0f);
+        for (int i = isochroneCircles.length - 4; i >= 0; i -= 4) {
+            setIsochroneColor(isochroneCircles[i + 3], 0.9f);
+            shapeRenderer.circle(isochroneCircles[i], isochroneCircles[i + 1], dotRadius, 12);
+        }
+
+        shapeRenderer.end();
+        Gdx.gl.glDisable(GL20.GL_BLEND);
+    }
+
+    private void projectIsochrone(IsochroneService.Isochrone isochrone) {
+        BusStop origin = isochrone.origin;
+        Vector2 base = MapRasterTiles.getPixelPosition(origin.geo.lat, origin.geo.lng, beginTile.x, beginTile.y);
+        Vector2 north = MapRasterTiles.getPixelPosition(origin.geo.lat + 0.01, origin.geo.lng, beginTile.x, beginTile.y);
+        float pixelsPerMeter = Math.abs(north.y - base.y) / (0.01f * 111320f);
+
+        float budget = Math.max(1, isochrone.budgetMinutes);
+        float[] circles = new float[isochrone.size() * 4];
+        for (int i = 0; i < isochrone.size(); i++) {
+            BusStop stop = isochrone.getStop(i);
+            int minutes = isochrone.getTravelMinutes(i);
+            Vector2 pos = MapRasterTiles.getPixelPosition(stop.geo.lat, stop.geo.lng, beginTile.x, beginTile.y);
+
+            float walkMeters = (isochrone.budgetMinutes - minutes) * ISOCHRONE_WALK_METERS_PER_MINUTE;
+            float radiusMeters = Math.max(ISOCHRONE_MIN_RADIUS_METERS, Math.min(ISOCHRONE_MAX_WALK_METERS, walkMeters));
+
+            circles[i * 4] = pos.x;
+            circles[i * 4 + 1] = pos.y;
+            circles[i * 4 + 2] = radiusMeters * pixelsPerMeter;
+            circles[i * 4 + 3] = minutes / budget;
+        }
+        isochroneCircles = circles;
+    }
+
+    // Green for stops reached right away, through yellow to red at the budget
+    private void setIsochroneColor(float fraction, float alpha) {
+        if (fraction < 0.5f) {
+            float t = fraction * 2f;
+            isochroneColor.set(0.2f + 0.8f * t, 0.75f + 0.1f * t, 0.3f - 0.1f * t, alpha);
+        } else {
+            float t = (fraction - 0.5f) * 2f;
+            isochroneColor.set(1f - 0.1f * t, 0.85f - 0.6f * t, 0.2f, alpha);
+        }
+        shapeRenderer.setColor(isochroneColor);
+    }
+
+    private void renderJourney() {
+        shapeRenderer.setProjectionMatrix(camera.combined);
+        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+
+        float zoomScale = getZoomScale();
+        float width = JOURNEY_LINE_WIDTH * Math.min(zoomScale * 0.5f, 2.0f);
+        List<Journey.Leg> legs = journey.getLegs();
+
+        for (int i = 0; i < legs.size(); i++) {
+            Journey.Leg leg = legs.get(i);
+            float[] points = journeyLegPaths.get(i);
+
+            if (leg.isWalk()) {
+                shapeRenderer.setColor(Color.DARK_GRAY);
+                renderDots(points, JOURNEY_WALK_DOT_SPACING * Math.min(zoomScale * 0.5f, 2.0f), width / 3f);
+            } else {
+                renderPolyline(points, width + 6f, Color.WHITE);
+                renderPolyline(points, width, BusLineColors.getColor(leg.schedule.lineId));
+            }
+        }
+
+        if (!journeyLegPaths.isEmpty()) {
+            float[] first = journeyLegPaths.get(0);
+            float[] last = journeyLegPaths.get(journeyLegPaths.size() - 1);
+            shapeRenderer.setColor(Color.WHITE);
+            shapeRenderer.circle(first[0], first[1], width * 1.2f, 20);
+            shapeRenderer.circle(last[last.length - 2], last[last.length - 1], width * 1.2f, 20);
+            shapeRenderer.setColor(Color.DARK_GRAY);
+            shapeRenderer.circle(first[0], first[1], width * 0.8f, 20);
+            shapeRenderer.circle(last[last.length - 2], last[last.length - 1], width * 0.8f, 20);
+        }
+
+        shapeRenderer.end();
+    }
+
+    private void renderPolyline(float[] points, float lineWidth, Color color) {
+        shapeRenderer.setColor(color);
+        for (int i = 0; i < points.length - 2; i += 2) {
+            float x1 = points[i];
+            float y1 = points[i + 1];
+            float x2 = points[i + 2];
+            float y2 = points[i + 3];
+
+            if (!isLineVisible(x1, y1, x2, y2)) continue;
+
+            shapeRenderer.rectLine(x1, y1, x2, y2, lineWidth);
+            shapeRenderer.circle(x1, y1, lineWidth / 2, 16);
+            shapeRenderer.circle(x2, y2, lineWidth / 2, 16);
+        }
+    }
+
+    private void renderDots(float[] points, float spacing, float radius) {
+        for (int i = 0; i < points.length - 2; i += 2) {
+            float dx = points[i + 2] - points[i];
+            float dy = points[i + 3] - points[i + 1];
+            float length = (float) Math.sqrt(dx * dx + dy * dy);
+            int dots = Math.max(1, (int) (length / spacing));
+
+            for (int d = 0; d <= dots; d++) {
+                float t = d / (float) dots;
+                shapeRenderer.circle(points[i] + dx * t, points[i + 1] + dy * t, radius, 8);
+            }
+        }
+    }
+
+    // A ride follows its line's path between the snapped stops; a walk (or a ride off the path) is drawn straight
+    private float[] projectLeg(Journey.Leg leg) {
+        if (!leg.isWalk() && leg.line != null) {
+            LinearReference reference = leg.line.getLinearReference();
+            int fromVertex = reference.getStopVertex(leg.from.idAvpost);
+            int toVertex = reference.getStopVertex(leg.to.idAvpost);
+
+            if (fromVertex != -1 && toVertex != -1 && fromVertex < toVertex) {
+                float[] path = getProjectedPath(leg.line);
+                float[] points = new float[(toVertex - fromVertex + 1) * 2];
+                System.arraycopy(path, fromVertex * 2, points, 0, points.length);
+                return points;
             }
         }
+
+        Vector2 from = MapRasterTiles.getPixelPosition(leg.from.geo.lat, leg.from.geo.lng, beginTile.x, beginTile.y);
+        Vector2 to = MapRasterTiles.getPixelPosition(leg.to.geo.lat, leg.to.geo.lng, beginTile.x, beginTile.y);
+        return new float[]{from.x, from.y, to.x, to.y};
+    }
+
+    private float[] getProjectedPath(BusLine line) {
+        float[] points = projectedLinePaths.get(line);
+        if (points == null) {
+            points = projectPath(line);
+            projectedLinePaths.put(line, points);
+        }
+        return points;
+    }
+
+    private float[] projectPath(BusLine line) {
+        List<com.mbus.app.model.Geolocation> path = line.getPath();
+        float[] points = new float[path.size() * 2];
+
+        for (int i = 0; i < path.size(); i++) {
+            com.mbus.app.model.Geolocation point = path.get(i);
+            Vector2 pos = MapRasterTiles.getPixelPosition(
+                point.lat, point.lng, beginTile.x, beginTile.y
+            );
+            points[i * 2] = pos.x;
+            points[i * 2 + 1] = pos.y;
+        }
+        return points;
     }
 
     public void setVisibleLineIds(Set<Integer> lineIds) {
         this.visibleLineIds = lineIds;
+        pickLayerVersion++;
+    }
+
+    /**
+     * Marks the lines whose buses are drawn: every visible line with the
+     * fleet layer on, otherwise only the selected or hovered line. Returns
+     * false when there is nothing to draw.
+     */
+    private boolean updateShownLines(List<BusLine> lines) {
+        if (shownLines.length < lines.size()) {
+            shownLines = new boolean[lines.size()];
+        }
+
+        BusLine focusedLine = selectedLine != null ? selectedLine : hoveredLine;
+        boolean any = false;
+
+        for (int i = 0; i < lines.size(); i++) {
+            BusLine line = lines.get(i);
+            boolean shown = showFleet
+                ? visibleLineIds != null && visibleLineIds.contains(line.lineId)
+                : line == focusedLine;
+            shownLines[i] = shown;
+            any |= shown;
+        }
+
+        return any;
     }
 
-    private boolean isLineVisible(Vector2 pos1, Vector2 pos2) {
+    private boolean isLineVisible(float x1, float y1, float x2, float y2) {
         float padding = 500f;
         float minX = -padding;
         float maxX = Constants.MAP_WIDTH + padding;
         float minY = -padding;
         float maxY = Constants.MAP_HEIGHT + padding;
 
-        if (pos1.x < minX && pos2.x < minX) return false;
-        if (pos1.x > maxX && pos2.x > maxX) return false;
-        if (pos1.y < minY && pos2.y < minY) return false;
-        if (pos1.y > maxY && pos2.y > maxY) return false;
+        if (x1 < minX && x2 < minX) return false;
+        if (x1 > maxX && x2 > maxX) return false;
+        if (y1 < minY && y2 < minY) return false;
+        if (y1 > maxY && y2 > maxY) return false;
 
         return true;
     }
 
     public void dispose() {
+        vehicleSimulation.stop();
         shapeRenderer.dispose();
         spriteBatch.dispose();
         font.dispose();
+        markerLayerRenderer.dispose();
+        if (pickingBuffer != null) {
+            pickingBuffer.dispose();
+        }
 
         if (tiledMap != null)
             tiledMap.dispose();
@@ -328,170 +652,202 @@ public class MapRenderer {
         tiledMapRenderer = new OrthogonalTiledMapRenderer(tiledMap);
     }
 
+    private void updateViewBounds() {
+        float viewWidth = camera.viewportWidth * camera.zoom;
+        float viewHeight = camera.viewportHeight * camera.zoom;
+        viewBounds.set(
+            camera.position.x - viewWidth / 2f,
+            camera.position.y - viewHeight / 2f,
+            viewWidth,
+            viewHeight
+        );
+    }
+
     private float getZoomScale() {
         float scale = MIN_ZOOM_SCALE + (camera.zoom * ZOOM_SCALE_FACTOR);
         return Math.min(Math.max(scale, MIN_ZOOM_SCALE), MAX_ZOOM_SCALE);
     }
 
-    private void renderMarkers() {
-        if (filteredStops == null || filteredStops.isEmpty()) return;
-        if (markerTexture == null) {
-            renderFallbackMarkers();
-            return;
-        }
+    public boolean isPickingReady() {
+        return pickingBuffer != null && pickingBuffer.isReady();
+    }
 
-        spriteBatch.setProjectionMatrix(camera.combined);
-        shapeRenderer.setProjectionMatrix(camera.combined);
+    /**
+     * Returns the picking id of the object under the given screen position,
+     * or 0 when there is none. Decode it with {@link #getPickedStop} and
+     * {@link #getPickedLine}.
+     */
+    public int pick(int screenX, int screenY) {
+        if (!isPickingReady()) return 0;
+        return pickingBuffer.pick(screenX, screenY);
+    }
 
-        float zoomScale = getZoomScale();
+    public BusStop getPickedStop(int pickId) {
+        if (PickingBuffer.kindOf(pickId) != PickingBuffer.KIND_STOP) return null;
 
-        // Pass delta to clustering algorithm
-        List<MarkerCluster> clusters = MarkerClusterer.clusterMarkers(
-            filteredStops,
-            beginTile,
-            camera.zoom,
-            Constants.MAP_WIDTH,
-            Constants.MAP_HEIGHT,
-            com.badlogic.gdx.Gdx.graphics.getDeltaTime()  // Add delta time
-        );
-
-        // Render normal markers first
-        spriteBatch.begin();
-        for (MarkerCluster cluster : clusters) {
-            if (cluster.isCluster) continue;
-            if (cluster.isDying) continue;
+        int index = PickingBuffer.indexOf(pickId);
+        if (index < 0 || index >= pickedStopClusters.size()) return null;
+        return pickedStopClusters.get(index).getSingleStop();
+    }
 
-            BusStop stop = cluster.getSingleStop();
-            if (stop == selectedStop || stop == hoveredStop) continue;
+    /**
+     * Line under the cursor, either picked directly or through one of its buses.
+     */
+    public BusLine getPickedLine(int pickId) {
+        int kind = PickingBuffer.kindOf(pickId);
+        int index = PickingBuffer.indexOf(pickId);
 
-            Vector2 pos = cluster.getPosition();
-            float scale = cluster.currentScale * zoomScale;
-            Color tint = new Color(1, 1, 1, 0.9f * cluster.alpha);
-            drawMarker(pos.x, pos.y, scale, tint, false);
+        if (kind == PickingBuffer.KIND_LINE) {
+            return busLines != null && index >= 0 && index < busLines.size() ? busLines.get(index) : null;
         }
-        spriteBatch.end();
-
-        // Render clusters
-        for (MarkerCluster cluster : clusters) {
-            if (!cluster.isCluster) continue;
-
-            Vector2 pos = cluster.getPosition();
-            float scale = cluster.currentScale;
-            float alpha = cluster.alpha;
-
-            drawCluster(pos.x, pos.y, cluster.getCount(), camera.zoom, scale, alpha);
+        if (kind == PickingBuffer.KIND_BUS) {
+            return index >= 0 && index < pickedBusLines.size() ? pickedBusLines.get(index) : null;
         }
+        return null;
+    }
 
-        // Render hovered stop with glow
-        if (hoveredStop != null) {
-            for (MarkerCluster cluster : clusters) {
-                if (!cluster.isCluster && cluster.getSingleStop() == hoveredStop) {
-                    Vector2 pos = cluster.getPosition();
-                    float scale = cluster.currentScale * zoomScale;
+    private void updatePickingBuffer(float delta) {
+        boolean busesVisible = busAnimationRenderer.getRenderedBusCount() > 0;
+        if (busesVisible) {
+            pickBusTimer += delta;
+        }
 
-                    shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
-                    shapeRenderer.setColor(0.2f, 0.6f, 1.0f, 0.25f * cluster.alpha);
-                    shapeRenderer.circle(pos.x, pos.y, BASE_MARKER_SIZE * 0.6f * scale);
-                    shapeRenderer.end();
+        boolean cameraMoved = camera.position.x != pickCameraX ||
+            camera.position.y != pickCameraY ||
+            camera.zoom != pickCameraZoom;
+        boolean layersChanged = pickLayerVersion != pickRenderedVersion;
+        boolean markersMoving = showMarkers && markerClusterer.isAnimating();
+        boolean busesMoved = busesVisible && pickBusTimer >= PICK_BUS_REFRESH_INTERVAL;
 
-                    spriteBatch.begin();
-                    drawMarker(pos.x, pos.y, HOVER_SCALE * scale,
-                        new Color(0.5f, 0.8f, 1.0f, cluster.alpha), false);
-                    spriteBatch.end();
-                    break;
-                }
-            }
+        if (!cameraMoved && !layersChanged && !markersMoving && !busesMoved && pickingBuffer.isReady()) {
+            return;
         }
 
-        // Render selected stop with pulse
-        if (selectedStop != null) {
-            for (MarkerCluster cluster : clusters) {
-                if (!cluster.isCluster && cluster.getSingleStop() == selectedStop) {
-                    Vector2 pos = cluster.getPosition();
+        renderPickingBuffer();
 
-                    float breathe = (float) Math.sin(pulseTime * PULSE_SPEED) * 0.5f + 0.5f;
-                    float currentScale = (SELECT_SCALE + breathe * 0.15f) *
-                        cluster.currentScale * zoomScale;
-
-                    spriteBatch.begin();
-                    drawMarker(pos.x, pos.y, currentScale,
-                        new Color(0.3f, 0.8f, 1.0f, cluster.alpha), false);
-                    spriteBatch.end();
-                    break;
-                }
-            }
-        }
+        pickCameraX = camera.position.x;
+        pickCameraY = camera.position.y;
+        pickCameraZoom = camera.zoom;
+        pickRenderedVersion = pickLayerVersion;
+        pickBusTimer = 0f;
     }
 
-    // Update the drawCluster method signature to accept scale and alpha:
-    private void drawCluster(float x, float y, int count, float zoom, float scale, float alpha) {
-        float zoomScale = 1.0f + (zoom * 4f);
-        float countScale = 1.0f + Math.min(count / 8f, 1.2f);
-        float clusterSize = BASE_MARKER_SIZE * countScale * zoomScale * scale;
+    private void renderPickingBuffer() {
+        ShapeRenderer shapes = pickingBuffer.begin(camera.combined);
 
-        Color clusterColor = getClusterColor(count);
+        float zoomScale = getZoomScale();
 
-        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+        // Lines, drawn at least as wide as the CPU hover tolerance
+        if (busLines != null && visibleLineIds != null) {
+            float lineWidth = Math.max(
+                BUS_LINE_WIDTH * Math.min(zoomScale * 0.5f, 2.0f),
+                PICK_LINE_TOLERANCE * 2f * camera.zoom
+            );
 
-        shapeRenderer.setColor(clusterColor.r, clusterColor.g, clusterColor.b, 0.25f * alpha);
-        shapeRenderer.circle(x, y, clusterSize * 0.7f);
+            for (int i = 0; i < busLines.size(); i++) {
+                BusLine line = busLines.get(i);
+                if (!visibleLineIds.contains(line.lineId)) continue;
 
-        shapeRenderer.setColor(clusterColor.r, clusterColor.g, clusterColor.b, 0.5f * alpha);
-        shapeRenderer.circle(x, y, clusterSize * 0.55f);
+                pickingBuffer.setId(PickingBuffer.KIND_LINE, i);
+                float[] points = getProjectedPath(line);
+                for (int p = 0; p < points.length - 2; p += 2) {
+                    if (!isLineVisible(points[p], points[p + 1], points[p + 2], points[p + 3])) continue;
+                    shapes.rectLine(points[p], points[p + 1], points[p + 2], points[p + 3], lineWidth);
+                }
+            }
+        }
 
-        shapeRenderer.setColor(clusterColor.r, clusterColor.g, clusterColor.b, 0.85f * alpha);
-        shapeRenderer.circle(x, y, clusterSize * 0.4f);
+        // Single stop markers as drawn by the marker layer
+        pickedStopClusters.clear();
+        if (showMarkers) {
+            List<MarkerCluster> clusters = markerClusterer.getClusters();
+            for (int i = 0; i < clusters.size(); i++) {
+                MarkerCluster cluster = clusters.get(i);
+                if (cluster.isCluster || cluster.isDying) continue;
 
-        shapeRenderer.end();
+                Vector2 pos = cluster.getPosition();
+                float radius = PICK_MARKER_SIZE * 0.5f * cluster.currentScale * zoomScale;
 
-        spriteBatch.begin();
+                pickingBuffer.setId(PickingBuffer.KIND_STOP, pickedStopClusters.size());
+                pickedStopClusters.add(cluster);
+                shapes.circle(pos.x, pos.y, radius, 12);
+            }
+        }
 
-        String countText = String.valueOf(count);
-        float fontScale = (0.5f + (zoom * 14f)) * scale;
-        font.getData().setScale(fontScale);
+        // Buses on top, as drawn this frame
+        pickedBusLines.clear();
+        for (int i = 0; i < busAnimationRenderer.getRenderedBusCount(); i++) {
+            float size = busAnimationRenderer.getRenderedBusSize(i);
+            pickingBuffer.setId(PickingBuffer.KIND_BUS, pickedBusLines.size());
+            pickedBusLines.add(busAnimationRenderer.getRenderedBusLine(i));
+            shapes.circle(
+                busAnimationRenderer.getRenderedBusX(i),
+                busAnimationRenderer.getRenderedBusY(i),
+                size * 0.4f,
+                12
+            );
+        }
 
-        GlyphLayout layout = new GlyphLayout(font, countText);
-        float textWidth = layout.width;
-        float textHeight = layout.height;
+        pickingBuffer.end();
+    }
 
-        font.setColor(1, 1, 1, alpha);
-        font.draw(spriteBatch, countText, x - textWidth / 2, y + textHeight / 2);
+    /**
+     * True while the map has moving content: animating clusters, visible
+     * buses or the pulse of a selected line or stop.
+     */
+    public boolean isAnimating() {
+        return isAnimatingMarkers() || busAnimationRenderer.getRenderedBusCount() > 0 || isPulsing();
+    }
 
-        spriteBatch.end();
+    public boolean isAnimatingMarkers() {
+        return showMarkers && markerClusterer.isAnimating();
     }
 
-    private void drawMarker(float x, float y, float scale, Color tint, boolean addHighlight) {
-        float size = BASE_MARKER_SIZE * scale;
-        float halfSize = size / 2f;
+    // The selected line and stop breathe; hover highlights are drawn still
+    private boolean isPulsing() {
+        boolean lineShown = selectedLine != null && visibleLineIds != null &&
+            visibleLineIds.contains(selectedLine.lineId);
+        boolean stopShown = selectedStop != null && showMarkers && markerTexture != null;
+        return lineShown || stopShown;
+    }
 
-        spriteBatch.setColor(0, 0, 0, 0.3f * tint.a);
-        spriteBatch.draw(markerTexture,
-            x - halfSize + 2, y - halfSize - 2,
-            size, size);
+    private void renderMarkers(float delta) {
+        if (filteredStops == null || filteredStops.isEmpty()) return;
+        if (markerTexture == null) {
+            renderFallbackMarkers();
+            return;
+        }
 
-        spriteBatch.setColor(tint);
-        spriteBatch.draw(markerTexture,
-            x - halfSize, y - halfSize,
-            size, size);
+        spriteBatch.setProjectionMatrix(camera.combined);
 
-        if (addHighlight) {
-            spriteBatch.setColor(1, 1, 1, 0.3f);
-            spriteBatch.draw(markerTexture,
-                x - halfSize, y - halfSize,
-                size, size);
-        }
+        float zoomScale = getZoomScale();
+        updateViewBounds();
 
-        spriteBatch.setColor(Color.WHITE);
-    }
+        // Reclusters only when zoom level or stop data changed, otherwise just animates
+        List<MarkerCluster> clusters = markerClusterer.update(
+            allStops,
+            stopsVersion,
+            filteredStops,
+            filterVersion,
+            beginTile,
+            camera.zoom,
+            viewBounds,
+            Constants.MAP_WIDTH,
+            Constants.MAP_HEIGHT,
+            delta
+        );
 
-    private Color getClusterColor(int count) {
-        if (count <= 3) {
-            return new Color(0.2f, 0.6f, 1.0f, 1f);
-        } else if (count <= 8) {
-            return new Color(1.0f, 0.85f, 0.2f, 1f);
-        } else {
-            return new Color(1.0f, 0.5f, 0.1f, 1f);
-        }
+        markerLayerRenderer.render(
+            clusters,
+            markerTexture,
+            viewBounds,
+            camera.zoom,
+            zoomScale,
+            hoveredStop,
+            selectedStop,
+            pulseTime,
+            delta
+        );
     }
 
     private void renderFallbackMarkers() {
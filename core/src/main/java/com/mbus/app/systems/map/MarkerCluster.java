@@ -4,6 +4,7 @@ import com.badlogic.gdx.math.Vector2;
 import com.mbus.app.model.BusStop;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class MarkerCluster {
@@ -20,25 +21,36 @@ public class MarkerCluster {
     public boolean isNew;
     public boolean isDying;
 
-    private String clusterId;
+    // Dense stop indices of the members, sorted ascending
+    private final int[] members;
+    private long clusterId;
 
-    public MarkerCluster(Vector2 position, BusStop stop) {
+    private static final float SETTLED_SCALE_EPSILON = 0.005f;
+    private static final float SETTLED_POSITION_EPSILON = 0.25f;
+
+    public MarkerCluster(Vector2 position, BusStop stop, int stopIndex) {
         this.position = position;
-        this.stops = new ArrayList<BusStop>();
+        this.stops = new ArrayList<BusStop>(1);
         this.stops.add(stop);
         this.isCluster = false;
 
+        this.members = new int[]{stopIndex};
+
         initAnimation();
-        this.clusterId = generateId();
+        updateIdentity();
     }
 
-    public MarkerCluster(Vector2 position, List<BusStop> stops) {
+    /**
+     * @param members dense stop indices of {@code stops}, sorted ascending
+     */
+    public MarkerCluster(Vector2 position, List<BusStop> stops, int[] members) {
         this.position = position;
-        this.stops = new ArrayList<BusStop>(stops);
+        this.stops = stops;
         this.isCluster = stops.size() > 1;
+        this.members = members;
 
         initAnimation();
-        this.clusterId = generateId();
+        updateIdentity();
     }
 
     private void initAnimation() {
@@ -71,25 +83,72 @@ public class MarkerCluster {
         return stops;
     }
 
-    public String getClusterId() {
+    public long getClusterId() {
         return clusterId;
     }
 
-    public void setClusterId(String id) {
-        this.clusterId = id;
+    public int[] getMembers() {
+        return members;
+    }
+
+    public boolean hasSameMembers(MarkerCluster other) {
+        return Arrays.equals(members, other.members);
+    }
+
+    public boolean containsAll(MarkerCluster other) {
+        int[] theirs = other.members;
+        if (theirs.length > members.length) {
+            return false;
+        }
+        int i = 0;
+        for (int index : theirs) {
+            while (i < members.length && members[i] < index) i++;
+            if (i == members.length || members[i] != index) {
+                return false;
+            }
+            i++;
+        }
+        return true;
     }
 
-    private String generateId() {
-        StringBuilder sb = new StringBuilder();
-        List<Integer> sortedIds = new ArrayList<Integer>();
-        for (BusStop stop : stops) {
-            sortedIds.add(stop.idAvpost);
+    public int countOverlap(MarkerCluster other) {
+        int[] theirs = other.members;
+        if (members[members.length - 1] < theirs[0] || theirs[theirs.length - 1] < members[0]) {
+            return 0;
         }
-        java.util.Collections.sort(sortedIds);
-        for (Integer id : sortedIds) {
-            sb.append(id).append("-");
+        int overlap = 0;
+        int i = 0;
+        int j = 0;
+        while (i < members.length && j < theirs.length) {
+            if (members[i] < theirs[j]) {
+                i++;
+            } else if (members[i] > theirs[j]) {
+                j++;
+            } else {
+                overlap++;
+                i++;
+                j++;
+            }
         }
-        return sb.toString();
+        return overlap;
+    }
+
+    /**
+     * Computes the 64-bit identity hash over the sorted members, so it
+     * does not depend on the order the stops were added in.
+     */
+    private void updateIdentity() {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int index : members) {
+            hash = mix(hash ^ mix(index * 0xBF58476D1CE4E5B9L));
+        }
+        clusterId = hash;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 
     public void updateAnimation(float delta) {
@@ -141,6 +200,16 @@ public class MarkerCluster {
         targetScale = 0.2f;
     }
 
+    public boolean isSettled() {
+        if (isDying || isNew) {
+            return false;
+        }
+
+        return alpha >= 1f
+            && Math.abs(targetScale - currentScale) < SETTLED_SCALE_EPSILON
+            && animatedPosition.dst2(targetPosition) < SETTLED_POSITION_EPSILON;
+    }
+
     public boolean shouldRemove() {
         float distanceToTarget = animatedPosition.dst(targetPosition);
 
@@ -1,91 +1,354 @@
 package com.mbus.app.systems.map;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
 import com.mbus.app.model.BusStop;
 import com.mbus.app.model.ZoomXY;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Groups stop markers into clusters for the current discrete zoom level.
+ * Clustering is only recomputed when one of its inputs changes (stop data
+ * version, filter version, zoom level or the clustered window); on all other
+ * frames the existing clusters are just stepped through their animation.
+ * <p>
+ * Every stop gets a dense index when the stop data is projected, and
+ * clusters track their members as a sorted array of those indices, so
+ * identity lookups, containment and overlap checks never compare stop
+ * lists, and a cluster's cost follows its size, not the number of stops.
+ * <p>
+ * Projected stops are kept in a static grid index, and only stops inside a
+ * window around the camera (view rectangle plus one cluster radius, snapped
+ * to the grid) are clustered. The window is recomputed once the view leaves
+ * it, so panning within it costs nothing.
+ */
 public class MarkerClusterer {
 
+    private static final String TAG = "MarkerClusterer";
+
     private static final float BASE_CLUSTER_DISTANCE = 80f;
 
     private static final float[] ZOOM_LEVELS = {0.0f, 0.15f, 0.3f, 0.5f, 0.8f};
     private static final float[] CLUSTER_MULTIPLIERS = {0f, 1.5f, 3.0f, 5.0f, 10.0f};
 
-    private static Map<String, MarkerCluster> previousClusters = new HashMap<String, MarkerCluster>();
-    private static int previousZoomLevel = -1;
-
-    public static List<MarkerCluster> clusterMarkers(
-        List<BusStop> stops,
+    private static final float INDEX_CELL_SIZE = 256f;
+    private static final float WINDOW_MARGIN_FACTOR = 0.5f;
+
+    private final List<MarkerCluster> clusters = new ArrayList<MarkerCluster>();
+    private final Map<Long, MarkerCluster> previousClusters = new HashMap<Long, MarkerCluster>();
+
+    // Keyed by stop id and kept across data versions so cluster identities stay stable
+    private final Map<Integer, Integer> stopIndices = new HashMap<Integer, Integer>();
+
+    // Per dense index: stop, projected position and whether it passes the current filter
+    private BusStop[] indexedStops = new BusStop[0];
+    private Vector2[] indexedPositions = new Vector2[0];
+    private float[] indexedX = new float[0];
+    private float[] indexedY = new float[0];
+    private boolean[] filtered = new boolean[0];
+
+    private final PointGridIndex stopIndex = new PointGridIndex(INDEX_CELL_SIZE);
+    private boolean stopIndexDirty = false;
+
+    private final IntArray windowIds = new IntArray();
+    private final List<StopWithPosition> windowPositions = new ArrayList<StopWithPosition>();
+    private final Rectangle clusterWindow = new Rectangle();
+    private boolean hasClusterWindow = false;
+
+    // Members of the cluster being built, reused across clusters
+    private final IntArray memberScratch = new IntArray();
+
+    private int projectedStopsVersion = -1;
+    private int clusteredStopsVersion = -1;
+    private int clusteredFilterVersion = -1;
+    private int clusteredZoomLevel = -1;
+
+    private boolean animating = false;
+
+    /**
+     * Returns the clusters to draw this frame.
+     *
+     * @param allStops      complete stop list, projected once per {@code stopsVersion}
+     * @param stopsVersion  bumped by the caller whenever {@code allStops} is replaced
+     * @param filteredStops subset of {@code allStops} that should be clustered
+     * @param filterVersion bumped by the caller whenever {@code filteredStops} is replaced
+     * @param viewBounds    visible area of the map in map-pixel coordinates
+     */
+    public List<MarkerCluster> update(
+        List<BusStop> allStops,
+        int stopsVersion,
+        List<BusStop> filteredStops,
+        int filterVersion,
         ZoomXY beginTile,
         float cameraZoom,
+        Rectangle viewBounds,
         int mapWidth,
         int mapHeight,
         float delta
     ) {
-        if (stops == null || stops.isEmpty()) {
-            return new ArrayList<MarkerCluster>();
+        if (filteredStops == null || filteredStops.isEmpty()) {
+            if (!clusters.isEmpty()) {
+                invalidate();
+            }
+            return clusters;
+        }
+
+        if (stopsVersion != projectedStopsVersion) {
+            projectStops(allStops, beginTile);
+            projectedStopsVersion = stopsVersion;
         }
 
         int zoomLevel = getDiscreteZoomLevel(cameraZoom);
-        float clusterDistance = BASE_CLUSTER_DISTANCE * CLUSTER_MULTIPLIERS[zoomLevel];
 
-        boolean zoomChanged = (zoomLevel != previousZoomLevel);
+        boolean zoomChanged = zoomLevel != clusteredZoomLevel;
+        boolean dataChanged = stopsVersion != clusteredStopsVersion ||
+            filterVersion != clusteredFilterVersion;
 
-        if (zoomChanged) {
-            System.out.println("=== CLUSTERING DEBUG ===");
-            System.out.println("Camera Zoom: " + cameraZoom);
-            System.out.println("Zoom Level: " + zoomLevel + " (changed from " + previousZoomLevel + ")");
-            System.out.println("Cluster Distance: " + clusterDistance);
-            System.out.println("Previous Clusters Count: " + previousClusters.size());
-            previousZoomLevel = zoomLevel;
+        if (dataChanged) {
+            markFilteredStops(filteredStops, beginTile, mapWidth, mapHeight);
+        }
+
+        if (stopIndexDirty) {
+            stopIndex.build(indexedX, indexedY, stopIndices.size());
+            stopIndexDirty = false;
+        }
+
+        float padding = getClusterPadding(zoomLevel);
+        boolean windowChanged = !windowCovers(viewBounds, padding);
+
+        if (zoomChanged || dataChanged || windowChanged) {
+            updateClusterWindow(viewBounds, padding);
+            collectWindowPositions();
+
+            recluster(zoomLevel, cameraZoom, zoomChanged, delta);
+
+            clusteredStopsVersion = stopsVersion;
+            clusteredFilterVersion = filterVersion;
+            clusteredZoomLevel = zoomLevel;
+            animating = true;
+        } else if (animating) {
+            stepAnimations(delta);
         }
 
-        List<StopWithPosition> stopsWithPos = new ArrayList<StopWithPosition>();
-        for (BusStop stop : stops) {
-            Vector2 pos = MapRasterTiles.getPixelPosition(
-                stop.geo.lat,
-                stop.geo.lng,
-                beginTile.x,
-                beginTile.y
-            );
+        return clusters;
+    }
 
+    /**
+     * True while any cluster is still moving, scaling or fading.
+     */
+    public boolean isAnimating() {
+        return animating;
+    }
+
+    /**
+     * Clusters returned by the last update.
+     */
+    public List<MarkerCluster> getClusters() {
+        return clusters;
+    }
+
+    public int getZoomLevel() {
+        return clusteredZoomLevel;
+    }
+
+    /**
+     * Drops all cached state so the next update starts from scratch.
+     */
+    public void invalidate() {
+        clusters.clear();
+        previousClusters.clear();
+        windowPositions.clear();
+        stopIndices.clear();
+        indexedStops = new BusStop[0];
+        indexedPositions = new Vector2[0];
+        indexedX = new float[0];
+        indexedY = new float[0];
+        filtered = new boolean[0];
+        stopIndex.build(indexedX, indexedY, 0);
+        stopIndexDirty = false;
+        hasClusterWindow = false;
+        projectedStopsVersion = -1;
+        clusteredStopsVersion = -1;
+        clusteredFilterVersion = -1;
+        clusteredZoomLevel = -1;
+        animating = false;
+    }
+
+    private void projectStops(List<BusStop> allStops, ZoomXY beginTile) {
+        if (allStops == null) return;
+
+        for (BusStop stop : allStops) {
+            project(stop, indexOf(stop), beginTile);
+        }
+        stopIndexDirty = true;
+    }
+
+    private void project(BusStop stop, int index, ZoomXY beginTile) {
+        Vector2 pos = MapRasterTiles.getPixelPosition(
+            stop.geo.lat,
+            stop.geo.lng,
+            beginTile.x,
+            beginTile.y
+        );
+
+        indexedStops[index] = stop;
+        indexedPositions[index] = pos;
+        indexedX[index] = pos.x;
+        indexedY[index] = pos.y;
+    }
+
+    private void markFilteredStops(List<BusStop> filteredStops, ZoomXY beginTile,
+                                   int mapWidth, int mapHeight) {
+        Arrays.fill(filtered, false);
+
+        for (BusStop stop : filteredStops) {
+            int index = indexOf(stop);
+            if (indexedStops[index] != stop) {
+                // Stop that was not part of the projected list
+                project(stop, index, beginTile);
+                stopIndexDirty = true;
+            }
+
+            Vector2 pos = indexedPositions[index];
             if (pos.x >= 0 && pos.y >= 0 &&
                 pos.x <= mapWidth && pos.y <= mapHeight) {
-                stopsWithPos.add(new StopWithPosition(stop, pos));
+                filtered[index] = true;
             }
         }
+    }
 
-        if (clusterDistance == 0f) {
-            List<MarkerCluster> individualMarkers = new ArrayList<MarkerCluster>();
-            for (StopWithPosition swp : stopsWithPos) {
-                individualMarkers.add(new MarkerCluster(swp.position, swp.stop));
-            }
-            return animateTransition(individualMarkers, delta, zoomLevel, zoomChanged);
+    private int indexOf(BusStop stop) {
+        Integer index = stopIndices.get(stop.idAvpost);
+        if (index == null) {
+            index = stopIndices.size();
+            stopIndices.put(stop.idAvpost, index);
+            ensureIndexCapacity(index + 1);
         }
+        return index;
+    }
+
+    private void ensureIndexCapacity(int capacity) {
+        if (capacity <= indexedStops.length) return;
 
-        List<MarkerCluster> clusters = initialClustering(stopsWithPos, clusterDistance);
+        int newCapacity = Math.max(capacity, indexedStops.length * 2);
+        indexedStops = Arrays.copyOf(indexedStops, newCapacity);
+        indexedPositions = Arrays.copyOf(indexedPositions, newCapacity);
+        indexedX = Arrays.copyOf(indexedX, newCapacity);
+        indexedY = Arrays.copyOf(indexedY, newCapacity);
+        filtered = Arrays.copyOf(filtered, newCapacity);
+    }
 
-        if (zoomLevel >= 3) {
-            if (zoomChanged) {
-                System.out.println("Applying super-clustering...");
+    /**
+     * Distance beyond the view from which a stop can still pull a visible
+     * cluster towards it: one cluster radius, widened by the super-clustering
+     * pass at the higher zoom levels.
+     */
+    private static float getClusterPadding(int zoomLevel) {
+        float clusterDistance = BASE_CLUSTER_DISTANCE * CLUSTER_MULTIPLIERS[zoomLevel];
+        return zoomLevel >= 3 ? clusterDistance * 2.5f : clusterDistance;
+    }
+
+    private boolean windowCovers(Rectangle view, float padding) {
+        if (!hasClusterWindow) return false;
+
+        return view.x - padding >= clusterWindow.x &&
+            view.y - padding >= clusterWindow.y &&
+            view.x + view.width + padding <= clusterWindow.x + clusterWindow.width &&
+            view.y + view.height + padding <= clusterWindow.y + clusterWindow.height;
+    }
+
+    private void updateClusterWindow(Rectangle view, float padding) {
+        float margin = padding + Math.max(view.width, view.height) * WINDOW_MARGIN_FACTOR;
+
+        float minX = (float) Math.floor((view.x - margin) / INDEX_CELL_SIZE) * INDEX_CELL_SIZE;
+        float minY = (float) Math.floor((view.y - margin) / INDEX_CELL_SIZE) * INDEX_CELL_SIZE;
+        float maxX = (float) Math.ceil((view.x + view.width + margin) / INDEX_CELL_SIZE) * INDEX_CELL_SIZE;
+        float maxY = (float) Math.ceil((view.y + view.height + margin) / INDEX_CELL_SIZE) * INDEX_CELL_SIZE;
+
+        clusterWindow.set(minX, minY, maxX - minX, maxY - minY);
+        hasClusterWindow = true;
+    }
+
+    private void collectWindowPositions() {
+        windowIds.clear();
+        stopIndex.queryRect(
+            clusterWindow.x,
+            clusterWindow.y,
+            clusterWindow.x + clusterWindow.width,
+            clusterWindow.y + clusterWindow.height,
+            windowIds
+        );
+
+        // Dense index order keeps the greedy clustering independent of the grid layout
+        windowIds.sort();
+
+        windowPositions.clear();
+        for (int i = 0; i < windowIds.size; i++) {
+            int index = windowIds.get(i);
+            if (!filtered[index]) continue;
+
+            windowPositions.add(new StopWithPosition(indexedStops[index], indexedPositions[index], index));
+        }
+    }
+
+    private void recluster(int zoomLevel, float cameraZoom, boolean zoomChanged, float delta) {
+        float clusterDistance = BASE_CLUSTER_DISTANCE * CLUSTER_MULTIPLIERS[zoomLevel];
+
+        List<MarkerCluster> newClusters;
+
+        if (clusterDistance == 0f) {
+            newClusters = new ArrayList<MarkerCluster>(windowPositions.size());
+            for (StopWithPosition swp : windowPositions) {
+                newClusters.add(new MarkerCluster(swp.position, swp.stop, swp.index));
+            }
+        } else {
+            newClusters = initialClustering(windowPositions, clusterDistance, memberScratch);
+
+            if (zoomLevel >= 3) {
+                newClusters = reclusterClusters(newClusters, clusterDistance * 1.5f, memberScratch);
             }
-            clusters = reclusterClusters(clusters, clusterDistance * 1.5f);
         }
 
         if (zoomChanged) {
-            System.out.println("New Clusters Count: " + clusters.size());
+            Gdx.app.debug(TAG, "Zoom level " + clusteredZoomLevel + " -> " + zoomLevel + " (camera zoom " +
+                cameraZoom + ", cluster distance " + clusterDistance + "): " + previousClusters.size() +
+                " -> " + newClusters.size() + " clusters");
+        }
+
+        animateTransition(newClusters, delta, zoomChanged);
+    }
+
+    private void stepAnimations(float delta) {
+        boolean stillAnimating = false;
+
+        for (int i = clusters.size() - 1; i >= 0; i--) {
+            MarkerCluster cluster = clusters.get(i);
+            if (cluster.isSettled()) continue;
+
+            cluster.updateAnimation(delta);
+
+            if (cluster.isDying && cluster.shouldRemove()) {
+                clusters.remove(i);
+                continue;
+            }
+
+            if (!cluster.isSettled()) {
+                stillAnimating = true;
+            }
         }
 
-        return animateTransition(clusters, delta, zoomLevel, zoomChanged);
+        animating = stillAnimating;
     }
 
-    private static List<MarkerCluster> animateTransition(List<MarkerCluster> newClusters, float delta, int zoomLevel, boolean zoomChanged) {
-        Map<String, MarkerCluster> newClusterMap = new HashMap<String, MarkerCluster>();
+    private void animateTransition(List<MarkerCluster> newClusters, float delta, boolean zoomChanged) {
+        Map<Long, MarkerCluster> newClusterMap = new HashMap<Long, MarkerCluster>();
 
         for (MarkerCluster cluster : newClusters) {
             newClusterMap.put(cluster.getClusterId(), cluster);
@@ -98,11 +361,10 @@ public class MarkerClusterer {
         int dyingCount = 0;
 
         for (MarkerCluster newCluster : newClusters) {
-            String id = newCluster.getClusterId();
+            MarkerCluster existing = findSameCluster(previousClusters, newCluster);
 
-            if (previousClusters.containsKey(id)) {
+            if (existing != null) {
                 existingCount++;
-                MarkerCluster existing = previousClusters.get(id);
                 existing.setTarget(newCluster.position, newCluster.getCount());
                 existing.stops = newCluster.stops;
                 existing.isCluster = newCluster.isCluster;
@@ -112,9 +374,6 @@ public class MarkerClusterer {
                 MarkerCluster parent = findParentCluster(newCluster);
                 if (parent != null) {
                     newCount++;
-                    if (zoomChanged) {
-                        System.out.println("SPLIT: New cluster with " + newCluster.getCount() + " stops from parent with " + parent.getCount() + " stops");
-                    }
                     newCluster.animatedPosition.set(parent.getPosition());
                     newCluster.targetPosition.set(newCluster.position);
                     newCluster.currentScale = parent.currentScale;
@@ -122,9 +381,6 @@ public class MarkerClusterer {
                     newCluster.alpha = 0.8f;
                 } else {
                     newCount++;
-                    if (zoomChanged) {
-                        System.out.println("NEW: Brand new cluster with " + newCluster.getCount() + " stops");
-                    }
                     newCluster.isNew = true;
                 }
                 newCluster.updateAnimation(delta);
@@ -132,25 +388,15 @@ public class MarkerClusterer {
             }
         }
 
-        for (Map.Entry<String, MarkerCluster> entry : previousClusters.entrySet()) {
-            String id = entry.getKey();
-            MarkerCluster oldCluster = entry.getValue();
-
-            if (!newClusterMap.containsKey(id)) {
+        for (MarkerCluster oldCluster : previousClusters.values()) {
+            if (findSameCluster(newClusterMap, oldCluster) == null) {
                 dyingCount++;
                 MarkerCluster mergeTarget = findMergeTarget(oldCluster, newClusters);
 
                 if (mergeTarget != null) {
-                    if (zoomChanged) {
-                        System.out.println("MERGE: Cluster with " + oldCluster.getCount() + " stops merging into cluster with " + mergeTarget.getCount() + " stops (distance: " + oldCluster.getPosition().dst(mergeTarget.getPosition()) + ")");
-                    }
                     oldCluster.setTarget(mergeTarget.position, mergeTarget.getCount());
                     oldCluster.targetScale = mergeTarget.currentScale > 0 ? mergeTarget.currentScale : 1.0f;
                     oldCluster.alpha = Math.max(oldCluster.alpha, 0.8f);
-                } else {
-                    if (zoomChanged) {
-                        System.out.println("DYING: Cluster with " + oldCluster.getCount() + " stops has no merge target");
-                    }
                 }
 
                 oldCluster.markForDeath();
@@ -162,10 +408,19 @@ public class MarkerClusterer {
             }
         }
 
+        // Clusters that were already fading out keep fading until they are gone
+        for (MarkerCluster cluster : clusters) {
+            if (cluster.isDying) {
+                cluster.updateAnimation(delta);
+                if (!cluster.shouldRemove()) {
+                    animatedClusters.add(cluster);
+                }
+            }
+        }
+
         if (zoomChanged) {
-            System.out.println("Animation Stats - Existing: " + existingCount + ", New: " + newCount + ", Dying: " + dyingCount);
-            System.out.println("Total Animated Clusters: " + animatedClusters.size());
-            System.out.println("========================");
+            Gdx.app.debug(TAG, existingCount + " clusters kept, " + newCount + " new, " + dyingCount +
+                " dying, " + animatedClusters.size() + " animated");
         }
 
         previousClusters.clear();
@@ -175,12 +430,25 @@ public class MarkerClusterer {
             }
         }
 
-        return animatedClusters;
+        clusters.clear();
+        clusters.addAll(animatedClusters);
+    }
+
+    /**
+     * Looks a cluster up by its hash id and confirms the match against the
+     * member indices, so a hash collision can never merge unrelated clusters.
+     */
+    private static MarkerCluster findSameCluster(Map<Long, MarkerCluster> byId, MarkerCluster cluster) {
+        MarkerCluster candidate = byId.get(cluster.getClusterId());
+        if (candidate != null && candidate.hasSameMembers(cluster)) {
+            return candidate;
+        }
+        return null;
     }
 
-    private static MarkerCluster findParentCluster(MarkerCluster newCluster) {
+    private MarkerCluster findParentCluster(MarkerCluster newCluster) {
         for (MarkerCluster oldCluster : previousClusters.values()) {
-            if (oldCluster.getStops().containsAll(newCluster.getStops())) {
+            if (oldCluster.containsAll(newCluster)) {
                 return oldCluster;
             }
         }
@@ -192,12 +460,7 @@ public class MarkerClusterer {
         int maxOverlap = 0;
 
         for (MarkerCluster newCluster : newClusters) {
-            int overlap = 0;
-            for (BusStop stop : oldCluster.getStops()) {
-                if (newCluster.getStops().contains(stop)) {
-                    overlap++;
-                }
-            }
+            int overlap = oldCluster.countOverlap(newCluster);
 
             if (overlap > maxOverlap) {
                 maxOverlap = overlap;
@@ -232,7 +495,8 @@ public class MarkerClusterer {
 
     private static List<MarkerCluster> initialClustering(
         List<StopWithPosition> stopsWithPos,
-        float clusterDistance
+        float clusterDistance,
+        IntArray members
     ) {
         List<MarkerCluster> clusters = new ArrayList<MarkerCluster>();
         boolean[] clustered = new boolean[stopsWithPos.size()];
@@ -243,6 +507,8 @@ public class MarkerClusterer {
             StopWithPosition current = stopsWithPos.get(i);
             List<BusStop> clusterStops = new ArrayList<BusStop>();
             clusterStops.add(current.stop);
+            members.clear();
+            members.add(current.index);
 
             Vector2 clusterPos = new Vector2(current.position);
             clustered[i] = true;
@@ -256,13 +522,14 @@ public class MarkerClusterer {
 
                 if (distance < clusterDistance) {
                     clusterStops.add(other.stop);
+                    members.add(other.index);
                     clusterPos.x = (clusterPos.x * (clusterStops.size() - 1) + other.position.x) / clusterStops.size();
                     clusterPos.y = (clusterPos.y * (clusterStops.size() - 1) + other.position.y) / clusterStops.size();
                     clustered[j] = true;
                 }
             }
 
-            clusters.add(new MarkerCluster(clusterPos, clusterStops));
+            clusters.add(new MarkerCluster(clusterPos, clusterStops, sortedMembers(members)));
         }
 
         return clusters;
@@ -270,7 +537,8 @@ public class MarkerClusterer {
 
     private static List<MarkerCluster> reclusterClusters(
         List<MarkerCluster> existingClusters,
-        float superClusterDistance
+        float superClusterDistance,
+        IntArray members
     ) {
         if (existingClusters.size() <= 1) {
             return existingClusters;
@@ -284,6 +552,8 @@ public class MarkerClusterer {
 
             MarkerCluster current = existingClusters.get(i);
             List<BusStop> allStops = new ArrayList<BusStop>(current.getStops());
+            members.clear();
+            members.addAll(current.getMembers());
             Vector2 superClusterPos = new Vector2(current.getPosition());
             clustered[i] = true;
 
@@ -296,6 +566,7 @@ public class MarkerClusterer {
                 if (distance < superClusterDistance) {
                     int currentCount = allStops.size();
                     allStops.addAll(other.getStops());
+                    members.addAll(other.getMembers());
 
                     superClusterPos.x = (superClusterPos.x * currentCount + other.getPosition().x * other.getCount()) / allStops.size();
                     superClusterPos.y = (superClusterPos.y * currentCount + other.getPosition().y * other.getCount()) / allStops.size();
@@ -304,19 +575,27 @@ public class MarkerClusterer {
                 }
             }
 
-            superClusters.add(new MarkerCluster(superClusterPos, allStops));
+            superClusters.add(new MarkerCluster(superClusterPos, allStops, sortedMembers(members)));
         }
 
         return superClusters;
     }
 
+    private static int[] sortedMembers(IntArray members) {
+        int[] sorted = members.toArray();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
     private static class StopWithPosition {
         BusStop stop;
         Vector2 position;
+        int index;
 
-        StopWithPosition(BusStop stop, Vector2 position) {
+        StopWithPosition(BusStop stop, Vector2 position, int index) {
             this.stop = stop;
             this.position = position;
+            this.index = index;
         }
     }
 }
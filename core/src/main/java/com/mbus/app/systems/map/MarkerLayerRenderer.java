@@ -0,0 +1,313 @@
+package com.mbus.app.systems.map;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.GlyphLayout;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.mbus.app.model.BusStop;
+
+import java.util.List;
+
+/**
+ * Draws stop markers, cluster discs, count labels and hover/selection
+ * highlights in a single SpriteBatch pass.
+ * <p>
+ * Sprites are emitted grouped by texture (markers, discs, font, highlighted
+ * markers), so a frame costs a handful of flushes no matter how many
+ * clusters are on screen.
+ */
+public class MarkerLayerRenderer {
+
+    private static final String TAG = "MarkerLayerRenderer";
+
+    private static final float BASE_MARKER_SIZE = 32f;
+    private static final float HOVER_SCALE = 1.4f;
+    private static final float SELECT_SCALE = 1.4f;
+    private static final float PULSE_SPEED = 2.5f;
+
+    private static final int DISC_TEXTURE_SIZE = 128;
+    private static final int CACHED_LABEL_COUNT = 256;
+    private static final float STATS_LOG_INTERVAL = 10f;
+
+    private static final Color CLUSTER_SMALL = new Color(0.2f, 0.6f, 1.0f, 1f);
+    private static final Color CLUSTER_MEDIUM = new Color(1.0f, 0.85f, 0.2f, 1f);
+    private static final Color CLUSTER_LARGE = new Color(1.0f, 0.5f, 0.1f, 1f);
+
+    private final SpriteBatch spriteBatch;
+    private final BitmapFont font;
+
+    private final Texture discTexture;
+    private final TextureRegion discRegion;
+
+    // Count labels and their unscaled size, so clusters never build strings or layouts per frame
+    private final String[] countLabels = new String[CACHED_LABEL_COUNT];
+    private final float[] countLabelWidths = new float[CACHED_LABEL_COUNT];
+    private final float[] countLabelHeights = new float[CACHED_LABEL_COUNT];
+    private final GlyphLayout scratchLayout = new GlyphLayout();
+
+    private int lastRenderCalls = 0;
+    private int lastUnbatchedFlushes = 0;
+    private int lastClusterCount = 0;
+    private int lastCulledCount = 0;
+    private float statsTimer = 0f;
+
+    public MarkerLayerRenderer(SpriteBatch spriteBatch, BitmapFont font) {
+        this.spriteBatch = spriteBatch;
+        this.font = font;
+        this.discTexture = createDiscTexture(DISC_TEXTURE_SIZE);
+        this.discRegion = new TextureRegion(discTexture);
+    }
+
+    /**
+     * Renders one frame of the marker layer. The caller is expected to have
+     * set the batch projection matrix already; clusters outside
+     * {@code viewBounds} are skipped.
+     */
+    public void render(List<MarkerCluster> clusters, Texture markerTexture,
+                       Rectangle viewBounds, float cameraZoom, float zoomScale,
+                       BusStop hoveredStop, BusStop selectedStop,
+                       float pulseTime, float delta) {
+        spriteBatch.begin();
+
+        float markerMargin = BASE_MARKER_SIZE * zoomScale;
+        int culledCount = 0;
+
+        // Plain stop markers (marker texture)
+        for (int i = 0; i < clusters.size(); i++) {
+            MarkerCluster cluster = clusters.get(i);
+            if (cluster.isCluster || cluster.isDying) continue;
+
+            BusStop stop = cluster.getSingleStop();
+            if (stop == selectedStop || stop == hoveredStop) continue;
+
+            Vector2 pos = cluster.getPosition();
+            if (!isVisible(viewBounds, pos, markerMargin)) {
+                culledCount++;
+                continue;
+            }
+
+            drawMarker(markerTexture, pos.x, pos.y, cluster.currentScale * zoomScale,
+                1f, 1f, 1f, 0.9f * cluster.alpha);
+        }
+
+        // Cluster discs and the hover glow (disc texture)
+        MarkerCluster hoveredCluster = null;
+        MarkerCluster selectedCluster = null;
+        int clusterCount = 0;
+
+        for (int i = 0; i < clusters.size(); i++) {
+            MarkerCluster cluster = clusters.get(i);
+
+            if (!cluster.isCluster) {
+                BusStop stop = cluster.getSingleStop();
+                if (hoveredStop != null && hoveredCluster == null && stop == hoveredStop) {
+                    hoveredCluster = cluster;
+                }
+                if (selectedStop != null && selectedCluster == null && stop == selectedStop) {
+                    selectedCluster = cluster;
+                }
+                continue;
+            }
+
+            Vector2 pos = cluster.getPosition();
+            float clusterSize = getClusterSize(cluster.getCount(), cameraZoom, cluster.currentScale);
+            if (!isVisible(viewBounds, pos, clusterSize * 0.7f)) {
+                culledCount++;
+                continue;
+            }
+
+            clusterCount++;
+            Color color = getClusterColor(cluster.getCount());
+
+            drawDisc(pos.x, pos.y, clusterSize * 0.7f, color.r, color.g, color.b, 0.25f * cluster.alpha);
+            drawDisc(pos.x, pos.y, clusterSize * 0.55f, color.r, color.g, color.b, 0.5f * cluster.alpha);
+            drawDisc(pos.x, pos.y, clusterSize * 0.4f, color.r, color.g, color.b, 0.85f * cluster.alpha);
+        }
+
+        if (hoveredCluster != null) {
+            Vector2 pos = hoveredCluster.getPosition();
+            float scale = hoveredCluster.currentScale * zoomScale;
+            drawDisc(pos.x, pos.y, BASE_MARKER_SIZE * 0.6f * scale,
+                0.2f, 0.6f, 1.0f, 0.25f * hoveredCluster.alpha);
+        }
+
+        // Count labels (font texture)
+        if (clusterCount > 0) {
+            spriteBatch.setColor(Color.WHITE);
+
+            for (int i = 0; i < clusters.size(); i++) {
+                MarkerCluster cluster = clusters.get(i);
+                if (!cluster.isCluster) continue;
+
+                float clusterSize = getClusterSize(cluster.getCount(), cameraZoom, cluster.currentScale);
+                if (!isVisible(viewBounds, cluster.getPosition(), clusterSize * 0.7f)) continue;
+
+                drawCountLabel(cluster, cameraZoom);
+            }
+
+            font.getData().setScale(1f);
+        }
+
+        // Hovered and selected markers on top (marker texture again)
+        if (hoveredCluster != null) {
+            Vector2 pos = hoveredCluster.getPosition();
+            float scale = hoveredCluster.currentScale * zoomScale;
+            drawMarker(markerTexture, pos.x, pos.y, HOVER_SCALE * scale,
+                0.5f, 0.8f, 1.0f, hoveredCluster.alpha);
+        }
+
+        if (selectedCluster != null) {
+            Vector2 pos = selectedCluster.getPosition();
+            float breathe = (float) Math.sin(pulseTime * PULSE_SPEED) * 0.5f + 0.5f;
+            float scale = (SELECT_SCALE + breathe * 0.15f) * selectedCluster.currentScale * zoomScale;
+            drawMarker(markerTexture, pos.x, pos.y, scale,
+                0.3f, 0.8f, 1.0f, selectedCluster.alpha);
+        }
+
+        spriteBatch.setColor(Color.WHITE);
+        spriteBatch.end();
+
+        updateStats(clusters.size() - clusterCount - culledCount, clusterCount, culledCount,
+            hoveredCluster != null, selectedCluster != null, delta);
+    }
+
+    /**
+     * Draw calls issued by the last marker pass.
+     */
+    public int getLastRenderCalls() {
+        return lastRenderCalls;
+    }
+
+    /**
+     * Flushes the previous per-cluster begin/end rendering would have
+     * needed for the same frame.
+     */
+    public int getLastUnbatchedFlushes() {
+        return lastUnbatchedFlushes;
+    }
+
+    public void dispose() {
+        discTexture.dispose();
+    }
+
+    private void drawMarker(Texture markerTexture, float x, float y, float scale,
+                            float r, float g, float b, float a) {
+        float size = BASE_MARKER_SIZE * scale;
+        float halfSize = size / 2f;
+
+        spriteBatch.setColor(0, 0, 0, 0.3f * a);
+        spriteBatch.draw(markerTexture, x - halfSize + 2, y - halfSize - 2, size, size);
+
+        spriteBatch.setColor(r, g, b, a);
+        spriteBatch.draw(markerTexture, x - halfSize, y - halfSize, size, size);
+    }
+
+    private void drawDisc(float x, float y, float radius, float r, float g, float b, float a) {
+        spriteBatch.setColor(r, g, b, a);
+        spriteBatch.draw(discRegion, x - radius, y - radius, radius * 2f, radius * 2f);
+    }
+
+    private void drawCountLabel(MarkerCluster cluster, float cameraZoom) {
+        int count = cluster.getCount();
+        float fontScale = (0.5f + (cameraZoom * 14f)) * cluster.currentScale;
+        font.getData().setScale(fontScale);
+
+        String text;
+        float textWidth;
+        float textHeight;
+
+        if (count < CACHED_LABEL_COUNT) {
+            if (countLabels[count] == null) {
+                countLabels[count] = String.valueOf(count);
+                font.getData().setScale(1f);
+                scratchLayout.setText(font, countLabels[count]);
+                countLabelWidths[count] = scratchLayout.width;
+                countLabelHeights[count] = scratchLayout.height;
+                font.getData().setScale(fontScale);
+            }
+            text = countLabels[count];
+            textWidth = countLabelWidths[count] * fontScale;
+            textHeight = countLabelHeights[count] * fontScale;
+        } else {
+            text = String.valueOf(count);
+            scratchLayout.setText(font, text);
+            textWidth = scratchLayout.width;
+            textHeight = scratchLayout.height;
+        }
+
+        Vector2 pos = cluster.getPosition();
+        font.setColor(1, 1, 1, cluster.alpha);
+        font.draw(spriteBatch, text, pos.x - textWidth / 2, pos.y + textHeight / 2);
+    }
+
+    private void updateStats(int markerCount, int clusterCount, int culledCount,
+                             boolean hovered, boolean selected, float delta) {
+        lastRenderCalls = spriteBatch.renderCalls;
+
+        // One marker pass, a shape and a sprite pass per cluster, two for hover, one for selection
+        lastUnbatchedFlushes = (markerCount > 0 ? 1 : 0) + clusterCount * 2 +
+            (hovered ? 2 : 0) + (selected ? 1 : 0);
+        lastClusterCount = clusterCount;
+        lastCulledCount = culledCount;
+
+        statsTimer += delta;
+        if (statsTimer >= STATS_LOG_INTERVAL) {
+            statsTimer = 0f;
+            Gdx.app.log(TAG, "Marker layer: " + lastRenderCalls + " draw calls for " +
+                lastClusterCount + " clusters, " + lastCulledCount + " culled (per-cluster rendering: " +
+                lastUnbatchedFlushes + " flushes)");
+        }
+    }
+
+    private static boolean isVisible(Rectangle view, Vector2 pos, float margin) {
+        return pos.x + margin >= view.x && pos.x - margin <= view.x + view.width &&
+            pos.y + margin >= view.y && pos.y - margin <= view.y + view.height;
+    }
+
+    private static float getClusterSize(int count, float cameraZoom, float scale) {
+        float zoomScale = 1.0f + (cameraZoom * 4f);
+        float countScale = 1.0f + Math.min(count / 8f, 1.2f);
+        return BASE_MARKER_SIZE * countScale * zoomScale * scale;
+    }
+
+    private static Color getClusterColor(int count) {
+        if (count <= 3) {
+            return CLUSTER_SMALL;
+        } else if (count <= 8) {
+            return CLUSTER_MEDIUM;
+        } else {
+            return CLUSTER_LARGE;
+        }
+    }
+
+    private static Texture createDiscTexture(int size) {
+        Pixmap pixmap = new Pixmap(size, size, Pixmap.Format.RGBA8888);
+        pixmap.setBlending(Pixmap.Blending.None);
+
+        float center = size / 2f;
+        float radius = center - 1f;
+
+        // White disc with a one pixel anti-aliased rim, tinted per draw
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float dx = x + 0.5f - center;
+                float dy = y + 0.5f - center;
+                float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                float coverage = Math.min(1f, Math.max(0f, radius - distance + 0.5f));
+                int alpha = (int) (coverage * 255f);
+                pixmap.drawPixel(x, y, 0xFFFFFF00 | alpha);
+            }
+        }
+
+        Texture texture = new Texture(pixmap);
+        texture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+        pixmap.dispose();
+        return texture;
+    }
+}
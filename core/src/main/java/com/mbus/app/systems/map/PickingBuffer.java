@@ -0,0 +1,151 @@
+package com.mbus.app.systems.map;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.glutils.FrameBuffer;
+import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.BufferUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Offscreen colour-ID buffer for picking map objects.
+ * <p>
+ * Objects are drawn with blending off in a flat colour that encodes their
+ * kind and index, at a fraction of the screen resolution. Resolving the
+ * object under the cursor is then a single-pixel read, independent of how
+ * many objects overlap there.
+ */
+public class PickingBuffer {
+
+    public static final int KIND_NONE = 0;
+    public static final int KIND_LINE = 1;
+    public static final int KIND_STOP = 2;
+    public static final int KIND_BUS = 3;
+
+    // 24-bit RGB id: 2 bits of kind, 22 bits of index + 1
+    private static final int KIND_SHIFT = 22;
+    private static final int INDEX_MASK = (1 << KIND_SHIFT) - 1;
+
+    private final int downscale;
+    private final ShapeRenderer shapeRenderer = new ShapeRenderer();
+    private final ByteBuffer pixel = BufferUtils.newByteBuffer(4);
+
+    private FrameBuffer frameBuffer;
+    private int screenWidth;
+    private int screenHeight;
+    private boolean ready = false;
+
+    // Last read, reused while the cursor and buffer contents stay the same
+    private boolean cachedPickValid = false;
+    private int cachedPickX;
+    private int cachedPickY;
+    private int cachedPickId;
+
+    public PickingBuffer(int downscale) {
+        this.downscale = downscale;
+    }
+
+    /**
+     * Binds the buffer, clears it to "no object" and starts a filled shape
+     * pass with the given projection.
+     */
+    public ShapeRenderer begin(Matrix4 projection) {
+        ensureSize(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+
+        frameBuffer.begin();
+        Gdx.gl.glDisable(GL20.GL_BLEND);
+        Gdx.gl.glClearColor(0f, 0f, 0f, 1f);
+        Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+
+        shapeRenderer.setProjectionMatrix(projection);
+        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+        return shapeRenderer;
+    }
+
+    public void setId(int kind, int index) {
+        int id = (kind << KIND_SHIFT) | ((index + 1) & INDEX_MASK);
+        shapeRenderer.setColor(
+            ((id >>> 16) & 0xFF) / 255f,
+            ((id >>> 8) & 0xFF) / 255f,
+            (id & 0xFF) / 255f,
+            1f
+        );
+    }
+
+    public void end() {
+        shapeRenderer.end();
+        frameBuffer.end();
+        ready = true;
+        cachedPickValid = false;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns the packed id at the given screen position (y down), or 0 when
+     * nothing was drawn there.
+     */
+    public int pick(int screenX, int screenY) {
+        if (!ready || screenWidth == 0 || screenHeight == 0) return 0;
+
+        if (cachedPickValid && screenX == cachedPickX && screenY == cachedPickY) {
+            return cachedPickId;
+        }
+
+        int x = screenX * frameBuffer.getWidth() / screenWidth;
+        int y = (screenHeight - 1 - screenY) * frameBuffer.getHeight() / screenHeight;
+        if (x < 0 || y < 0 || x >= frameBuffer.getWidth() || y >= frameBuffer.getHeight()) {
+            return 0;
+        }
+
+        frameBuffer.begin();
+        pixel.clear();
+        Gdx.gl.glPixelStorei(GL20.GL_PACK_ALIGNMENT, 1);
+        Gdx.gl.glReadPixels(x, y, 1, 1, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, pixel);
+        frameBuffer.end();
+
+        cachedPickX = screenX;
+        cachedPickY = screenY;
+        cachedPickId = ((pixel.get(0) & 0xFF) << 16) | ((pixel.get(1) & 0xFF) << 8) | (pixel.get(2) & 0xFF);
+        cachedPickValid = true;
+        return cachedPickId;
+    }
+
+    public static int kindOf(int id) {
+        return id >>> KIND_SHIFT;
+    }
+
+    public static int indexOf(int id) {
+        return (id & INDEX_MASK) - 1;
+    }
+
+    public void dispose() {
+        shapeRenderer.dispose();
+        if (frameBuffer != null) {
+            frameBuffer.dispose();
+        }
+    }
+
+    private void ensureSize(int width, int height) {
+        if (frameBuffer != null && width == screenWidth && height == screenHeight) return;
+
+        if (frameBuffer != null) {
+            frameBuffer.dispose();
+        }
+
+        screenWidth = width;
+        screenHeight = height;
+        frameBuffer = new FrameBuffer(
+            Pixmap.Format.RGBA8888,
+            Math.max(1, width / downscale),
+            Math.max(1, height / downscale),
+            false
+        );
+        ready = false;
+    }
+}
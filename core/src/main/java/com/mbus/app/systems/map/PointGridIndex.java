@@ -0,0 +1,181 @@
+package com.mbus.app.systems.map;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Static uniform grid over points in map-pixel space.
+ * <p>
+ * Points are identified by their position in the arrays passed to
+ * {@link #build}. Cell contents are stored in one packed array
+ * (cell start offsets plus item ids), so queries do not allocate.
+ */
+public class PointGridIndex {
+
+    private final float cellSize;
+
+    private float[] xs = new float[0];
+    private float[] ys = new float[0];
+    private int count = 0;
+
+    private float originX;
+    private float originY;
+    private int columns;
+    private int rows;
+
+    private int[] cellStart = new int[1];
+    private int[] cellItems = new int[0];
+
+    public PointGridIndex(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Rebuilds the grid over the first {@code count} points. The arrays are
+     * kept by reference and must not change until the next build.
+     */
+    public void build(float[] xs, float[] ys, int count) {
+        this.xs = xs;
+        this.ys = ys;
+        this.count = count;
+
+        if (count == 0) {
+            columns = 0;
+            rows = 0;
+            cellStart = new int[1];
+            cellItems = new int[0];
+            return;
+        }
+
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        originX = minX;
+        originY = minY;
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        int[] cellOf = new int[count];
+        cellStart = new int[columns * rows + 1];
+
+        for (int i = 0; i < count; i++) {
+            int cell = cellRow(ys[i]) * columns + cellColumn(xs[i]);
+            cellOf[i] = cell;
+            cellStart[cell + 1]++;
+        }
+
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        // Ids are written in ascending order, so every cell lists its points sorted
+        cellItems = new int[count];
+        int[] fill = new int[columns * rows];
+        for (int i = 0; i < count; i++) {
+            int cell = cellOf[i];
+            cellItems[cellStart[cell] + fill[cell]++] = i;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public float getX(int id) {
+        return xs[id];
+    }
+
+    public float getY(int id) {
+        return ys[id];
+    }
+
+    /**
+     * Appends the ids of all points inside the rectangle to {@code out}.
+     * Ids come out grouped by cell, not globally sorted.
+     */
+    public void queryRect(float minX, float minY, float maxX, float maxY, IntArray out) {
+        if (count == 0) return;
+
+        int fromColumn = Math.max(0, cellColumnUnclamped(minX));
+        int toColumn = Math.min(columns - 1, cellColumnUnclamped(maxX));
+        int fromRow = Math.max(0, cellRowUnclamped(minY));
+        int toRow = Math.min(rows - 1, cellRowUnclamped(maxY));
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int cell = row * columns + column;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int id = cellItems[k];
+                    float x = xs[id];
+                    float y = ys[id];
+                    if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                        out.add(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the closest point within {@code radius} of (x, y),
+     * or -1 when there is none. Only the cells overlapping the radius are
+     * visited.
+     */
+    public int nearest(float x, float y, float radius) {
+        if (count == 0) return -1;
+
+        int fromColumn = Math.max(0, cellColumnUnclamped(x - radius));
+        int toColumn = Math.min(columns - 1, cellColumnUnclamped(x + radius));
+        int fromRow = Math.max(0, cellRowUnclamped(y - radius));
+        int toRow = Math.min(rows - 1, cellRowUnclamped(y + radius));
+
+        float radius2 = radius * radius;
+        int closest = -1;
+        float closestDistance2 = Float.MAX_VALUE;
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                int cell = row * columns + column;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int id = cellItems[k];
+                    float dx = xs[id] - x;
+                    float dy = ys[id] - y;
+                    float distance2 = dx * dx + dy * dy;
+                    if (distance2 > radius2) continue;
+
+                    // Ties go to the lower id, matching a front-to-back linear scan
+                    if (distance2 < closestDistance2 || (distance2 == closestDistance2 && id < closest)) {
+                        closest = id;
+                        closestDistance2 = distance2;
+                    }
+                }
+            }
+        }
+
+        return closest;
+    }
+
+    private int cellColumn(float x) {
+        return Math.min(columns - 1, Math.max(0, cellColumnUnclamped(x)));
+    }
+
+    private int cellRow(float y) {
+        return Math.min(rows - 1, Math.max(0, cellRowUnclamped(y)));
+    }
+
+    private int cellColumnUnclamped(float x) {
+        return (int) Math.floor((x - originX) / cellSize);
+    }
+
+    private int cellRowUnclamped(float y) {
+        return (int) Math.floor((y - originY) / cellSize);
+    }
+}
@@ -0,0 +1,218 @@
+package com.mbus.app.systems.map;
+
+import com.badlogic.gdx.math.Vector2;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.Geolocation;
+import com.mbus.app.model.ZoomXY;
+
+import java.util.List;
+
+/**
+ * Static uniform grid over the path segments of a list of bus lines in
+ * map-pixel space.
+ * <p>
+ * Line vertices are projected once on {@link #build}. Each cell lists the
+ * {@code (lineIndex, segmentIndex)} pairs whose bounding box overlaps it,
+ * stored in packed arrays, so a query only touches the cells around the
+ * cursor and does not allocate.
+ */
+public class SegmentGridIndex {
+
+    private final float cellSize;
+
+    // Projected vertices of all lines; line i owns [vertexStart[i], vertexStart[i + 1])
+    private int[] vertexStart = new int[1];
+    private float[] vertexX = new float[0];
+    private float[] vertexY = new float[0];
+    private int lineCount = 0;
+
+    private float originX;
+    private float originY;
+    private int columns;
+    private int rows;
+
+    private int[] cellStart = new int[1];
+    private int[] cellLine = new int[0];
+    private int[] cellSegment = new int[0];
+
+    public SegmentGridIndex(float cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public void build(List<BusLine> lines, ZoomXY beginTile) {
+        lineCount = lines.size();
+        vertexStart = new int[lineCount + 1];
+
+        for (int i = 0; i < lineCount; i++) {
+            vertexStart[i + 1] = vertexStart[i] + lines.get(i).getPath().size();
+        }
+
+        int vertexCount = vertexStart[lineCount];
+        vertexX = new float[vertexCount];
+        vertexY = new float[vertexCount];
+
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+
+        for (int i = 0; i < lineCount; i++) {
+            List<Geolocation> path = lines.get(i).getPath();
+            int base = vertexStart[i];
+
+            for (int v = 0; v < path.size(); v++) {
+                Geolocation point = path.get(v);
+                Vector2 pos = MapRasterTiles.getPixelPosition(
+                    point.lat, point.lng, beginTile.x, beginTile.y
+                );
+                vertexX[base + v] = pos.x;
+                vertexY[base + v] = pos.y;
+
+                minX = Math.min(minX, pos.x);
+                minY = Math.min(minY, pos.y);
+                maxX = Math.max(maxX, pos.x);
+                maxY = Math.max(maxY, pos.y);
+            }
+        }
+
+        if (vertexCount == 0) {
+            columns = 0;
+            rows = 0;
+            cellStart = new int[1];
+            cellLine = new int[0];
+            cellSegment = new int[0];
+            return;
+        }
+
+        originX = minX;
+        originY = minY;
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+        cellStart = new int[columns * rows + 1];
+
+        // First pass counts entries per cell, second pass fills them
+        for (int i = 0; i < lineCount; i++) {
+            for (int v = vertexStart[i]; v < vertexStart[i + 1] - 1; v++) {
+                int fromColumn = column(Math.min(vertexX[v], vertexX[v + 1]));
+                int toColumn = column(Math.max(vertexX[v], vertexX[v + 1]));
+                int fromRow = row(Math.min(vertexY[v], vertexY[v + 1]));
+                int toRow = row(Math.max(vertexY[v], vertexY[v + 1]));
+
+                for (int r = fromRow; r <= toRow; r++) {
+                    for (int c = fromColumn; c <= toColumn; c++) {
+                        cellStart[r * columns + c + 1]++;
+                    }
+                }
+            }
+        }
+
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+
+        int entryCount = cellStart[columns * rows];
+        cellLine = new int[entryCount];
+        cellSegment = new int[entryCount];
+        int[] fill = new int[columns * rows];
+
+        for (int i = 0; i < lineCount; i++) {
+            int base = vertexStart[i];
+            for (int v = base; v < vertexStart[i + 1] - 1; v++) {
+                int fromColumn = column(Math.min(vertexX[v], vertexX[v + 1]));
+                int toColumn = column(Math.max(vertexX[v], vertexX[v + 1]));
+                int fromRow = row(Math.min(vertexY[v], vertexY[v + 1]));
+                int toRow = row(Math.max(vertexY[v], vertexY[v + 1]));
+
+                for (int r = fromRow; r <= toRow; r++) {
+                    for (int c = fromColumn; c <= toColumn; c++) {
+                        int cell = r * columns + c;
+                        int slot = cellStart[cell] + fill[cell]++;
+                        cellLine[slot] = i;
+                        cellSegment[slot] = v - base;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the line whose path passes closest to (x, y)
+     * within {@code tolerance}, or -1. Lines with {@code lineVisible[i] == false}
+     * are ignored; on equal distance the earlier line wins.
+     */
+    public int nearestLine(float x, float y, float tolerance, boolean[] lineVisible) {
+        if (lineCount == 0 || columns == 0) return -1;
+
+        int fromColumn = Math.max(0, columnUnclamped(x - tolerance));
+        int toColumn = Math.min(columns - 1, columnUnclamped(x + tolerance));
+        int fromRow = Math.max(0, rowUnclamped(y - tolerance));
+        int toRow = Math.min(rows - 1, rowUnclamped(y + tolerance));
+
+        int closestLine = -1;
+        float closestDistance = Float.MAX_VALUE;
+
+        for (int r = fromRow; r <= toRow; r++) {
+            for (int c = fromColumn; c <= toColumn; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int line = cellLine[k];
+                    if (!lineVisible[line]) continue;
+
+                    int v = vertexStart[line] + cellSegment[k];
+                    float distance = distanceToSegment(x, y,
+                        vertexX[v], vertexY[v], vertexX[v + 1], vertexY[v + 1]);
+
+                    if (distance > tolerance) continue;
+
+                    if (distance < closestDistance ||
+                        (distance == closestDistance && line < closestLine)) {
+                        closestLine = line;
+                        closestDistance = distance;
+                    }
+                }
+            }
+        }
+
+        return closestLine;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    private int column(float x) {
+        return Math.min(columns - 1, Math.max(0, columnUnclamped(x)));
+    }
+
+    private int row(float y) {
+        return Math.min(rows - 1, Math.max(0, rowUnclamped(y)));
+    }
+
+    private int columnUnclamped(float x) {
+        return (int) Math.floor((x - originX) / cellSize);
+    }
+
+    private int rowUnclamped(float y) {
+        return (int) Math.floor((y - originY) / cellSize);
+    }
+
+    private static float distanceToSegment(float px, float py, float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+
+        if (dx == 0 && dy == 0) {
+            return (float) Math.sqrt((px - x1) * (px - x1) + (py - y1) * (py - y1));
+        }
+
+        float t = ((px - x1) * dx + (py - y1) * dy) / (dx * dx + dy * dy);
+
+        t = Math.max(0, Math.min(1, t));
+
+        float closestX = x1 + t * dx;
+        float closestY = y1 + t * dy;
+
+        float distX = px - closestX;
+        float distY = py - closestY;
+        return (float) Math.sqrt(distX * distX + distY * distY);
+    }
+}
@@ -0,0 +1,311 @@
+package com.mbus.app.systems.map;
+
+import java.util.Arrays;
+
+/**
+ * Smoothed render state of the buses on screen, keyed by trip.
+ * <p>
+ * Entries live in parallel arrays (position, angle, a ring of recent
+ * angles) indexed by a dense entry number, with an open-addressing table
+ * from trip key to entry. Entries not touched for a number of passes are
+ * evicted, so memory follows the number of buses currently shown rather
+ * than every trip ever seen. Nothing is allocated once the arrays have
+ * grown to the peak bus count.
+ * <p>
+ * Entry numbers are only stable until the next {@link #remove} or
+ * {@link #evictUnseen}.
+ */
+public class VehicleStateStore {
+
+    public static final int ANGLE_WINDOW = 5;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Hash table: trip key and entry + 1 per slot (0 = empty), at most half full
+    private long[] tableKeys;
+    private int[] tableEntries;
+    private int tableMask;
+
+    private int size = 0;
+    private long[] keys;
+    private double[] lat;
+    private double[] lng;
+    private float[] angle;
+    private float[] displayAngle;
+    private boolean[] waiting;
+    private int[] lastSeen;
+
+    // ANGLE_WINDOW slots per entry, oldest at recentStart
+    private float[] recentAngles;
+    private int[] recentStart;
+    private int[] recentCount;
+
+    private int pass = 0;
+
+    public VehicleStateStore() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Packs a trip into a key. Schedule ids are only unique within a line,
+     * so the line and departure are part of it.
+     */
+    public static long tripKey(int lineId, int departureTime, int scheduleId) {
+        return ((long) (lineId & 0xFFFF) << 48)
+            | ((long) (departureTime & 0xFFFF) << 32)
+            | (scheduleId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Starts a new pass. Entries are marked as seen in the current pass by
+     * {@link #add} and {@link #touch}.
+     */
+    public void beginPass() {
+        pass++;
+    }
+
+    /**
+     * Removes the entries not touched during the last {@code maxIdlePasses}
+     * passes and returns how many were removed.
+     */
+    public int evictUnseen(int maxIdlePasses) {
+        int evicted = 0;
+        for (int e = size - 1; e >= 0; e--) {
+            if (pass - lastSeen[e] > maxIdlePasses) {
+                removeEntry(e);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the entry of the trip, or -1.
+     */
+    public int find(long key) {
+        int slot = findSlot(key);
+        return slot >= 0 ? tableEntries[slot] - 1 : -1;
+    }
+
+    public int add(long key, double startLat, double startLng, float startAngle, boolean startWaiting) {
+        if (size + 1 > keys.length) {
+            grow();
+        }
+
+        int e = size++;
+        keys[e] = key;
+        lat[e] = startLat;
+        lng[e] = startLng;
+        angle[e] = startAngle;
+        displayAngle[e] = startAngle;
+        waiting[e] = startWaiting;
+        lastSeen[e] = pass;
+
+        recentStart[e] = 0;
+        recentCount[e] = 1;
+        recentAngles[e * ANGLE_WINDOW] = startAngle;
+
+        insertSlot(key, e);
+        return e;
+    }
+
+    public void remove(long key) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            removeEntry(tableEntries[slot] - 1);
+        }
+    }
+
+    public void clear() {
+        size = 0;
+        Arrays.fill(tableEntries, 0);
+    }
+
+    public void touch(int e) {
+        lastSeen[e] = pass;
+    }
+
+    public double getLat(int e) {
+        return lat[e];
+    }
+
+    public double getLng(int e) {
+        return lng[e];
+    }
+
+    public void setPosition(int e, double newLat, double newLng) {
+        lat[e] = newLat;
+        lng[e] = newLng;
+    }
+
+    public float getAngle(int e) {
+        return angle[e];
+    }
+
+    public void setAngle(int e, float newAngle) {
+        angle[e] = newAngle;
+    }
+
+    public float getDisplayAngle(int e) {
+        return displayAngle[e];
+    }
+
+    public boolean isWaiting(int e) {
+        return waiting[e];
+    }
+
+    public void setWaiting(int e, boolean isWaiting) {
+        waiting[e] = isWaiting;
+    }
+
+    /**
+     * Appends an angle to the entry's recent history, dropping the oldest
+     * beyond {@link #ANGLE_WINDOW}, and sets the display angle to the
+     * circular mean of the history.
+     */
+    public void pushAngle(int e, float newAngle) {
+        int base = e * ANGLE_WINDOW;
+        int count = recentCount[e];
+
+        if (count < ANGLE_WINDOW) {
+            recentAngles[base + (recentStart[e] + count) % ANGLE_WINDOW] = newAngle;
+            recentCount[e] = count + 1;
+        } else {
+            recentAngles[base + recentStart[e]] = newAngle;
+            recentStart[e] = (recentStart[e] + 1) % ANGLE_WINDOW;
+        }
+
+        displayAngle[e] = smoothedAngle(e);
+    }
+
+    private float smoothedAngle(int e) {
+        int base = e * ANGLE_WINDOW;
+        int count = recentCount[e];
+        if (count == 1) return recentAngles[base + recentStart[e]];
+
+        float sumX = 0;
+        float sumY = 0;
+
+        for (int i = 0; i < count; i++) {
+            double radians = Math.toRadians(recentAngles[base + (recentStart[e] + i) % ANGLE_WINDOW]);
+            sumX += Math.cos(radians);
+            sumY += Math.sin(radians);
+        }
+
+        float avgAngle = (float) Math.toDegrees(Math.atan2(sumY / count, sumX / count));
+
+        while (avgAngle < 0) avgAngle += 360;
+        while (avgAngle >= 360) avgAngle -= 360;
+
+        return avgAngle;
+    }
+
+    private void removeEntry(int e) {
+        deleteSlot(findSlot(keys[e]));
+
+        int last = --size;
+        if (e == last) return;
+
+        // Move the last entry into the hole
+        keys[e] = keys[last];
+        lat[e] = lat[last];
+        lng[e] = lng[last];
+        angle[e] = angle[last];
+        displayAngle[e] = displayAngle[last];
+        waiting[e] = waiting[last];
+        lastSeen[e] = lastSeen[last];
+        recentStart[e] = recentStart[last];
+        recentCount[e] = recentCount[last];
+        System.arraycopy(recentAngles, last * ANGLE_WINDOW, recentAngles, e * ANGLE_WINDOW, ANGLE_WINDOW);
+
+        tableEntries[findSlot(keys[e])] = e + 1;
+    }
+
+    private int findSlot(long key) {
+        int slot = hash(key) & tableMask;
+        while (tableEntries[slot] != 0) {
+            if (tableKeys[slot] == key) return slot;
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    private void insertSlot(long key, int e) {
+        int slot = hash(key) & tableMask;
+        while (tableEntries[slot] != 0) {
+            slot = (slot + 1) & tableMask;
+        }
+        tableKeys[slot] = key;
+        tableEntries[slot] = e + 1;
+    }
+
+    // Backward-shift deletion, so linear probing needs no tombstones
+    private void deleteSlot(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & tableMask;
+            if (tableEntries[slot] == 0) break;
+
+            int home = hash(tableKeys[slot]) & tableMask;
+            boolean homeBetween = hole <= slot
+                ? (home > hole && home <= slot)
+                : (home > hole || home <= slot);
+
+            if (!homeBetween) {
+                tableKeys[hole] = tableKeys[slot];
+                tableEntries[hole] = tableEntries[slot];
+                hole = slot;
+            }
+        }
+        tableEntries[hole] = 0;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+
+        keys = Arrays.copyOf(keys, capacity);
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        displayAngle = Arrays.copyOf(displayAngle, capacity);
+        waiting = Arrays.copyOf(waiting, capacity);
+        lastSeen = Arrays.copyOf(lastSeen, capacity);
+        recentAngles = Arrays.copyOf(recentAngles, capacity * ANGLE_WINDOW);
+        recentStart = Arrays.copyOf(recentStart, capacity);
+        recentCount = Arrays.copyOf(recentCount, capacity);
+
+        allocateTable(capacity);
+        for (int e = 0; e < size; e++) {
+            insertSlot(keys[e], e);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        lat = new double[capacity];
+        lng = new double[capacity];
+        angle = new float[capacity];
+        displayAngle = new float[capacity];
+        waiting = new boolean[capacity];
+        lastSeen = new int[capacity];
+        recentAngles = new float[capacity * ANGLE_WINDOW];
+        recentStart = new int[capacity];
+        recentCount = new int[capacity];
+        allocateTable(capacity);
+    }
+
+    private void allocateTable(int capacity) {
+        tableKeys = new long[capacity * 2];
+        tableEntries = new int[capacity * 2];
+        tableMask = capacity * 2 - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
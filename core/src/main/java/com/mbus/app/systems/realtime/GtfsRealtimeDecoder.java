@@ -0,0 +1,265 @@
+package com.mbus.app.systems.realtime;
+
+/**
+ * Streaming decoder for GTFS-Realtime {@code FeedMessage}s.
+ * <p>
+ * Entities are decoded one at a time into a reused {@link VehiclePosition}
+ * and handed to a {@link Listener}, so a feed is never materialised as an
+ * object tree. Only vehicle positions are decoded; trip updates and alerts
+ * are skipped on the wire.
+ */
+public class GtfsRealtimeDecoder {
+
+    // FeedMessage
+    private static final int FEED_HEADER = 1;
+    private static final int FEED_ENTITY = 2;
+    // FeedHeader
+    private static final int HEADER_TIMESTAMP = 3;
+    // FeedEntity
+    private static final int ENTITY_IS_DELETED = 2;
+    private static final int ENTITY_VEHICLE = 4;
+    // VehiclePosition
+    private static final int VEHICLE_TRIP = 1;
+    private static final int VEHICLE_POSITION = 2;
+    private static final int VEHICLE_CURRENT_STOP_SEQUENCE = 3;
+    private static final int VEHICLE_TIMESTAMP = 5;
+    private static final int VEHICLE_STOP_ID = 7;
+    private static final int VEHICLE_DESCRIPTOR = 8;
+    // TripDescriptor
+    private static final int TRIP_ID = 1;
+    private static final int TRIP_START_TIME = 2;
+    private static final int TRIP_ROUTE_ID = 5;
+    // Position
+    private static final int POSITION_LATITUDE = 1;
+    private static final int POSITION_LONGITUDE = 2;
+    private static final int POSITION_BEARING = 3;
+    // VehicleDescriptor
+    private static final int DESCRIPTOR_ID = 1;
+
+    public interface Listener {
+        /**
+         * Called once per decoded vehicle. The position object is reused for
+         * the next entity and must not be kept.
+         */
+        void onVehiclePosition(VehiclePosition vehicle);
+    }
+
+    /**
+     * Fields of one {@code VehiclePosition} entity that the tracker uses.
+     */
+    public static final class VehiclePosition {
+        public String vehicleId;
+        public String tripId;
+        public String routeId;
+        /** Trip start time as {@code HH:MM:SS}, or null. */
+        public String startTime;
+        public boolean hasPosition;
+        public double lat;
+        public double lng;
+        /** Degrees clockwise from north, or NaN when not reported. */
+        public float bearing;
+        public int currentStopSequence;
+        public String stopId;
+        /** Measurement time in epoch seconds, 0 when not reported. */
+        public long timestamp;
+
+        void clear() {
+            vehicleId = null;
+            tripId = null;
+            routeId = null;
+            startTime = null;
+            hasPosition = false;
+            lat = 0;
+            lng = 0;
+            bearing = Float.NaN;
+            currentStopSequence = -1;
+            stopId = null;
+            timestamp = 0L;
+        }
+    }
+
+    private final ProtoReader reader = new ProtoReader();
+    private final VehiclePosition vehicle = new VehiclePosition();
+
+    private long headerTimestamp;
+    private int entityCount;
+
+    /**
+     * Decodes a whole feed message. Returns the number of vehicle positions
+     * passed to the listener.
+     *
+     * @throws IllegalStateException if the message is malformed
+     */
+    public int decode(byte[] data, int length, Listener listener) {
+        reader.reset(data, 0, length);
+        headerTimestamp = 0L;
+        entityCount = 0;
+        int vehicles = 0;
+
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtoReader.fieldNumber(tag)) {
+                case FEED_HEADER:
+                    int headerLimit = reader.pushLimit();
+                    readHeader();
+                    reader.popLimit(headerLimit);
+                    break;
+                case FEED_ENTITY:
+                    entityCount++;
+                    int entityLimit = reader.pushLimit();
+                    if (readEntity()) {
+                        if (vehicle.timestamp == 0L) {
+                            vehicle.timestamp = headerTimestamp;
+                        }
+                        listener.onVehiclePosition(vehicle);
+                        vehicles++;
+                    }
+                    reader.popLimit(entityLimit);
+                    break;
+                default:
+                    reader.skipField(tag);
+            }
+        }
+
+        return vehicles;
+    }
+
+    /** Header timestamp of the last decoded message, in epoch seconds. */
+    public long getHeaderTimestamp() {
+        return headerTimestamp;
+    }
+
+    /** Entities of any kind in the last decoded message. */
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    private void readHeader() {
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            if (ProtoReader.fieldNumber(tag) == HEADER_TIMESTAMP) {
+                headerTimestamp = reader.readVarint();
+            } else {
+                reader.skipField(tag);
+            }
+        }
+    }
+
+    // Returns true when the entity carried a vehicle position
+    private boolean readEntity() {
+        vehicle.clear();
+        boolean hasVehicle = false;
+        boolean deleted = false;
+
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtoReader.fieldNumber(tag)) {
+                case ENTITY_IS_DELETED:
+                    deleted = reader.readVarint() != 0;
+                    break;
+                case ENTITY_VEHICLE:
+                    int limit = reader.pushLimit();
+                    readVehiclePosition();
+                    reader.popLimit(limit);
+                    hasVehicle = true;
+                    break;
+                default:
+                    // Entity id, trip updates and alerts
+                    reader.skipField(tag);
+            }
+        }
+
+        return hasVehicle && !deleted;
+    }
+
+    private void readVehiclePosition() {
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            int limit;
+            switch (ProtoReader.fieldNumber(tag)) {
+                case VEHICLE_TRIP:
+                    limit = reader.pushLimit();
+                    readTrip();
+                    reader.popLimit(limit);
+                    break;
+                case VEHICLE_POSITION:
+                    limit = reader.pushLimit();
+                    readPosition();
+                    reader.popLimit(limit);
+                    break;
+                case VEHICLE_DESCRIPTOR:
+                    limit = reader.pushLimit();
+                    readDescriptor();
+                    reader.popLimit(limit);
+                    break;
+                case VEHICLE_CURRENT_STOP_SEQUENCE:
+                    vehicle.currentStopSequence = (int) reader.readVarint();
+                    break;
+                case VEHICLE_TIMESTAMP:
+                    vehicle.timestamp = reader.readVarint();
+                    break;
+                case VEHICLE_STOP_ID:
+                    vehicle.stopId = reader.readString();
+                    break;
+                default:
+                    reader.skipField(tag);
+            }
+        }
+    }
+
+    private void readTrip() {
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtoReader.fieldNumber(tag)) {
+                case TRIP_ID:
+                    vehicle.tripId = reader.readString();
+                    break;
+                case TRIP_START_TIME:
+                    vehicle.startTime = reader.readString();
+                    break;
+                case TRIP_ROUTE_ID:
+                    vehicle.routeId = reader.readString();
+                    break;
+                default:
+                    reader.skipField(tag);
+            }
+        }
+    }
+
+    private void readPosition() {
+        boolean hasLat = false;
+        boolean hasLng = false;
+
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (ProtoReader.fieldNumber(tag)) {
+                case POSITION_LATITUDE:
+                    vehicle.lat = reader.readFloat();
+                    hasLat = true;
+                    break;
+                case POSITION_LONGITUDE:
+                    vehicle.lng = reader.readFloat();
+                    hasLng = true;
+                    break;
+                case POSITION_BEARING:
+                    vehicle.bearing = reader.readFloat();
+                    break;
+                default:
+                    reader.skipField(tag);
+            }
+        }
+
+        vehicle.hasPosition = hasLat && hasLng;
+    }
+
+    private void readDescriptor() {
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            if (ProtoReader.fieldNumber(tag) == DESCRIPTOR_ID) {
+                vehicle.vehicleId = reader.readString();
+            } else {
+                reader.skipField(tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.mbus.app.systems.realtime;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Local stand-in for a GTFS-Realtime endpoint.
+ * <p>
+ * Serves recorded feed messages ({@code *.pb} files, in name order) over
+ * plain HTTP on the loopback interface, one message per request, wrapping
+ * around at the end. Lets the realtime pipeline run and be measured
+ * without a live feed.
+ */
+public class GtfsRealtimeReplayServer {
+
+    private static final String TAG = "RealtimeReplay";
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final List<byte[]> messages;
+    private ServerSocket serverSocket;
+    private Thread thread;
+    private volatile boolean running = false;
+    private int nextMessage = 0;
+    private int served = 0;
+
+    public GtfsRealtimeReplayServer(List<byte[]> messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Loads the recorded messages in {@code directory}, or returns null when
+     * there are none.
+     */
+    public static GtfsRealtimeReplayServer fromDirectory(FileHandle directory) {
+        if (!directory.exists() || !directory.isDirectory()) return null;
+
+        FileHandle[] files = directory.list(".pb");
+        if (files.length == 0) return null;
+
+        Arrays.sort(files, new Comparator<FileHandle>() {
+            @Override
+            public int compare(FileHandle a, FileHandle b) {
+                return a.name().compareTo(b.name());
+            }
+        });
+
+        List<byte[]> messages = new ArrayList<byte[]>();
+        for (FileHandle file : files) {
+            messages.add(file.readBytes());
+        }
+
+        Gdx.app.log(TAG, "Loaded " + messages.size() + " recorded messages from " + directory.path());
+        return new GtfsRealtimeReplayServer(messages);
+    }
+
+    /**
+     * Binds to a free loopback port and starts serving.
+     */
+    public synchronized void start() throws IOException {
+        if (running) return;
+
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "realtime-replay");
+        thread.setDaemon(true);
+        thread.start();
+
+        Gdx.app.log(TAG, "Serving at " + getUrl());
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            Gdx.app.error(TAG, "Closing server socket failed", e);
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+
+        Gdx.app.log(TAG, "Stopped after serving " + served + " messages");
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/vehicle-positions";
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket = null;
+            try {
+                socket = serverSocket.accept();
+                socket.setSoTimeout(5000);
+                serve(socket);
+            } catch (SocketException e) {
+                // Closed by stop()
+                if (running) Gdx.app.error(TAG, "Accept failed", e);
+            } catch (IOException e) {
+                Gdx.app.error(TAG, "Serving request failed", e);
+            } finally {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        skipRequest(socket.getInputStream());
+
+        byte[] body = messages.get(nextMessage);
+        nextMessage = (nextMessage + 1) % messages.size();
+        served++;
+
+        String header = "HTTP/1.0 200 OK\r\n" +
+            "Content-Type: application/x-protobuf\r\n" +
+            "Content-Length: " + body.length + "\r\n" +
+            "Connection: close\r\n\r\n";
+
+        OutputStream out = socket.getOutputStream();
+        out.write(header.getBytes(US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    // Reads up to the blank line ending the request headers; the request itself is not inspected
+    private static void skipRequest(InputStream in) throws IOException {
+        int matched = 0;
+        int b;
+        while (matched < 4 && (b = in.read()) != -1) {
+            if (b == '\r' && (matched == 0 || matched == 2)) {
+                matched++;
+            } else if (b == '\n' && (matched == 1 || matched == 3)) {
+                matched++;
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+        }
+    }
+}
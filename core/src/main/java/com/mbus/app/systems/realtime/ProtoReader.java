@@ -0,0 +1,157 @@
+package com.mbus.app.systems.realtime;
+
+import java.nio.charset.Charset;
+
+/**
+ * Minimal reader for the protobuf wire format over a byte array.
+ * <p>
+ * Only what GTFS-Realtime needs: varints, fixed 32/64-bit values, floats,
+ * strings and nested messages. Nested messages are read in place by
+ * narrowing the limit with {@link #pushLimit}, so decoding a feed does
+ * not copy or allocate per message.
+ */
+public final class ProtoReader {
+
+    public static final int WIRE_VARINT = 0;
+    public static final int WIRE_FIXED64 = 1;
+    public static final int WIRE_LENGTH_DELIMITED = 2;
+    public static final int WIRE_FIXED32 = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    public void reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * Reads a field key, {@code (fieldNumber << 3) | wireType}.
+     */
+    public int readTag() {
+        return (int) readVarint();
+    }
+
+    public static int fieldNumber(int tag) {
+        return tag >>> 3;
+    }
+
+    public static int wireType(int tag) {
+        return tag & 7;
+    }
+
+    public long readVarint() {
+        long result = 0;
+        int shift = 0;
+        while (shift < 64) {
+            byte b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+            shift += 7;
+        }
+        throw new IllegalStateException("Malformed varint at " + position);
+    }
+
+    public int readFixed32() {
+        ensure(4);
+        int value = (buffer[position] & 0xFF)
+            | (buffer[position + 1] & 0xFF) << 8
+            | (buffer[position + 2] & 0xFF) << 16
+            | (buffer[position + 3] & 0xFF) << 24;
+        position += 4;
+        return value;
+    }
+
+    public long readFixed64() {
+        long low = readFixed32() & 0xFFFFFFFFL;
+        long high = readFixed32() & 0xFFFFFFFFL;
+        return low | (high << 32);
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(readFixed32());
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readFixed64());
+    }
+
+    public String readString() {
+        int length = readLength();
+        String value = new String(buffer, position, length, UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads the length of an embedded message and limits reading to it.
+     * Returns the previous limit, to be passed to {@link #popLimit}.
+     */
+    public int pushLimit() {
+        int length = readLength();
+        int previousLimit = limit;
+        limit = position + length;
+        return previousLimit;
+    }
+
+    /**
+     * Skips what is left of the current embedded message and restores the
+     * enclosing limit.
+     */
+    public void popLimit(int previousLimit) {
+        position = limit;
+        limit = previousLimit;
+    }
+
+    public void skipField(int tag) {
+        switch (wireType(tag)) {
+            case WIRE_VARINT:
+                readVarint();
+                break;
+            case WIRE_FIXED64:
+                skip(8);
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                skip(readLength());
+                break;
+            case WIRE_FIXED32:
+                skip(4);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported wire type " + wireType(tag) +
+                    " at " + position);
+        }
+    }
+
+    private int readLength() {
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw new IllegalStateException("Length " + length + " exceeds message at " + position);
+        }
+        return (int) length;
+    }
+
+    private byte readByte() {
+        ensure(1);
+        return buffer[position++];
+    }
+
+    private void skip(int count) {
+        ensure(count);
+        position += count;
+    }
+
+    private void ensure(int count) {
+        if (limit - position < count) {
+            throw new IllegalStateException("Truncated message at " + position);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.mbus.app.systems.realtime;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.systems.simulation.SimulationClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Polls a GTFS-Realtime vehicle positions feed on a background thread.
+ * <p>
+ * Each response body is buffered whole in a reused byte array and then
+ * decoded from it, vehicles are matched to scheduled trips and the result
+ * is published as an immutable {@link RealtimeVehicles} through an atomic
+ * reference. Readers never wait on the network or the decoder; if the feed
+ * stops answering, the last snapshot simply ages and callers fall back to
+ * the schedule.
+ */
+public class RealtimeVehicleFeed {
+
+    private static final String TAG = "RealtimeFeed";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final long STATS_LOG_INTERVAL_MILLIS = 30000L;
+
+    private final String url;
+    private final long pollIntervalMillis;
+    private final SimulationClock clock;
+
+    private final AtomicReference<RealtimeVehicles> vehicles =
+        new AtomicReference<RealtimeVehicles>(RealtimeVehicles.EMPTY);
+
+    private volatile List<BusLine> lines = Collections.emptyList();
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // Feed thread only
+    private final GtfsRealtimeDecoder decoder = new GtfsRealtimeDecoder();
+    private List<BusLine> matchedLines;
+    private TripMatcher matcher;
+    private byte[] buffer = new byte[64 * 1024];
+    private int matchedCount;
+    private long[] matchedKeys = new long[256];
+    private BusLine[] matchedLineRefs = new BusLine[256];
+    private double[] matchedLat = new double[256];
+    private double[] matchedLng = new double[256];
+    private float[] matchedBearing = new float[256];
+    private long statsStart = 0L;
+    private int statsPolls = 0;
+    private int statsFailures = 0;
+    private long statsUpdates = 0L;
+    private long statsUnmatched = 0L;
+    private long statsDecodeNanos = 0L;
+
+    public RealtimeVehicleFeed(String url, long pollIntervalMillis, SimulationClock clock) {
+        this.url = url;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Lines vehicles are matched against.
+     */
+    public void setLines(List<BusLine> lines) {
+        this.lines = lines != null ? lines : Collections.<BusLine>emptyList();
+    }
+
+    public RealtimeVehicles getVehicles() {
+        return vehicles.get();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "realtime-feed");
+        thread.setDaemon(true);
+        thread.start();
+
+        Gdx.app.log(TAG, "Polling " + url + " every " + pollIntervalMillis + " ms");
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void runLoop() {
+        statsStart = System.currentTimeMillis();
+
+        while (running) {
+            long pollStart = System.currentTimeMillis();
+
+            try {
+                poll();
+            } catch (IOException e) {
+                statsFailures++;
+                Gdx.app.error(TAG, "Fetching " + url + " failed: " + e.getMessage());
+            } catch (RuntimeException e) {
+                statsFailures++;
+                Gdx.app.error(TAG, "Decoding feed failed", e);
+            }
+
+            statsPolls++;
+            logStats();
+
+            long sleepMillis = pollIntervalMillis - (System.currentTimeMillis() - pollStart);
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void poll() throws IOException {
+        int length = fetch();
+        long receivedMillis = System.currentTimeMillis();
+
+        List<BusLine> currentLines = lines;
+        if (currentLines != matchedLines) {
+            matcher = new TripMatcher(currentLines);
+            matchedLines = currentLines;
+        }
+
+        final ServiceDay day = clock.getServiceDay();
+        matchedCount = 0;
+
+        long decodeStart = System.nanoTime();
+        int decoded = decoder.decode(buffer, length, new GtfsRealtimeDecoder.Listener() {
+            @Override
+            public void onVehiclePosition(GtfsRealtimeDecoder.VehiclePosition vehicle) {
+                if (!vehicle.hasPosition) return;
+
+                TripMatcher.Trip trip = matcher.match(vehicle, day);
+                if (trip != null) {
+                    addMatched(trip, vehicle);
+                }
+            }
+        });
+        statsDecodeNanos += System.nanoTime() - decodeStart;
+        statsUpdates += decoded;
+        statsUnmatched += decoded - matchedCount;
+
+        vehicles.set(buildSnapshot(receivedMillis));
+    }
+
+    // Reads the whole response into the reused buffer and returns its length
+    private int fetch() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setRequestProperty("Accept", "application/x-protobuf");
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status);
+            }
+
+            InputStream in = connection.getInputStream();
+            try {
+                int length = 0;
+                int n;
+                while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+                    length += n;
+                    if (length == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                }
+                return length;
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void addMatched(TripMatcher.Trip trip, GtfsRealtimeDecoder.VehiclePosition vehicle) {
+        if (matchedCount == matchedKeys.length) {
+            int capacity = matchedKeys.length * 2;
+            matchedKeys = Arrays.copyOf(matchedKeys, capacity);
+            matchedLineRefs = Arrays.copyOf(matchedLineRefs, capacity);
+            matchedLat = Arrays.copyOf(matchedLat, capacity);
+            matchedLng = Arrays.copyOf(matchedLng, capacity);
+            matchedBearing = Arrays.copyOf(matchedBearing, capacity);
+        }
+
+        matchedKeys[matchedCount] = trip.key;
+        matchedLineRefs[matchedCount] = trip.line;
+        matchedLat[matchedCount] = vehicle.lat;
+        matchedLng[matchedCount] = vehicle.lng;
+        matchedBearing[matchedCount] = vehicle.bearing;
+        matchedCount++;
+    }
+
+    private RealtimeVehicles buildSnapshot(long receivedMillis) {
+        // Order by trip key; a trip reported twice keeps its first vehicle
+        long[] sortedKeys = Arrays.copyOf(matchedKeys, matchedCount);
+        Arrays.sort(sortedKeys);
+        int unique = 0;
+        for (int i = 0; i < matchedCount; i++) {
+            if (unique == 0 || sortedKeys[i] != sortedKeys[unique - 1]) {
+                sortedKeys[unique++] = sortedKeys[i];
+            }
+        }
+
+        BusLine[] sortedLines = new BusLine[unique];
+        double[] sortedLat = new double[unique];
+        double[] sortedLng = new double[unique];
+        float[] sortedBearing = new float[unique];
+
+        for (int i = 0; i < matchedCount; i++) {
+            int slot = Arrays.binarySearch(sortedKeys, 0, unique, matchedKeys[i]);
+            if (sortedLines[slot] != null) continue;
+
+            sortedLines[slot] = matchedLineRefs[i];
+            sortedLat[slot] = matchedLat[i];
+            sortedLng[slot] = matchedLng[i];
+            sortedBearing[slot] = matchedBearing[i];
+        }
+
+        return new RealtimeVehicles(receivedMillis, unique, Arrays.copyOf(sortedKeys, unique),
+            sortedLines, sortedLat, sortedLng, sortedBearing);
+    }
+
+    private void logStats() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - statsStart;
+        if (elapsed < STATS_LOG_INTERVAL_MILLIS) return;
+
+        Gdx.app.log(TAG, String.format(
+            "%d polls (%d failed), %.1f updates/s received, %d unmatched, decoding at %.0f updates/s",
+            statsPolls, statsFailures,
+            statsUpdates * 1000.0 / elapsed,
+            statsUnmatched,
+            statsDecodeNanos > 0 ? statsUpdates * 1e9 / statsDecodeNanos : 0.0));
+
+        statsStart = now;
+        statsPolls = 0;
+        statsFailures = 0;
+        statsUpdates = 0L;
+        statsUnmatched = 0L;
+        statsDecodeNanos = 0L;
+    }
+}
@@ -0,0 +1,77 @@
+package com.mbus.app.systems.realtime;
+
+import com.mbus.app.model.BusLine;
+
+import java.util.Arrays;
+
+/**
+ * Live vehicle positions from one decoded feed message.
+ * <p>
+ * Only vehicles matched to a scheduled trip are kept, sorted by trip key
+ * like {@link com.mbus.app.systems.simulation.VehicleSnapshot}. Immutable
+ * once published.
+ */
+public final class RealtimeVehicles {
+
+    public static final RealtimeVehicles EMPTY = new RealtimeVehicles(
+        0L, 0, new long[0], new BusLine[0], new double[0], new double[0], new float[0]
+    );
+
+    /** {@link System#currentTimeMillis()} when the message was received. */
+    public final long receivedMillis;
+
+    private final int count;
+    private final long[] keys;
+    private final BusLine[] lines;
+    private final double[] lat;
+    private final double[] lng;
+    private final float[] bearing;
+
+    RealtimeVehicles(long receivedMillis, int count, long[] keys, BusLine[] lines,
+                     double[] lat, double[] lng, float[] bearing) {
+        this.receivedMillis = receivedMillis;
+        this.count = count;
+        this.keys = keys;
+        this.lines = lines;
+        this.lat = lat;
+        this.lng = lng;
+        this.bearing = bearing;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isOlderThan(long maxAgeMillis) {
+        return System.currentTimeMillis() - receivedMillis > maxAgeMillis;
+    }
+
+    /**
+     * Index of the vehicle running the given trip, or -1.
+     */
+    public int indexOf(long key) {
+        int index = Arrays.binarySearch(keys, 0, count, key);
+        return index >= 0 ? index : -1;
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public BusLine getLine(int index) {
+        return lines[index];
+    }
+
+    public double getLat(int index) {
+        return lat[index];
+    }
+
+    public double getLng(int index) {
+        return lng[index];
+    }
+
+    /** Degrees clockwise from north, or NaN when the feed has none. */
+    public float getBearing(int index) {
+        return bearing[index];
+    }
+}
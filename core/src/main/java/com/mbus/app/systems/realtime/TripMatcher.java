@@ -0,0 +1,148 @@
+package com.mbus.app.systems.realtime;
+
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.systems.map.VehicleStateStore;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches realtime vehicles to scheduled trips.
+ * <p>
+ * The route id is looked up by line number or line name, then the trip is
+ * found by its start time on the current day type. When the feed has no
+ * start time, a numeric trip id is tried as the schedule id. Indices are
+ * built once per day type; instances are used from the feed thread only.
+ */
+public class TripMatcher {
+
+    /**
+     * A scheduled trip a vehicle was matched to.
+     */
+    public static final class Trip {
+        public final BusLine line;
+        public final BusSchedule schedule;
+        public final long key;
+
+        Trip(BusLine line, BusSchedule schedule) {
+            this.line = line;
+            this.schedule = schedule;
+            this.key = VehicleStateStore.tripKey(line.lineId, schedule.departureTime, schedule.scheduleId);
+        }
+    }
+
+    private final Map<String, List<BusLine>> linesByRoute = new HashMap<String, List<BusLine>>();
+    private final List<BusLine> lines;
+
+    private ServiceDay indexedDay;
+    private final Map<Long, Trip> tripsByDeparture = new HashMap<Long, Trip>();
+    private final Map<Long, Trip> tripsBySchedule = new HashMap<Long, Trip>();
+
+    public TripMatcher(List<BusLine> lines) {
+        this.lines = lines;
+
+        for (BusLine line : lines) {
+            addRoute(String.valueOf(line.lineId), line);
+            if (line.name != null && !line.name.isEmpty()) {
+                addRoute(line.name, line);
+            }
+        }
+    }
+
+    /**
+     * Returns the trip the vehicle is running, or null if no scheduled
+     * trip matches.
+     */
+    public Trip match(GtfsRealtimeDecoder.VehiclePosition vehicle, ServiceDay day) {
+        if (vehicle.routeId == null) return null;
+
+        List<BusLine> routeLines = linesByRoute.get(vehicle.routeId);
+        if (routeLines == null) return null;
+
+        if (!day.equals(indexedDay)) {
+            indexTrips(day);
+        }
+
+        int lineId = routeLines.get(0).lineId;
+
+        if (vehicle.startTime != null) {
+            int departure = parseStartTime(vehicle.startTime);
+            if (departure >= 0) {
+                Trip trip = tripsByDeparture.get(pack(lineId, departure));
+                if (trip != null) return trip;
+            }
+        }
+
+        if (vehicle.tripId != null) {
+            int scheduleId = parseInt(vehicle.tripId);
+            if (scheduleId >= 0) {
+                return tripsBySchedule.get(pack(lineId, scheduleId));
+            }
+        }
+
+        return null;
+    }
+
+    private void addRoute(String routeId, BusLine line) {
+        List<BusLine> routeLines = linesByRoute.get(routeId);
+        if (routeLines == null) {
+            routeLines = new ArrayList<BusLine>();
+            linesByRoute.put(routeId, routeLines);
+        }
+        routeLines.add(line);
+    }
+
+    private void indexTrips(ServiceDay day) {
+        tripsByDeparture.clear();
+        tripsBySchedule.clear();
+
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                if (!day.runs(schedule)) continue;
+
+                Trip trip = new Trip(line, schedule);
+                // A departure shared by two variants keeps the first one
+                Long departureKey = pack(line.lineId, schedule.departureTime);
+                if (!tripsByDeparture.containsKey(departureKey)) {
+                    tripsByDeparture.put(departureKey, trip);
+                }
+                tripsBySchedule.put(pack(line.lineId, schedule.scheduleId), trip);
+            }
+        }
+
+        indexedDay = day;
+    }
+
+    private static long pack(int lineId, int value) {
+        return ((long) lineId << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    // HH:MM:SS to minutes, -1 if malformed; hours may exceed 24 for trips after midnight
+    private static int parseStartTime(String startTime) {
+        int firstColon = startTime.indexOf(':');
+        if (firstColon <= 0) return -1;
+        int secondColon = startTime.indexOf(':', firstColon + 1);
+        int minutesEnd = secondColon != -1 ? secondColon : startTime.length();
+
+        int hours = parseInt(startTime.substring(0, firstColon));
+        int minutes = parseInt(startTime.substring(firstColon + 1, minutesEnd));
+        if (hours < 0 || minutes < 0) return -1;
+
+        return hours * 60 + minutes;
+    }
+
+    private static int parseInt(String value) {
+        if (value.isEmpty()) return -1;
+        int result = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9' || result > 100000000) return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
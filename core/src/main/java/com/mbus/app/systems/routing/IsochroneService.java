@@ -0,0 +1,234 @@
+package com.mbus.app.systems.routing;
+
+import com.badlogic.gdx.Gdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.systems.simulation.SimulationClock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the set of stops reachable from one origin within a time budget
+ * up to date on a background thread.
+ * <p>
+ * Each update is a one-to-all {@link RaptorRouter} search from the origin
+ * at the current simulated minute. The thread reruns it when the origin,
+ * budget, minute or running services change, and publishes an immutable
+ * {@link Isochrone} the render thread picks up with {@link #getIsochrone}.
+ */
+public class IsochroneService {
+
+    private static final String TAG = "IsochroneService";
+
+    // How often the clock is checked for a new minute
+    private static final long POLL_MILLIS = 100L;
+
+    /**
+     * Reachable stops ordered by travel time, with the minutes it takes to
+     * get to each.
+     */
+    public static class Isochrone {
+        public final BusStop origin;
+        public final int departureTime;
+        public final int budgetMinutes;
+        public final long computeMicros;
+        private final BusStop[] stops;
+        private final int[] travelMinutes;
+
+        Isochrone(BusStop origin, int departureTime, int budgetMinutes, long computeMicros,
+                  BusStop[] stops, int[] travelMinutes) {
+            this.origin = origin;
+            this.departureTime = departureTime;
+            this.budgetMinutes = budgetMinutes;
+            this.computeMicros = computeMicros;
+            this.stops = stops;
+            this.travelMinutes = travelMinutes;
+        }
+
+        public int size() {
+            return stops.length;
+        }
+
+        public BusStop getStop(int index) {
+            return stops[index];
+        }
+
+        public int getTravelMinutes(int index) {
+            return travelMinutes[index];
+        }
+    }
+
+    private static final class Request {
+        final BusStop origin;
+        final int budgetMinutes;
+
+        Request(BusStop origin, int budgetMinutes) {
+            this.origin = origin;
+            this.budgetMinutes = budgetMinutes;
+        }
+    }
+
+    private final RaptorRouter router;
+    private final SimulationClock clock;
+    private final AtomicReference<Isochrone> isochrone = new AtomicReference<Isochrone>();
+    private final Object wakeup = new Object();
+
+    private volatile Request request;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // Owned by the worker thread
+    private int[] arrivals = new int[0];
+    private int[] counts = new int[0];
+
+    public IsochroneService(List<BusStop> stops, List<BusLine> lines, SimulationClock clock) {
+        // A router of its own, since routers are not thread-safe
+        this.router = new RaptorRouter(stops, lines);
+        this.clock = clock;
+    }
+
+    /**
+     * Starts tracking the stops reachable from {@code origin} within
+     * {@code budgetMinutes}; null stops tracking and clears the isochrone.
+     */
+    public void setOrigin(BusStop origin, int budgetMinutes) {
+        request = origin != null ? new Request(origin, budgetMinutes) : null;
+        isochrone.set(null);
+        synchronized (wakeup) {
+            wakeup.notifyAll();
+        }
+    }
+
+    public BusStop getOrigin() {
+        Request current = request;
+        return current != null ? current.origin : null;
+    }
+
+    /**
+     * Latest isochrone for the current origin, or null while there is none.
+     */
+    public Isochrone getIsochrone() {
+        return isochrone.get();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "isochrone");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void runLoop() {
+        Request computedRequest = null;
+        int computedMinute = -1;
+        ServiceDay computedDay = null;
+
+        while (running) {
+            Request current = request;
+            if (current == null) {
+                computedRequest = null;
+            } else {
+                int minute = clock.getTimeMinutesInt();
+                ServiceDay day = clock.getServiceDay();
+
+                if (current != computedRequest || minute != computedMinute || !day.equals(computedDay)) {
+                    try {
+                        Isochrone result = compute(current, minute, day);
+                        // Drop the result if the origin changed meanwhile
+                        if (request == current) {
+                            if (current != computedRequest) {
+                                Gdx.app.log(TAG, "Reachable from " + current.origin.name + ": " + result.size() +
+                                    " stops within " + current.budgetMinutes + " min, computed in " +
+                                    result.computeMicros + " us");
+                            }
+                            isochrone.set(result);
+                            Gdx.graphics.requestRendering();
+                        }
+                    } catch (RuntimeException e) {
+                        Gdx.app.error(TAG, "Isochrone update failed", e);
+                    }
+                    computedRequest = current;
+                    computedMinute = minute;
+                    computedDay = day;
+                }
+            }
+
+            try {
+                synchronized (wakeup) {
+                    if (request == computedRequest) {
+                        wakeup.wait(POLL_MILLIS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private Isochrone compute(Request current, int departureTime, ServiceDay day) {
+        long start = System.nanoTime();
+
+        TransitNetwork network = router.getNetwork(day);
+        int stopCount = network.getStopCount();
+        if (arrivals.length < stopCount) {
+            arrivals = new int[stopCount];
+        }
+        router.arrivalsFrom(current.origin, departureTime, departureTime + current.budgetMinutes, day, arrivals);
+
+        // Counting sort by travel time, nearest first
+        int budget = current.budgetMinutes;
+        if (counts.length < budget + 2) {
+            counts = new int[budget + 2];
+        }
+        Arrays.fill(counts, 0, budget + 2, 0);
+
+        int reachable = 0;
+        for (int i = 0; i < stopCount; i++) {
+            if (arrivals[i] == Integer.MAX_VALUE) continue;
+            int minutes = arrivals[i] - departureTime;
+            if (minutes > budget) continue;
+            counts[minutes + 1]++;
+            reachable++;
+        }
+        for (int m = 0; m <= budget; m++) {
+            counts[m + 1] += counts[m];
+        }
+
+        BusStop[] stops = new BusStop[reachable];
+        int[] travelMinutes = new int[reachable];
+        for (int i = 0; i < stopCount; i++) {
+            if (arrivals[i] == Integer.MAX_VALUE) continue;
+            int minutes = arrivals[i] - departureTime;
+            if (minutes > budget) continue;
+            int slot = counts[minutes]++;
+            stops[slot] = network.getStop(i);
+            travelMinutes[slot] = minutes;
+        }
+
+        return new Isochrone(current.origin, departureTime, budget, (System.nanoTime() - start) / 1000,
+            stops, travelMinutes);
+    }
+}
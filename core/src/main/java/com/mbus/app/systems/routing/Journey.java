@@ -0,0 +1,90 @@
+package com.mbus.app.systems.routing;
+
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A trip plan from one stop to another: bus rides joined by short walks.
+ */
+public class Journey {
+
+    public static class Leg {
+        // Null for a walk
+        public final BusLine line;
+        public final BusSchedule schedule;
+        public final BusStop from;
+        public final BusStop to;
+        public final int departureTime;
+        public final int arrivalTime;
+        // Stop indices within the schedule for a ride, -1 for a walk
+        public final int fromIndex;
+        public final int toIndex;
+
+        Leg(BusLine line, BusSchedule schedule, BusStop from, BusStop to,
+            int departureTime, int arrivalTime, int fromIndex, int toIndex) {
+            this.line = line;
+            this.schedule = schedule;
+            this.from = from;
+            this.to = to;
+            this.departureTime = departureTime;
+            this.arrivalTime = arrivalTime;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        public boolean isWalk() {
+            return schedule == null;
+        }
+
+        @Override
+        public String toString() {
+            String what = isWalk() ? "Walk" : "Line " + (line != null ? line.lineId : schedule.lineId);
+            return what + " " + from.name + " " + BusSchedule.formatTime(departureTime) +
+                " -> " + to.name + " " + BusSchedule.formatTime(arrivalTime);
+        }
+    }
+
+    public final BusStop origin;
+    public final BusStop destination;
+    public final int queryTime;
+    public final int arrivalTime;
+    private final List<Leg> legs;
+
+    Journey(BusStop origin, BusStop destination, int queryTime, int arrivalTime, List<Leg> legs) {
+        this.origin = origin;
+        this.destination = destination;
+        this.queryTime = queryTime;
+        this.arrivalTime = arrivalTime;
+        this.legs = Collections.unmodifiableList(legs);
+    }
+
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    public int getRideCount() {
+        int rides = 0;
+        for (Leg leg : legs) {
+            if (!leg.isWalk()) rides++;
+        }
+        return rides;
+    }
+
+    public int getTransferCount() {
+        return Math.max(0, getRideCount() - 1);
+    }
+
+    public int getDurationMinutes() {
+        return arrivalTime - queryTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Journey{" + origin.name + " -> " + destination.name + ", " + getDurationMinutes() +
+            " min, legs=" + legs + '}';
+    }
+}
@@ -0,0 +1,393 @@
+package com.mbus.app.systems.routing;
+
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceDay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Earliest-arrival journey planner using RAPTOR (round-based public
+ * transit routing).
+ * <p>
+ * Round k finds the best arrival at every stop using k bus rides: it scans
+ * each route calling at a stop improved in round k-1 once, from that stop
+ * onwards, boarding the earliest catchable trip, and then relaxes the
+ * footpaths out of the stops it improved. Arrivals by bus are kept apart
+ * from arrivals on foot, so a walk can always continue a ride even where an
+ * earlier walk already got there first. All per-query state lives in
+ * primitive arrays sized to the network and reused between queries, so a
+ * query allocates only the journey it returns.
+ * <p>
+ * The compiled {@link TransitNetwork} of each set of running services is
+ * built on first use. Not thread-safe; use one router per thread.
+ */
+public class RaptorRouter {
+
+    // Rides per journey, i.e. up to MAX_ROUNDS - 1 transfers
+    public static final int MAX_ROUNDS = 5;
+    // Minutes to change buses at a stop
+    private static final int TRANSFER_SLACK = 1;
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    private final List<BusStop> stops;
+    private final List<BusLine> lines;
+    private final Map<ServiceDay, TransitNetwork> networks = new HashMap<ServiceDay, TransitNetwork>();
+
+    private TransitNetwork network;
+    private int stopCount;
+
+    // Per round and stop (index round * stopCount + stop): earliest arrival
+    // either way, and the stop walked from if it was on foot (else -1)
+    private int[] arrivals = new int[0];
+    private int[] walkFrom = new int[0];
+    // Earliest arrival by bus and its ride: global trip index (-1 for the
+    // origin), board stop, board << 16 | alight position
+    private int[] rideArrivals = new int[0];
+    private int[] rideTrip = new int[0];
+    private int[] rideBoardStop = new int[0];
+    private int[] ridePositions = new int[0];
+
+    // Over all rounds so far
+    private int[] best = new int[0];
+    private int[] bestRide = new int[0];
+
+    // Stops to scan routes from next round
+    private boolean[] marked = new boolean[0];
+    private int[] markedStops = new int[0];
+    private int markedCount;
+
+    // Stops reached by bus this round, to walk on from
+    private boolean[] rideMarked = new boolean[0];
+    private int[] rideMarkedStops = new int[0];
+    private int rideMarkedCount;
+
+    // First position each queued route is scanned from, -1 when not queued
+    private int[] routeScanFrom = new int[0];
+    private int[] queuedRoutes = new int[0];
+    private int queuedCount;
+
+    private int cutoff;
+    private int lastQueryRounds;
+
+    public RaptorRouter(List<BusStop> stops, List<BusLine> lines) {
+        this.stops = stops;
+        this.lines = lines;
+    }
+
+    /**
+     * Compiled network of the trips running on the day, built on first use.
+     */
+    public TransitNetwork getNetwork(ServiceDay day) {
+        TransitNetwork compiled = networks.get(day);
+        if (compiled == null) {
+            compiled = new TransitNetwork(stops, lines, day);
+            networks.put(day, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Earliest arrival at {@code destination} leaving {@code origin} no
+     * earlier than {@code departureTime}, using the fewest rides among
+     * equally early journeys. Null if the destination can't be reached that
+     * day within {@link #MAX_ROUNDS} rides.
+     */
+    public Journey route(BusStop origin, BusStop destination, int departureTime, ServiceDay day) {
+        prepare(getNetwork(day));
+
+        int from = network.indexOf(origin.idAvpost);
+        int to = network.indexOf(destination.idAvpost);
+        if (from == -1 || to == -1) return null;
+
+        if (from == to) {
+            return new Journey(origin, destination, departureTime, departureTime, new ArrayList<Journey.Leg>());
+        }
+
+        run(from, to, departureTime, INFINITY);
+
+        int bestRound = -1;
+        int bestArrival = INFINITY;
+        for (int k = 0; k < MAX_ROUNDS + 1; k++) {
+            int arrival = arrivals[k * stopCount + to];
+            if (arrival < bestArrival) {
+                bestArrival = arrival;
+                bestRound = k;
+            }
+        }
+        if (bestRound == -1) return null;
+
+        return reconstruct(origin, destination, departureTime, to, bestRound);
+    }
+
+    /**
+     * Earliest arrival at every stop leaving {@code origin} no earlier than
+     * {@code departureTime}, written to {@code out} by stop index of the
+     * day's network (see {@link #getNetwork}). Stops that can't be
+     * reached by {@code latestArrival} get {@link Integer#MAX_VALUE}.
+     */
+    public void arrivalsFrom(BusStop origin, int departureTime, int latestArrival, ServiceDay day, int[] out) {
+        prepare(getNetwork(day));
+        Arrays.fill(out, 0, stopCount, INFINITY);
+
+        int from = network.indexOf(origin.idAvpost);
+        if (from == -1) return;
+
+        run(from, -1, departureTime, latestArrival == INFINITY ? INFINITY : latestArrival + 1);
+        System.arraycopy(best, 0, out, 0, stopCount);
+    }
+
+    /**
+     * Rounds run by the last query, including round 0.
+     */
+    public int getLastQueryRounds() {
+        return lastQueryRounds;
+    }
+
+    private void prepare(TransitNetwork compiled) {
+        network = compiled;
+        stopCount = compiled.getStopCount();
+
+        int size = (MAX_ROUNDS + 1) * stopCount;
+        if (arrivals.length < size) {
+            arrivals = new int[size];
+            walkFrom = new int[size];
+            rideArrivals = new int[size];
+            rideTrip = new int[size];
+            rideBoardStop = new int[size];
+            ridePositions = new int[size];
+        }
+        if (best.length < stopCount) {
+            best = new int[stopCount];
+            bestRide = new int[stopCount];
+            marked = new boolean[stopCount];
+            markedStops = new int[stopCount];
+            rideMarked = new boolean[stopCount];
+            rideMarkedStops = new int[stopCount];
+        }
+        if (routeScanFrom.length < compiled.getRouteCount()) {
+            routeScanFrom = new int[compiled.getRouteCount()];
+            queuedRoutes = new int[compiled.getRouteCount()];
+            Arrays.fill(routeScanFrom, -1);
+        }
+    }
+
+    // Target -1 runs without target pruning, to every stop; arrivals at or after cutoff are dropped
+    private void run(int from, int to, int departureTime, int cutoff) {
+        this.cutoff = cutoff;
+
+        int size = (MAX_ROUNDS + 1) * stopCount;
+        Arrays.fill(arrivals, 0, size, INFINITY);
+        Arrays.fill(rideArrivals, 0, size, INFINITY);
+        Arrays.fill(best, 0, stopCount, INFINITY);
+        Arrays.fill(bestRide, 0, stopCount, INFINITY);
+        for (int i = 0; i < markedCount; i++) {
+            marked[markedStops[i]] = false;
+        }
+        markedCount = 0;
+
+        // The origin counts as reached by a ride of round 0, so footpaths lead out of it
+        arrivals[from] = departureTime;
+        walkFrom[from] = -1;
+        rideArrivals[from] = departureTime;
+        rideTrip[from] = -1;
+        best[from] = departureTime;
+        bestRide[from] = departureTime;
+        mark(from);
+        markRide(from);
+        relaxTransfers(0, to);
+
+        int k = 1;
+        for (; k <= MAX_ROUNDS; k++) {
+            queueRoutes();
+            if (queuedCount == 0) break;
+
+            for (int i = 0; i < queuedCount; i++) {
+                int route = queuedRoutes[i];
+                scanRoute(route, routeScanFrom[route], k, to);
+                routeScanFrom[route] = -1;
+            }
+            queuedCount = 0;
+
+            relaxTransfers(k, to);
+        }
+        lastQueryRounds = k;
+    }
+
+    // Moves the marked stops into the route queue, keeping each route's earliest marked position
+    private void queueRoutes() {
+        for (int i = 0; i < markedCount; i++) {
+            int stop = markedStops[i];
+            marked[stop] = false;
+
+            for (int j = network.stopRouteStart[stop]; j < network.stopRouteStart[stop + 1]; j++) {
+                int route = network.stopRoutes[j];
+                int position = network.stopRoutePositions[j];
+                if (routeScanFrom[route] == -1) {
+                    routeScanFrom[route] = position;
+                    queuedRoutes[queuedCount++] = route;
+                } else if (position < routeScanFrom[route]) {
+                    routeScanFrom[route] = position;
+                }
+            }
+        }
+        markedCount = 0;
+    }
+
+    private void scanRoute(int route, int fromPosition, int k, int to) {
+        int length = network.routeStopStart[route + 1] - network.routeStopStart[route];
+        int stopBase = network.routeStopStart[route];
+        int tripBase = network.routeTripStart[route];
+        int tripCount = network.routeTripStart[route + 1] - tripBase;
+        int timeBase = network.routeTimeStart[route];
+        int[] times = network.times;
+
+        int round = k * stopCount;
+        int previousRound = (k - 1) * stopCount;
+        int targetBest = to != -1 ? Math.min(best[to], cutoff) : cutoff;
+
+        int trip = -1;
+        int boardStop = -1;
+        int boardPosition = -1;
+
+        for (int position = fromPosition; position < length; position++) {
+            int stop = network.routeStops[stopBase + position];
+
+            if (trip != -1) {
+                int arrival = times[timeBase + trip * length + position];
+                if (arrival < bestRide[stop] && arrival < targetBest) {
+                    rideArrivals[round + stop] = arrival;
+                    bestRide[stop] = arrival;
+                    rideTrip[round + stop] = tripBase + trip;
+                    rideBoardStop[round + stop] = boardStop;
+                    ridePositions[round + stop] = (boardPosition << 16) | position;
+                    markRide(stop);
+
+                    if (arrival < best[stop]) {
+                        arrivals[round + stop] = arrival;
+                        walkFrom[round + stop] = -1;
+                        best[stop] = arrival;
+                        mark(stop);
+                        if (stop == to) targetBest = arrival;
+                    }
+                }
+            }
+
+            int previous = arrivals[previousRound + stop];
+            if (previous == INFINITY) continue;
+
+            int ready = k > 1 ? previous + TRANSFER_SLACK : previous;
+            if (trip != -1 && ready > times[timeBase + trip * length + position]) continue;
+
+            // Earliest trip leaving this stop at or after ready, among those before the current one
+            int lo = 0;
+            int hi = trip != -1 ? trip : tripCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[timeBase + mid * length + position] < ready) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            if (lo < (trip != -1 ? trip : tripCount)) {
+                trip = lo;
+                boardStop = stop;
+                boardPosition = position;
+            }
+        }
+    }
+
+    // Walks on from the stops reached by bus in round k
+    private void relaxTransfers(int k, int to) {
+        int round = k * stopCount;
+
+        for (int i = 0; i < rideMarkedCount; i++) {
+            int stop = rideMarkedStops[i];
+            rideMarked[stop] = false;
+            int departure = rideArrivals[round + stop];
+
+            for (int j = network.transferStart[stop]; j < network.transferStart[stop + 1]; j++) {
+                int target = network.transferTargets[j];
+                int arrival = departure + network.transferMinutes[j];
+                if (arrival < best[target] && arrival < cutoff && (to == -1 || arrival < best[to])) {
+                    arrivals[round + target] = arrival;
+                    walkFrom[round + target] = stop;
+                    best[target] = arrival;
+                    mark(target);
+                }
+            }
+        }
+        rideMarkedCount = 0;
+    }
+
+    private void mark(int stop) {
+        if (!marked[stop]) {
+            marked[stop] = true;
+            markedStops[markedCount++] = stop;
+        }
+    }
+
+    private void markRide(int stop) {
+        if (!rideMarked[stop]) {
+            rideMarked[stop] = true;
+            rideMarkedStops[rideMarkedCount++] = stop;
+        }
+    }
+
+    private Journey reconstruct(BusStop origin, BusStop destination, int departureTime, int to, int round) {
+        List<Journey.Leg> legs = new ArrayList<Journey.Leg>();
+        int stop = to;
+        int k = round;
+
+        // Every round back is an optional walk after a ride; round 0 is the origin
+        while (true) {
+            int index = k * stopCount + stop;
+            int walkedFrom = walkFrom[index];
+            if (walkedFrom != -1) {
+                legs.add(new Journey.Leg(null, null, network.getStop(walkedFrom), network.getStop(stop),
+                    rideArrivals[k * stopCount + walkedFrom], arrivals[index], -1, -1));
+                stop = walkedFrom;
+                index = k * stopCount + stop;
+            }
+
+            int trip = rideTrip[index];
+            if (trip == -1) break;
+
+            int boardStop = rideBoardStop[index];
+            int boardPosition = ridePositions[index] >>> 16;
+            int alightPosition = ridePositions[index] & 0xFFFF;
+            legs.add(new Journey.Leg(
+                routeLineOf(trip), network.trips[trip],
+                network.getStop(boardStop), network.getStop(stop),
+                network.trips[trip].getArrivalTime(boardPosition),
+                network.trips[trip].getArrivalTime(alightPosition),
+                boardPosition, alightPosition));
+            stop = boardStop;
+            k--;
+        }
+
+        Collections.reverse(legs);
+        return new Journey(origin, destination, departureTime, arrivals[round * stopCount + to], legs);
+    }
+
+    private BusLine routeLineOf(int trip) {
+        int lo = 0;
+        int hi = network.routeCount - 1;
+        // Last route whose first trip is at or before the trip
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (network.routeTripStart[mid] <= trip) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return network.routeLines[lo];
+    }
+}
@@ -0,0 +1,304 @@
+package com.mbus.app.systems.routing;
+
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.model.StopPattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The trips running on one service day compiled into the flat arrays
+ * {@link RaptorRouter} scans.
+ * <p>
+ * A route is a set of trips of one line that serve the same stop sequence
+ * and never overtake each other, so at every stop of the route the trips
+ * are in time order and the first catchable one is a binary search away.
+ * Trips of a line and pattern that do overtake are split into further
+ * routes. Stop times of a route are stored trip by trip in one shared
+ * {@code int[]}; stops are referred to by their index in {@link #getStop}.
+ * Footpaths connect stops within {@link #WALK_RADIUS_METERS} of each other.
+ * Immutable once built.
+ */
+public class TransitNetwork {
+
+    public static final double WALK_RADIUS_METERS = 300.0;
+    private static final double WALK_METERS_PER_MINUTE = 80.0;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    final ServiceDay day;
+
+    final BusStop[] stops;
+    private final Map<Integer, Integer> stopIndexById;
+
+    final int routeCount;
+    final int[] routeStopStart;
+    final int[] routeStops;
+    final int[] routeTripStart;
+    final int[] routeTimeStart;
+    final BusLine[] routeLines;
+    final BusSchedule[] trips;
+    final int[] times;
+
+    // Routes calling at each stop, with the stop's position on the route
+    final int[] stopRouteStart;
+    final int[] stopRoutes;
+    final int[] stopRoutePositions;
+
+    final int[] transferStart;
+    final int[] transferTargets;
+    final int[] transferMinutes;
+
+    public TransitNetwork(List<BusStop> stopList, List<BusLine> lines, ServiceDay day) {
+        this.day = day;
+
+        stops = stopList.toArray(new BusStop[0]);
+        stopIndexById = new HashMap<Integer, Integer>(stops.length * 2);
+        for (int i = 0; i < stops.length; i++) {
+            if (!stopIndexById.containsKey(stops[i].idAvpost)) {
+                stopIndexById.put(stops[i].idAvpost, i);
+            }
+        }
+
+        List<List<BusSchedule>> routeTrips = groupRoutes(lines);
+        routeCount = routeTrips.size();
+
+        routeStopStart = new int[routeCount + 1];
+        routeTripStart = new int[routeCount + 1];
+        routeTimeStart = new int[routeCount];
+        routeLines = new BusLine[routeCount];
+
+        int stopTotal = 0;
+        int tripTotal = 0;
+        int timeTotal = 0;
+        for (int r = 0; r < routeCount; r++) {
+            List<BusSchedule> group = routeTrips.get(r);
+            int length = group.get(0).getStopCount();
+            routeStopStart[r] = stopTotal;
+            routeTripStart[r] = tripTotal;
+            routeTimeStart[r] = timeTotal;
+            stopTotal += length;
+            tripTotal += group.size();
+            timeTotal += length * group.size();
+        }
+        routeStopStart[routeCount] = stopTotal;
+        routeTripStart[routeCount] = tripTotal;
+
+        routeStops = new int[stopTotal];
+        trips = new BusSchedule[tripTotal];
+        times = new int[timeTotal];
+
+        for (int r = 0; r < routeCount; r++) {
+            List<BusSchedule> group = routeTrips.get(r);
+            BusSchedule first = group.get(0);
+            int length = first.getStopCount();
+
+            for (int pos = 0; pos < length; pos++) {
+                routeStops[routeStopStart[r] + pos] = stopIndexById.get(first.getStopId(pos));
+            }
+
+            for (int t = 0; t < group.size(); t++) {
+                BusSchedule trip = group.get(t);
+                trips[routeTripStart[r] + t] = trip;
+                for (int pos = 0; pos < length; pos++) {
+                    times[routeTimeStart[r] + t * length + pos] = trip.getArrivalTime(pos);
+                }
+            }
+            routeLines[r] = findLine(lines, first);
+        }
+
+        // Routes per stop, as offsets into two parallel arrays
+        stopRouteStart = new int[stops.length + 1];
+        for (int i = 0; i < stopTotal; i++) {
+            stopRouteStart[routeStops[i] + 1]++;
+        }
+        for (int s = 0; s < stops.length; s++) {
+            stopRouteStart[s + 1] += stopRouteStart[s];
+        }
+        stopRoutes = new int[stopTotal];
+        stopRoutePositions = new int[stopTotal];
+        int[] fill = Arrays.copyOf(stopRouteStart, stops.length);
+        for (int r = 0; r < routeCount; r++) {
+            for (int i = routeStopStart[r]; i < routeStopStart[r + 1]; i++) {
+                int slot = fill[routeStops[i]]++;
+                stopRoutes[slot] = r;
+                stopRoutePositions[slot] = i - routeStopStart[r];
+            }
+        }
+
+        // Footpaths: count the pairs, then fill them in a second sweep
+        Integer[] byLat = new Integer[stops.length];
+        for (int i = 0; i < byLat.length; i++) byLat[i] = i;
+        Arrays.sort(byLat, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(stops[a].geo.lat, stops[b].geo.lat);
+            }
+        });
+
+        transferStart = new int[stops.length + 1];
+        sweepTransfers(byLat, null, null);
+        for (int s = 0; s < stops.length; s++) {
+            transferStart[s + 1] += transferStart[s];
+        }
+        transferTargets = new int[transferStart[stops.length]];
+        transferMinutes = new int[transferStart[stops.length]];
+        sweepTransfers(byLat, Arrays.copyOf(transferStart, stops.length), transferTargets);
+    }
+
+    public ServiceDay getServiceDay() {
+        return day;
+    }
+
+    public int getStopCount() {
+        return stops.length;
+    }
+
+    public BusStop getStop(int index) {
+        return stops[index];
+    }
+
+    /**
+     * Index of the stop with the given id, or -1.
+     */
+    public int indexOf(int stopId) {
+        Integer index = stopIndexById.get(stopId);
+        return index != null ? index : -1;
+    }
+
+    public int getRouteCount() {
+        return routeCount;
+    }
+
+    public int getTripCount() {
+        return trips.length;
+    }
+
+    public int getTransferCount() {
+        return transferTargets.length;
+    }
+
+    @Override
+    public String toString() {
+        return stops.length + " stops, " + routeCount + " routes, " + trips.length + " trips, " +
+            transferTargets.length + " footpaths";
+    }
+
+    // Trips running on the day by line and stop pattern, each group split until no trip overtakes another
+    private List<List<BusSchedule>> groupRoutes(List<BusLine> lines) {
+        Map<List<Object>, List<BusSchedule>> patterns = new LinkedHashMap<List<Object>, List<BusSchedule>>();
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                if (!day.runs(schedule) || schedule.getStopCount() < 2) continue;
+                if (!allStopsKnown(schedule)) continue;
+
+                List<Object> key = Arrays.<Object>asList(line, schedule.getPattern());
+                List<BusSchedule> group = patterns.get(key);
+                if (group == null) {
+                    group = new ArrayList<BusSchedule>();
+                    patterns.put(key, group);
+                }
+                group.add(schedule);
+            }
+        }
+
+        List<List<BusSchedule>> routes = new ArrayList<List<BusSchedule>>();
+        for (List<BusSchedule> group : patterns.values()) {
+            Collections.sort(group, new Comparator<BusSchedule>() {
+                @Override
+                public int compare(BusSchedule a, BusSchedule b) {
+                    return Integer.compare(a.getArrivalTime(0), b.getArrivalTime(0));
+                }
+            });
+
+            List<List<BusSchedule>> split = new ArrayList<List<BusSchedule>>();
+            for (BusSchedule trip : group) {
+                List<BusSchedule> target = null;
+                for (List<BusSchedule> candidate : split) {
+                    if (neverEarlier(trip, candidate.get(candidate.size() - 1))) {
+                        target = candidate;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = new ArrayList<BusSchedule>();
+                    split.add(target);
+                }
+                target.add(trip);
+            }
+            routes.addAll(split);
+        }
+        return routes;
+    }
+
+    private boolean allStopsKnown(BusSchedule schedule) {
+        for (int i = 0; i < schedule.getStopCount(); i++) {
+            if (!stopIndexById.containsKey(schedule.getStopId(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean neverEarlier(BusSchedule trip, BusSchedule previous) {
+        for (int i = 0; i < trip.getStopCount(); i++) {
+            if (trip.getArrivalTime(i) < previous.getArrivalTime(i)) return false;
+        }
+        return true;
+    }
+
+    private static BusLine findLine(List<BusLine> lines, BusSchedule schedule) {
+        for (BusLine line : lines) {
+            if (line.lineId == schedule.lineId && line.variantId == schedule.variantId &&
+                line.direction == schedule.direction) {
+                return line;
+            }
+        }
+        for (BusLine line : lines) {
+            if (line.lineId == schedule.lineId) return line;
+        }
+        return null;
+    }
+
+    // Without a fill array this only counts pairs into transferStart
+    private void sweepTransfers(Integer[] byLat, int[] fill, int[] targets) {
+        double radiusDegrees = WALK_RADIUS_METERS / METERS_PER_DEGREE;
+
+        for (int i = 0; i < byLat.length; i++) {
+            int a = byLat[i];
+            for (int j = i + 1; j < byLat.length; j++) {
+                int b = byLat[j];
+                if (stops[b].geo.lat - stops[a].geo.lat > radiusDegrees) break;
+
+                double meters = distanceMeters(stops[a], stops[b]);
+                if (meters > WALK_RADIUS_METERS) continue;
+
+                if (fill == null) {
+                    transferStart[a + 1]++;
+                    transferStart[b + 1]++;
+                    continue;
+                }
+
+                int minutes = Math.max(1, (int) Math.ceil(meters / WALK_METERS_PER_MINUTE));
+                int slot = fill[a]++;
+                targets[slot] = b;
+                transferMinutes[slot] = minutes;
+                slot = fill[b]++;
+                targets[slot] = a;
+                transferMinutes[slot] = minutes;
+            }
+        }
+    }
+
+    private static double distanceMeters(BusStop a, BusStop b) {
+        double dLat = (b.geo.lat - a.geo.lat) * METERS_PER_DEGREE;
+        double dLng = (b.geo.lng - a.geo.lng) * METERS_PER_DEGREE * Math.cos(Math.toRadians(a.geo.lat));
+        return Math.sqrt(dLat * dLat + dLng * dLng);
+    }
+}
@@ -0,0 +1,187 @@
+package com.mbus.app.systems.simulation;
+
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.model.ServiceDay;
+
+import java.util.TimeZone;
+
+/**
+ * Time source for everything that depends on the time of day.
+ * <p>
+ * Simulated time runs from an anchor: {@code anchorSimulated + (now -
+ * anchorReal) * speed}. Jumps move the simulated anchor, and speed changes
+ * re-anchor at the current moment so the time does not jump. The time of
+ * day is derived from local epoch milliseconds, without a Calendar per
+ * call; the services running on the simulated day are resolved from the
+ * {@link ServiceCalendar} once per day. Safe to use from any thread.
+ */
+public class SimulationClock {
+
+    public static final float MIN_SPEED = 1f;
+    public static final float MAX_SPEED = 600f;
+
+    private static final long MILLIS_PER_MINUTE = 60000L;
+    private static final long MILLIS_PER_DAY = 24L * 60L * MILLIS_PER_MINUTE;
+
+    private final TimeZone timeZone = TimeZone.getDefault();
+
+    private long anchorReal;
+    private long anchorSimulated;
+    private float speed = 1f;
+
+    private ServiceCalendar calendar;
+
+    // Services and weekday of the last local day asked for
+    private long cachedDay = Long.MIN_VALUE;
+    private ServiceDay serviceDay;
+    private int dayOfWeek;
+
+    public SimulationClock() {
+        resetToRealTime();
+        calendar = ServiceCalendar.weekly(getEpochDay());
+    }
+
+    /**
+     * Sets the calendar the running services are resolved from.
+     */
+    public synchronized void setServiceCalendar(ServiceCalendar calendar) {
+        this.calendar = calendar;
+        cachedDay = Long.MIN_VALUE;
+    }
+
+    public synchronized ServiceCalendar getServiceCalendar() {
+        return calendar;
+    }
+
+    public synchronized void resetToRealTime() {
+        anchorReal = System.currentTimeMillis();
+        anchorSimulated = anchorReal;
+        speed = 1f;
+    }
+
+    public synchronized boolean isRealTime() {
+        return speed == 1f && anchorSimulated == anchorReal;
+    }
+
+    /**
+     * Simulated time as epoch milliseconds.
+     */
+    public synchronized long currentTimeMillis() {
+        return simulatedAt(System.currentTimeMillis());
+    }
+
+    public synchronized float getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Sets the speed multiplier, clamped to 1x..600x.
+     */
+    public synchronized void setSpeed(float newSpeed) {
+        long now = System.currentTimeMillis();
+        anchorSimulated = simulatedAt(now);
+        anchorReal = now;
+        speed = Math.max(MIN_SPEED, Math.min(MAX_SPEED, newSpeed));
+    }
+
+    public synchronized void jumpTo(long epochMillis) {
+        anchorReal = System.currentTimeMillis();
+        anchorSimulated = epochMillis;
+    }
+
+    public synchronized void jumpBy(long millis) {
+        long now = System.currentTimeMillis();
+        anchorSimulated = simulatedAt(now) + millis;
+        anchorReal = now;
+    }
+
+    /**
+     * Jumps to the given minute of the current simulated day.
+     */
+    public synchronized void jumpToTimeOfDay(int minutes) {
+        long now = System.currentTimeMillis();
+        long time = simulatedAt(now);
+        int offset = timeZone.getOffset(time);
+        long dayStartLocal = Math.floorDiv(time + offset, MILLIS_PER_DAY) * MILLIS_PER_DAY;
+
+        anchorSimulated = dayStartLocal + minutes * MILLIS_PER_MINUTE - offset;
+        anchorReal = now;
+    }
+
+    /**
+     * Minutes since the start of the simulated day, with fraction.
+     */
+    public synchronized float getTimeMinutes() {
+        long local = localTime();
+        return Math.floorMod(local, MILLIS_PER_DAY) / (float) MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * Whole minutes since the start of the simulated day.
+     */
+    public synchronized int getTimeMinutesInt() {
+        long local = localTime();
+        return (int) (Math.floorMod(local, MILLIS_PER_DAY) / MILLIS_PER_MINUTE);
+    }
+
+    /**
+     * Days since 1970-01-01 of the simulated local date.
+     */
+    public synchronized long getEpochDay() {
+        return Math.floorDiv(localTime(), MILLIS_PER_DAY);
+    }
+
+    /**
+     * Services running on the simulated day.
+     */
+    public synchronized ServiceDay getServiceDay() {
+        updateDay(localTime());
+        return serviceDay;
+    }
+
+    /**
+     * Services running on the next simulated day (today included) that
+     * falls on the given day of the week, 1 = Monday .. 7 = Sunday.
+     */
+    public synchronized ServiceDay getServiceDay(int dayOfWeek) {
+        updateDay(localTime());
+        int ahead = Math.floorMod(dayOfWeek - this.dayOfWeek, 7);
+        return ahead == 0 ? serviceDay : calendar.resolve(cachedDay + ahead);
+    }
+
+    /**
+     * Day type of the simulated day: 0 weekday, 1 Saturday, 2 Sunday or
+     * holiday.
+     */
+    public synchronized int getDayType() {
+        updateDay(localTime());
+        return serviceDay.dayType;
+    }
+
+    /**
+     * Day of the week of the simulated day, 1 = Monday .. 7 = Sunday.
+     */
+    public synchronized int getDayOfWeek() {
+        updateDay(localTime());
+        return dayOfWeek;
+    }
+
+    private long simulatedAt(long realMillis) {
+        return anchorSimulated + (long) ((realMillis - anchorReal) * (double) speed);
+    }
+
+    // Simulated time as milliseconds since the local epoch
+    private long localTime() {
+        long time = simulatedAt(System.currentTimeMillis());
+        return time + timeZone.getOffset(time);
+    }
+
+    private void updateDay(long localTime) {
+        long day = Math.floorDiv(localTime, MILLIS_PER_DAY);
+        if (day == cachedDay) return;
+
+        dayOfWeek = ServiceCalendar.dayOfWeek(day) + 1;
+        serviceDay = calendar.resolve(day);
+        cachedDay = day;
+    }
+}
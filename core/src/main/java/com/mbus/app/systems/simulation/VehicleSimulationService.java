@@ -0,0 +1,453 @@
+package com.mbus.app.systems.simulation;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Vector2;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.Geolocation;
+import com.mbus.app.model.LinearReference;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.systems.map.MapRasterTiles;
+import com.mbus.app.systems.map.VehicleStateStore;
+import com.mbus.app.systems.realtime.RealtimeVehicleFeed;
+import com.mbus.app.systems.realtime.RealtimeVehicles;
+import com.mbus.app.utils.BusPositionCalculator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes bus positions on a background thread at a fixed rate.
+ * <p>
+ * Every tick places all running buses of the configured lines and
+ * publishes a {@link VehicleSnapshot}. While the clock runs in real time,
+ * fresh positions from the realtime feed replace the scheduled ones for
+ * the trips they were matched to; the schedule covers everything else.
+ * The last two snapshots are swapped in together through one atomic
+ * reference, so the render thread always sees a consistent pair to
+ * interpolate between and never waits on the simulation.
+ */
+public class VehicleSimulationService {
+
+    private static final String TAG = "VehicleSimulation";
+
+    public static final int TICKS_PER_SECOND = 10;
+    private static final long TICK_NANOS = 1000000000L / TICKS_PER_SECOND;
+    private static final long STATS_LOG_INTERVAL_NANOS = 10000000000L;
+
+    private static final float DIRECTION_LOOKAHEAD = 0.25f;
+    // Live positions older than this are ignored and the schedule is used instead
+    private static final long MAX_LIVE_AGE_MILLIS = 120000L;
+
+    /**
+     * The two most recent snapshots, published as one unit.
+     */
+    public static final class Frame {
+        public final VehicleSnapshot previous;
+        public final VehicleSnapshot current;
+
+        Frame(VehicleSnapshot previous, VehicleSnapshot current) {
+            this.previous = previous;
+            this.current = current;
+        }
+    }
+
+    private final AtomicReference<Frame> frame = new AtomicReference<Frame>(
+        new Frame(VehicleSnapshot.EMPTY, VehicleSnapshot.EMPTY)
+    );
+
+    private final SimulationClock clock;
+
+    private volatile List<BusLine> lines = Collections.emptyList();
+    private volatile RealtimeVehicleFeed realtimeFeed;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    // Simulation thread only
+    private List<BusLine> indexedLines;
+    private final Map<BusLine, Integer> lineIndices = new IdentityHashMap<BusLine, Integer>();
+    private final Geolocation position = new Geolocation(0, 0);
+    private final Geolocation lookahead = new Geolocation(0, 0);
+    private final Vector2 fromPixel = new Vector2();
+    private final Vector2 toPixel = new Vector2();
+    private long statsStart = 0L;
+    private int statsTicks = 0;
+    private long statsNanos = 0L;
+    private long statsVehicles = 0L;
+    private long statsLive = 0L;
+    private int liveCount = 0;
+
+    public VehicleSimulationService(SimulationClock clock) {
+        this.clock = clock;
+    }
+
+    public void setLines(List<BusLine> lines) {
+        this.lines = lines != null ? lines : Collections.<BusLine>emptyList();
+    }
+
+    /**
+     * Feed whose positions override the schedule in real time, or null.
+     */
+    public void setRealtimeFeed(RealtimeVehicleFeed realtimeFeed) {
+        this.realtimeFeed = realtimeFeed;
+    }
+
+    public Frame getFrame() {
+        return frame.get();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "vehicle-simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Runs one tick on the calling thread and publishes its snapshot, for
+     * measuring the simulation without its thread. Not to be called while
+     * the service is started.
+     */
+    public void step() {
+        tick();
+    }
+
+    private void runLoop() {
+        long nextTick = System.nanoTime();
+        statsStart = nextTick;
+
+        while (running) {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                Gdx.app.error(TAG, "Simulation tick failed", e);
+            }
+
+            nextTick += TICK_NANOS;
+            long now = System.nanoTime();
+            if (now - nextTick > TICK_NANOS) {
+                // Fell behind by more than a tick; drop the backlog instead of bursting
+                nextTick = now;
+            }
+
+            long sleepNanos = nextTick - now;
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void tick() {
+        long startTime = System.nanoTime();
+
+        List<BusLine> currentLines = lines;
+        if (currentLines != indexedLines) {
+            lineIndices.clear();
+            for (int i = 0; i < currentLines.size(); i++) {
+                lineIndices.put(currentLines.get(i), i);
+            }
+            indexedLines = currentLines;
+        }
+
+        float timeMinutes = clock.getTimeMinutes();
+        ServiceDay day = clock.getServiceDay();
+
+        VehicleSnapshot previous = frame.get().current;
+        VehicleSnapshot current = buildSnapshot(currentLines, timeMinutes, day, previous);
+        frame.set(new Frame(previous, current));
+
+        recordStats(current.size(), liveCount, System.nanoTime() - startTime);
+    }
+
+    private VehicleSnapshot buildSnapshot(List<BusLine> currentLines, float timeMinutes,
+                                          ServiceDay day, VehicleSnapshot previous) {
+        List<BusPositionCalculator.ActiveBusInfo> activeBuses =
+            BusPositionCalculator.getActiveBusesAtTime(currentLines, timeMinutes, day);
+
+        RealtimeVehicles live = null;
+        RealtimeVehicleFeed feed = realtimeFeed;
+        if (feed != null && clock.isRealTime()) {
+            live = feed.getVehicles();
+            if (live.size() == 0 || live.isOlderThan(MAX_LIVE_AGE_MILLIS)) {
+                live = null;
+            }
+        }
+        boolean[] liveUsed = live != null ? new boolean[live.size()] : null;
+        liveCount = 0;
+
+        int capacity = activeBuses.size() + (live != null ? live.size() : 0);
+        long[] keys = new long[capacity];
+        int[] lineIndex = new int[capacity];
+        double[] lat = new double[capacity];
+        double[] lng = new double[capacity];
+        float[] heading = new float[capacity];
+        boolean[] waiting = new boolean[capacity];
+        int count = 0;
+
+        for (int i = 0; i < activeBuses.size(); i++) {
+            BusPositionCalculator.ActiveBusInfo bus = activeBuses.get(i);
+            if (!positionAlongPath(bus.line, bus.schedule, bus.currentStopIndex,
+                bus.nextStopIndex, bus.segmentProgress, position)) {
+                continue;
+            }
+
+            long key = VehicleStateStore.tripKey(
+                bus.line.lineId, bus.schedule.departureTime, bus.schedule.scheduleId
+            );
+
+            int liveIndex = live != null ? live.indexOf(key) : -1;
+            if (liveIndex != -1) {
+                liveUsed[liveIndex] = true;
+                liveCount++;
+
+                keys[count] = key;
+                lineIndex[count] = lineIndices.get(bus.line);
+                lat[count] = live.getLat(liveIndex);
+                lng[count] = live.getLng(liveIndex);
+                heading[count] = liveHeading(live, liveIndex, previous);
+                waiting[count] = false;
+                count++;
+                continue;
+            }
+
+            keys[count] = key;
+            lineIndex[count] = lineIndices.get(bus.line);
+            lat[count] = position.lat;
+            lng[count] = position.lng;
+            heading[count] = calculateHeading(bus, key, previous);
+            waiting[count] = bus.isWaitingAtStop;
+            count++;
+        }
+
+        // Matched vehicles the schedule doesn't place right now, e.g. running late past their last stop time
+        if (live != null) {
+            for (int i = 0; i < live.size(); i++) {
+                if (liveUsed[i]) continue;
+
+                Integer index = lineIndices.get(live.getLine(i));
+                if (index == null) continue;
+
+                liveCount++;
+                keys[count] = live.getKey(i);
+                lineIndex[count] = index;
+                lat[count] = live.getLat(i);
+                lng[count] = live.getLng(i);
+                heading[count] = liveHeading(live, i, previous);
+                waiting[count] = false;
+                count++;
+            }
+        }
+
+        // Order by trip key; a trip listed twice keeps its first entry
+        long[] sortedKeys = Arrays.copyOf(keys, count);
+        Arrays.sort(sortedKeys);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || sortedKeys[i] != sortedKeys[unique - 1]) {
+                sortedKeys[unique++] = sortedKeys[i];
+            }
+        }
+
+        int[] sortedLineIndex = new int[unique];
+        double[] sortedLat = new double[unique];
+        double[] sortedLng = new double[unique];
+        float[] sortedHeading = new float[unique];
+        boolean[] sortedWaiting = new boolean[unique];
+        boolean[] placed = new boolean[unique];
+
+        for (int i = 0; i < count; i++) {
+            int slot = Arrays.binarySearch(sortedKeys, 0, unique, keys[i]);
+            if (placed[slot]) continue;
+            placed[slot] = true;
+
+            sortedLineIndex[slot] = lineIndex[i];
+            sortedLat[slot] = lat[i];
+            sortedLng[slot] = lng[i];
+            sortedHeading[slot] = heading[i];
+            sortedWaiting[slot] = waiting[i];
+        }
+
+        return new VehicleSnapshot(System.nanoTime(), timeMinutes, currentLines, unique,
+            Arrays.copyOf(sortedKeys, unique), sortedLineIndex, sortedLat, sortedLng,
+            sortedHeading, sortedWaiting);
+    }
+
+    private float calculateHeading(BusPositionCalculator.ActiveBusInfo bus, long key,
+                                   VehicleSnapshot previous) {
+        LinearReference reference = bus.line.getLinearReference();
+        BusSchedule schedule = bus.schedule;
+        int stopCount = schedule.getStopCount();
+
+        if (bus.isWaitingAtStop) {
+            int previousIndex = previous.indexOf(key);
+            if (previousIndex != -1) {
+                return previous.getHeading(previousIndex);
+            }
+
+            if (bus.currentStopIndex >= 0 && bus.currentStopIndex < stopCount &&
+                bus.nextStopIndex >= 0 && bus.nextStopIndex < stopCount) {
+                BusStop currentStop = reference.getStop(stopIdAt(schedule, bus.currentStopIndex));
+                BusStop nextStop = reference.getStop(stopIdAt(schedule, bus.nextStopIndex));
+
+                if (currentStop != null && nextStop != null) {
+                    return angleBetween(currentStop.geo, nextStop.geo);
+                }
+            }
+        }
+
+        float lookaheadProgress = Math.min(1.0f, bus.segmentProgress + DIRECTION_LOOKAHEAD);
+
+        if (positionAlongPath(bus.line, schedule, bus.currentStopIndex,
+            bus.nextStopIndex, lookaheadProgress, lookahead)) {
+            return angleBetween(position, lookahead);
+        }
+
+        if (bus.nextStopIndex >= 0 && bus.nextStopIndex < stopCount) {
+            BusStop nextStop = reference.getStop(stopIdAt(schedule, bus.nextStopIndex));
+            if (nextStop != null) {
+                return angleBetween(position, nextStop.geo);
+            }
+        }
+
+        return 0;
+    }
+
+    private float liveHeading(RealtimeVehicles live, int index, VehicleSnapshot previous) {
+        float bearing = live.getBearing(index);
+        if (!Float.isNaN(bearing)) {
+            // Compass bearing to counter-clockwise from east
+            float angleDeg = 90f - bearing;
+            while (angleDeg < 0) angleDeg += 360;
+            while (angleDeg >= 360) angleDeg -= 360;
+            return angleDeg;
+        }
+
+        int previousIndex = previous.indexOf(live.getKey(index));
+        if (previousIndex == -1) return 0;
+
+        // No bearing reported: keep pointing where the vehicle moved from the last tick
+        position.lat = previous.getLat(previousIndex);
+        position.lng = previous.getLng(previousIndex);
+        lookahead.lat = live.getLat(index);
+        lookahead.lng = live.getLng(index);
+        float angle = angleBetween(position, lookahead);
+        return angle != 0 ? angle : previous.getHeading(previousIndex);
+    }
+
+    /**
+     * Writes the position at {@code segmentProgress} between two stops of
+     * the schedule into {@code out}. Returns false when it can't be placed.
+     */
+    private static boolean positionAlongPath(BusLine line,
+                                             BusSchedule schedule,
+                                             int currentStopIndex,
+                                             int nextStopIndex,
+                                             float segmentProgress,
+                                             Geolocation out) {
+        LinearReference reference = line.getLinearReference();
+        int stopCount = schedule.getStopCount();
+
+        if (line.getStops().isEmpty() || reference.getVertexCount() == 0 || stopCount == 0) return false;
+
+        int pathStartIdx;
+        int pathEndIdx;
+
+        if (currentStopIndex == -1) {
+            pathStartIdx = 0;
+            if (nextStopIndex < 0 || nextStopIndex >= stopCount) {
+                reference.getVertex(0, out);
+                return true;
+            }
+            pathEndIdx = reference.getStopVertex(stopIdAt(schedule, nextStopIndex));
+            if (pathEndIdx == -1) {
+                reference.getVertex(0, out);
+                return true;
+            }
+        } else {
+            if (currentStopIndex >= stopCount || nextStopIndex >= stopCount) return false;
+            if (currentStopIndex < 0 || nextStopIndex < 0) return false;
+
+            pathStartIdx = reference.getStopVertex(stopIdAt(schedule, currentStopIndex));
+            pathEndIdx = reference.getStopVertex(stopIdAt(schedule, nextStopIndex));
+
+            if (pathStartIdx == -1 || pathEndIdx == -1) return false;
+        }
+
+        reference.interpolate(pathStartIdx, pathEndIdx, segmentProgress, out);
+        return true;
+    }
+
+    private static int stopIdAt(BusSchedule schedule, int stopIndex) {
+        return schedule.getStopId(stopIndex);
+    }
+
+    // Angle in map pixel space; the tile origin cancels out, so none is needed
+    private float angleBetween(Geolocation from, Geolocation to) {
+        MapRasterTiles.getPixelPosition(from.lat, from.lng, 0, 0, fromPixel);
+        MapRasterTiles.getPixelPosition(to.lat, to.lng, 0, 0, toPixel);
+
+        float dx = toPixel.x - fromPixel.x;
+        float dy = toPixel.y - fromPixel.y;
+
+        if (Math.abs(dx) < 0.1f && Math.abs(dy) < 0.1f) {
+            return 0;
+        }
+
+        float angleDeg = (float) Math.toDegrees(Math.atan2(dy, dx));
+
+        while (angleDeg < 0) angleDeg += 360;
+        while (angleDeg >= 360) angleDeg -= 360;
+
+        return angleDeg;
+    }
+
+    private void recordStats(int vehicles, int live, long nanos) {
+        statsTicks++;
+        statsNanos += nanos;
+        statsVehicles += vehicles;
+        statsLive += live;
+
+        long now = System.nanoTime();
+        if (now - statsStart >= STATS_LOG_INTERVAL_NANOS) {
+            Gdx.app.log(TAG, String.format("%d vehicles (%d live), %.2f ms per tick, %.1f ticks/s",
+                statsVehicles / statsTicks,
+                statsLive / statsTicks,
+                statsNanos / 1e6 / statsTicks,
+                statsTicks * 1e9 / (now - statsStart)));
+            statsStart = now;
+            statsTicks = 0;
+            statsNanos = 0L;
+            statsVehicles = 0L;
+            statsLive = 0L;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.mbus.app.systems.simulation;
+
+import com.mbus.app.model.BusLine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Positions of all running buses at one simulation tick.
+ * <p>
+ * Vehicles are sorted by trip key so the renderer can match them with the
+ * previous snapshot by binary search. A snapshot is never modified after
+ * it is published and can be read from any thread.
+ */
+public final class VehicleSnapshot {
+
+    public static final VehicleSnapshot EMPTY = new VehicleSnapshot(
+        0L, 0f, Collections.<BusLine>emptyList(), 0,
+        new long[0], new int[0], new double[0], new double[0], new float[0], new boolean[0]
+    );
+
+    /** {@link System#nanoTime()} when the snapshot was computed. */
+    public final long createdNanos;
+    /** Simulated time of day in minutes. */
+    public final float timeMinutes;
+    /** Lines the vehicles' line indices refer to. */
+    public final List<BusLine> lines;
+
+    private final int count;
+    private final long[] keys;
+    private final int[] lineIndex;
+    private final double[] lat;
+    private final double[] lng;
+    private final float[] heading;
+    private final boolean[] waiting;
+
+    VehicleSnapshot(long createdNanos, float timeMinutes, List<BusLine> lines, int count,
+                    long[] keys, int[] lineIndex, double[] lat, double[] lng,
+                    float[] heading, boolean[] waiting) {
+        this.createdNanos = createdNanos;
+        this.timeMinutes = timeMinutes;
+        this.lines = lines;
+        this.count = count;
+        this.keys = keys;
+        this.lineIndex = lineIndex;
+        this.lat = lat;
+        this.lng = lng;
+        this.heading = heading;
+        this.waiting = waiting;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Index of the vehicle with the given trip key, or -1.
+     */
+    public int indexOf(long key) {
+        int index = Arrays.binarySearch(keys, 0, count, key);
+        return index >= 0 ? index : -1;
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public int getLineIndex(int index) {
+        return lineIndex[index];
+    }
+
+    public BusLine getLine(int index) {
+        return lines.get(lineIndex[index]);
+    }
+
+    public double getLat(int index) {
+        return lat[index];
+    }
+
+    public double getLng(int index) {
+        return lng[index];
+    }
+
+    /** Heading in degrees, counter-clockwise from east in map pixel space. */
+    public float getHeading(int index) {
+        return heading[index];
+    }
+
+    public boolean isWaiting(int index) {
+        return waiting[index];
+    }
+}
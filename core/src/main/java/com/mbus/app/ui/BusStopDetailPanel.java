@@ -12,8 +12,11 @@ import com.badlogic.gdx.utils.viewport.ScreenViewport;
 import com.mbus.app.model.BusLine;
 import com.mbus.app.model.BusSchedule;
 import com.mbus.app.model.BusStop;
+import com.mbus.app.model.ServiceDay;
+import com.mbus.app.model.StopDepartureIndex;
+import com.mbus.app.systems.routing.Journey;
 import com.mbus.app.utils.BusLineColors;
-import com.mbus.app.utils.BusPositionCalculator;
+import com.mbus.app.systems.simulation.SimulationClock;
 import com.mbus.app.utils.Constants;
 
 import java.util.List;
@@ -27,14 +30,25 @@ public class BusStopDetailPanel {
 
     private BusStop currentStop;
     private List<BusLine> allLines;
+    private StopDepartureIndex departureIndex;
     private VisibilityChangeCallback visibilityCallback;
+    private JourneyCallback journeyCallback;
+    private ReachabilityCallback reachabilityCallback;
+
+    private BusStop journeyOrigin;
+    private BusStop journeyDestination;
+    private Journey journey;
+    private BusStop reachabilityOrigin;
     private Texture timeIcon;
 
+    private final SimulationClock clock;
+
     private String scheduleTime;
     private int scheduleDayOfWeek;
 
-    public BusStopDetailPanel(Skin skin, Texture timeIcon) {
+    public BusStopDetailPanel(Skin skin, Texture timeIcon, SimulationClock clock) {
         this.skin = skin;
+        this.clock = clock;
         this.timeIcon = timeIcon;
         this.stage = new Stage(new ScreenViewport());
         this.visible = false;
@@ -106,7 +120,50 @@ public class BusStopDetailPanel {
         stopInfoTable.add(idBtn).width(35).height(40).padRight(8).left();
         stopInfoTable.add(stopNameLabel).expandX().fillX().left();
 
-        mainPanel.add(stopInfoTable).width(panelWidth - 20).padLeft(10).padRight(10).padTop(10).padBottom(30).row();
+        mainPanel.add(stopInfoTable).width(panelWidth - 20).padLeft(10).padRight(10).padTop(10).padBottom(15).row();
+
+        Table journeyButtons = new Table();
+
+        TextButton fromBtn = new TextButton("Od tu", skin, "maroon-small");
+        fromBtn.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                if (journeyCallback != null) {
+                    journeyCallback.onJourneyFrom(currentStop);
+                }
+            }
+        });
+
+        TextButton toBtn = new TextButton("Do sem", skin, "maroon-small");
+        toBtn.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                if (journeyCallback != null) {
+                    journeyCallback.onJourneyTo(currentStop);
+                }
+            }
+        });
+
+        boolean reachabilityShown = reachabilityOrigin != null && reachabilityOrigin.idAvpost == currentStop.idAvpost;
+        TextButton reachBtn = new TextButton("Doseg", skin, reachabilityShown ? "orange-small" : "maroon-small");
+        reachBtn.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                if (reachabilityCallback != null) {
+                    reachabilityCallback.onReachabilityToggled(currentStop);
+                }
+            }
+        });
+
+        journeyButtons.add(fromBtn).height(30).expandX().fillX().padRight(5);
+        journeyButtons.add(toBtn).height(30).expandX().fillX().padLeft(5).padRight(5);
+        journeyButtons.add(reachBtn).height(30).expandX().fillX().padLeft(5);
+
+        mainPanel.add(journeyButtons).width(panelWidth - 20).padLeft(10).padRight(10).padBottom(20).row();
+
+        if (journeyOrigin != null || journeyDestination != null) {
+            mainPanel.add(createJourneyTable(panelWidth)).width(panelWidth - 20).padLeft(10).padRight(10).padBottom(20).row();
+        }
 
         Image separator1 = new Image(skin.getDrawable("white"));
         separator1.setColor(0.8f, 0.8f, 0.8f, 0.3f);
@@ -142,6 +199,80 @@ public class BusStopDetailPanel {
         }
     }
 
+    private Table createJourneyTable(float panelWidth) {
+        Table table = new Table();
+        table.align(Align.top | Align.left);
+
+        Label headerLabel = new Label("Pot", skin, "title-black");
+        headerLabel.setFontScale(0.8f);
+
+        TextButton clearBtn = new TextButton("x", skin, "maroon-small");
+        clearBtn.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                if (journeyCallback != null) {
+                    journeyCallback.onJourneyCleared();
+                }
+            }
+        });
+
+        table.add(headerLabel).expandX().left();
+        table.add(clearBtn).size(25, 25).right();
+        table.row();
+
+        table.add(createJourneyLabel("Od: " + (journeyOrigin != null ? journeyOrigin.name : "-"), Color.GRAY))
+            .colspan(2).fillX().padTop(5).row();
+        table.add(createJourneyLabel("Do: " + (journeyDestination != null ? journeyDestination.name : "-"), Color.GRAY))
+            .colspan(2).fillX().padBottom(5).row();
+
+        if (journeyOrigin == null || journeyDestination == null) {
+            return table;
+        }
+
+        if (journey == null) {
+            table.add(createJourneyLabel("Ni povezave", Color.GRAY)).colspan(2).fillX().padTop(5).row();
+            return table;
+        }
+
+        for (Journey.Leg leg : journey.getLegs()) {
+            if (leg.isWalk()) {
+                Label walkLabel = createJourneyLabel(
+                    "Hoja " + (leg.arrivalTime - leg.departureTime) + " min do " + leg.to.name, Color.GRAY);
+                table.add(walkLabel).colspan(2).fillX().padTop(5).row();
+                continue;
+            }
+
+            Table legTable = new Table();
+            TextButton lineBtn = new TextButton(String.valueOf(leg.schedule.lineId), skin, "orange-small");
+            lineBtn.setColor(BusLineColors.getButtonColor(leg.schedule.lineId));
+
+            Label legLabel = createJourneyLabel(
+                BusSchedule.formatTime(leg.departureTime) + " " + leg.from.name + "\n" +
+                    BusSchedule.formatTime(leg.arrivalTime) + " " + leg.to.name, Color.BLACK);
+
+            legTable.add(lineBtn).size(30, 30).padRight(8).top();
+            legTable.add(legLabel).expandX().fillX();
+            table.add(legTable).colspan(2).fillX().padTop(5).row();
+        }
+
+        int transfers = journey.getTransferCount();
+        Label summaryLabel = createJourneyLabel(
+            "Prihod " + BusSchedule.formatTime(journey.arrivalTime) + " • " + journey.getDurationMinutes() +
+                " min • prestopi: " + transfers, Color.GRAY);
+        table.add(summaryLabel).colspan(2).fillX().padTop(8).row();
+
+        return table;
+    }
+
+    private Label createJourneyLabel(String text, Color color) {
+        Label label = new Label(text, skin, "black");
+        label.setFontScale(0.65f);
+        label.setColor(color);
+        label.setWrap(true);
+        label.setAlignment(Align.left);
+        return label;
+    }
+
     private Table createUpcomingArrivalsTable(float panelWidth) {
         Table table = new Table();
         table.align(Align.top | Align.left);
@@ -155,18 +286,21 @@ public class BusStopDetailPanel {
         }
 
         int currentTime;
-        int dayType;
+        ServiceDay day;
 
         if (scheduleTime != null) {
             currentTime = parseTimeToMinutes(scheduleTime);
-            dayType = convertDayOfWeekToDayType(scheduleDayOfWeek);
+            day = scheduleDayOfWeek >= 1 && scheduleDayOfWeek <= 7
+                ? clock.getServiceDay(scheduleDayOfWeek)
+                : clock.getServiceDay();
         } else {
-            currentTime = BusPositionCalculator.getCurrentTimeMinutes();
-            dayType = BusPositionCalculator.getCurrentDayType();
+            currentTime = clock.getTimeMinutesInt();
+            day = clock.getServiceDay();
         }
 
-        List<BusStop.StopArrival> upcomingArrivals =
-            currentStop.getUpcomingArrivals(allLines, currentTime, dayType, 20);
+        List<BusStop.StopArrival> upcomingArrivals = departureIndex != null
+            ? departureIndex.getUpcomingArrivals(currentStop.idAvpost, day, currentTime, 20)
+            : currentStop.getUpcomingArrivals(allLines, currentTime, day, 20);
 
         if (upcomingArrivals.isEmpty()) {
             Label emptyLabel = new Label("Ni vec prihodov danes", skin, "black");
@@ -220,7 +354,7 @@ public class BusStopDetailPanel {
         }
 
         String dayTypeStr;
-        switch (dayType) {
+        switch (day.dayType) {
             case 0: dayTypeStr = "Delovnik"; break;
             case 1: dayTypeStr = "Sobota"; break;
             case 2: dayTypeStr = "Nedelja"; break;
@@ -244,34 +378,58 @@ public class BusStopDetailPanel {
 
     private int parseTimeToMinutes(String time) {
         try {
-            String[] parts = time.split(":");
-            int hours = Integer.parseInt(parts[0]);
-            int minutes = Integer.parseInt(parts[1]);
-            return hours * 60 + minutes;
+            return BusSchedule.parseTime(time);
         } catch (Exception e) {
             Gdx.app.error("BusStopDetailPanel", "Failed to parse time: " + time);
-            return BusPositionCalculator.getCurrentTimeMinutes();
+            return clock.getTimeMinutesInt();
         }
     }
 
-    private int convertDayOfWeekToDayType(int dayOfWeek) {
-        if (dayOfWeek >= 1 && dayOfWeek <= 5) {
-            return 0;
-        } else if (dayOfWeek == 6) {
-            return 1;
-        } else if (dayOfWeek == 7) {
-            return 2;
+    public void setBusLines(List<BusLine> lines) {
+        this.allLines = lines;
+        if (visible && currentStop != null) {
+            rebuildUI();
         }
-        return 0;
     }
 
-    public void setBusLines(List<BusLine> lines) {
-        this.allLines = lines;
+    public void setDepartureIndex(StopDepartureIndex departureIndex) {
+        this.departureIndex = departureIndex;
         if (visible && currentStop != null) {
             rebuildUI();
         }
     }
 
+    /**
+     * Shows the chosen journey endpoints and the planned journey (null when
+     * not planned yet or not found).
+     */
+    public void setJourney(BusStop origin, BusStop destination, Journey journey) {
+        this.journeyOrigin = origin;
+        this.journeyDestination = destination;
+        this.journey = journey;
+        if (visible && currentStop != null) {
+            rebuildUI();
+        }
+    }
+
+    public void setJourneyCallback(JourneyCallback callback) {
+        this.journeyCallback = callback;
+    }
+
+    /**
+     * Marks the stop whose reachability is shown on the map, or null.
+     */
+    public void setReachabilityOrigin(BusStop origin) {
+        this.reachabilityOrigin = origin;
+        if (visible && currentStop != null) {
+            rebuildUI();
+        }
+    }
+
+    public void setReachabilityCallback(ReachabilityCallback callback) {
+        this.reachabilityCallback = callback;
+    }
+
     public void refresh() {
         if (visible && currentStop != null) {
             rebuildUI();
@@ -329,4 +487,16 @@ public class BusStopDetailPanel {
     public interface VisibilityChangeCallback {
         void onVisibilityChanged(boolean visible);
     }
+
+    public interface JourneyCallback {
+        void onJourneyFrom(BusStop stop);
+
+        void onJourneyTo(BusStop stop);
+
+        void onJourneyCleared();
+    }
+
+    public interface ReachabilityCallback {
+        void onReachabilityToggled(BusStop stop);
+    }
 }
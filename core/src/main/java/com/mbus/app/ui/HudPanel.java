@@ -27,12 +27,14 @@ public class HudPanel {
     private TextField timeField;
     private ScrollPane busStopsScrollPane;
     private TextButton allStopsBtn;
+    private TextButton fleetBtn;
     private Label currentTimeLabel;
 
     private List<BusStop> allBusStops;
     private List<BusLine> busLines;
     private Set<Integer> visibleLineIds;
     private boolean showingAllStops = true;
+    private boolean showingFleet = false;
 
     private String currentTime = "";
     private int currentDayOfWeek = 1; // 1=Monday, 7=Sunday
@@ -41,6 +43,10 @@ public class HudPanel {
         void onShowAllStopsChanged(boolean showAll);
     }
 
+    public interface ShowFleetCallback {
+        void onShowFleetChanged(boolean showFleet);
+    }
+
     public interface BusStopClickCallback {
         void onBusStopClicked(BusStop busStop);
     }
@@ -58,6 +64,7 @@ public class HudPanel {
     }
 
     private ShowAllStopsCallback showAllStopsCallback;
+    private ShowFleetCallback showFleetCallback;
     private BusStopClickCallback busStopClickCallback;
     private BusLineVisibilityCallback busLineVisibilityCallback;
     private FilteredStopsCallback filteredStopsCallback;
@@ -199,8 +206,20 @@ public class HudPanel {
             }
         });
 
-        allButtonsTable.add(allLinesBtn).width((panelWidth - 30) / 2f).padRight(5);
-        allButtonsTable.add(allStopsBtn).width((panelWidth - 30) / 2f).padLeft(5);
+        fleetBtn = new TextButton("Vozila", skin, "orange-small-toggle");
+        fleetBtn.setColor(0.663f, 0.620f, 0.58f, 1f);
+        fleetBtn.setChecked(showingFleet);
+
+        fleetBtn.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, Actor actor) {
+                toggleShowFleet();
+            }
+        });
+
+        allButtonsTable.add(allLinesBtn).width((panelWidth - 40) / 3f).padRight(5);
+        allButtonsTable.add(allStopsBtn).width((panelWidth - 40) / 3f).padLeft(5).padRight(5);
+        allButtonsTable.add(fleetBtn).width((panelWidth - 40) / 3f).padLeft(5);
 
         mainPanel.add(allButtonsTable).width(panelWidth - 20).padLeft(10).padRight(10).padTop(10).row();
 
@@ -277,6 +296,14 @@ public class HudPanel {
         }
     }
 
+    private void toggleShowFleet() {
+        showingFleet = fleetBtn.isChecked();
+
+        if (showFleetCallback != null) {
+            showFleetCallback.onShowFleetChanged(showingFleet);
+        }
+    }
+
     private void onLineVisibilityChanged() {
         refreshBusStopsTable();
 
@@ -534,6 +561,10 @@ public class HudPanel {
         this.showAllStopsCallback = callback;
     }
 
+    public void setShowFleetCallback(ShowFleetCallback callback) {
+        this.showFleetCallback = callback;
+    }
+
     public void setBusStopClickCallback(BusStopClickCallback callback) {
         this.busStopClickCallback = callback;
     }
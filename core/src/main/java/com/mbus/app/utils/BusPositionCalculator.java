@@ -2,9 +2,9 @@ package com.mbus.app.utils;
 
 import com.mbus.app.model.BusLine;
 import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.ServiceDay;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 
 public class BusPositionCalculator {
@@ -34,65 +34,20 @@ public class BusPositionCalculator {
         }
     }
 
-    public static int getCurrentTimeMinutes() {
-        Calendar cal = Calendar.getInstance();
-        return cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE);
-    }
-
-    public static float getCurrentTimeMinutesWithSeconds() {
-        Calendar cal = Calendar.getInstance();
-        int hours = cal.get(Calendar.HOUR_OF_DAY);
-        int minutes = cal.get(Calendar.MINUTE);
-        int seconds = cal.get(Calendar.SECOND);
-        int millis = cal.get(Calendar.MILLISECOND);
-        return hours * 60.0f + minutes + (seconds / 60.0f) + (millis / 60000.0f);
-    }
-
-    public static int getCurrentDayType() {
-        Calendar cal = Calendar.getInstance();
-        int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
-
-        if (dayOfWeek == Calendar.SUNDAY) {
-            return 2;
-        } else if (dayOfWeek == Calendar.SATURDAY) {
-            return 1;
-        } else {
-            return 0;
-        }
-    }
-
-    public static List<ActiveBusInfo> getActiveBuses(List<BusLine> lines,
-                                                     int currentTime,
-                                                     int dayType) {
-        Calendar cal = Calendar.getInstance();
-        int seconds = cal.get(Calendar.SECOND);
-        int millis = cal.get(Calendar.MILLISECOND);
-        float preciseTime = currentTime + (seconds / 60.0f) + (millis / 60000.0f);
-
-        return getActiveBusesAtTime(lines, preciseTime, dayType);
-    }
-
     public static List<ActiveBusInfo> getActiveBusesAtTime(List<BusLine> lines,
                                                            float preciseTime,
-                                                           int dayType) {
+                                                           ServiceDay day) {
         List<ActiveBusInfo> activeBuses = new ArrayList<ActiveBusInfo>();
+        List<BusSchedule> runningTrips = new ArrayList<BusSchedule>();
 
         for (BusLine line : lines) {
-            for (BusSchedule schedule : line.getSchedules()) {
-                if (schedule.dayType != dayType) continue;
-
-                List<BusSchedule.StopTime> stopTimes = schedule.getStopTimes();
-                if (stopTimes.size() < 2) continue;
-
-                float departureTime = (float) schedule.departureTime;
-                float lastStopTime = (float) stopTimes.get(stopTimes.size() - 1).arrivalTime;
-                float finalArrival = lastStopTime + STOP_WAIT_TIME_MINUTES;
+            runningTrips.clear();
+            line.getTripIndex(day).findActive(preciseTime, STOP_WAIT_TIME_MINUTES, runningTrips);
 
-                if (preciseTime >= departureTime && preciseTime <= finalArrival) {
-                    ActiveBusInfo activeBus = calculateBusSegment(line, schedule, preciseTime);
-                    if (activeBus != null) {
-                        activeBuses.add(activeBus);
-                    }
+            for (int i = 0; i < runningTrips.size(); i++) {
+                ActiveBusInfo activeBus = calculateBusSegment(line, runningTrips.get(i), preciseTime);
+                if (activeBus != null) {
+                    activeBuses.add(activeBus);
                 }
             }
         }
@@ -103,11 +58,10 @@ public class BusPositionCalculator {
     private static ActiveBusInfo calculateBusSegment(BusLine line,
                                                      BusSchedule schedule,
                                                      float preciseCurrentTime) {
-        List<BusSchedule.StopTime> stopTimes = schedule.getStopTimes();
-        if (stopTimes.size() < 2) return null;
+        int stopCount = schedule.getStopCount();
+        if (stopCount < 2) return null;
 
-        BusSchedule.StopTime firstStop = stopTimes.get(0);
-        float firstStopArrival = (float) firstStop.arrivalTime;
+        float firstStopArrival = (float) schedule.getArrivalTime(0);
 
         if (preciseCurrentTime < firstStopArrival) {
             float departureTime = (float) schedule.departureTime;
@@ -124,9 +78,40 @@ public class BusPositionCalculator {
             }
         }
 
-        for (int i = 0; i < stopTimes.size(); i++) {
-            BusSchedule.StopTime currentStop = stopTimes.get(i);
-            float currentStopArrival = (float) currentStop.arrivalTime;
+        if (!schedule.hasSortedArrivals()) {
+            return scanBusSegment(line, schedule, preciseCurrentTime);
+        }
+
+        // The first stop reached less than one dwell time ago is where the bus waits
+        int waitingIndex = schedule.countArrivalsAtOrBefore(preciseCurrentTime - STOP_WAIT_TIME_MINUTES);
+        int lastArrived = schedule.countArrivalsAtOrBefore(preciseCurrentTime) - 1;
+
+        if (lastArrived < 0) return null;
+
+        if (waitingIndex <= lastArrived) {
+            float currentStopArrival = (float) schedule.getArrivalTime(waitingIndex);
+            float waitProgress = (preciseCurrentTime - currentStopArrival) / STOP_WAIT_TIME_MINUTES;
+            waitProgress = Math.max(0f, Math.min(1f, waitProgress));
+
+            return new ActiveBusInfo(line, schedule, waitingIndex, waitingIndex,
+                waitProgress, 0, true);
+        }
+
+        if (lastArrived >= stopCount - 1) return null;
+
+        return travellingBetween(line, schedule, lastArrived, preciseCurrentTime);
+    }
+
+    /**
+     * Linear fallback for schedules whose arrival times are not in order.
+     */
+    private static ActiveBusInfo scanBusSegment(BusLine line,
+                                                BusSchedule schedule,
+                                                float preciseCurrentTime) {
+        int stopCount = schedule.getStopCount();
+
+        for (int i = 0; i < stopCount; i++) {
+            float currentStopArrival = (float) schedule.getArrivalTime(i);
             float currentStopDeparture = currentStopArrival + STOP_WAIT_TIME_MINUTES;
 
             if (preciseCurrentTime >= currentStopArrival && preciseCurrentTime < currentStopDeparture) {
@@ -137,21 +122,11 @@ public class BusPositionCalculator {
                     waitProgress, 0, true);
             }
 
-            if (i < stopTimes.size() - 1) {
-                BusSchedule.StopTime nextStop = stopTimes.get(i + 1);
-                float nextStopArrival = (float) nextStop.arrivalTime;
+            if (i < stopCount - 1) {
+                float nextStopArrival = (float) schedule.getArrivalTime(i + 1);
 
                 if (preciseCurrentTime >= currentStopDeparture && preciseCurrentTime < nextStopArrival) {
-                    float travelTime = nextStopArrival - currentStopDeparture;
-                    float elapsedTravelTime = preciseCurrentTime - currentStopDeparture;
-
-                    float progress = travelTime > 0 ? elapsedTravelTime / travelTime : 1f;
-                    progress = Math.max(0f, Math.min(1f, progress));
-
-                    int minutesUntilNext = (int) Math.ceil(nextStopArrival - preciseCurrentTime);
-
-                    return new ActiveBusInfo(line, schedule, i, i + 1,
-                        progress, minutesUntilNext, false);
+                    return travellingBetween(line, schedule, i, preciseCurrentTime);
                 }
             }
         }
@@ -159,6 +134,23 @@ public class BusPositionCalculator {
         return null;
     }
 
+    private static ActiveBusInfo travellingBetween(BusLine line, BusSchedule schedule,
+                                                   int stopIndex, float preciseCurrentTime) {
+        float currentStopDeparture = (float) schedule.getArrivalTime(stopIndex) + STOP_WAIT_TIME_MINUTES;
+        float nextStopArrival = (float) schedule.getArrivalTime(stopIndex + 1);
+
+        float travelTime = nextStopArrival - currentStopDeparture;
+        float elapsedTravelTime = preciseCurrentTime - currentStopDeparture;
+
+        float progress = travelTime > 0 ? elapsedTravelTime / travelTime : 1f;
+        progress = Math.max(0f, Math.min(1f, progress));
+
+        int minutesUntilNext = (int) Math.ceil(nextStopArrival - preciseCurrentTime);
+
+        return new ActiveBusInfo(line, schedule, stopIndex, stopIndex + 1,
+            progress, minutesUntilNext, false);
+    }
+
     public static String formatTime(int minutes) {
         int hours = minutes / 60;
         int mins = minutes % 60;
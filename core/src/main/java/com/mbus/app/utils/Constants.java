@@ -10,4 +10,17 @@ public class Constants {
     public static final int MAP_HEIGHT = MapRasterTiles.TILE_SIZE * NUM_TILES;
     public static final float HUD_WIDTH = 5f;
     public static final int HUD_HEIGHT = Gdx.graphics.getHeight();
+    // Resolve hover and taps through the offscreen colour-ID buffer instead of CPU hit-testing (optional)
+    public static final boolean GPU_PICKING = false;
+    // GTFS-Realtime vehicle positions endpoint; null leaves positions to the schedule
+    public static final String GTFS_RT_URL = null;
+    // Recorded feed messages (*.pb) replayed through a local server instead of GTFS_RT_URL
+    public static final String GTFS_RT_REPLAY_DIR = "data/gtfs-rt";
+    public static final long GTFS_RT_POLL_INTERVAL_MILLIS = 15000L;
+    // Binary snapshot of the loaded timetable, mapped on later starts; null always loads from source
+    public static final String TIMETABLE_SNAPSHOT = "cache/timetable.bin";
+    // How often the data files are checked for changes to reload; 0 turns reloading off
+    public static final long DATA_WATCH_INTERVAL_MILLIS = 2000L;
+    // Travel time covered by the reachability overlay of a stop
+    public static final int ISOCHRONE_BUDGET_MINUTES = 30;
 }
@@ -0,0 +1,49 @@
+package com.mbus.app;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Stands in for the libGDX application in tests of code that logs through
+ * {@code Gdx.app}. Log and error calls go to the console; everything else
+ * returns a default value.
+ */
+public final class TestGdx {
+
+    private TestGdx() {
+    }
+
+    public static void install() {
+        if (Gdx.app != null) return;
+
+        Gdx.app = (Application) Proxy.newProxyInstance(TestGdx.class.getClassLoader(),
+            new Class[]{Application.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("log") || name.equals("error")) {
+                        System.out.println(args[0] + ": " + args[1]);
+                        if (args.length > 2 && args[2] instanceof Throwable) {
+                            ((Throwable) args[2]).printStackTrace(System.out);
+                        }
+                    } else if (name.equals("postRunnable")) {
+                        ((Runnable) args[0]).run();
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) return false;
+        if (type == int.class) return 0;
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        if (type == double.class) return 0.0;
+        return null;
+    }
+}
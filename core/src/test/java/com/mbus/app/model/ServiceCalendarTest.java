@@ -0,0 +1,150 @@
+package com.mbus.app.model;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceCalendarTest {
+
+    // Monday
+    private static final long JAN_6_2025 = ServiceCalendar.epochDay(2025, 1, 6);
+
+    @Test
+    public void epochDayMatchesGregorianCalendar() {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(1896, Calendar.JANUARY, 1);
+        long day = calendar.getTimeInMillis() / (24L * 60L * 60L * 1000L);
+
+        // Covers 1900 and 2100 (not leap years) and 2000 (leap year)
+        while (calendar.get(Calendar.YEAR) < 2104) {
+            int year = calendar.get(Calendar.YEAR);
+            int month = calendar.get(Calendar.MONTH) + 1;
+            int date = calendar.get(Calendar.DAY_OF_MONTH);
+
+            assertEquals(day, ServiceCalendar.epochDay(year, month, date));
+            assertEquals(day, ServiceCalendar.epochDay(year * 10000 + month * 100 + date));
+            assertEquals(String.format("%04d-%02d-%02d", year, month, date), ServiceCalendar.formatDate(day));
+            // Calendar counts Sunday = 1 .. Saturday = 7
+            assertEquals((calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7, ServiceCalendar.dayOfWeek(day));
+
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            day++;
+        }
+    }
+
+    @Test
+    public void weeklyRunsServicesByDayOfWeek() {
+        ServiceCalendar calendar = ServiceCalendar.weekly(JAN_6_2025);
+
+        for (int i = 0; i < 7; i++) {
+            long day = JAN_6_2025 + i;
+            ServiceDay serviceDay = calendar.resolve(day);
+            assertEquals(i < 5, serviceDay.isActive(ServiceCalendar.WEEKDAY_SERVICE));
+            assertEquals(i == 5, serviceDay.isActive(ServiceCalendar.SATURDAY_SERVICE));
+            assertEquals(i == 6, serviceDay.isActive(ServiceCalendar.SUNDAY_SERVICE));
+            assertEquals(ServiceCalendar.dayType(i), serviceDay.dayType);
+            assertEquals(1, serviceDay.getActiveServiceCount());
+        }
+    }
+
+    @Test
+    public void holidaysRunSundayService() {
+        ServiceCalendar calendar = ServiceCalendar.weekly(JAN_6_2025);
+
+        long[] holidays = {
+            ServiceCalendar.epochDay(2025, 1, 1),
+            ServiceCalendar.epochDay(2025, 4, 21),   // Easter Monday
+            ServiceCalendar.epochDay(2025, 6, 25),
+            ServiceCalendar.epochDay(2024, 4, 1),    // Easter Monday
+            ServiceCalendar.epochDay(2026, 4, 6),    // Easter Monday
+            ServiceCalendar.epochDay(2026, 12, 25)
+        };
+        for (long day : holidays) {
+            assertTrue(ServiceCalendar.formatDate(day), calendar.isHoliday(day));
+            ServiceDay serviceDay = calendar.resolve(day);
+            assertFalse(serviceDay.isActive(ServiceCalendar.WEEKDAY_SERVICE));
+            assertFalse(serviceDay.isActive(ServiceCalendar.SATURDAY_SERVICE));
+            assertTrue(serviceDay.isActive(ServiceCalendar.SUNDAY_SERVICE));
+            assertEquals(2, serviceDay.dayType);
+        }
+
+        // Easter Sunday is a Sunday anyway, the Tuesday after it a workday
+        assertFalse(calendar.isHoliday(ServiceCalendar.epochDay(2025, 4, 22)));
+        assertTrue(calendar.resolve(ServiceCalendar.epochDay(2025, 4, 22)).isActive(ServiceCalendar.WEEKDAY_SERVICE));
+    }
+
+    @Test
+    public void exceptionsOverrideWeeklyPattern() {
+        ServiceCalendar.Builder builder = new ServiceCalendar.Builder();
+        int regular = builder.addService("regular");
+        int special = builder.addService("special");
+        builder.setWeekly(regular, JAN_6_2025, JAN_6_2025 + 27, 0x1F);
+        builder.addException(regular, JAN_6_2025 + 2, false);
+        builder.addException(special, JAN_6_2025 + 2, true);
+        // Saturday added to the regular service
+        builder.addException(regular, JAN_6_2025 + 12, true);
+        ServiceCalendar calendar = builder.build(JAN_6_2025);
+
+        assertTrue(calendar.isActive(regular, JAN_6_2025 + 1));
+        assertFalse(calendar.isActive(regular, JAN_6_2025 + 2));
+        assertTrue(calendar.isActive(special, JAN_6_2025 + 2));
+        assertFalse(calendar.isActive(special, JAN_6_2025 + 3));
+        assertTrue(calendar.isActive(regular, JAN_6_2025 + 12));
+        assertFalse(calendar.isActive(regular, JAN_6_2025 + 13));
+
+        BitSet active = calendar.getActiveDays(regular);
+        assertEquals(4 * 5 - 1 + 1, active.cardinality());
+    }
+
+    @Test
+    public void outsideCompiledRangeFallsBackToWeekdays() {
+        ServiceCalendar.Builder builder = new ServiceCalendar.Builder();
+        int service = builder.addService("weekend");
+        builder.setWeekly(service, JAN_6_2025, JAN_6_2025 + 6, 0x60);
+        ServiceCalendar calendar = builder.build(JAN_6_2025);
+
+        long later = JAN_6_2025 + 7 * 100;
+        assertFalse(calendar.covers(later));
+        assertFalse(calendar.isActive(service, later));
+        assertTrue(calendar.isActive(service, later + 5));
+        assertTrue(calendar.isActive(service, later + 6));
+        assertFalse(calendar.isActive(service + 1, later + 5));
+    }
+
+    @Test
+    public void buildKeepsRangeAroundToday() {
+        ServiceCalendar.Builder builder = new ServiceCalendar.Builder();
+        int service = builder.addService("always");
+        builder.setWeekly(service, ServiceCalendar.epochDay(19700101), ServiceCalendar.epochDay(99991231), 0x7F);
+        ServiceCalendar calendar = builder.build(JAN_6_2025);
+
+        assertTrue(calendar.covers(JAN_6_2025));
+        assertTrue(calendar.covers(JAN_6_2025 - 300));
+        assertTrue(calendar.covers(JAN_6_2025 + 700));
+        assertTrue(calendar.getDayCount() <= 3 * 366);
+    }
+
+    @Test
+    public void serviceDaysWithSameServicesAreEqual() {
+        ServiceCalendar calendar = ServiceCalendar.weekly(JAN_6_2025);
+
+        ServiceDay monday = calendar.resolve(JAN_6_2025);
+        ServiceDay tuesday = calendar.resolve(JAN_6_2025 + 1);
+        ServiceDay sunday = calendar.resolve(JAN_6_2025 + 6);
+        ServiceDay holiday = calendar.resolve(ServiceCalendar.epochDay(2025, 5, 1));
+
+        assertEquals(monday, tuesday);
+        assertEquals(monday.hashCode(), tuesday.hashCode());
+        assertNotEquals(monday, sunday);
+        assertEquals(sunday, holiday);
+    }
+}
@@ -0,0 +1,174 @@
+package com.mbus.app.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StopDepartureIndexTest {
+
+    private static final int STOP_COUNT = 30;
+    private static final int SERVICE_COUNT = 3;
+
+    @Test
+    public void matchesScanOfAllSchedules() {
+        Random random = new Random(44);
+        List<BusLine> lines = createLines(random);
+        StopDepartureIndex index = new StopDepartureIndex(lines);
+
+        long arrivals = 0L;
+        int trips = 0;
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                arrivals += schedule.getStopCount();
+                trips++;
+            }
+        }
+        assertEquals(trips, index.getTripCount());
+        assertEquals(arrivals, index.getArrivalCount());
+
+        for (int services = 0; services < 1 << SERVICE_COUNT; services++) {
+            ServiceDay day = day(services);
+            for (int stopId = 0; stopId <= STOP_COUNT; stopId++) {
+                for (int fromTime = 4 * 60; fromTime < 26 * 60; fromTime += 37) {
+                    List<BusStop.StopArrival> expected = scan(lines, new int[]{stopId}, day, fromTime);
+                    List<BusStop.StopArrival> found = index.getUpcomingArrivals(stopId, day, fromTime, 8);
+
+                    assertEquals(describe(expected.subList(0, Math.min(8, expected.size()))), describe(found));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void mergesSeveralStopsInTimeOrder() {
+        Random random = new Random(45);
+        List<BusLine> lines = createLines(random);
+        StopDepartureIndex index = new StopDepartureIndex(lines);
+        ServiceDay day = day(0x3);
+
+        for (int round = 0; round < 200; round++) {
+            // The stops of a marker cluster, so no stop twice
+            int first = random.nextInt(STOP_COUNT - 2);
+            int[] stopIds = {first, first + 1 + random.nextInt(STOP_COUNT - first - 2), STOP_COUNT - 1};
+            int fromTime = 5 * 60 + random.nextInt(18 * 60);
+            int maxResults = 1 + random.nextInt(20);
+
+            List<BusStop.StopArrival> expected = scan(lines, stopIds, day, fromTime);
+            // A trip may pass a stop twice in one minute, so arrivals can repeat
+            List<String> unmatched = describe(expected);
+            List<BusStop.StopArrival> found = index.getUpcomingArrivals(stopIds, day, fromTime, maxResults);
+
+            assertEquals(Math.min(maxResults, expected.size()), found.size());
+            for (int i = 0; i < found.size(); i++) {
+                // Arrivals at the same minute may come in any order
+                assertEquals(expected.get(i).arrivalTime, found.get(i).arrivalTime);
+                String arrival = describe(found.get(i));
+                assertTrue(arrival, unmatched.remove(arrival));
+            }
+        }
+    }
+
+    @Test
+    public void unknownStopHasNoArrivals() {
+        StopDepartureIndex index = new StopDepartureIndex(createLines(new Random(46)));
+        assertEquals(0, index.getUpcomingArrivals(-5, day(0x7), 0, 10).size());
+        assertEquals(0, index.getUpcomingArrivals(new int[0], day(0x7), 0, 10).size());
+    }
+
+    private static List<BusLine> createLines(Random random) {
+        List<BusLine> lines = new ArrayList<BusLine>();
+        int scheduleId = 0;
+        for (int lineId = 1; lineId <= 6; lineId++) {
+            // Stops in the order the line serves them; a stop may be visited twice
+            int stopCount = 4 + random.nextInt(10);
+            int[] route = new int[stopCount];
+            for (int i = 0; i < stopCount; i++) {
+                route[i] = random.nextInt(STOP_COUNT);
+            }
+
+            List<BusSchedule> schedules = new ArrayList<BusSchedule>();
+            for (int trip = 0; trip < 60; trip++) {
+                int departure = 4 * 60 + random.nextInt(20 * 60);
+                List<BusSchedule.StopTime> stopTimes = new ArrayList<BusSchedule.StopTime>();
+                int time = departure;
+                for (int i = 0; i < stopCount; i++) {
+                    stopTimes.add(new BusSchedule.StopTime(route[i], i + 1, time));
+                    time += random.nextInt(4);
+                }
+                schedules.add(new BusSchedule(scheduleId++, lineId, 1, 1,
+                    random.nextInt(SERVICE_COUNT), departure, stopTimes));
+            }
+
+            lines.add(new BusLine(lineId, 1, 1, 0, String.valueOf(lineId), null, null, null,
+                Collections.<Geolocation>emptyList(), null, null, schedules));
+        }
+        return lines;
+    }
+
+    private static ServiceDay day(int services) {
+        BitSet bits = new BitSet();
+        for (int i = 0; i < SERVICE_COUNT; i++) {
+            if ((services & (1 << i)) != 0) bits.set(i);
+        }
+        return new ServiceDay(0L, 0, bits);
+    }
+
+    // Every arrival at the stops from fromTime on, by time, then line and schedule order
+    private static List<BusStop.StopArrival> scan(List<BusLine> lines, int[] stopIds, ServiceDay day, int fromTime) {
+        final List<BusStop.StopArrival> arrivals = new ArrayList<BusStop.StopArrival>();
+        final List<Integer> order = new ArrayList<Integer>();
+        int tripOrder = 0;
+        for (BusLine line : lines) {
+            for (BusSchedule schedule : line.getSchedules()) {
+                tripOrder++;
+                if (!day.runs(schedule)) continue;
+                for (int i = 0; i < schedule.getStopCount(); i++) {
+                    for (int stopId : stopIds) {
+                        if (schedule.getStopId(i) == stopId && schedule.getArrivalTime(i) >= fromTime) {
+                            arrivals.add(new BusStop.StopArrival(line, schedule, schedule.getArrivalTime(i), stopId));
+                            order.add(tripOrder);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Integer> indices = new ArrayList<Integer>();
+        for (int i = 0; i < arrivals.size(); i++) {
+            indices.add(i);
+        }
+        Collections.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byTime = Integer.compare(arrivals.get(a).arrivalTime, arrivals.get(b).arrivalTime);
+                return byTime != 0 ? byTime : Integer.compare(order.get(a), order.get(b));
+            }
+        });
+
+        List<BusStop.StopArrival> sorted = new ArrayList<BusStop.StopArrival>();
+        for (int i : indices) {
+            sorted.add(arrivals.get(i));
+        }
+        return sorted;
+    }
+
+    private static List<String> describe(List<BusStop.StopArrival> arrivals) {
+        List<String> result = new ArrayList<String>();
+        for (BusStop.StopArrival arrival : arrivals) {
+            result.add(describe(arrival));
+        }
+        return result;
+    }
+
+    private static String describe(BusStop.StopArrival arrival) {
+        return arrival.arrivalTime + "/" + arrival.line.lineId + "/" + arrival.schedule.scheduleId + "/" + arrival.stopId;
+    }
+}
@@ -0,0 +1,97 @@
+package com.mbus.app.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TripIndexTest {
+
+    @Test
+    public void matchesScanOfAllTrips() {
+        Random random = new Random(34);
+        List<BusSchedule> schedules = new ArrayList<BusSchedule>();
+        for (int id = 0; id < 400; id++) {
+            int departure = 4 * 60 + random.nextInt(21 * 60);
+            // Mostly short trips, a few long ones that widen the search window
+            int duration = random.nextInt(10) == 0 ? 60 + random.nextInt(120) : random.nextInt(45);
+            schedules.add(schedule(id, departure, 2 + random.nextInt(20), duration));
+        }
+        TripIndex index = new TripIndex(schedules);
+        assertEquals(schedules.size(), index.size());
+
+        for (float padding : new float[]{0f, 0.5f, 5f}) {
+            for (float time = 3 * 60; time < 27 * 60; time += 0.25f) {
+                List<BusSchedule> found = new ArrayList<BusSchedule>();
+                index.findActive(time, padding, found);
+
+                List<BusSchedule> expected = new ArrayList<BusSchedule>();
+                for (BusSchedule schedule : schedules) {
+                    if (schedule.departureTime <= time && time <= schedule.getFinalArrivalTime() + padding) {
+                        expected.add(schedule);
+                    }
+                }
+
+                assertEquals("at " + time, ids(expected), ids(found));
+            }
+        }
+    }
+
+    @Test
+    public void includesBothEndsOfTrip() {
+        BusSchedule trip = schedule(1, 8 * 60, 3, 20);
+        TripIndex index = new TripIndex(Collections.singletonList(trip));
+
+        assertEquals(0, active(index, 8 * 60 - 0.01f, 1f).size());
+        assertSame(trip, active(index, 8 * 60, 1f).get(0));
+        assertSame(trip, active(index, 8 * 60 + 21, 1f).get(0));
+        assertEquals(0, active(index, 8 * 60 + 21.01f, 1f).size());
+    }
+
+    @Test
+    public void skipsTripsWithoutTwoStops() {
+        List<BusSchedule> schedules = new ArrayList<BusSchedule>();
+        schedules.add(schedule(1, 8 * 60, 1, 0));
+        schedules.add(schedule(2, 8 * 60, 2, 10));
+        TripIndex index = new TripIndex(schedules);
+
+        assertEquals(1, index.size());
+        assertEquals(2, active(index, 8 * 60 + 5, 0f).get(0).scheduleId);
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        TripIndex index = new TripIndex(Collections.<BusSchedule>emptyList());
+        assertEquals(0, index.size());
+        assertEquals(0, active(index, 12 * 60, 5f).size());
+    }
+
+    private static List<BusSchedule> active(TripIndex index, float time, float padding) {
+        List<BusSchedule> found = new ArrayList<BusSchedule>();
+        index.findActive(time, padding, found);
+        return found;
+    }
+
+    private static BusSchedule schedule(int id, int departure, int stops, int duration) {
+        List<BusSchedule.StopTime> stopTimes = new ArrayList<BusSchedule.StopTime>();
+        for (int i = 0; i < stops; i++) {
+            int arrival = stops > 1 ? departure + duration * i / (stops - 1) : departure;
+            stopTimes.add(new BusSchedule.StopTime(100 + i, i + 1, arrival));
+        }
+        return new BusSchedule(id, 1, 1, 1, 0, departure, stopTimes);
+    }
+
+    private static List<Integer> ids(List<BusSchedule> schedules) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (BusSchedule schedule : schedules) {
+            ids.add(schedule.scheduleId);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
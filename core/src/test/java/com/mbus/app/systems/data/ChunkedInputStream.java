@@ -0,0 +1,27 @@
+package com.mbus.app.systems.data;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Returns at most {@code chunkSize} bytes per read, so tokens are split
+ * across refills of the reader's buffer.
+ */
+class ChunkedInputStream extends ByteArrayInputStream {
+
+    private final int chunkSize;
+
+    ChunkedInputStream(byte[] data, int chunkSize) {
+        super(data);
+        this.chunkSize = chunkSize;
+    }
+
+    ChunkedInputStream(String data, int chunkSize) {
+        this(data.getBytes(Charset.forName("UTF-8")), chunkSize);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, chunkSize));
+    }
+}
@@ -0,0 +1,174 @@
+package com.mbus.app.systems.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CsvReaderTest {
+
+    // Every chunking from one byte per read up to the whole input at once
+    private static final int[] CHUNK_SIZES = {1, 2, 3, 7, 64, Integer.MAX_VALUE};
+
+    @Test
+    public void readsHeaderAndRecords() throws IOException {
+        String csv = "﻿stop_id, stop_name ,stop_lat\r\n" +
+            "1,Glavni trg,46.5575\r\n" +
+            "\r\n" +
+            "2,Tabor  ,46.5500\n" +
+            "3,,\r" +
+            "4,Europark,46.55";
+
+        for (int chunkSize : CHUNK_SIZES) {
+            CsvReader reader = new CsvReader(new ChunkedInputStream(csv, chunkSize));
+            assertTrue(reader.readHeader());
+            assertEquals(0, reader.column("stop_id"));
+            assertEquals(1, reader.column("stop_name"));
+            assertEquals(2, reader.column("stop_lat"));
+            assertEquals(-1, reader.column("stop_code"));
+
+            List<String> records = readAll(reader);
+            assertEquals(Arrays.asList(
+                "1|Glavni trg|46.5575",
+                "2|Tabor|46.5500",
+                "3||",
+                "4|Europark|46.55"
+            ), records);
+            assertEquals(4, reader.getRecordCount());
+        }
+    }
+
+    @Test
+    public void unescapesQuotedFields() throws IOException {
+        String csv = "id,name,note\n" +
+            "1,\"Trg, Leona\",\"say \"\"hi\"\"\"\n" +
+            "2,\"two\nlines\",\"\"\n" +
+            "3,\"\"\"\",\"x\"trailing\n" +
+            "4,\"Žička\",\"čćš\"\n";
+
+        for (int chunkSize : CHUNK_SIZES) {
+            CsvReader reader = new CsvReader(new ChunkedInputStream(csv, chunkSize));
+            assertTrue(reader.readHeader());
+
+            assertEquals(Arrays.asList(
+                "1|Trg, Leona|say \"hi\"",
+                "2|two\nlines|",
+                "3|\"|x",
+                "4|Žička|čćš"
+            ), readAll(reader));
+        }
+    }
+
+    @Test
+    public void parsesNumbersAndTimes() throws IOException {
+        String csv = "a,b,c,d\n" +
+            "42,-7,3.25,08:05:30\n" +
+            "x,,1e3,25:59:00\n" +
+            "2147483648,-,abc, 7:30:00\n" +
+            "1,-2147483648,3,8:5\n";
+
+        CsvReader reader = new CsvReader(new ChunkedInputStream(csv, 3));
+        assertTrue(reader.readHeader());
+
+        assertTrue(reader.next());
+        assertEquals(42, reader.getInt(0, -1));
+        assertEquals(-7, reader.getInt(1, -1));
+        assertEquals(3.25, reader.getDouble(2, -1), 0.0);
+        assertEquals(8 * 60 + 5, reader.getTimeMinutes(3));
+
+        assertTrue(reader.next());
+        assertEquals(-1, reader.getInt(0, -1));
+        assertEquals(-1, reader.getInt(1, -1));
+        assertTrue(reader.isEmpty(1));
+        assertEquals(1000.0, reader.getDouble(2, -1), 0.0);
+        assertEquals(25 * 60 + 59, reader.getTimeMinutes(3));
+
+        assertTrue(reader.next());
+        assertEquals(-1, reader.getInt(0, -1));
+        assertEquals(-1, reader.getInt(1, -1));
+        assertEquals(-1, reader.getDouble(2, -1), 0.0);
+        assertEquals(7 * 60 + 30, reader.getTimeMinutes(3));
+
+        assertTrue(reader.next());
+        assertEquals(Integer.MIN_VALUE, reader.getInt(1, -1));
+        assertEquals(-1, reader.getTimeMinutes(3));
+        assertEquals(-1, reader.getTimeMinutes(9));
+
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void growsBufferForLongRecords() throws IOException {
+        char[] longValue = new char[200 * 1024];
+        Arrays.fill(longValue, 'x');
+        String value = new String(longValue);
+
+        StringBuilder csv = new StringBuilder("id,value\n");
+        csv.append("1,\"").append(value).append("\"\n");
+        for (int i = 2; i < 5000; i++) {
+            csv.append(i).append(",v").append(i).append('\n');
+        }
+
+        CsvReader reader = new CsvReader(new ChunkedInputStream(csv.toString(), 4096));
+        assertTrue(reader.readHeader());
+        assertTrue(reader.next());
+        assertEquals(value, reader.getString(1));
+        for (int i = 2; i < 5000; i++) {
+            assertTrue(reader.next());
+            assertEquals(i, reader.getInt(0, -1));
+            assertEquals("v" + i, reader.getString(1));
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void comparesAndLooksUpFieldsWithoutStrings() throws IOException {
+        ByteStringMap ids = new ByteStringMap(4);
+        ids.put("A1", 10);
+        ids.put("Č2", 20);
+
+        CsvReader reader = new CsvReader(stream("trip_id,stop_id\nT1,A1\nT1,Č2\nT2,B3\n"));
+        assertTrue(reader.readHeader());
+
+        byte[] previous = new byte[1];
+        int previousLength = -1;
+        List<String> starts = new ArrayList<String>();
+        List<Integer> stops = new ArrayList<Integer>();
+        while (reader.next()) {
+            if (!reader.fieldEquals(0, previous, previousLength)) {
+                starts.add(reader.getString(0));
+                previous = reader.copyField(0, previous);
+                previousLength = reader.fieldLength(0);
+            }
+            stops.add(reader.lookup(ids, 1));
+        }
+
+        assertEquals(Arrays.asList("T1", "T2"), starts);
+        assertEquals(Arrays.asList(10, 20, -1), stops);
+    }
+
+    private static List<String> readAll(CsvReader reader) throws IOException {
+        List<String> records = new ArrayList<String>();
+        while (reader.next()) {
+            StringBuilder record = new StringBuilder();
+            for (int i = 0; i < reader.getFieldCount(); i++) {
+                if (i > 0) record.append('|');
+                record.append(reader.getString(i));
+            }
+            records.add(record.toString());
+        }
+        return records;
+    }
+
+    private static InputStream stream(String data) {
+        return new ChunkedInputStream(data.getBytes(Charset.forName("UTF-8")), Integer.MAX_VALUE);
+    }
+}
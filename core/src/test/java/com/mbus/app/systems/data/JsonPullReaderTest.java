@@ -0,0 +1,191 @@
+package com.mbus.app.systems.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonPullReaderTest {
+
+    // Every chunking from one byte per read up to the whole input at once
+    private static final int[] CHUNK_SIZES = {1, 2, 3, 7, 64, Integer.MAX_VALUE};
+
+    @Test
+    public void readsTokens() throws IOException {
+        String json = "{\"name\" : \"Tabor\", \"id\":12,\"lat\":46.55e0,\n" +
+            "\t\"flags\":[true,false,null],\"empty\":{},\"value\":\"12\"}";
+
+        for (int chunkSize : CHUNK_SIZES) {
+            JsonPullReader reader = new JsonPullReader(new ChunkedInputStream(json, chunkSize));
+
+            assertEquals(JsonPullReader.BEGIN_OBJECT, reader.next());
+            assertName(reader, "name");
+            assertEquals(JsonPullReader.STRING, reader.next());
+            assertEquals("Tabor", reader.getString());
+            assertTrue(reader.isName("Tabor"));
+
+            assertName(reader, "id");
+            assertEquals(JsonPullReader.NUMBER, reader.next());
+            assertEquals(12, reader.getInt(-1));
+            assertEquals("12", reader.getString());
+
+            assertName(reader, "lat");
+            assertEquals(JsonPullReader.NUMBER, reader.next());
+            assertEquals(46.55, reader.getDouble(-1), 0.0);
+            assertEquals(-1, reader.getInt(-1));
+
+            assertName(reader, "flags");
+            assertEquals(JsonPullReader.BEGIN_ARRAY, reader.next());
+            assertEquals(JsonPullReader.TRUE, reader.next());
+            assertEquals(JsonPullReader.FALSE, reader.next());
+            assertEquals(JsonPullReader.NULL, reader.next());
+            assertNull(reader.getString());
+            assertEquals(JsonPullReader.END_ARRAY, reader.next());
+
+            assertName(reader, "empty");
+            assertEquals(JsonPullReader.BEGIN_OBJECT, reader.next());
+            assertEquals(JsonPullReader.END_OBJECT, reader.next());
+
+            assertName(reader, "value");
+            assertEquals(JsonPullReader.STRING, reader.next());
+            assertEquals(12, reader.getInt(-1));
+
+            assertEquals(JsonPullReader.END_OBJECT, reader.next());
+            assertEquals(JsonPullReader.END_DOCUMENT, reader.next());
+            assertEquals(JsonPullReader.END_DOCUMENT, reader.getToken());
+        }
+    }
+
+    @Test
+    public void unescapesStrings() throws IOException {
+        String json = "[\"a\\\"b\\\\c\\/d\", \"\\n\\t\\r\\b\\f\", \"\\u017di\\u010dka\", " +
+            "\"\\ud83d\\ude8c bus\", \"Tr\u017ea\u0161ka\", \"\\u00e9\\\"\"]";
+
+        for (int chunkSize : CHUNK_SIZES) {
+            JsonPullReader reader = new JsonPullReader(new ChunkedInputStream(json, chunkSize));
+            assertEquals(JsonPullReader.BEGIN_ARRAY, reader.next());
+
+            assertString(reader, "a\"b\\c/d");
+            assertString(reader, "\n\t\r\b\f");
+            assertString(reader, "\u017di\u010dka");
+            assertString(reader, "\ud83d\ude8c bus");
+            assertString(reader, "Tr\u017ea\u0161ka");
+            assertString(reader, "\u00e9\"");
+
+            assertEquals(JsonPullReader.END_ARRAY, reader.next());
+            assertEquals(JsonPullReader.END_DOCUMENT, reader.next());
+        }
+    }
+
+    @Test
+    public void escapedNameIsStillAName() throws IOException {
+        JsonPullReader reader = new JsonPullReader(new ChunkedInputStream("{\"a\\u0062c\":1}", 1));
+
+        assertEquals(JsonPullReader.BEGIN_OBJECT, reader.next());
+        assertName(reader, "abc");
+        assertEquals(JsonPullReader.NUMBER, reader.next());
+    }
+
+    @Test
+    public void parsesIntegersAndTimes() throws IOException {
+        String json = "[-2147483648, 2147483647, 2147483648, -0, \"7:05\", \"25:59:00\", " +
+            "\"08:5\", \"8:60\", \"x\", 8]";
+
+        JsonPullReader reader = new JsonPullReader(new ChunkedInputStream(json, 2));
+        assertEquals(JsonPullReader.BEGIN_ARRAY, reader.next());
+
+        reader.next();
+        assertEquals(Integer.MIN_VALUE, reader.getInt(-1));
+        reader.next();
+        assertEquals(Integer.MAX_VALUE, reader.getInt(-1));
+        reader.next();
+        assertEquals(-1, reader.getInt(-1));
+        reader.next();
+        assertEquals(0, reader.getInt(-1));
+
+        reader.next();
+        assertEquals(7 * 60 + 5, reader.getTimeMinutes());
+        reader.next();
+        assertEquals(25 * 60 + 59, reader.getTimeMinutes());
+        reader.next();
+        assertEquals(-1, reader.getTimeMinutes());
+        reader.next();
+        assertEquals(-1, reader.getTimeMinutes());
+        reader.next();
+        assertEquals(-1, reader.getTimeMinutes());
+        reader.next();
+        assertEquals(-1, reader.getTimeMinutes());
+    }
+
+    @Test
+    public void skipsNestedValues() throws IOException {
+        String json = "{\"skip\":{\"a\":[1,{\"b\":\"]}\"},[]],\"c\":null},\"skipToo\":\"x\",\"keep\":3}";
+
+        for (int chunkSize : CHUNK_SIZES) {
+            JsonPullReader reader = new JsonPullReader(new ChunkedInputStream(json, chunkSize));
+            assertEquals(JsonPullReader.BEGIN_OBJECT, reader.next());
+
+            assertName(reader, "skip");
+            reader.skipValue();
+            assertName(reader, "skipToo");
+            reader.skipValue();
+            assertName(reader, "keep");
+            assertEquals(JsonPullReader.NUMBER, reader.next());
+            assertEquals(3, reader.getInt(-1));
+            assertEquals(JsonPullReader.END_OBJECT, reader.next());
+        }
+    }
+
+    @Test
+    public void growsBufferForLongStrings() throws IOException {
+        char[] chars = new char[300 * 1024];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+
+        JsonPullReader reader = new JsonPullReader(
+            new ChunkedInputStream("[\"" + value + "\",\"after\"]", 5000));
+        assertEquals(JsonPullReader.BEGIN_ARRAY, reader.next());
+        assertString(reader, value);
+        assertString(reader, "after");
+        assertEquals(JsonPullReader.END_ARRAY, reader.next());
+    }
+
+    @Test
+    public void reportsMalformedInput() {
+        assertMalformed("{\"a\":\"unterminated");
+        assertMalformed("{\"a\":tru");
+        assertMalformed("{\"a\":nope}");
+        assertMalformed("{\"a\":@}");
+        assertMalformed("[\"\\u12\"]");
+        assertMalformed("{\"a\":[1,2");
+    }
+
+    private static void assertName(JsonPullReader reader, String name) throws IOException {
+        assertEquals(JsonPullReader.NAME, reader.next());
+        assertTrue(name, reader.isName(name));
+        assertFalse(reader.isName(name + "x"));
+        assertEquals(name, reader.getString());
+    }
+
+    private static void assertString(JsonPullReader reader, String value) throws IOException {
+        assertEquals(JsonPullReader.STRING, reader.next());
+        assertEquals(value, reader.getString());
+    }
+
+    private static void assertMalformed(String json) {
+        JsonPullReader reader = new JsonPullReader(new ChunkedInputStream(json, 1));
+        try {
+            reader.next();
+            reader.skipToEnd();
+            fail("Expected an error for " + json);
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
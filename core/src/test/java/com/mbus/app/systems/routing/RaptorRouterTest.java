@@ -0,0 +1,274 @@
+package com.mbus.app.systems.routing;
+
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.Geolocation;
+import com.mbus.app.model.ServiceDay;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RaptorRouterTest {
+
+    private static final int INFINITY = Integer.MAX_VALUE;
+    private static final int GRID = 8;
+
+    private List<BusStop> stops;
+    private List<BusLine> lines;
+    private ServiceDay day;
+    private RaptorRouter router;
+    private TransitNetwork network;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(46);
+
+        // Stops on a grid 0.002 degrees (about 150 to 220 m) apart, so neighbours are in walking distance
+        stops = new ArrayList<BusStop>();
+        for (int i = 0; i < GRID * GRID; i++) {
+            stops.add(new BusStop(1000 + i, "", "Stop " + i, 0, 0,
+                new Geolocation(46.5 + (i / GRID) * 0.002, 15.6 + (i % GRID) * 0.002)));
+        }
+
+        lines = new ArrayList<BusLine>();
+        int scheduleId = 0;
+        for (int lineId = 1; lineId <= 10; lineId++) {
+            int stopCount = 4 + random.nextInt(8);
+            int[] route = randomRoute(random, stopCount);
+
+            List<BusSchedule> schedules = new ArrayList<BusSchedule>();
+            for (int trip = 0; trip < 25; trip++) {
+                int departure = 5 * 60 + random.nextInt(16 * 60);
+                List<BusSchedule.StopTime> stopTimes = new ArrayList<BusSchedule.StopTime>();
+                int time = departure;
+                for (int i = 0; i < stopCount; i++) {
+                    stopTimes.add(new BusSchedule.StopTime(stops.get(route[i]).idAvpost, i + 1, time));
+                    // Varying speeds make some trips overtake others
+                    time += 1 + random.nextInt(6);
+                }
+                // One in five trips runs on a service that isn't running
+                int service = random.nextInt(5) == 0 ? 1 : 0;
+                schedules.add(new BusSchedule(scheduleId++, lineId, 1, 1, service, departure, stopTimes));
+            }
+
+            lines.add(new BusLine(lineId, 1, 1, 0, String.valueOf(lineId), null, null, null,
+                Collections.<Geolocation>emptyList(), null, null, schedules));
+        }
+
+        BitSet services = new BitSet();
+        services.set(0);
+        day = new ServiceDay(0L, 0, services);
+
+        router = new RaptorRouter(stops, lines);
+        network = router.getNetwork(day);
+    }
+
+    @Test
+    public void findsEarliestArrivalWithFewestRides() {
+        Random random = new Random(47);
+        int routed = 0;
+
+        for (int query = 0; query < 300; query++) {
+            BusStop origin = stops.get(random.nextInt(stops.size()));
+            BusStop destination = stops.get(random.nextInt(stops.size()));
+            int departureTime = 5 * 60 + random.nextInt(17 * 60);
+
+            int[][] expected = bruteForce(network.indexOf(origin.idAvpost), departureTime);
+            int to = network.indexOf(destination.idAvpost);
+            int bestArrival = INFINITY;
+            int fewestRides = -1;
+            for (int k = 0; k <= RaptorRouter.MAX_ROUNDS; k++) {
+                if (expected[k][to] < bestArrival) {
+                    bestArrival = expected[k][to];
+                    fewestRides = k;
+                }
+            }
+
+            Journey journey = router.route(origin, destination, departureTime, day);
+            String description = origin.idAvpost + " -> " + destination.idAvpost + " at " + departureTime;
+            if (bestArrival == INFINITY) {
+                assertNull(description, journey);
+                continue;
+            }
+
+            assertNotNull(description, journey);
+            assertEquals(description, bestArrival, journey.arrivalTime);
+            assertEquals(description, fewestRides, journey.getRideCount());
+            assertConsistent(journey, departureTime);
+            if (journey.getRideCount() > 0) routed++;
+        }
+
+        assertTrue("only " + routed + " journeys used a bus", routed > 100);
+    }
+
+    @Test
+    public void arrivalsFromMatchBruteForce() {
+        Random random = new Random(48);
+        int[] arrivals = new int[network.getStopCount()];
+
+        for (int query = 0; query < 50; query++) {
+            BusStop origin = stops.get(random.nextInt(stops.size()));
+            int departureTime = 5 * 60 + random.nextInt(17 * 60);
+            int latestArrival = random.nextBoolean() ? INFINITY : departureTime + random.nextInt(90);
+
+            int[][] expected = bruteForce(network.indexOf(origin.idAvpost), departureTime);
+            router.arrivalsFrom(origin, departureTime, latestArrival, day, arrivals);
+
+            for (int stop = 0; stop < network.getStopCount(); stop++) {
+                int best = INFINITY;
+                for (int k = 0; k <= RaptorRouter.MAX_ROUNDS; k++) {
+                    best = Math.min(best, expected[k][stop]);
+                }
+                if (best > latestArrival) best = INFINITY;
+                assertEquals("stop " + stop, best, arrivals[stop]);
+            }
+        }
+    }
+
+    @Test
+    public void sameStopIsAnEmptyJourney() {
+        BusStop stop = stops.get(3);
+        Journey journey = router.route(stop, stop, 8 * 60, day);
+
+        assertEquals(8 * 60, journey.arrivalTime);
+        assertEquals(0, journey.getLegs().size());
+    }
+
+    @Test
+    public void unknownStopHasNoJourney() {
+        BusStop unknown = new BusStop(1, "", "Elsewhere", 0, 0, new Geolocation(46.0, 15.0));
+        assertNull(router.route(unknown, stops.get(0), 8 * 60, day));
+        assertNull(router.route(stops.get(0), unknown, 8 * 60, day));
+    }
+
+    @Test
+    public void reusesNetworkPerServiceDay() {
+        BitSet services = new BitSet();
+        services.set(0);
+        assertSame(network, router.getNetwork(new ServiceDay(7L, 1, services)));
+    }
+
+    // Earliest arrival at every stop with exactly k rides (index [k][stop]), ending with an optional walk
+    private int[][] bruteForce(int origin, int departureTime) {
+        int stopCount = network.getStopCount();
+        int[][] arrivals = new int[RaptorRouter.MAX_ROUNDS + 1][stopCount];
+        int[] rides = new int[stopCount];
+
+        Arrays.fill(rides, INFINITY);
+        rides[origin] = departureTime;
+        walk(rides, arrivals[0]);
+
+        for (int k = 1; k <= RaptorRouter.MAX_ROUNDS; k++) {
+            Arrays.fill(rides, INFINITY);
+            int slack = k > 1 ? 1 : 0;
+            for (BusLine line : lines) {
+                for (BusSchedule trip : line.getSchedules()) {
+                    if (!day.runs(trip)) continue;
+
+                    int boardable = INFINITY;
+                    for (int i = 0; i < trip.getStopCount(); i++) {
+                        int stop = network.indexOf(trip.getStopId(i));
+                        int time = trip.getArrivalTime(i);
+                        if (boardable != INFINITY) {
+                            rides[stop] = Math.min(rides[stop], time);
+                        }
+                        int previous = arrivals[k - 1][stop];
+                        if (previous != INFINITY && previous + slack <= time) {
+                            boardable = time;
+                        }
+                    }
+                }
+            }
+            walk(rides, arrivals[k]);
+        }
+        return arrivals;
+    }
+
+    private void walk(int[] rides, int[] out) {
+        System.arraycopy(rides, 0, out, 0, rides.length);
+        for (int stop = 0; stop < rides.length; stop++) {
+            if (rides[stop] == INFINITY) continue;
+            for (int j = network.transferStart[stop]; j < network.transferStart[stop + 1]; j++) {
+                int target = network.transferTargets[j];
+                out[target] = Math.min(out[target], rides[stop] + network.transferMinutes[j]);
+            }
+        }
+    }
+
+    private void assertConsistent(Journey journey, int departureTime) {
+        BusStop at = journey.origin;
+        int time = departureTime;
+        int rides = 0;
+
+        for (Journey.Leg leg : journey.getLegs()) {
+            assertSame(at, leg.from);
+            if (leg.isWalk()) {
+                assertEquals(footpathMinutes(leg.from, leg.to), leg.arrivalTime - leg.departureTime);
+                assertTrue(leg.departureTime >= time);
+            } else {
+                assertTrue(day.runs(leg.schedule));
+                assertTrue(leg.fromIndex < leg.toIndex);
+                assertEquals(leg.from.idAvpost, leg.schedule.getStopId(leg.fromIndex));
+                assertEquals(leg.to.idAvpost, leg.schedule.getStopId(leg.toIndex));
+                assertEquals(leg.schedule.getArrivalTime(leg.fromIndex), leg.departureTime);
+                assertEquals(leg.schedule.getArrivalTime(leg.toIndex), leg.arrivalTime);
+                assertEquals(leg.schedule.lineId, leg.line.lineId);
+                assertTrue(leg.departureTime >= time + (rides > 0 ? 1 : 0));
+                rides++;
+            }
+            at = leg.to;
+            time = leg.arrivalTime;
+        }
+
+        assertSame(journey.destination, at);
+        assertEquals(journey.arrivalTime, time);
+    }
+
+    private int footpathMinutes(BusStop from, BusStop to) {
+        int a = network.indexOf(from.idAvpost);
+        int b = network.indexOf(to.idAvpost);
+        for (int j = network.transferStart[a]; j < network.transferStart[a + 1]; j++) {
+            if (network.transferTargets[j] == b) return network.transferMinutes[j];
+        }
+        return -1;
+    }
+
+    // Distinct stops, each a neighbour of the one before, so routes cross and walks connect them
+    private static int[] randomRoute(Random random, int length) {
+        int[] route = new int[length];
+        boolean[] used = new boolean[GRID * GRID];
+        int current = random.nextInt(GRID * GRID);
+        for (int i = 0; i < length; i++) {
+            route[i] = current;
+            used[current] = true;
+
+            int next = -1;
+            for (int attempt = 0; attempt < 20 && next == -1; attempt++) {
+                int row = current / GRID + random.nextInt(3) - 1;
+                int column = current % GRID + random.nextInt(3) - 1;
+                if (row < 0 || row >= GRID || column < 0 || column >= GRID) continue;
+                int candidate = row * GRID + column;
+                if (!used[candidate]) next = candidate;
+            }
+            while (next == -1 || used[next]) {
+                next = random.nextInt(GRID * GRID);
+            }
+            current = next;
+        }
+        return route;
+    }
+}
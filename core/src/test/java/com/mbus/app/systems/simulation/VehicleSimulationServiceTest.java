@@ -0,0 +1,120 @@
+package com.mbus.app.systems.simulation;
+
+import com.mbus.app.TestGdx;
+import com.mbus.app.model.BusLine;
+import com.mbus.app.model.BusSchedule;
+import com.mbus.app.model.BusStop;
+import com.mbus.app.model.Geolocation;
+import com.mbus.app.model.ServiceCalendar;
+import com.mbus.app.systems.realtime.GtfsRealtimeReplayServer;
+import com.mbus.app.systems.realtime.RealtimeVehicleFeed;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class VehicleSimulationServiceTest {
+
+    // Matched to line 6, schedule 1 (08:00) at 46.5581, 15.6450 heading north;
+    // the second vehicle is on a route that doesn't exist
+    private static final String RECORDED_MESSAGE = "/gtfs-rt/vehicle-positions-001.pb";
+
+    private GtfsRealtimeReplayServer server;
+    private RealtimeVehicleFeed feed;
+    private VehicleSimulationService simulation;
+
+    @Before
+    public void setUp() {
+        TestGdx.install();
+    }
+
+    @After
+    public void tearDown() {
+        if (simulation != null) simulation.stop();
+        if (feed != null) feed.stop();
+        if (server != null) server.stop();
+    }
+
+    @Test(timeout = 20000)
+    public void publishesLivePositionsFromReplayedFeed() throws Exception {
+        BusLine line = createLine();
+        List<BusLine> lines = Collections.singletonList(line);
+
+        SimulationClock clock = new SimulationClock();
+        clock.setServiceCalendar(dailyCalendar(clock.getEpochDay()));
+
+        server = new GtfsRealtimeReplayServer(Collections.singletonList(readResource(RECORDED_MESSAGE)));
+        server.start();
+
+        feed = new RealtimeVehicleFeed(server.getUrl(), 100L, clock);
+        feed.setLines(lines);
+        feed.start();
+
+        simulation = new VehicleSimulationService(clock);
+        simulation.setLines(lines);
+        simulation.setRealtimeFeed(feed);
+        simulation.start();
+
+        VehicleSnapshot snapshot = simulation.getFrame().current;
+        while (snapshot.size() == 0) {
+            Thread.sleep(50);
+            snapshot = simulation.getFrame().current;
+        }
+
+        assertEquals(1, snapshot.size());
+        assertSame(line, snapshot.getLine(0));
+        assertEquals(46.5581, snapshot.getLat(0), 1e-4);
+        assertEquals(15.6450, snapshot.getLng(0), 1e-4);
+        // Compass north is 90 degrees counter-clockwise from east
+        assertEquals(90f, snapshot.getHeading(0), 1e-3);
+    }
+
+    private static BusLine createLine() {
+        BusStop first = new BusStop(1, "", "First", 0, 0, new Geolocation(46.5550, 15.6450));
+        BusStop second = new BusStop(2, "", "Second", 0, 0, new Geolocation(46.5600, 15.6450));
+
+        List<BusSchedule.StopTime> stopTimes = new ArrayList<BusSchedule.StopTime>();
+        stopTimes.add(new BusSchedule.StopTime(1, 1, 8 * 60));
+        stopTimes.add(new BusSchedule.StopTime(2, 2, 8 * 60 + 5));
+        BusSchedule schedule = new BusSchedule(1, 6, 1, 1, 0, 8 * 60, stopTimes);
+
+        List<Geolocation> path = Arrays.asList(first.geo, second.geo);
+        return new BusLine(6, 1, 1, 560.0, "6", null, null, null, path, null,
+            Arrays.asList(first, second), Collections.singletonList(schedule));
+    }
+
+    private static ServiceCalendar dailyCalendar(long today) {
+        ServiceCalendar.Builder builder = new ServiceCalendar.Builder();
+        int service = builder.addService("daily");
+        builder.setWeekly(service, today - 7, today + 7, 0x7F);
+        return builder.build(today);
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = VehicleSimulationServiceTest.class.getResourceAsStream(name);
+        assertNotNull(name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}